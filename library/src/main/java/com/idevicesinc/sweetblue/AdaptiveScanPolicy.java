@@ -0,0 +1,211 @@
+package com.idevicesinc.sweetblue;
+
+import com.idevicesinc.sweetblue.annotations.Immutable;
+import com.idevicesinc.sweetblue.utils.Interval;
+
+
+/**
+ * Provide an instance of this to {@link BleManagerConfig#adaptiveScanPolicy} to have SweetBlue tune how hard it scans based on what it's finding.
+ * At the end of every scan window (whenever a scan stops or pauses), SweetBlue looks at how many new devices were discovered, how many known devices were
+ * rediscovered, and how big the batches of scan results were, and comes up with an "activity" level between 0 and 1. High activity means longer scan
+ * windows, shorter pauses, and more {@link BleScanPower}. When nothing new shows up, activity backs off towards the low end, saving battery.
+ * <br><br>
+ * This only applies to scans with a pause in them, meaning periodic scans and "infinite" scans (see {@link BleManagerConfig#infiniteScanInterval}),
+ * and the scan power only applies to {@link BleScanApi#POST_LOLLIPOP} scans. See {@link BleManager#getAdaptiveScanState()} to see what it's doing.
+ */
+public final class AdaptiveScanPolicy
+{
+	/**
+	 * Default is 2 seconds - The scan window used when activity is at 0.
+	 */
+	public Interval minActiveTime						= Interval.secs(2.0);
+
+	/**
+	 * Default is 10 seconds - The scan window used when activity is at 1.
+	 */
+	public Interval maxActiveTime						= Interval.secs(10.0);
+
+	/**
+	 * Default is 1 second - The pause between scans used when activity is at 1.
+	 */
+	public Interval minPauseTime						= Interval.secs(1.0);
+
+	/**
+	 * Default is 30 seconds - The pause between scans used when activity is at 0.
+	 */
+	public Interval maxPauseTime						= Interval.secs(30.0);
+
+	/**
+	 * Default is {@link BleScanPower#LOW_POWER} - The scan power used when activity is at 0.
+	 */
+	public BleScanPower minPower						= BleScanPower.LOW_POWER;
+
+	/**
+	 * Default is {@link BleScanPower#HIGH_POWER} - The scan power used when activity is at 1.
+	 */
+	public BleScanPower maxPower						= BleScanPower.HIGH_POWER;
+
+	/**
+	 * Default is 1.0 - The number of new devices per second of scanning that counts as full activity. A scan window that finds devices
+	 * faster than this jumps straight to an activity of 1.
+	 */
+	public double newDevicesPerSecondForFullActivity	= 1.0;
+
+	/**
+	 * Default is .1 - How much a rediscovery of an already known device counts for, compared to a brand new device. Keep this small, otherwise
+	 * a few chatty devices nearby will keep the scan from ever backing off.
+	 */
+	public double rediscoveryWeight						= .1;
+
+	/**
+	 * Default is .5 - How much of the activity level is kept after a scan window where less was found than the activity level calls for.
+	 * Lower values back off faster.
+	 */
+	public double backOffFactor							= .5;
+
+
+	/**
+	 * What {@link AdaptiveScanPolicy} decided at the end of the last scan window.
+	 */
+	public enum Decision
+	{
+		/**
+		 * No scan window has ended yet, so everything is still at full activity.
+		 */
+		NONE,
+
+		/**
+		 * More was found than the activity level called for, so it went up.
+		 */
+		RAMP_UP,
+
+		/**
+		 * Less was found than the activity level called for, so it went down.
+		 */
+		BACK_OFF,
+
+		/**
+		 * About as much was found as the activity level called for, so nothing changed.
+		 */
+		HOLD;
+	}
+
+
+	/**
+	 * A snapshot of what {@link AdaptiveScanPolicy} measured during the last scan window, and what it decided to do about it.
+	 * Returned from {@link BleManager#getAdaptiveScanState()}.
+	 */
+	@Immutable
+	public static final class State
+	{
+		/**
+		 * The state before any scan window has ended.
+		 */
+		public static final State INITIAL = new State(Decision.NONE, 1.0, 0.0, 0.0, 0.0, false, 0);
+
+		private final Decision m_decision;
+		private final double m_activity;
+		private final double m_newDeviceRate;
+		private final double m_rediscoveryRate;
+		private final double m_meanBatchSize;
+		private final boolean m_overloaded;
+		private final int m_windowCount;
+
+		State(final Decision decision, final double activity, final double newDeviceRate, final double rediscoveryRate, final double meanBatchSize, final boolean overloaded, final int windowCount)
+		{
+			m_decision = decision;
+			m_activity = activity;
+			m_newDeviceRate = newDeviceRate;
+			m_rediscoveryRate = rediscoveryRate;
+			m_meanBatchSize = meanBatchSize;
+			m_overloaded = overloaded;
+			m_windowCount = windowCount;
+		}
+
+		/**
+		 * What was decided at the end of the last scan window.
+		 */
+		public final Decision decision()						{  return m_decision;  }
+
+		/**
+		 * The current activity level, from 0 to 1.
+		 */
+		public final double activity()							{  return m_activity;  }
+
+		/**
+		 * The number of new devices discovered per second of scanning in the last window.
+		 */
+		public final double newDeviceRate()					{  return m_newDeviceRate;  }
+
+		/**
+		 * The number of known devices rediscovered per second of scanning in the last window.
+		 */
+		public final double rediscoveryRate()					{  return m_rediscoveryRate;  }
+
+		/**
+		 * The average number of raw scan results handled each time the update thread went through them in the last window.
+		 */
+		public final double meanBatchSize()					{  return m_meanBatchSize;  }
+
+		/**
+		 * Whether batches were big enough (half of {@link BleManagerConfig#scanBufferSize} or more) that the scan power was held back a step,
+		 * as scanning any harder would only mean more dropped results.
+		 */
+		public final boolean isOverloaded()					{  return m_overloaded;  }
+
+		/**
+		 * The number of scan windows that have ended so far.
+		 */
+		public final int windowCount()							{  return m_windowCount;  }
+
+		/**
+		 * The scan window length this activity level maps to for the given policy.
+		 */
+		public final Interval activeTime(final AdaptiveScanPolicy policy)
+		{
+			return Interval.secs(lerp(Interval.secs(policy.minActiveTime), Interval.secs(policy.maxActiveTime), m_activity));
+		}
+
+		/**
+		 * The pause between scans this activity level maps to for the given policy.
+		 */
+		public final Interval pauseTime(final AdaptiveScanPolicy policy)
+		{
+			return Interval.secs(lerp(Interval.secs(policy.maxPauseTime), Interval.secs(policy.minPauseTime), m_activity));
+		}
+
+		/**
+		 * The scan power this activity level maps to for the given policy.
+		 */
+		public final BleScanPower power(final AdaptiveScanPolicy policy)
+		{
+			final int min = powerIndex(policy.minPower, BleScanPower.LOW_POWER);
+			final int max = Math.max(min, powerIndex(policy.maxPower, BleScanPower.HIGH_POWER));
+
+			int index = min + (int) Math.round(m_activity * (max - min));
+
+			if( m_overloaded && index > min )
+			{
+				index--;
+			}
+
+			return BleScanPower.values()[index];
+		}
+
+		@Override public final String toString()
+		{
+			return "AdaptiveScanPolicy.State{decision=" + m_decision + ", activity=" + m_activity + ", newDeviceRate=" + m_newDeviceRate + ", rediscoveryRate=" + m_rediscoveryRate +
+					", meanBatchSize=" + m_meanBatchSize + ", overloaded=" + m_overloaded + ", windowCount=" + m_windowCount + "}";
+		}
+
+		private static int powerIndex(final BleScanPower power_nullable, final BleScanPower defaultPower)
+		{
+			return power_nullable == null || power_nullable == BleScanPower.AUTO ? defaultPower.ordinal() : power_nullable.ordinal();
+		}
+
+		private static double lerp(final double from, final double to, final double amount)
+		{
+			return from + (to - from) * amount;
+		}
+	}
+}
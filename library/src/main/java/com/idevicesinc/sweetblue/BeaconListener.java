@@ -0,0 +1,82 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.annotations.Immutable;
+import com.idevicesinc.sweetblue.utils.Beacon;
+import com.idevicesinc.sweetblue.utils.Event;
+import com.idevicesinc.sweetblue.utils.GenericListener_Void;
+import com.idevicesinc.sweetblue.utils.Utils_String;
+
+/**
+ * Provide an implementation to {@link BleManager#setListener_Beacon(BeaconListener)} to receive every beacon frame picked up while scanning.
+ * Beacons are decoded straight from the raw scan record, before any {@link BleManagerConfig.ScanFilter} is called, and unless
+ * {@link BleManagerConfig#createDevicesForBeacons} is <code>true</code>, no {@link BleDevice} is ever created for them. This makes it
+ * possible to keep track of thousands of beacons at once.
+ */
+@com.idevicesinc.sweetblue.annotations.Lambda
+public interface BeaconListener extends GenericListener_Void<BeaconListener.BeaconEvent>
+{
+
+    /**
+     * Struct passed to {@link BeaconListener#onEvent(BeaconEvent)}.
+     */
+    @Immutable
+    class BeaconEvent extends Event
+    {
+        /**
+         * The {@link BleManager} which is currently {@link BleManagerState#SCANNING}.
+         */
+        public BleManager manager(){  return m_manager;  }
+        private final BleManager m_manager;
+
+        /**
+         * The mac address the beacon frame came from. Note that many beacons change their mac address every so often.
+         */
+        public String macAddress(){  return m_macAddress;  }
+        private final String m_macAddress;
+
+        /**
+         * The signal strength the beacon frame was received with.
+         */
+        public int rssi(){  return m_rssi;  }
+        private final int m_rssi;
+
+        /**
+         * The decoded beacon frame. Check {@link Beacon#getType()} to know which subclass it is.
+         */
+        public Beacon beacon(){  return m_beacon;  }
+        private final Beacon m_beacon;
+
+        BeaconEvent(final BleManager manager, final String macAddress, final int rssi, final Beacon beacon)
+        {
+            m_manager = manager;
+            m_macAddress = macAddress;
+            m_rssi = rssi;
+            m_beacon = beacon;
+        }
+
+        /**
+         * Convenience method for checking the type of {@link #beacon()}.
+         */
+        public boolean is(final Beacon.Type type)
+        {
+            return m_beacon.getType() == type;
+        }
+
+        @Override public String toString()
+        {
+            return Utils_String.toString
+            (
+                this.getClass(),
+                "macAddress", macAddress(),
+                "rssi", rssi(),
+                "beacon", beacon()
+            );
+        }
+    }
+
+    /**
+     * Called for every beacon frame found while scanning.
+     */
+    void onEvent(final BeaconEvent e);
+}
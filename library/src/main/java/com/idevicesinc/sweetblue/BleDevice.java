@@ -39,6 +39,7 @@ import com.idevicesinc.sweetblue.utils.HistoricalDataCursor;
 import com.idevicesinc.sweetblue.utils.Interval;
 import com.idevicesinc.sweetblue.utils.P_Const;
 import com.idevicesinc.sweetblue.utils.Percent;
+import com.idevicesinc.sweetblue.utils.RssiStats;
 import com.idevicesinc.sweetblue.utils.PresentData;
 import com.idevicesinc.sweetblue.utils.State;
 import com.idevicesinc.sweetblue.utils.State.ChangeIntent;
@@ -60,6 +61,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
 import static com.idevicesinc.sweetblue.BleDeviceState.ADVERTISING;
 import static com.idevicesinc.sweetblue.BleDeviceState.AUTHENTICATED;
@@ -1874,6 +1876,8 @@ public final class BleDevice extends BleNode
 
     private double m_timeSinceLastDiscovery;
     private EpochTime m_lastDiscoveryTime = EpochTime.NULL;
+    // Only used when BleManagerConfig.useDeadlineDrivenUpdates is on, as then this device isn't updated every tick.
+    private long m_lastUpdateTime;
 
     final P_BleDevice_Listeners m_listeners;
     private final P_DeviceStateTracker m_stateTracker;
@@ -1889,6 +1893,8 @@ public final class BleDevice extends BleNode
     private final P_Task_Disconnect m_dummyDisconnectTask;
     private final P_HistoricalDataManager m_historicalDataMngr;
     final P_BondManager m_bondMngr;
+    final P_ServiceLayoutManager m_serviceLayoutMngr;
+    final P_DirectNotificationManager m_directNotifyMngr;
 
     private com.idevicesinc.sweetblue.ReadWriteListener m_defaultReadWriteListener = null;
     private NotificationListener m_defaultNotificationListener = null;
@@ -1904,11 +1910,14 @@ public final class BleDevice extends BleNode
     private BleConnectionPriority m_connectionPriority = BleConnectionPriority.MEDIUM;
     private int m_mtu = 0;
     private int m_rssi = 0;
+    private RssiStats m_rssiStats = RssiStats.NULL;
     private int m_advertisingFlags = 0x0;
     private Integer m_knownTxPower = null;
     private byte[] m_scanRecord = P_Const.EMPTY_BYTE_ARRAY;
 
     private BleScanInfo m_scanInfo = new BleScanInfo();
+    // Whether m_scanInfo was fully parsed from m_scanRecord, rather than only partly filled in from a ScanFilter.ScanEvent.
+    private boolean m_scanInfoParsedFromRecord = false;
 
     private boolean m_useAutoConnect = false;
     private boolean m_alwaysUseAutoConnect = false;
@@ -1951,6 +1960,8 @@ public final class BleDevice extends BleNode
             m_stateTracker = new P_DeviceStateTracker(this, /*forShortTermReconnect=*/false);
             m_stateTracker_shortTermReconnect = null;
             m_bondMngr = new P_BondManager(this);
+            m_serviceLayoutMngr = new P_ServiceLayoutManager(this);
+            m_directNotifyMngr = new P_DirectNotificationManager(this);
             m_pollMngr = new P_PollManager(this);
             m_txnMngr = new P_TransactionManager(this);
             m_taskStateListener = null;
@@ -1973,6 +1984,8 @@ public final class BleDevice extends BleNode
             m_stateTracker = new P_DeviceStateTracker(this, /*forShortTermReconnect=*/false);
             m_stateTracker_shortTermReconnect = new P_DeviceStateTracker(this, /*forShortTermReconnect=*/true);
             m_bondMngr = new P_BondManager(this);
+            m_serviceLayoutMngr = new P_ServiceLayoutManager(this);
+            m_directNotifyMngr = new P_DirectNotificationManager(this);
             m_pollMngr = new P_PollManager(this);
             m_txnMngr = new P_TransactionManager(this);
             m_taskStateListener = m_listeners.m_taskStateListener;
@@ -2090,6 +2103,7 @@ public final class BleDevice extends BleNode
         // clear_common();
 
         m_lastDiscoveryTime = EpochTime.NULL;
+        m_rssiStats = RssiStats.NULL;
     }
 
     /**
@@ -2132,6 +2146,12 @@ public final class BleDevice extends BleNode
         {
             m_rssiPollMngr_auto.stop();
         }
+
+        //--- Same as in onTimedWorkChanging(), the constructor calls this before the device can have been added to the manager.
+        if (m_nativeWrapper != null)
+        {
+            getManager().m_deviceMngr.onUndiscoveryConfigChanged(this);
+        }
     }
 
     private void initEstimators()
@@ -2438,6 +2458,16 @@ public final class BleDevice extends BleNode
         return m_rssi;
     }
 
+    /**
+     * Returns the RSSI stats for all the advertisements received from this device the last time it was discovered or rediscovered,
+     * or {@link RssiStats#NULL} if {@link BleManagerConfig#aggregateScanResults} is <code>false</code>.
+     */
+    @Advanced
+    public final @Nullable(Prevalence.NEVER) RssiStats getRssiStats()
+    {
+        return m_rssiStats;
+    }
+
     /**
      * Raw RSSI from {@link #getRssi()} is a little cryptic, so this gives you a friendly 0%-100% value for signal strength.
      */
@@ -5356,6 +5386,101 @@ public final class BleDevice extends BleNode
 
 
 
+    /**
+     * Enables notification on the given characteristic, with every notification going straight to the given {@link DirectNotificationListener}
+     * on the given {@link Executor}, skipping the update thread and event objects that {@link #enableNotify(UUID, ReadWriteListener)} goes through.
+     * Use this for high-rate streams where the per-notification overhead of the regular path adds up. See {@link DirectNotificationListener}
+     * for exactly which thread callbacks come in on.
+     * <br><br>
+     * Call this again to replace the listener or {@link Executor}, or {@link #disableNotify(UUID, UUID)} to stop.
+     *
+     * @param executor_nullable Where {@link DirectNotificationListener#onNotification(BleDevice, UUID, UUID, byte[])} gets called. If <code>null</code>,
+     *                          it's called directly on the native callback thread.
+     *
+     * @return (same as {@link #enableNotify(UUID, ReadWriteListener)}).
+     */
+    public final ReadWriteListener.ReadWriteEvent enableNotify_direct(final UUID serviceUuid, final UUID characteristicUuid, final DirectNotificationListener listener, @Nullable(Prevalence.NORMAL) final Executor executor_nullable)
+    {
+        m_directNotifyMngr.add(serviceUuid, characteristicUuid, listener, executor_nullable);
+
+        return enableNotify_subscribed(serviceUuid, characteristicUuid);
+    }
+
+    /**
+     * Overload of {@link #enableNotify_direct(UUID, UUID, DirectNotificationListener, Executor)} for when there's only one characteristic
+     * with the given {@link UUID}, and it's fine to be called on the native callback thread.
+     */
+    public final ReadWriteListener.ReadWriteEvent enableNotify_direct(final UUID characteristicUuid, final DirectNotificationListener listener)
+    {
+        return enableNotify_direct(null, characteristicUuid, listener, null);
+    }
+
+    /**
+     * Same as {@link #enableNotify_direct(UUID, UUID, DirectNotificationListener, Executor)}, except that each payload comes in a {@link PooledPayload}
+     * whose buffer gets reused after {@link PooledPayload#release()} is called, so that streaming notifications doesn't create a new array
+     * for every one once things get going.
+     *
+     * @return (same as {@link #enableNotify(UUID, ReadWriteListener)}).
+     */
+    public final ReadWriteListener.ReadWriteEvent enableNotify_pooled(final UUID serviceUuid, final UUID characteristicUuid, final PooledNotificationListener listener, @Nullable(Prevalence.NORMAL) final Executor executor_nullable)
+    {
+        m_directNotifyMngr.add(serviceUuid, characteristicUuid, listener, executor_nullable);
+
+        return enableNotify_subscribed(serviceUuid, characteristicUuid);
+    }
+
+    /**
+     * Overload of {@link #enableNotify_pooled(UUID, UUID, PooledNotificationListener, Executor)} for when there's only one characteristic
+     * with the given {@link UUID}, and it's fine to be called on the native callback thread.
+     */
+    public final ReadWriteListener.ReadWriteEvent enableNotify_pooled(final UUID characteristicUuid, final PooledNotificationListener listener)
+    {
+        return enableNotify_pooled(null, characteristicUuid, listener, null);
+    }
+
+    /**
+     * Enables notification on the given characteristic, with notifications collected into {@link NotificationBatchListener.NotificationBatch}
+     * instances instead of being sent one at a time. A batch goes out once it holds <code>maxCount</code> notifications, or once its first
+     * notification is <code>maxDelay</code> old, whichever comes first. If neither is set, a batch goes out every update tick
+     * (see {@link BleManagerConfig#autoUpdateRate}) that has something in it.
+     * <br><br>
+     * Just like {@link #enableNotify_direct(UUID, UUID, DirectNotificationListener, Executor)}, notifications for this characteristic don't go to
+     * any {@link ReadWriteListener} or {@link NotificationListener}. Call this again to change how batches are made, or
+     * {@link #disableNotify(UUID, UUID)} to stop, which sends out whatever is left in the current batch.
+     *
+     * @param maxCount  The most notifications in a batch, or zero for no limit.
+     * @param maxDelay  The longest the first notification in a batch waits before being sent, or {@link Interval#DISABLED} for no limit.
+     *
+     * @return (same as {@link #enableNotify(UUID, ReadWriteListener)}).
+     */
+    public final ReadWriteListener.ReadWriteEvent enableNotify_batched(final UUID serviceUuid, final UUID characteristicUuid, final int maxCount, final Interval maxDelay, final NotificationBatchListener listener)
+    {
+        m_directNotifyMngr.add(serviceUuid, characteristicUuid, listener, maxCount, maxDelay);
+
+        return enableNotify_subscribed(serviceUuid, characteristicUuid);
+    }
+
+    /**
+     * Overload of {@link #enableNotify_batched(UUID, UUID, int, Interval, NotificationBatchListener)} for when there's only one characteristic
+     * with the given {@link UUID}, that sends out a batch every update tick.
+     */
+    public final ReadWriteListener.ReadWriteEvent enableNotify_batched(final UUID characteristicUuid, final NotificationBatchListener listener)
+    {
+        return enableNotify_batched(null, characteristicUuid, 0, Interval.DISABLED, listener);
+    }
+
+    private ReadWriteListener.ReadWriteEvent enableNotify_subscribed(final UUID serviceUuid, final UUID characteristicUuid)
+    {
+        final ReadWriteEvent result = enableNotify(serviceUuid, characteristicUuid, Interval.INFINITE, null, null);
+
+        if (!result.isNull() && !result.wasSuccess())
+        {
+            m_directNotifyMngr.remove(serviceUuid, characteristicUuid);
+        }
+
+        return result;
+    }
+
     /**
      * Disables all notifications enabled by {@link #enableNotify(UUID, ReadWriteListener)} or
      * {@link #enableNotify(UUID, Interval, ReadWriteListener)}. The listener
@@ -5688,7 +5813,7 @@ public final class BleDevice extends BleNode
 
         m_nativeWrapper.updateNativeDeviceOnly(device_native);
 
-        onDiscovered_private(scanEvent_nullable, rssi, scanRecord_nullable);
+        onDiscovered_private(scanEvent_nullable, rssi, scanRecord_nullable, false);
 
         stateTracker_main().update(E_Intent.UNINTENTIONAL, BleStatuses.GATT_STATUS_NOT_APPLICABLE, m_bondMngr.getNativeBondingStateOverrides(), UNDISCOVERED, false, DISCOVERED, true, ADVERTISING, origin == BleDeviceOrigin.FROM_DISCOVERY, DISCONNECTED, true);
     }
@@ -5697,9 +5822,42 @@ public final class BleDevice extends BleNode
     {
         m_origin_latest = origin;
 
-        m_nativeWrapper.updateNativeDevice(device_native, scanRecord_nullable, Arrays.equals(m_scanRecord, scanRecord_nullable));
+        final boolean sameScanRecord = Arrays.equals(m_scanRecord, scanRecord_nullable);
 
-        onDiscovered_private(scanEvent_nullable, rssi, scanRecord_nullable);
+        m_nativeWrapper.updateNativeDevice(device_native, scanRecord_nullable, sameScanRecord);
+
+        onDiscovered_private(scanEvent_nullable, rssi, scanRecord_nullable, sameScanRecord);
+
+        stateTracker_main().update(PA_StateTracker.E_Intent.UNINTENTIONAL, BleStatuses.GATT_STATUS_NOT_APPLICABLE, m_bondMngr.getNativeBondingStateOverrides(), ADVERTISING, true);
+    }
+
+    /**
+     * Returns <code>true</code> if the given scan record is exactly the same as the last one this device was discovered with.
+     */
+    final boolean isSameScanRecord(final byte[] scanRecord_nullable)
+    {
+        return Arrays.equals(m_scanRecord, scanRecord_nullable);
+    }
+
+    /**
+     * Returns <code>false</code> if {@link #getScanInfo()} was only partly filled in from a {@link BleManagerConfig.ScanFilter.ScanEvent},
+     * in which case the scan record still needs to be fully parsed, even if it hasn't changed.
+     */
+    final boolean isScanInfoParsedFromRecord()
+    {
+        return m_scanInfoParsedFromRecord;
+    }
+
+    /**
+     * Lighter version of {@link #onRediscovered(P_NativeDeviceLayer, BleManagerConfig.ScanFilter.ScanEvent, int, byte[], BleDeviceOrigin)} used
+     * when {@link BleManagerConfig#ignoreUnchangedAdvertisements} is on and the scan record hasn't changed, so there's nothing to re-parse.
+     */
+    final void onRediscovered_sameAdvertisement(final int rssi)
+    {
+        m_origin_latest = BleDeviceOrigin.FROM_DISCOVERY;
+        m_lastDiscoveryTime = EpochTime.now();
+        m_timeSinceLastDiscovery = -getPendingUpdateTime();
+        updateRssi(rssi);
 
         stateTracker_main().update(PA_StateTracker.E_Intent.UNINTENTIONAL, BleStatuses.GATT_STATUS_NOT_APPLICABLE, m_bondMngr.getNativeBondingStateOverrides(), ADVERTISING, true);
     }
@@ -5724,13 +5882,27 @@ public final class BleDevice extends BleNode
 
     final double getTimeSinceLastDiscovery()
     {
-        return m_timeSinceLastDiscovery;
+        return m_timeSinceLastDiscovery + getPendingUpdateTime();
+    }
+
+    /**
+     * Returns the amount of time that has passed since this device was last updated, which hasn't been applied yet. This is always
+     * zero, unless {@link BleManagerConfig#useDeadlineDrivenUpdates} is on.
+     */
+    private double getPendingUpdateTime()
+    {
+        if (m_lastUpdateTime == 0)
+        {
+            return 0.0;
+        }
+
+        return Math.max(0, System.currentTimeMillis() - m_lastUpdateTime) / 1000.0;
     }
 
-    private void onDiscovered_private(final BleManagerConfig.ScanFilter.ScanEvent scanEvent_nullable, final int rssi, byte[] scanRecord_nullable)
+    private void onDiscovered_private(final BleManagerConfig.ScanFilter.ScanEvent scanEvent_nullable, final int rssi, byte[] scanRecord_nullable, final boolean sameScanRecord)
     {
         m_lastDiscoveryTime = EpochTime.now();
-        m_timeSinceLastDiscovery = 0.0;
+        m_timeSinceLastDiscovery = -getPendingUpdateTime();
         updateRssi(rssi);
 
         if (scanEvent_nullable != null)
@@ -5749,12 +5921,16 @@ public final class BleDevice extends BleNode
 
             m_scanInfo.clearServiceData();
             m_scanInfo.addServiceData(scanEvent_nullable.serviceData());
+
+            m_scanInfoParsedFromRecord = false;
         }
-        else if (scanRecord_nullable != null)
+        //--- An unchanged record only gets to skip parsing if it was fully parsed last time. A ScanEvent only fills in part of m_scanInfo.
+        else if (scanRecord_nullable != null && !(sameScanRecord && m_scanInfoParsedFromRecord))
         {
             m_scanRecord = scanRecord_nullable;
 
             m_scanInfo = Utils_ScanRecord.parseScanRecord(scanRecord_nullable);
+            m_scanInfoParsedFromRecord = true;
 
             updateKnownTxPower(m_scanInfo.getTxPower().value);
         }
@@ -5770,7 +5946,19 @@ public final class BleDevice extends BleNode
 
     final void updateRssi(final int rssi)
     {
+        if (m_rssi == rssi)  return;
+
         m_rssi = rssi;
+
+        if (!isNull())
+        {
+            getManager().onDeviceSortKeyChange(this);
+        }
+    }
+
+    final void updateRssiStats(final RssiStats rssiStats)
+    {
+        m_rssiStats = rssiStats;
     }
 
     final void onMtuChanged()
@@ -5859,6 +6047,74 @@ public final class BleDevice extends BleNode
         m_reconnectMngr_longTerm.update(timeStep);
         m_reconnectMngr_shortTerm.update(timeStep);
         m_rssiPollMngr.update(timeStep);
+        m_directNotifyMngr.update();
+    }
+
+    /**
+     * Used instead of {@link #update(double)} when {@link BleManagerConfig#useDeadlineDrivenUpdates} is on. Updates this device with all the
+     * time that has passed since it was last updated.
+     */
+    final void update_deadlineDriven(final long currentTime)
+    {
+        final double timeStep = m_lastUpdateTime == 0 ? 0.0 : (currentTime - m_lastUpdateTime) / 1000.0;
+
+        //--- Set this first, in case something in the update ends up back here.
+        m_lastUpdateTime = currentTime;
+
+        if (timeStep > 0.0)
+        {
+            update(timeStep);
+        }
+    }
+
+    final void setLastUpdateTime(final long currentTime)
+    {
+        m_lastUpdateTime = currentTime;
+    }
+
+    /**
+     * Applies the time that's passed since this device was last updated, if it's sitting out of the regular updates. Does nothing if it's
+     * being updated every tick, or hasn't been added to the manager yet.
+     */
+    final void applyPendingUpdateTime(final long currentTime)
+    {
+        if (m_lastUpdateTime != 0)
+        {
+            update_deadlineDriven(currentTime);
+        }
+    }
+
+    /**
+     * Returns how long until this device has something to do in {@link #update(double)}, or {@link Interval#INFINITE} (in seconds) if
+     * there's nothing time-based going on.
+     */
+    final double getTimeUntilNextUpdate()
+    {
+        double soonest = m_pollMngr.getTimeUntilNextUpdate();
+
+        soonest = Math.min(soonest, m_txnMngr.getTimeUntilNextUpdate());
+        soonest = Math.min(soonest, m_reconnectMngr_longTerm.getTimeUntilNextUpdate());
+        soonest = Math.min(soonest, m_reconnectMngr_shortTerm.getTimeUntilNextUpdate());
+        soonest = Math.min(soonest, m_rssiPollMngr.getTimeUntilNextUpdate());
+        soonest = Math.min(soonest, m_directNotifyMngr.getTimeUntilNextUpdate());
+
+        return soonest;
+    }
+
+    /**
+     * Called by the various time-based managers right before they start something new, so that when updates are deadline driven, this
+     * device can be brought up to date beforehand, and then have its deadline recalculated.
+     */
+    final void onTimedWorkChanging()
+    {
+        //--- The constructor's call to setConfig() can end up here before m_nativeWrapper is set. The device can't have been added
+        //---		to the manager yet in that case, so there's no deadline to update anyway.
+        if (isNull() || m_nativeWrapper == null)
+        {
+            return;
+        }
+
+        getManager().m_deviceMngr.onTimedWorkChanging(this);
     }
 
     final void bond_justAddTheTask(E_TransactionLockBehavior lockBehavior, boolean isDirect)
@@ -6130,7 +6386,7 @@ public final class BleDevice extends BleNode
         }
     }
 
-    private void getServices(Object... extraFlags)
+    final void getServices(Object... extraFlags)
     {
         if (!m_nativeWrapper.isNativelyConnected())
         {
@@ -6142,7 +6398,13 @@ public final class BleDevice extends BleNode
         gattRefresh = gattRefresh && option == BleDeviceConfig.RefreshOption.BEFORE_SERVICE_DISCOVERY;
         Interval delay = BleDeviceConfig.interval(conf_device().gattRefreshDelay, conf_mngr().gattRefreshDelay);
         boolean useDelay = gattRefresh;
-        if (!gattRefresh)
+        if (m_serviceLayoutMngr.onDiscoveryStarting())
+        {
+            // A layout was saved last time, so let the OS answer from its own cache. The layout gets checked once discovery is done.
+            gattRefresh = false;
+            useDelay = false;
+        }
+        else if (!gattRefresh)
         {
             Interval serviceDelay = BleDeviceConfig.interval(conf_device().serviceDiscoveryDelay, conf_mngr().serviceDiscoveryDelay);
             if (Interval.isEnabled(serviceDelay))
@@ -6231,6 +6493,11 @@ public final class BleDevice extends BleNode
 
     final void onServicesDiscovered()
     {
+        if (!m_serviceLayoutMngr.checkLayout())
+        {
+            return;
+        }
+
         boolean autoNegotiateMtu = BleDeviceConfig.bool(conf_device().autoNegotiateMtuOnReconnect, conf_mngr().autoNegotiateMtuOnReconnect);
         if (autoNegotiateMtu && m_mtu > BleNodeConfig.DEFAULT_MTU_SIZE)
         {
@@ -6274,7 +6541,7 @@ public final class BleDevice extends BleNode
     {
         //--- DRK > Device probably wasn't advertising while connected so here we reset the timer to keep
         //--- it from being immediately undiscovered after disconnection.
-        m_timeSinceLastDiscovery = 0.0;
+        m_timeSinceLastDiscovery = -getPendingUpdateTime();
 
         m_txnMngr.clearQueueLock();
 
@@ -6491,6 +6758,8 @@ public final class BleDevice extends BleNode
             logger().w("Disconnected Implicitly and attemptShortTermReconnect=" + attemptShortTermReconnect);
         }
 
+        serviceMngr_device().clearAttributeIndex();
+
         m_lastDisconnectWasBecauseOfBleTurnOff = getManager().isAny(BleManagerState.TURNING_OFF, BleManagerState.OFF);
         m_lastConnectOrDisconnectWasUserExplicit = wasExplicit;
 
@@ -6821,6 +7090,7 @@ public final class BleDevice extends BleNode
 
     private ReadWriteListener.ReadWriteEvent disableNotify_private(UUID serviceUuid, UUID characteristicUuid, Double forceReadTimeout, DescriptorFilter descriptorFilter, ReadWriteListener listener)
     {
+        m_directNotifyMngr.remove(serviceUuid, characteristicUuid);
 
         final ReadWriteEvent earlyOutResult = serviceMngr_device().getEarlyOutEvent(serviceUuid, characteristicUuid, Uuids.INVALID, descriptorFilter, P_Const.EMPTY_FUTURE_DATA, Type.DISABLING_NOTIFICATION, ReadWriteListener.Target.CHARACTERISTIC);
 
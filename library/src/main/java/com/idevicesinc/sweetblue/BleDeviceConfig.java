@@ -311,6 +311,31 @@ public class BleDeviceConfig extends BleNodeConfig implements Cloneable
 	 */
 	public RefreshOption gattRefreshOption						= RefreshOption.BEFORE_SERVICE_DISCOVERY;
 
+	/**
+	 * Default is <code>false</code> - If set to <code>true</code>, the layout of services, characteristics, and descriptors discovered for a device
+	 * is saved to disk, keyed by its mac address. When reconnecting to a device with a saved layout, {@link #useGattRefresh} and
+	 * {@link #serviceDiscoveryDelay} are skipped, so that service discovery can be answered from the OS's own cache instead of going over the air,
+	 * which can take anywhere from a few hundred milliseconds to several seconds. The discovered layout is then checked against the saved one
+	 * (along with {@link #serviceLayoutVersionUuid}, if set), and if anything doesn't match, or discovery fails, the saved layout is thrown out and
+	 * a full discovery is done like normal.
+	 * <br><br>
+	 * Android doesn't allow using a gatt database that wasn't discovered, so discovery itself still happens, this just skips the parts that
+	 * force it to start from scratch.
+	 */
+	@com.idevicesinc.sweetblue.annotations.Advanced
+	@Nullable(Prevalence.NORMAL)
+	public Boolean cacheServiceLayout							= false;
+
+	/**
+	 * Default is <code>null</code> - This only applies if {@link #cacheServiceLayout} is <code>true</code>. If set, and the device has a characteristic
+	 * with this {@link UUID}, it's read right after services are discovered, and its value has to match the one saved with the layout for the layout
+	 * to be considered the same. This catches layout changes that the OS's cache might not know about yet. {@link Uuids#DATABASE_HASH} is a good choice
+	 * for devices that support it, otherwise something like {@link Uuids#FIRMWARE_REVISION} works too.
+	 */
+	@com.idevicesinc.sweetblue.annotations.Advanced
+	@Nullable(Prevalence.NORMAL)
+	public UUID serviceLayoutVersionUuid						= null;
+
 
 	/**
 	 * Default is <code>null</code> - whether SweetBlue should retry a connect <i>after</i> successfully connecting via
@@ -2,6 +2,8 @@ package com.idevicesinc.sweetblue;
 
 import static com.idevicesinc.sweetblue.BleManagerState.*;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -46,6 +48,7 @@ import com.idevicesinc.sweetblue.annotations.Immutable;
 import com.idevicesinc.sweetblue.annotations.Nullable.Prevalence;
 import com.idevicesinc.sweetblue.backend.historical.Backend_HistoricalDatabase;
 import com.idevicesinc.sweetblue.compat.M_Util;
+import com.idevicesinc.sweetblue.utils.Beacon;
 import com.idevicesinc.sweetblue.utils.EpochTime;
 import com.idevicesinc.sweetblue.utils.Event;
 import com.idevicesinc.sweetblue.utils.ForEach_Breakable;
@@ -55,6 +58,9 @@ import com.idevicesinc.sweetblue.utils.GenericListener_Void;
 import com.idevicesinc.sweetblue.utils.HistoricalData;
 import com.idevicesinc.sweetblue.utils.Interval;
 import com.idevicesinc.sweetblue.utils.Percent;
+import com.idevicesinc.sweetblue.utils.RssiStats;
+import com.idevicesinc.sweetblue.utils.ScanCapture;
+import com.idevicesinc.sweetblue.utils.ScanRecordCursor;
 import com.idevicesinc.sweetblue.utils.State;
 import com.idevicesinc.sweetblue.utils.Utils;
 import com.idevicesinc.sweetblue.utils.Utils_ScanRecord;
@@ -174,6 +180,12 @@ public final class BleManager
 			 */
 			REDISCOVERED,
 
+			/**
+			 * Used instead of {@link #REDISCOVERED} when {@link BleManagerConfig#ignoreUnchangedAdvertisements} is <code>true</code>,
+			 * and an already discovered device starts advertising a different scan record (see {@link BleDevice#getScanRecord()}).
+			 */
+			ADVERTISEMENT_CHANGED,
+
 			/**
 			 * Used when a device is "undiscovered" after being discovered at least once. There is no native equivalent
 			 * for this callback. Undiscovery is approximated with a timeout based on the last time we discovered a device, configured
@@ -237,6 +249,14 @@ public final class BleManager
 				return device().getRssiPercent();
 			}
 
+			/**
+			 * Forwards {@link BleDevice#getRssiStats()}.
+			 */
+			public RssiStats rssiStats()
+			{
+				return device().getRssiStats();
+			}
+
 			/**
 			 * Convenience method for checking equality of given {@link BleManager.DiscoveryListener.LifeCycle} and {@link #lifeCycle()}.
 			 */
@@ -461,6 +481,13 @@ public final class BleManager
 			 */
 			CONCURRENT_EXCEPTION,
 
+			/**
+			 * Scan results are coming in faster than they can be processed, so they've started to pile up. See {@link BleManagerConfig#scanOverloadThreshold}
+			 * and {@link BleManager#isScanOverloaded()}. Tightening up {@link BleManagerConfig#nativeScanFilters} or lowering {@link BleManagerConfig#scanPower}
+			 * should help.
+			 */
+			SCAN_OVERLOADED,
+
 			/**
 			 * {@link android.bluetooth.BluetoothAdapter#startLeScan(BluetoothAdapter.LeScanCallback)} failed and {@link BleManagerConfig#revertToClassicDiscoveryIfNeeded} is <code>false</code>.
 			 *
@@ -769,10 +796,14 @@ public final class BleManager
 	}
 
 	private final static long UPDATE_LOOP_WARNING_DELAY = 10000;
+	//--- Upper limit on how long the update loop sleeps for when idling with deadline driven updates, just as a safety net.
+	private final static long MAX_DEADLINE_UPDATE_DELAY = 60000;
 
 	private final Context m_context;
 	private UpdateRunnable m_updateRunnable;
 	private final P_ScanFilterManager m_filterMngr;
+	//--- Only used from onDiscoveredFromNativeStack(), which is synchronized.
+	private final ScanRecordCursor m_beaconCursor = new ScanRecordCursor();
 	final P_BluetoothCrashResolver m_crashResolver;
 	private			P_Logger m_logger;
 			  BleManagerConfig m_config;
@@ -789,6 +820,7 @@ public final class BleManager
 
 			BleDevice.HistoricalDataLoadListener m_historicalDataLoadListener;
 			DiscoveryListener m_discoveryListener;
+			BeaconListener m_beaconListener;
 	private P_WrappingResetListener m_resetListeners;
 	private AssertListener m_assertionListener;
 			DeviceStateListener m_defaultDeviceStateListener;
@@ -891,6 +923,11 @@ public final class BleManager
 		m_config = config_nullable != null ? config_nullable.clone() : new BleManagerConfig();
 		initLogger(this);
 		initConfigDependentMembers();
+
+		if( m_deviceMngr != null )
+		{
+			m_deviceMngr.onUndiscoveryConfigChanged(null);
+		}
 	}
 
 	public final BleManagerConfig getConfigClone()
@@ -977,6 +1014,11 @@ public final class BleManager
 			this.setListener_Discovery(m_config.defaultDiscoveryListener);
 		}
 
+		if( m_config.defaultBeaconListener != null )
+		{
+			this.setListener_Beacon(m_config.defaultBeaconListener);
+		}
+
 		initPostManager();
 
 		if( startUpdate )
@@ -1212,6 +1254,23 @@ public final class BleManager
 		return m_discoveryListener;
 	}
 
+	/**
+	 * Set a listener here to be notified of every beacon frame picked up while scanning. See {@link BeaconListener} for details.
+	 */
+	public final void setListener_Beacon(@Nullable(Prevalence.NORMAL) BeaconListener listener_nullable)
+	{
+		m_beaconListener = listener_nullable;
+	}
+
+	/**
+	 * Returns the beacon listener set with {@link #setListener_Beacon(BeaconListener)} or
+	 * {@link BleManagerConfig#defaultBeaconListener}, or <code>null</code> if not set.
+	 */
+	public final BeaconListener getListener_Beacon()
+	{
+		return m_beaconListener;
+	}
+
 	/**
 	 * Set a listener here to be notified whenever this manager's {@link BleManagerState} changes.
 	 *
@@ -1703,6 +1762,8 @@ public final class BleManager
 				setListener_Discovery(options.m_discoveryListener);
 			}
 
+			m_scanManager.setNativeScanFilters(options.m_nativeScanFilters);
+
 
 			if (options.m_scanFilter != null)
 			{
@@ -1729,7 +1790,9 @@ public final class BleManager
 
 			if (startScan)
 			{
-				m_taskQueue.add(new P_Task_Scan(this, m_listeners.getScanTaskListener(), options.m_scanTime.secs(), options.m_isPeriodic, pri));
+				final Interval scanTime = options.m_isPeriodic ? m_scanManager.getPeriodicActiveTime(options.m_scanTime) : options.m_scanTime;
+
+				m_taskQueue.add(new P_Task_Scan(this, m_listeners.getScanTaskListener(), scanTime.secs(), options.m_isPeriodic, pri));
 			}
 		}
 
@@ -2055,6 +2118,119 @@ public final class BleManager
 		return isAny(SCANNING, SCANNING_PAUSED, BOOST_SCANNING, STARTING_SCAN);
 	}
 
+	/**
+	 * Returns the total number of scan results from the native stack that were thrown away because they came in faster than they could be processed.
+	 * See {@link BleManagerConfig#scanBufferSize} and {@link BleManagerConfig#scanOverflowPolicy}.
+	 */
+	@Advanced
+	public final long getDroppedScanResultCount()
+	{
+		return m_scanManager.getDroppedScanResultCount();
+	}
+
+	/**
+	 * Returns the total number of scan results from the native stack that replaced an older result from the same device which was still waiting to be
+	 * processed. This only happens when using {@link BleScanOverflowPolicy#COALESCE_BY_ADDRESS}.
+	 */
+	@Advanced
+	public final long getCoalescedScanResultCount()
+	{
+		return m_scanManager.getCoalescedScanResultCount();
+	}
+
+	/**
+	 * Returns how many scan results from the native stack are currently waiting to be processed by the update loop.
+	 * See {@link BleManagerConfig#scanBufferSize} and {@link BleManagerConfig#scanDrainBudget}.
+	 */
+	@Advanced
+	public final int getScanQueueDepth()
+	{
+		return m_scanManager.getQueueDepth();
+	}
+
+	/**
+	 * Returns how long the oldest scan result still waiting to be processed has been waiting, or {@link Interval#ZERO} if nothing is waiting.
+	 */
+	@Advanced
+	public final Interval getOldestScanResultAge()
+	{
+		return m_scanManager.getOldestEntryAge(System.currentTimeMillis());
+	}
+
+	/**
+	 * Returns <code>true</code> if scan results have been piling up faster than they can be processed. See {@link BleManagerConfig#scanOverloadThreshold}.
+	 */
+	@Advanced
+	public final boolean isScanOverloaded()
+	{
+		return m_scanManager.isOverloaded();
+	}
+
+	/**
+	 * Returns what {@link BleManagerConfig#adaptiveScanPolicy} measured during the last scan window and what it decided to do about it, which is
+	 * handy for tuning the policy. Returns {@link AdaptiveScanPolicy.State#INITIAL} if no scan window has ended yet while a policy was set.
+	 */
+	@Advanced
+	public final @Nullable(Prevalence.NEVER) AdaptiveScanPolicy.State getAdaptiveScanState()
+	{
+		return m_scanManager.getAdaptiveScanState();
+	}
+
+	/**
+	 * Starts recording every raw scan result the native stack hands to SweetBlue into the given stream, in the {@link ScanCapture} format, until
+	 * {@link #stopScanCapture()} is called. Results are recorded as soon as they arrive, before anything is buffered, dropped, or filtered, so the capture
+	 * can be replayed later to reproduce exactly what was seen in the field. Any capture that's already going is stopped first.
+	 * Returns <code>false</code> if the stream couldn't even be written to.
+	 */
+	@Advanced
+	public final boolean startScanCapture(final OutputStream out)
+	{
+		stopScanCapture();
+
+		try
+		{
+			m_scanManager.setScanCapture(new ScanCapture.Writer(out, System.currentTimeMillis()));
+
+			return true;
+		}
+		catch (IOException e)
+		{
+			m_logger.e("Unable to start scan capture: " + e);
+
+			return false;
+		}
+	}
+
+	/**
+	 * Stops a capture started with {@link #startScanCapture(OutputStream)}, and closes its stream. Returns the number of scan results captured,
+	 * or <code>0</code> if there was no capture going.
+	 */
+	@Advanced
+	public final int stopScanCapture()
+	{
+		return m_scanManager.stopScanCapture();
+	}
+
+	/**
+	 * Returns the total number of advertisements from undiscovered devices which were thrown away because the same device, with the same scan record,
+	 * was recently rejected by every {@link ScanFilter}. See {@link BleManagerConfig#scanFilterRejectionCacheTime}.
+	 */
+	@Advanced
+	public final long getScanFilterCacheHitCount()
+	{
+		return m_filterMngr.getRejectionCacheHitCount();
+	}
+
+	/**
+	 * Returns the total number of advertisements from undiscovered devices which had to go through the {@link ScanFilter}s, because there was no recent
+	 * rejection for them. Only counted while {@link BleManagerConfig#scanFilterRejectionCacheTime} is enabled.
+	 */
+	@Advanced
+	public final long getScanFilterCacheMissCount()
+	{
+		return m_filterMngr.getRejectionCacheMissCount();
+	}
+
 	/**
 	 * Returns <code>true</code> if location is enabled to a degree that allows scanning on {@link android.os.Build.VERSION_CODES#M} and above.
 	 * If this returns <code>false</code> it means you're on Android M and you either (A) do not have {@link android.Manifest.permission#ACCESS_COARSE_LOCATION}
@@ -2302,17 +2478,7 @@ public final class BleManager
 	 */
 	public final @Nullable(Prevalence.NEVER) BleDevice getDevice(BleDeviceState state)
 	{
-		for( int i = 0; i < m_deviceMngr.getCount(); i++ )
-		{
-			BleDevice device = m_deviceMngr.get(i);
-
-			if( device.is(state) )
-			{
-				return device;
-			}
-		}
-
-		return BleDevice.NULL;
+		return m_deviceMngr.getDevice(state.bit());
 	}
 
 	/**
@@ -2337,17 +2503,7 @@ public final class BleManager
 	 */
 	public final @Nullable(Prevalence.NEVER) BleDevice getDevice(Object ... query)
 	{
-		for( int i = 0; i < m_deviceMngr.getCount(); i++ )
-		{
-			BleDevice device = m_deviceMngr.get(i);
-
-			if( device.is(query) )
-			{
-				return device;
-			}
-		}
-
-		return BleDevice.NULL;
+		return m_deviceMngr.getDevice(query);
 	}
 
 	/**
@@ -2462,11 +2618,12 @@ public final class BleManager
 
 	/**
 	 * Same as {@link #getDevices()}, but with the devices sorted using {@link BleManagerConfig#defaultListComparator}, which
-	 * by default sorts by {@link BleDevice#getName_debug()}.
+	 * by default sorts by {@link BleDevice#getName_debug()}. The sorted order is kept up to date as devices come and go and as their
+	 * names, RSSI, and states change, so this doesn't need to copy or sort anything unless something actually moved.
 	 */
 	public final @Nullable(Prevalence.NEVER) BleDeviceIterator getDevices_sorted()
 	{
-		return new BleDeviceIterator(getDevices_List_sorted());
+		return new BleDeviceIterator(m_deviceMngr.getList_sorted());
 	}
 
 	/**
@@ -2478,11 +2635,12 @@ public final class BleManager
 	}
 
 	/**
-	 * Same as {@link #getDevices_List()}, but sorts the list using {@link BleManagerConfig#defaultListComparator}.
+	 * Same as {@link #getDevices_List()}, but sorts the list using {@link BleManagerConfig#defaultListComparator}. Unlike in earlier versions,
+	 * this doesn't change the order of {@link #getDevices_List()} or {@link #getDeviceAt(int)}, which is always the order devices were found in.
 	 */
 	public final @Nullable(Prevalence.NEVER) List<BleDevice> getDevices_List_sorted()
 	{
-		return (List<BleDevice>) m_deviceMngr.getList_sorted().clone();
+		return new ArrayList<BleDevice>(m_deviceMngr.getList_sorted());
 	}
 
 	/**
@@ -3074,13 +3232,37 @@ public final class BleManager
 		if( false == is(SCANNING) )  return;
 
 		final List<DiscoveryEntry> list = new ArrayList<>();
+		final long currentTime = System.currentTimeMillis();
+		final BeaconListener beaconListener = m_beaconListener;
+		List<BeaconListener.BeaconEvent> beaconEvents = null;
 
 		for (DiscoveryEntry entry : entries)
 		{
 
+			//--- The stack normally does this for us, but not for every scan api.
+			if (false == m_scanManager.passesNativeScanFilters(entry.device(), entry.record(), entry.rssi()))  continue;
+
 			final String macAddress = entry.device().getAddress();
 			BleDevice device_sweetblue = m_deviceMngr.get(macAddress);
 
+			//--- Beacons are decoded straight from the raw record, and unless asked to, never go any further than the beacon listener.
+			if (beaconListener != null && entry.record() != null)
+			{
+				final Beacon beacon = Beacon.parse(m_beaconCursor.reset(entry.record()));
+
+				if (beacon != null)
+				{
+					if (beaconEvents == null)
+					{
+						beaconEvents = new ArrayList<>();
+					}
+
+					beaconEvents.add(new BeaconListener.BeaconEvent(this, macAddress, entry.rssi(), beacon));
+
+					if (device_sweetblue == null && false == m_config.createDevicesForBeacons)  continue;
+				}
+			}
+
 			if (device_sweetblue != null)
 			{
 				if (!device_sweetblue.layerManager().getDeviceLayer().equals(entry.device()))
@@ -3095,6 +3277,13 @@ public final class BleManager
 
 			if (device_sweetblue == null)
 			{
+				//--- Most advertisements in a crowded area come from devices that will never make it past the filters, so don't bother
+				//---		parsing anything if we already know this one won't.
+				if (m_filterMngr.wasRecentlyRejected(macAddress, entry.record(), currentTime))  continue;
+
+				//--- When the filters are all compiled, they can make their decision from the raw bytes alone, so there's no need to build a ScanEvent.
+				if (m_filterMngr.isRejectedByCompiledFilters(entry.device(), entry.record(), entry.rssi()))  continue;
+
 				final String rawDeviceName;
 
 				try
@@ -3124,11 +3313,16 @@ public final class BleManager
 
 				final boolean hitDisk = BleDeviceConfig.boolOrDefault(m_config.manageLastDisconnectOnDisk);
 				final State.ChangeIntent lastDisconnectIntent = m_diskOptionsMngr.loadLastDisconnect(macAddress, hitDisk);
-				scanEvent_nullable = m_filterMngr.makeEvent() ? ScanFilter.ScanEvent.fromScanRecord(entry.device().getNativeDevice(), rawDeviceName, normalizedDeviceName, entry.rssi(), lastDisconnectIntent, entry.record()) : null;
+				scanEvent_nullable = m_filterMngr.makeEvent() ? ScanFilter.ScanEvent.fromScanRecord(entry.device().getNativeDevice(), rawDeviceName, normalizedDeviceName, entry.rssi(), lastDisconnectIntent, entry.record(), entry.m_rssiStats) : null;
 
 				please = m_filterMngr.allow(m_logger, scanEvent_nullable);
 
-				if (please != null && false == please.ack()) continue;
+				if (please != null && false == please.ack())
+				{
+					m_filterMngr.onRejected(macAddress, entry.record(), currentTime);
+
+					continue;
+				}
 
 				final String name_native = rawDeviceName;
 
@@ -3149,6 +3343,11 @@ public final class BleManager
 			list.add(entry);
 		}
 
+		if (beaconEvents != null)
+		{
+			postEvents(beaconListener, beaconEvents);
+		}
+
 		onDiscovered_wrapItUp(list);
 	}
 
@@ -3353,12 +3552,35 @@ public final class BleManager
 
 		for (DiscoveryEntry e : entries)
 		{
+			e.m_bleDevice.updateRssiStats(e.m_rssiStats);
+
 			if (e.m_newlyDiscovered)
 			{
 				e.m_bleDevice.onNewlyDiscovered(e.device(), e.m_scanEvent, e.rssi(), e.record(), e.m_origin);
 				final DiscoveryEvent event = DiscoveryEvent.newEvent(e.m_bleDevice, LifeCycle.DISCOVERED);
 				events.add(event);
 			}
+			else if (m_config.ignoreUnchangedAdvertisements)
+			{
+				//--- Most devices advertise the same thing over and over, so usually only the signal strength and last seen time need updating.
+				//---		This has to be checked here rather than when building the list, as the same device can show up more than once in it.
+				if (e.m_bleDevice.isSameScanRecord(e.record()) && e.m_bleDevice.isScanInfoParsedFromRecord())
+				{
+					e.m_bleDevice.onRediscovered_sameAdvertisement(e.rssi());
+				}
+				else if (e.m_bleDevice.isSameScanRecord(e.record()))
+				{
+					//--- Discovered through a ScanFilter, which only filled in part of the scan info, so the record gets parsed in full once. Nothing
+					//---		actually changed though, so the listener isn't told about it.
+					e.m_bleDevice.onRediscovered(e.device(), e.m_scanEvent, e.rssi(), e.record(), e.m_origin);
+				}
+				else
+				{
+					e.m_bleDevice.onRediscovered(e.device(), e.m_scanEvent, e.rssi(), e.record(), e.m_origin);
+					final DiscoveryEvent event = DiscoveryEvent.newEvent(e.m_bleDevice, LifeCycle.ADVERTISEMENT_CHANGED);
+					events.add(event);
+				}
+			}
 			else
 			{
 				e.m_bleDevice.onRediscovered(e.device(), e.m_scanEvent, e.rssi(), e.record(), e.m_origin);
@@ -3405,6 +3627,68 @@ public final class BleManager
 		return m_ready;
 	}
 
+	/**
+	 * Called by a device's main state tracker whenever its state changes, to keep the per-state indexes of the device managers in sync.
+	 */
+	final void onDeviceStateChange(final BleDevice device, final int newStateBits)
+	{
+		m_deviceMngr.onStateChange(device, newStateBits);
+		m_deviceMngr_cache.onStateChange(device, newStateBits);
+	}
+
+	/**
+	 * Called whenever the name or RSSI of a device changes, which {@link BleManagerConfig#defaultListComparator} might sort by.
+	 */
+	final void onDeviceSortKeyChange(final BleDevice device)
+	{
+		m_deviceMngr.onSortKeyChange(device);
+		m_deviceMngr_cache.onSortKeyChange(device);
+	}
+
+	/**
+	 * Called when a device's next update deadline may have gotten sooner. If we're idling with {@link BleManagerConfig#useDeadlineDrivenUpdates}
+	 * on, the update loop could be sleeping for a while, so we wake it up to recalculate how long to sleep for.
+	 */
+	final void onUpdateDeadlineChanged()
+	{
+		if (m_updateRunnable == null || m_updateRunnable.m_updating || m_updateRunnable.m_shutdown)
+			return;
+
+		if (m_config.useDeadlineDrivenUpdates && is(IDLE) && Interval.isEnabled(m_config.autoUpdateRate))
+		{
+			getPostManager().removeUpdateCallbacks(m_updateRunnable);
+			getPostManager().postToUpdateThread(m_updateRunnable);
+		}
+	}
+
+	/**
+	 * Returns how long the update loop can sleep for while idling with {@link BleManagerConfig#useDeadlineDrivenUpdates} on.
+	 */
+	private long getIdleUpdateDelay(final long currentTime)
+	{
+		long delay = MAX_DEADLINE_UPDATE_DELAY;
+
+		if (hasManagerLevelWork() && Interval.isEnabled(m_config.idleUpdateRate))
+		{
+			delay = m_config.idleUpdateRate.millis();
+		}
+
+		final long nextDeviceDeadline = m_deviceMngr.getNextUpdateDeadline();
+
+		if (nextDeviceDeadline != Long.MAX_VALUE)
+		{
+			delay = Math.min(delay, nextDeviceDeadline - currentTime);
+		}
+
+		return Math.max(delay, m_config.autoUpdateRate.millis());
+	}
+
+	final boolean hasManagerLevelWork()
+	{
+		return m_config.updateLoopCallback != null || m_listeners.isPollingNativeState() || m_taskQueue.getSize() > 0 || m_taskQueue.getCurrent() != null ||
+				m_taskQueue.hasLaneTasks() || m_scanManager.hasTimedWork();
+	}
+
 	final void checkIdleStatus()
 	{
 		if (is(IDLE))
@@ -3448,7 +3732,7 @@ public final class BleManager
 			m_timeForegrounded = 0.0;
 		}
 
-		m_deviceMngr.update(timeStep_seconds);
+		m_deviceMngr.update(timeStep_seconds, currentTime);
 
 		if ( m_timeTurnedOn == 0 && is(ON) )
 		{
@@ -3588,6 +3872,7 @@ public final class BleManager
 		private Long m_lastAutoUpdateTime;
 		private long m_autoUpdateRate = -1;
 		private boolean m_shutdown = false;
+		private boolean m_updating = false;
 
 
 		public UpdateRunnable(long updateRate)
@@ -3624,13 +3909,19 @@ public final class BleManager
 //			timeStep = timeStep > 1.0 ? 1.0 : timeStep;
 
 
+			m_updating = true;
+
 			update(timeStep, currentTime);
 
+			m_updating = false;
+
 			m_lastAutoUpdateTime = currentTime;
 
 			if (!m_shutdown)
 			{
-				m_postManager.postToUpdateThreadDelayed(this, m_autoUpdateRate);
+				final long delay = m_config.useDeadlineDrivenUpdates && is(IDLE) ? getIdleUpdateDelay(currentTime) : m_autoUpdateRate;
+
+				m_postManager.postToUpdateThreadDelayed(this, delay);
 			}
 		}
 	}
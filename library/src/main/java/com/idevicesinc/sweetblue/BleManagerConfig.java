@@ -4,7 +4,6 @@ package com.idevicesinc.sweetblue;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -18,12 +17,14 @@ import com.idevicesinc.sweetblue.annotations.Extendable;
 import com.idevicesinc.sweetblue.annotations.Immutable;
 import com.idevicesinc.sweetblue.annotations.Nullable;
 import com.idevicesinc.sweetblue.annotations.Nullable.Prevalence;
+import com.idevicesinc.sweetblue.utils.BleManufacturerData;
 import com.idevicesinc.sweetblue.utils.BleScanInfo;
 import com.idevicesinc.sweetblue.utils.Event;
 import com.idevicesinc.sweetblue.utils.Interval;
 import com.idevicesinc.sweetblue.utils.P_Const;
-import com.idevicesinc.sweetblue.utils.Pointer;
 import com.idevicesinc.sweetblue.utils.ReflectionUuidNameMap;
+import com.idevicesinc.sweetblue.utils.RssiStats;
+import com.idevicesinc.sweetblue.utils.ScanRecordCursor;
 import com.idevicesinc.sweetblue.utils.State;
 import com.idevicesinc.sweetblue.utils.Utils;
 import com.idevicesinc.sweetblue.utils.Utils_ScanRecord;
@@ -95,6 +96,31 @@ public class BleManagerConfig extends BleDeviceConfig
 	 * Default value for {@link #defaultStatePollRate}
 	 */
 	public static final double DEFAULT_MANAGER_STATE_POLL_RATE			= .1;
+
+	/**
+	 * Default value for {@link #scanBufferSize}
+	 */
+	public static final int DEFAULT_SCAN_BUFFER_SIZE					= 512;
+
+	/**
+	 * Default value for {@link #scanDrainBudget}
+	 */
+	public static final double DEFAULT_SCAN_DRAIN_BUDGET				= .008;
+
+	/**
+	 * Default value for {@link #scanOverloadThreshold}
+	 */
+	public static final double DEFAULT_SCAN_OVERLOAD_THRESHOLD			= 1.0;
+
+	/**
+	 * Default value for {@link #scanRssiEmaWeight}
+	 */
+	public static final double DEFAULT_SCAN_RSSI_EMA_WEIGHT				= .25;
+
+	/**
+	 * Default value for {@link #scanFilterRejectionCacheSize}
+	 */
+	public static final int DEFAULT_SCAN_FILTER_REJECTION_CACHE_SIZE		= 1024;
 	
 	static final BleManagerConfig NULL = new BleManagerConfigNull();
 
@@ -369,6 +395,20 @@ public class BleManagerConfig extends BleDeviceConfig
 	@com.idevicesinc.sweetblue.annotations.Advanced
 	public Interval minTimeToIdle							= Interval.secs(DEFAULT_DELAY_BEFORE_IDLE);
 
+	/**
+	 * Default is <code>false</code> - If set to <code>true</code>, each {@link BleDevice} is only updated when it actually has time-based work due
+	 * (a poll from {@link BleDevice#startPoll(UUID, Interval, BleDevice.ReadWriteListener)}, an RSSI poll, a reconnect attempt, a running transaction, etc.),
+	 * instead of every single tick of the update loop. The next deadline of each device is kept in a timer wheel, and while the update loop is in the
+	 * {@link BleManagerState#IDLE} state, it will sleep until the soonest deadline, rather than waking up every {@link #idleUpdateRate}. Manager-level
+	 * work (native state polling, scanning, {@link #updateLoopCallback}, etc.) still keeps the loop ticking at {@link #idleUpdateRate} at the slowest.
+	 * <br><br>
+	 * This is mostly useful when holding on to a large number of devices which don't have anything going on, for instance a gateway with many bonded
+	 * devices which are only connected to every now and then. Note that reconnect filters are only consulted at most every {@link #idleUpdateRate}
+	 * while a device is reconnecting.
+	 */
+	@Advanced
+	public boolean useDeadlineDrivenUpdates					= false;
+
 	/**
 	 * Default is {@link Interval#DISABLED} - This sets an amount of time to delay between executing each task in the queue. The delay simply makes sure
 	 * that the amount of time requested here has passed since the last task ended.
@@ -376,6 +416,19 @@ public class BleManagerConfig extends BleDeviceConfig
 	@Advanced
 	public Interval delayBetweenTasks						= Interval.DISABLED;
 
+	/**
+	 * Default is <code>false</code> - Android only allows one outstanding GATT operation per {@link android.bluetooth.BluetoothGatt} instance, not
+	 * per adapter, yet by default SweetBlue only ever runs one task at a time across all devices. If set to <code>true</code>, reads, writes,
+	 * notification toggles, and other operations that only need a single device's connection run concurrently on per-device "lanes", with at most
+	 * one operation in flight for each device. Every other task (scanning, turning BLE on/off, connecting, bonding, etc.) still acts as a barrier,
+	 * meaning it waits for all in-flight device operations to finish before it executes, and nothing queued after it starts before it does.
+	 * The same goes for a {@link BleTransaction} that {@link BleTransaction#needsAtomicity()}, so other devices' operations still wait until it's done.
+	 * <br><br>
+	 * This can greatly increase overall throughput when many devices are connected at the same time.
+	 */
+	@Advanced
+	public boolean allowParallelDeviceTasks					= false;
+
 	/**
 	 * Default is <code>false</code><br></br>
 	 * <br></br>
@@ -412,6 +465,18 @@ public class BleManagerConfig extends BleDeviceConfig
 	 */
 	@Nullable(Prevalence.NORMAL)
 	public ScanFilter defaultScanFilter						= null;
+
+	/**
+	 * Default is <code>null</code> - Criteria that are handed down to the Bluetooth stack when {@link BleScanApi#POST_LOLLIPOP} is used, so that
+	 * advertisements which don't match any of them are dropped before they ever reach your app. This can cut way down on the number of scan results
+	 * (and CPU wakeups) in crowded areas. For the other scan APIs, SweetBlue applies the same criteria itself. These can be overridden for a single
+	 * scan with {@link ScanOptions#withNativeScanFilters(NativeScanFilter...)}.
+	 *
+	 * @see NativeScanFilter
+	 */
+	@Advanced
+	@Nullable(Prevalence.NORMAL)
+	public List<NativeScanFilter> nativeScanFilters			= null;
 	
 	/**
 	 * Default is <code>null</code> - can also be set post-construction with {@link BleManager#setListener_Discovery(DiscoveryListener)},
@@ -422,6 +487,15 @@ public class BleManagerConfig extends BleDeviceConfig
 	@Nullable(Prevalence.NORMAL)
 	public DiscoveryListener defaultDiscoveryListener		= null;
 
+	/**
+	 * Default is <code>null</code> - can also be set post-construction with {@link BleManager#setListener_Beacon(BeaconListener)},
+	 * which will override the implementation provided here.
+	 *
+	 * @see BeaconListener
+	 */
+	@Nullable(Prevalence.NORMAL)
+	public BeaconListener defaultBeaconListener				= null;
+
 
 	/**
 	 * Default is <code>true</code> - SweetBlue polls the native Bluetooth state to ensure it's always up-to-date with the current Bluetooth state (in case
@@ -456,6 +530,107 @@ public class BleManagerConfig extends BleDeviceConfig
 	 */
 	public BleScanPower scanPower							= BleScanPower.AUTO;
 
+	/**
+	 * Default is {@value #DEFAULT_SCAN_BUFFER_SIZE} - The maximum number of scan results from the native stack that can be waiting to be processed
+	 * by the update loop at any one time (rounded up to the next power of two). Scan results are put into a fixed size buffer as soon as they come in,
+	 * and the update loop works through them for up to {@link #scanDrainBudget} each tick. If they come in faster than they can be processed (for instance in an area
+	 * with thousands of beacons), the buffer fills up and {@link #scanOverflowPolicy} decides what gets dropped. Changing this takes effect the next
+	 * time a scan is started.
+	 */
+	@Advanced
+	public int scanBufferSize								= DEFAULT_SCAN_BUFFER_SIZE;
+
+	/**
+	 * Default is {@link BleScanOverflowPolicy#COALESCE_BY_ADDRESS} - Decides what happens to incoming scan results once the buffer from {@link #scanBufferSize}
+	 * is full. See {@link BleScanOverflowPolicy} for more details.
+	 */
+	@Advanced
+	public BleScanOverflowPolicy scanOverflowPolicy			= BleScanOverflowPolicy.COALESCE_BY_ADDRESS;
+
+	/**
+	 * Default is {@value #DEFAULT_SCAN_DRAIN_BUDGET} seconds - How long each tick of the update loop may spend processing results from the buffer
+	 * described at {@link #scanBufferSize}. Results are processed a chunk at a time, sized from how long results have recently been taking, until
+	 * the buffer is empty or the budget is spent. A handful of results are always processed no matter what, so that a tiny budget can't stop discovery
+	 * altogether. If <code>null</code> or {@link Interval#DISABLED}, everything waiting is processed every tick.
+	 */
+	@Advanced
+	@Nullable(Prevalence.NORMAL)
+	public Interval scanDrainBudget							= Interval.secs(DEFAULT_SCAN_DRAIN_BUDGET);
+
+	/**
+	 * Default is {@value #DEFAULT_SCAN_OVERLOAD_THRESHOLD} seconds - Once the oldest scan result still waiting in the buffer described at {@link #scanBufferSize}
+	 * has been waiting this long, scanning is considered overloaded. {@link BleManager#isScanOverloaded()} returns <code>true</code> and
+	 * {@link BleManager.UhOhListener.UhOh#SCAN_OVERLOADED} is sent, which is a good time to tighten up {@link #nativeScanFilters} or lower {@link #scanPower}.
+	 * It stops being overloaded once the oldest waiting result is back under half this. If <code>null</code> or {@link Interval#DISABLED}, scanning
+	 * is never considered overloaded.
+	 */
+	@Advanced
+	@Nullable(Prevalence.NORMAL)
+	public Interval scanOverloadThreshold					= Interval.secs(DEFAULT_SCAN_OVERLOAD_THRESHOLD);
+
+	/**
+	 * Default is <code>false</code> - If set to <code>true</code>, every scan result received for a device between two runs of the update loop is
+	 * folded into a single discovery, instead of each one being processed separately. The discovery uses the latest scan record and RSSI, and
+	 * carries the min/max/mean RSSI and sample count for the window along with a moving average (see {@link #scanRssiEmaWeight}). These are available
+	 * from {@link ScanFilter.ScanEvent#rssiStats()} and {@link BleDevice#getRssiStats()}. This is useful when a device advertises very often, and
+	 * you care about how close it is without wanting {@link BleManager.DiscoveryListener} to be called for every single advertisement.
+	 */
+	@Advanced
+	public boolean aggregateScanResults						= false;
+
+	/**
+	 * Default is {@value #DEFAULT_SCAN_RSSI_EMA_WEIGHT} - The weight given to each new RSSI sample in the exponential moving average returned by
+	 * {@link RssiStats#ema()}, from 0.0 (ignore new samples) to 1.0 (only use the newest sample). Only applies when {@link #aggregateScanResults}
+	 * is <code>true</code>.
+	 */
+	@Advanced
+	public double scanRssiEmaWeight							= DEFAULT_SCAN_RSSI_EMA_WEIGHT;
+
+	/**
+	 * Default is {@link Interval#DISABLED} - If set, any undiscovered device that gets rejected by every {@link ScanFilter} is remembered for this
+	 * long, and further advertisements from it with the exact same scan record are thrown away without parsing the record or asking the filters
+	 * again. This can save a lot of work in places where most advertisements come from devices you don't care about. The cache is cleared any time
+	 * a filter is added or removed, but NOTE: if your filter's decision depends on anything other than the scan record (for instance
+	 * {@link ScanFilter.ScanEvent#rssi()}), a device may keep being rejected for up to this long after it would otherwise have been accepted.
+	 * See {@link BleManager#getScanFilterCacheHitCount()} and {@link BleManager#getScanFilterCacheMissCount()} to see how well it's working.
+	 */
+	@Advanced
+	public Interval scanFilterRejectionCacheTime				= Interval.DISABLED;
+
+	/**
+	 * Default is {@value #DEFAULT_SCAN_FILTER_REJECTION_CACHE_SIZE} - The maximum number of devices remembered by {@link #scanFilterRejectionCacheTime}.
+	 * Once it's full, the oldest rejection is forgotten to make room.
+	 */
+	@Advanced
+	public int scanFilterRejectionCacheSize					= DEFAULT_SCAN_FILTER_REJECTION_CACHE_SIZE;
+
+	/**
+	 * Default is <code>false</code> - If set to <code>true</code>, advertisements from an already discovered device whose scan record is exactly the same
+	 * as the last one are only used to update {@link BleDevice#getRssi()} and the last time the device was seen. The record isn't parsed again,
+	 * and {@link BleManager.DiscoveryListener} isn't called with {@link BleManager.DiscoveryListener.LifeCycle#REDISCOVERED}. When the record does change,
+	 * the listener gets {@link BleManager.DiscoveryListener.LifeCycle#ADVERTISEMENT_CHANGED} instead. This cuts down on a lot of work (and callbacks)
+	 * when devices advertise the same payload for a long time.
+	 */
+	@Advanced
+	public boolean ignoreUnchangedAdvertisements			= false;
+
+	/**
+	 * Default is <code>false</code> - Only matters when a {@link BeaconListener} is set. Normally, beacon frames are only handed to the {@link BeaconListener},
+	 * and never go on to become a {@link BleDevice}, which keeps scanning cheap with lots of beacons around. Set this to <code>true</code> to have beacons
+	 * also go through the usual {@link ScanFilter} and {@link BleManager.DiscoveryListener} path. Beacons that were already a {@link BleDevice}
+	 * (for instance from {@link BleManager#newDevice(String)}) are always rediscovered as usual.
+	 */
+	public boolean createDevicesForBeacons					= false;
+
+	/**
+	 * Default is <code>null</code> - If set, the length of scan windows, the pauses between them, and the {@link BleScanPower} used are tuned on the fly
+	 * based on how many devices are being found, instead of coming from {@link #infiniteScanInterval}, {@link #infinitePauseInterval},
+	 * {@link #autoScanActiveTime}, {@link #autoScanPauseInterval}, and {@link #scanPower}. See {@link AdaptiveScanPolicy} for more.
+	 */
+	@Advanced
+	@Nullable(Prevalence.NORMAL)
+	public AdaptiveScanPolicy adaptiveScanPolicy				= null;
+
 	/**
 	 * Default is <code>null</code> - provide an instance here that will be called at the end of {@link BleManager#update(double, long)}.
 	 * This might be useful for extension/wrapper libraries or apps that want to tie into the {@link BleManager} instance's existing update loop.
@@ -582,8 +757,16 @@ public class BleManagerConfig extends BleDeviceConfig
 			 * A list of {@link UUID}s parsed from {@link #scanRecord()} as a convenience. May be empty, notably
 			 * if {@link BleManagerConfig#revertToClassicDiscoveryIfNeeded} is invoked.
 			 */
-			public List<UUID> advertisedServices(){  return m_advertisedServices;  }
-			private final List<UUID> m_advertisedServices;
+			public List<UUID> advertisedServices()
+			{
+				if( m_advertisedServices == null )
+				{
+					m_advertisedServices = scanInfo().getServiceUUIDS();
+				}
+
+				return m_advertisedServices;
+			}
+			private List<UUID> m_advertisedServices;
 
 			/**
 			 * The unaltered device name retrieved from the native bluetooth stack.
@@ -638,57 +821,117 @@ public class BleManagerConfig extends BleDeviceConfig
 			private final int m_advertisingFlags;
 
 			/**
-			 * Returns the manufacturer-specific data, if any, parsed from {@link #scanRecord()}.
+			 * Returns the manufacturer-specific data, if any, parsed from {@link #scanRecord()}, keyed by manufacturer id. If the same id
+			 * is advertised more than once, the last block wins - see {@link BleScanInfo#getManufacturerDataList()} to get all of them.
 			 */
-			public SparseArray<byte[]> manufacturerCombinedData(){  return m_manufacturerCombinedData;  }
-			private final SparseArray<byte[]> m_manufacturerCombinedData;
+			public SparseArray<byte[]> manufacturerCombinedData()
+			{
+				if( m_manufacturerCombinedData == null )
+				{
+					m_manufacturerCombinedData = new SparseArray<>();
+
+					final List<BleManufacturerData> blocks = scanInfo().getManufacturerDataList();
 
-			public byte[] manufacturerData(){ return m_manufacturerData;}
-			private byte[] m_manufacturerData;
+					for( int i = 0; i < blocks.size(); i++ )
+					{
+						m_manufacturerCombinedData.put(blocks.get(i).getId(), blocks.get(i).getData());
+					}
+				}
+
+				return m_manufacturerCombinedData;
+			}
+			private SparseArray<byte[]> m_manufacturerCombinedData;
+
+			public byte[] manufacturerData(){ return scanInfo().getManufacturerData();}
 
 			public int manufacturerId(){ return m_manufacturerId;}
-			private int m_manufacturerId;
+			private final int m_manufacturerId;
 
 			/**
 			 * Returns the service data, if any, parsed from {@link #scanRecord()}.
 			 */
-			public Map<UUID, byte[]> serviceData()  {  return m_serviceData;  }
-			private final Map<UUID, byte[]> m_serviceData;
+			public Map<UUID, byte[]> serviceData()  {  return scanInfo().getServiceData();  }
+
+			/**
+			 * Returns the RSSI stats for all the advertisements received from this device since the last scan result was processed,
+			 * or {@link RssiStats#NULL} if {@link BleManagerConfig#aggregateScanResults} is <code>false</code>.
+			 */
+			public RssiStats rssiStats()  {  return m_rssiStats;  }
+			private final RssiStats m_rssiStats;
+
+			/**
+			 * Returns a cursor over {@link #scanRecord()}, rewound to the start. If you only need to look at one or two fields, this is a lot cheaper than
+			 * methods like {@link #advertisedServices()} or {@link #serviceData()}, which have to parse the whole record the first time they're called.
+			 * The same instance is returned every time, so don't hang on to it after {@link ScanFilter#onEvent(ScanEvent)} returns. Nothing else in this
+			 * class moves it, so it stays wherever you left it between calls.
+			 */
+			public ScanRecordCursor scanRecordCursor()
+			{
+				if( m_cursor == null )
+				{
+					m_cursor = new ScanRecordCursor(m_scanRecord);
+				}
+
+				return m_cursor.rewind();
+			}
+			private ScanRecordCursor m_cursor;
+
+			//--- Anything that needs the whole record parsed is only parsed the first time it's asked for, as most filters only look at one or two things.
+			private final byte[] m_scanRecord_nullable;
+			private BleScanInfo m_scanInfo;
 
 			ScanEvent(
 					BluetoothDevice nativeInstance, String rawDeviceName,
 					String normalizedDeviceName, byte[] scanRecord, int rssi, State.ChangeIntent lastDisconnectIntent,
-					BleScanInfo scanInfo
+					RssiStats rssiStats
 			)
 			{
 				this.m_nativeInstance = nativeInstance;
-				this.m_advertisedServices = scanInfo != null ? scanInfo.getServiceUUIDS() : new ArrayList<UUID>(0);
 				this.m_rawDeviceName = rawDeviceName != null ? rawDeviceName : "";
 				this.m_normalizedDeviceName = normalizedDeviceName;
+				this.m_scanRecord_nullable = scanRecord;
 				this.m_scanRecord = scanRecord != null ? scanRecord : P_Const.EMPTY_BYTE_ARRAY;
 				this.m_rssi = rssi;
 				this.m_lastDisconnectIntent = lastDisconnectIntent;
-				this.m_txPower = scanInfo != null ? scanInfo.getTxPower().value : 0;
-				this.m_advertisingFlags = scanInfo != null ? scanInfo.getAdvFlags().value : 0;
-				this.m_manufacturerData = scanInfo != null ? scanInfo.getManufacturerData() : P_Const.EMPTY_BYTE_ARRAY;
-				this.m_manufacturerId = scanInfo != null ? scanInfo.getManufacturerId() : 0;
-				this.m_serviceData = scanInfo != null ? scanInfo.getServiceData() : new HashMap<UUID, byte[]>(0);
+				this.m_rssiStats = rssiStats != null ? rssiStats : RssiStats.NULL;
+
+				//--- Only a few small fields, so they're picked out right away with a cursor of their own, leaving scanRecordCursor() to the app.
+				if( scanRecord != null )
+				{
+					final ScanRecordCursor cursor = new ScanRecordCursor(scanRecord);
+
+					this.m_txPower = cursor.getTxPower();
+					this.m_advertisingFlags = cursor.getAdvFlags();
+					this.m_manufacturerId = (short) cursor.getManufacturerId();
+				}
+				else
+				{
+					this.m_txPower = 0;
+					this.m_advertisingFlags = 0;
+					this.m_manufacturerId = -1;
+				}
+			}
 
-				this.m_manufacturerCombinedData = new SparseArray<>();
+			private BleScanInfo scanInfo()
+			{
+				if( m_scanInfo == null )
+				{
+					m_scanInfo = Utils_ScanRecord.parseScanRecord(m_scanRecord_nullable);
+				}
+
+				return m_scanInfo;
 			}
 
 			/*package*/ static ScanEvent fromScanRecord(final BluetoothDevice device_native, final String rawDeviceName, final String normalizedDeviceName, final int rssi, final State.ChangeIntent lastDisconnectIntent, final byte[] scanRecord)
 			{
-				final Pointer<Integer> advFlags = new Pointer<Integer>();
-				final Pointer<Integer> txPower = new Pointer<Integer>();
-				final List<UUID> serviceUuids = new ArrayList<UUID>();
-				final SparseArray<byte[]> manufacturerData = new SparseArray<byte[]>();
-				final Map<UUID, byte[]> serviceData = new HashMap<UUID, byte[]>();
-				final String name = rawDeviceName != null ? rawDeviceName : Utils_ScanRecord.parseName(scanRecord);
+				return fromScanRecord(device_native, rawDeviceName, normalizedDeviceName, rssi, lastDisconnectIntent, scanRecord, RssiStats.NULL);
+			}
 
-				BleScanInfo scanInfo = Utils_ScanRecord.parseScanRecord(scanRecord);
+			/*package*/ static ScanEvent fromScanRecord(final BluetoothDevice device_native, final String rawDeviceName, final String normalizedDeviceName, final int rssi, final State.ChangeIntent lastDisconnectIntent, final byte[] scanRecord, final RssiStats rssiStats)
+			{
+				final String name = rawDeviceName != null ? rawDeviceName : Utils_ScanRecord.parseName(scanRecord);
 
-				final ScanEvent e = new ScanEvent(device_native, name, normalizedDeviceName, scanRecord, rssi, lastDisconnectIntent, scanInfo);
+				final ScanEvent e = new ScanEvent(device_native, name, normalizedDeviceName, scanRecord, rssi, lastDisconnectIntent, rssiStats);
 
 				return e;
 			}
@@ -0,0 +1,27 @@
+package com.idevicesinc.sweetblue;
+
+
+/**
+ * Enumeration used with {@link BleManagerConfig#scanOverflowPolicy} to decide what happens to a scan result coming in from the native
+ * stack when SweetBlue's buffer of scan results waiting to be processed (see {@link BleManagerConfig#scanBufferSize}) is full.
+ * Results which get dropped are counted, see {@link BleManager#getDroppedScanResultCount()}.
+ */
+public enum BleScanOverflowPolicy
+{
+
+    /**
+     * The oldest result waiting to be processed is dropped to make room for the new one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The new result is dropped, and results already waiting to be processed are kept.
+     */
+    DROP_NEWEST,
+
+    /**
+     * If a result from the same device is already waiting to be processed, it gets replaced by the new one (see
+     * {@link BleManager#getCoalescedScanResultCount()}). Otherwise, this behaves the same as {@link #DROP_OLDEST}.
+     */
+    COALESCE_BY_ADDRESS;
+}
@@ -229,7 +229,7 @@ public abstract class BleTransaction
 	/**
 	 * Default is {@link Boolean#FALSE}. Optionally override if you want your transaction's reads/writes to execute "atomically".
 	 * This means that if you're connected to multiple devices only the reads/writes of this transaction's device
-	 * will be executed until this transaction is finished.
+	 * will be executed until this transaction is finished. This holds even with {@link BleManagerConfig#allowParallelDeviceTasks} enabled.
 	 */
 	protected boolean needsAtomicity()
 	{
@@ -0,0 +1,694 @@
+package com.idevicesinc.sweetblue;
+
+import com.idevicesinc.sweetblue.BleManagerConfig.ScanFilter;
+import com.idevicesinc.sweetblue.utils.ScanRecordCursor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+
+/**
+ * A declarative {@link ScanFilter} which is "compiled" up front into a matcher that works directly on the raw scan record bytes.
+ * Use {@link CompiledScanFilter.Builder} to describe what a device must advertise, and {@link #allOf(CompiledScanFilter...)},
+ * {@link #anyOf(CompiledScanFilter...)}, and {@link #not(CompiledScanFilter)} to combine filters.
+ * <br><br>
+ * The difference between this and a hand-written {@link ScanFilter} is that SweetBlue knows what this one is looking for. So if every filter
+ * given to {@link BleManagerConfig#defaultScanFilter} and {@link BleManager#startScan(ScanFilter)} (and friends) is a {@link CompiledScanFilter}, devices which
+ * don't match are thrown out straight away, before a {@link ScanFilter.ScanEvent}, {@link BleDevice}, or anything else is created for them. In a crowded area
+ * that's most of the advertisements that come in.
+ * <br><br>
+ * Instances are immutable, so they're safe to share between threads and to reuse for as many scans as you like.
+ */
+public final class CompiledScanFilter implements ScanFilter
+{
+	private final Matcher m_matcher;
+
+
+	private CompiledScanFilter(final Matcher matcher)
+	{
+		m_matcher = matcher;
+	}
+
+	/**
+	 * Returns a filter which only matches if every one of the given filters does.
+	 */
+	public static CompiledScanFilter allOf(final CompiledScanFilter ... filters)
+	{
+		return new CompiledScanFilter(new AllOf(matchersOf(filters)));
+	}
+
+	/**
+	 * Returns a filter which matches if at least one of the given filters does.
+	 */
+	public static CompiledScanFilter anyOf(final CompiledScanFilter ... filters)
+	{
+		return new CompiledScanFilter(new AnyOf(matchersOf(filters)));
+	}
+
+	/**
+	 * Returns a filter which matches everything the given filter doesn't.
+	 */
+	public static CompiledScanFilter not(final CompiledScanFilter filter)
+	{
+		return new CompiledScanFilter(new Not(filter.m_matcher));
+	}
+
+	/**
+	 * Acknowledges the discovery if the device matches this filter, stepping through {@link ScanEvent#scanRecord()} with a
+	 * {@link ScanRecordCursor} so that the scan record isn't parsed any further than it needs to be.
+	 */
+	@Override public Please onEvent(final ScanEvent e)
+	{
+		return Please.acknowledgeIf( matches(new Target(e)) );
+	}
+
+	/*package*/ final boolean matches(final Target target)
+	{
+		return m_matcher.matches(target);
+	}
+
+	private static Matcher[] matchersOf(final CompiledScanFilter[] filters)
+	{
+		final Matcher[] matchers = new Matcher[filters.length];
+
+		for( int i = 0; i < filters.length; i++ )
+		{
+			matchers[i] = filters[i].m_matcher;
+		}
+
+		return sortedByCost(matchers);
+	}
+
+	//--- Cheap checks go first, so that most devices get thrown out before anything walks the scan record.
+	private static Matcher[] sortedByCost(final Matcher[] matchers)
+	{
+		Arrays.sort(matchers, new Comparator<Matcher>()
+		{
+			@Override public int compare(Matcher lhs, Matcher rhs)
+			{
+				return lhs.cost() - rhs.cost();
+			}
+		});
+
+		return matchers;
+	}
+
+
+	/**
+	 * Builds a {@link CompiledScanFilter} which only matches devices that meet ALL of the criteria given to it. A builder with no criteria
+	 * matches every device. Use {@link CompiledScanFilter#anyOf(CompiledScanFilter...)} to match one of several sets of criteria instead.
+	 */
+	public static final class Builder
+	{
+		private final List<Matcher> m_matchers = new ArrayList<Matcher>();
+
+
+		/**
+		 * Overload of {@link #withServiceUuids(Collection)}.
+		 */
+		public final Builder withServiceUuids(final UUID ... uuids)
+		{
+			return withServiceUuids(Arrays.asList(uuids));
+		}
+
+		/**
+		 * The device must advertise at least one of the given service {@link UUID}s, whatever size they were advertised as.
+		 */
+		public final Builder withServiceUuids(final Collection<UUID> uuids)
+		{
+			m_matchers.add(new ServiceUuids(uuids));
+
+			return this;
+		}
+
+		/**
+		 * The device must advertise manufacturer specific data with the given manufacturer id.
+		 */
+		public final Builder withManufacturerId(final int manufacturerId)
+		{
+			return withManufacturerData(manufacturerId, null, null);
+		}
+
+		/**
+		 * The device must advertise manufacturer specific data with the given manufacturer id, which starts with the given bytes.
+		 */
+		public final Builder withManufacturerData(final int manufacturerId, final byte[] prefix)
+		{
+			return withManufacturerData(manufacturerId, prefix, null);
+		}
+
+		/**
+		 * The device must advertise manufacturer specific data with the given manufacturer id, which starts with the given bytes once both are
+		 * ANDed with <code>mask_nullable</code>. The data doesn't include the manufacturer id itself. A <code>null</code> mask means every bit has to match.
+		 */
+		public final Builder withManufacturerData(final int manufacturerId, final byte[] data_nullable, final byte[] mask_nullable)
+		{
+			m_matchers.add(new ManufacturerData(manufacturerId, new MaskedBytes(data_nullable, mask_nullable)));
+
+			return this;
+		}
+
+		/**
+		 * The device must advertise service data for the given service {@link UUID}, which starts with the given bytes once both are ANDed with
+		 * <code>mask_nullable</code>. 16-bit, 32-bit, and full 128-bit service data are all checked. A <code>null</code> mask means every bit has to match.
+		 */
+		public final Builder withServiceData(final UUID serviceUuid, final byte[] data_nullable, final byte[] mask_nullable)
+		{
+			m_matchers.add(new ServiceData(serviceUuid, new MaskedBytes(data_nullable, mask_nullable)));
+
+			return this;
+		}
+
+		/**
+		 * The device's name (see {@link BleDevice#getName_native()}) must start with the given prefix.
+		 */
+		public final Builder withNamePrefix(final String prefix)
+		{
+			m_matchers.add(new NamePrefix(prefix));
+
+			return this;
+		}
+
+		/**
+		 * The device's whole name (see {@link BleDevice#getName_native()}) must match the given regular expression.
+		 */
+		public final Builder withNamePattern(final String regex)
+		{
+			return withNamePattern(Pattern.compile(regex));
+		}
+
+		/**
+		 * The device's whole name (see {@link BleDevice#getName_native()}) must match the given {@link Pattern}.
+		 */
+		public final Builder withNamePattern(final Pattern pattern)
+		{
+			m_matchers.add(new NamePattern(pattern));
+
+			return this;
+		}
+
+		/**
+		 * The advertisement must have come in at or above the given rssi.
+		 */
+		public final Builder withMinRssi(final int rssi)
+		{
+			m_matchers.add(new MinRssi(rssi));
+
+			return this;
+		}
+
+		/**
+		 * The device's mac address must start with the given organizationally unique identifier, for instance "00:1A:7D". Colons,
+		 * dashes, or nothing at all are accepted between bytes, and case doesn't matter.
+		 *
+		 * @throws IllegalArgumentException if <code>oui</code> isn't made up of three hex bytes.
+		 */
+		public final Builder withMacOui(final String oui)
+		{
+			m_matchers.add(new MacOui(oui));
+
+			return this;
+		}
+
+		/**
+		 * The device must have exactly the given mac address. Case doesn't matter.
+		 */
+		public final Builder withMacAddress(final String macAddress)
+		{
+			m_matchers.add(new MacAddress(macAddress));
+
+			return this;
+		}
+
+		public final CompiledScanFilter build()
+		{
+			final Matcher[] matchers = m_matchers.toArray(new Matcher[m_matchers.size()]);
+
+			return new CompiledScanFilter(new AllOf(sortedByCost(matchers)));
+		}
+	}
+
+
+	/**
+	 * Everything a {@link Matcher} can look at for one advertisement. The mac address and name are looked up lazily, as most filters never need them.
+	 * Instances can be reused with {@link #reset(BleManager, P_NativeDeviceLayer, byte[], int)}, so that the update thread doesn't create one per advertisement.
+	 */
+	/*package*/ static final class Target
+	{
+		private final ScanRecordCursor m_cursor;
+
+		private String m_macAddress;
+		private int m_rssi;
+
+		private BleManager m_mngr;
+		private P_NativeDeviceLayer m_device;
+		private ScanEvent m_event;
+
+		private String m_name;
+		private boolean m_nameLoaded;
+
+		Target()
+		{
+			m_cursor = new ScanRecordCursor();
+		}
+
+		Target(final ScanEvent e)
+		{
+			//--- Not the event's own cursor, as the app might be in the middle of stepping through that one.
+			m_cursor = new ScanRecordCursor(e.scanRecord());
+			m_rssi = e.rssi();
+			m_event = e;
+			m_name = e.name_native();
+			m_nameLoaded = true;
+		}
+
+		Target(final String macAddress, final ScanRecordCursor cursor, final int rssi, final String name)
+		{
+			m_cursor = cursor;
+			m_macAddress = macAddress;
+			m_rssi = rssi;
+			m_name = name;
+			m_nameLoaded = true;
+		}
+
+		final Target reset(final BleManager mngr, final P_NativeDeviceLayer device, final byte[] scanRecord_nullable, final int rssi)
+		{
+			m_cursor.reset(scanRecord_nullable);
+			m_macAddress = null;
+			m_rssi = rssi;
+			m_mngr = mngr;
+			m_device = device;
+			m_name = null;
+			m_nameLoaded = false;
+
+			return this;
+		}
+
+		final String macAddress()
+		{
+			if( m_macAddress == null )
+			{
+				m_macAddress = m_device != null ? m_device.getAddress() : m_event.macAddress();
+			}
+
+			return m_macAddress;
+		}
+
+		final String name()
+		{
+			if( !m_nameLoaded )
+			{
+				m_nameLoaded = true;
+
+				try
+				{
+					m_name = m_mngr.getDeviceName(m_device, m_cursor.record());
+				}
+
+				//--- Leave it to the normal discovery path to deal with (and report) this.
+				catch (Exception e)
+				{
+					m_name = null;
+				}
+			}
+
+			return m_name;
+		}
+	}
+
+
+	private static abstract class Matcher
+	{
+		static final int COST_FREE		= 0;
+		static final int COST_NAME		= 1;
+		static final int COST_RECORD	= 2;
+		static final int COST_NESTED	= 3;
+
+		abstract boolean matches(final Target target);
+
+		abstract int cost();
+	}
+
+	private static final class AllOf extends Matcher
+	{
+		private final Matcher[] m_matchers;
+
+		AllOf(final Matcher[] matchers)
+		{
+			m_matchers = matchers;
+		}
+
+		@Override boolean matches(final Target target)
+		{
+			for( int i = 0; i < m_matchers.length; i++ )
+			{
+				if( !m_matchers[i].matches(target) )  return false;
+			}
+
+			return true;
+		}
+
+		@Override int cost()
+		{
+			return COST_NESTED;
+		}
+	}
+
+	private static final class AnyOf extends Matcher
+	{
+		private final Matcher[] m_matchers;
+
+		AnyOf(final Matcher[] matchers)
+		{
+			m_matchers = matchers;
+		}
+
+		@Override boolean matches(final Target target)
+		{
+			for( int i = 0; i < m_matchers.length; i++ )
+			{
+				if( m_matchers[i].matches(target) )  return true;
+			}
+
+			return false;
+		}
+
+		@Override int cost()
+		{
+			return COST_NESTED;
+		}
+	}
+
+	private static final class Not extends Matcher
+	{
+		private final Matcher m_matcher;
+
+		Not(final Matcher matcher)
+		{
+			m_matcher = matcher;
+		}
+
+		@Override boolean matches(final Target target)
+		{
+			return !m_matcher.matches(target);
+		}
+
+		@Override int cost()
+		{
+			return m_matcher.cost();
+		}
+	}
+
+	private static final class MinRssi extends Matcher
+	{
+		private final int m_rssi;
+
+		MinRssi(final int rssi)
+		{
+			m_rssi = rssi;
+		}
+
+		@Override boolean matches(final Target target)
+		{
+			return target.m_rssi >= m_rssi;
+		}
+
+		@Override int cost()
+		{
+			return COST_FREE;
+		}
+	}
+
+	private static final class MacOui extends Matcher
+	{
+		private final String m_prefix;
+
+		MacOui(final String oui)
+		{
+			final String hex = oui.replace(":", "").replace("-", "");
+
+			if( hex.length() != 6 || !hex.matches("[0-9a-fA-F]+") )
+			{
+				throw new IllegalArgumentException("Expected an OUI of three hex bytes, like 00:1A:7D, but got " + oui);
+			}
+
+			m_prefix = hex.substring(0, 2) + ":" + hex.substring(2, 4) + ":" + hex.substring(4, 6);
+		}
+
+		@Override boolean matches(final Target target)
+		{
+			final String macAddress = target.macAddress();
+
+			return macAddress != null && macAddress.regionMatches(/*ignoreCase*/true, 0, m_prefix, 0, m_prefix.length());
+		}
+
+		@Override int cost()
+		{
+			return COST_FREE;
+		}
+	}
+
+	private static final class MacAddress extends Matcher
+	{
+		private final String m_macAddress;
+
+		MacAddress(final String macAddress)
+		{
+			m_macAddress = macAddress;
+		}
+
+		@Override boolean matches(final Target target)
+		{
+			return m_macAddress.equalsIgnoreCase(target.macAddress());
+		}
+
+		@Override int cost()
+		{
+			return COST_FREE;
+		}
+	}
+
+	private static final class NamePrefix extends Matcher
+	{
+		private final String m_prefix;
+
+		NamePrefix(final String prefix)
+		{
+			m_prefix = prefix;
+		}
+
+		@Override boolean matches(final Target target)
+		{
+			final String name = target.name();
+
+			return name != null && name.startsWith(m_prefix);
+		}
+
+		@Override int cost()
+		{
+			return COST_NAME;
+		}
+	}
+
+	private static final class NamePattern extends Matcher
+	{
+		private final Pattern m_pattern;
+
+		NamePattern(final Pattern pattern)
+		{
+			m_pattern = pattern;
+		}
+
+		@Override boolean matches(final Target target)
+		{
+			final String name = target.name();
+
+			return name != null && m_pattern.matcher(name).matches();
+		}
+
+		@Override int cost()
+		{
+			return COST_NAME;
+		}
+	}
+
+	private static final class ServiceUuids extends Matcher
+	{
+		private final UUID[] m_uuids;
+
+		ServiceUuids(final Collection<UUID> uuids)
+		{
+			m_uuids = uuids.toArray(new UUID[uuids.size()]);
+		}
+
+		@Override boolean matches(final Target target)
+		{
+			for( int i = 0; i < m_uuids.length; i++ )
+			{
+				if( target.m_cursor.hasServiceUuid(m_uuids[i]) )  return true;
+			}
+
+			return false;
+		}
+
+		@Override int cost()
+		{
+			return COST_RECORD;
+		}
+	}
+
+	private static final class ManufacturerData extends Matcher
+	{
+		private final int m_manufacturerId;
+		private final MaskedBytes m_data;
+
+		ManufacturerData(final int manufacturerId, final MaskedBytes data)
+		{
+			m_manufacturerId = manufacturerId & 0xFFFF;
+			m_data = data;
+		}
+
+		@Override boolean matches(final Target target)
+		{
+			final ScanRecordCursor cursor = target.m_cursor.rewind();
+
+			//--- There can be more than one manufacturer specific data block, so check them all.
+			while( cursor.next() )
+			{
+				if( cursor.type() != ScanRecordCursor.DATA_TYPE_MANUFACTURER_SPECIFIC_DATA || cursor.dataLength() < 2 )  continue;
+
+				if( (cursor.dataAt(0) | (cursor.dataAt(1) << 8)) != m_manufacturerId )  continue;
+
+				if( m_data.matches(cursor, 2) )  return true;
+			}
+
+			return false;
+		}
+
+		@Override int cost()
+		{
+			return COST_RECORD;
+		}
+	}
+
+	private static final class ServiceData extends Matcher
+	{
+		private static final int DATA_TYPE_SERVICE_DATA_16_BIT		= ScanRecordCursor.DATA_TYPE_SERVICE_DATA;
+		private static final int DATA_TYPE_SERVICE_DATA_32_BIT		= ScanRecordCursor.DATA_TYPE_SERVICE_DATA_32_BIT;
+		private static final int DATA_TYPE_SERVICE_DATA_128_BIT	= ScanRecordCursor.DATA_TYPE_SERVICE_DATA_128_BIT;
+
+		private static final long BASE_UUID_MSB_LOW	= 0x00001000L;
+		private static final long BASE_UUID_LSB		= 0x800000805F9B34FBL;
+
+		//--- The UUID as it would appear in each kind of service data structure, in little-endian order, or null if it can't be shortened that much.
+		private final byte[] m_uuid16;
+		private final byte[] m_uuid32;
+		private final byte[] m_uuid128;
+		private final MaskedBytes m_data;
+
+		ServiceData(final UUID serviceUuid, final MaskedBytes data)
+		{
+			final long msb = serviceUuid.getMostSignificantBits();
+			final long lsb = serviceUuid.getLeastSignificantBits();
+			final boolean isShortenable = (msb & 0xFFFFFFFFL) == BASE_UUID_MSB_LOW && lsb == BASE_UUID_LSB;
+			final long shortUuid = msb >>> 32;
+
+			m_uuid16 = isShortenable && shortUuid <= 0xFFFF ? littleEndian(shortUuid, 2) : null;
+			m_uuid32 = isShortenable ? littleEndian(shortUuid, 4) : null;
+			m_uuid128 = new byte[16];
+			System.arraycopy(littleEndian(lsb, 8), 0, m_uuid128, 0, 8);
+			System.arraycopy(littleEndian(msb, 8), 0, m_uuid128, 8, 8);
+			m_data = data;
+		}
+
+		@Override boolean matches(final Target target)
+		{
+			final ScanRecordCursor cursor = target.m_cursor.rewind();
+
+			while( cursor.next() )
+			{
+				final byte[] uuid;
+
+				switch( cursor.type() )
+				{
+					case DATA_TYPE_SERVICE_DATA_16_BIT:		uuid = m_uuid16;	break;
+					case DATA_TYPE_SERVICE_DATA_32_BIT:		uuid = m_uuid32;	break;
+					case DATA_TYPE_SERVICE_DATA_128_BIT:	uuid = m_uuid128;	break;
+					default:								continue;
+				}
+
+				if( uuid == null || cursor.dataLength() < uuid.length )  continue;
+
+				if( startsWith(cursor, uuid) && m_data.matches(cursor, uuid.length) )  return true;
+			}
+
+			return false;
+		}
+
+		@Override int cost()
+		{
+			return COST_RECORD;
+		}
+
+		private static boolean startsWith(final ScanRecordCursor cursor, final byte[] bytes)
+		{
+			for( int i = 0; i < bytes.length; i++ )
+			{
+				if( cursor.dataAt(i) != (bytes[i] & 0xFF) )  return false;
+			}
+
+			return true;
+		}
+
+		private static byte[] littleEndian(final long value, final int size)
+		{
+			final byte[] bytes = new byte[size];
+
+			for( int i = 0; i < size; i++ )
+			{
+				bytes[i] = (byte) (value >>> (8 * i));
+			}
+
+			return bytes;
+		}
+	}
+
+	/**
+	 * Some data to look for at the start of a structure, with the mask already applied so that each byte is only one AND and a compare.
+	 */
+	private static final class MaskedBytes
+	{
+		private final int[] m_data;
+		private final int[] m_mask;
+
+		MaskedBytes(final byte[] data_nullable, final byte[] mask_nullable)
+		{
+			final int length = data_nullable != null ? data_nullable.length : 0;
+
+			m_data = new int[length];
+			m_mask = new int[length];
+
+			for( int i = 0; i < length; i++ )
+			{
+				m_mask[i] = mask_nullable != null && i < mask_nullable.length ? mask_nullable[i] & 0xFF : 0xFF;
+				m_data[i] = data_nullable[i] & m_mask[i];
+			}
+		}
+
+		final boolean matches(final ScanRecordCursor cursor, final int fromIndex)
+		{
+			if( cursor.dataLength() - fromIndex < m_data.length )  return false;
+
+			for( int i = 0; i < m_data.length; i++ )
+			{
+				if( (cursor.dataAt(fromIndex + i) & m_mask[i]) != m_data[i] )  return false;
+			}
+
+			return true;
+		}
+	}
+}
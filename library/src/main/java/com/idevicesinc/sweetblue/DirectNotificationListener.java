@@ -0,0 +1,29 @@
+package com.idevicesinc.sweetblue;
+
+
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+/**
+ * A bare-bones listener for high-rate notifications or indications, registered through
+ * {@link BleDevice#enableNotify_direct(UUID, UUID, DirectNotificationListener, Executor)}. Payloads are handed over as soon as
+ * Android delivers them, without going through SweetBlue's update thread, the {@link NotificationListener.NotificationEvent}/
+ * {@link BleDevice.ReadWriteListener.ReadWriteEvent} machinery, or a post to the main thread.
+ * <br><br>
+ * <b>Threading:</b> {@link #onNotification(BleDevice, UUID, UUID, byte[])} is called on the {@link Executor} given when subscribing. If
+ * none was given, it's called right on the thread Android delivers gatt callbacks on, which is a binder thread shared with every other
+ * gatt callback for the device, so it has to return quickly and can't block. It is never called on the main thread or SweetBlue's update
+ * thread unless the given {@link Executor} runs things there. Calls are in the order notifications arrived, as long as the
+ * {@link Executor} runs things in order.
+ * <br><br>
+ * Because notifications for a direct subscription skip the update thread, they aren't passed on to any {@link BleDevice.ReadWriteListener}
+ * or {@link NotificationListener}, and aren't recorded as historical data.
+ */
+public interface DirectNotificationListener
+{
+    /**
+     * Called for every notification or indication received on the subscribed characteristic. <code>data</code> is a copy of the native
+     * value that nothing else holds onto, so it's safe to keep.
+     */
+    void onNotification(BleDevice device, UUID serviceUuid, UUID charUuid, byte[] data);
+}
@@ -0,0 +1,232 @@
+package com.idevicesinc.sweetblue;
+
+import com.idevicesinc.sweetblue.annotations.Immutable;
+import com.idevicesinc.sweetblue.utils.P_Const;
+import java.util.Arrays;
+import java.util.UUID;
+
+
+/**
+ * Describes scan criteria which can be handed down to the Bluetooth stack itself, so that advertisements which don't match never make it to
+ * your app at all. Set these with {@link BleManagerConfig#nativeScanFilters} or {@link ScanOptions#withNativeScanFilters(NativeScanFilter...)}.
+ * <br><br>
+ * A single {@link NativeScanFilter} only matches a device that meets ALL of its criteria, and a device only needs to match ONE of the filters in a list.
+ * These are the same rules as {@link android.bluetooth.le.ScanFilter}, which is what these get turned into when {@link BleScanApi#POST_LOLLIPOP} is used.
+ * For the other scan APIs, SweetBlue applies the same criteria itself, as early as it can. Note that classic discovery never has a scan record, so
+ * only {@link Builder#withMacAddress(String)} can match anything when {@link BleScanApi#CLASSIC} is used.
+ * <br><br>
+ * These are applied before, and separately from, any {@link BleManagerConfig.ScanFilter}. Unlike a {@link BleManagerConfig.ScanFilter}, they also apply to
+ * devices that have already been discovered.
+ */
+@Immutable
+public final class NativeScanFilter
+{
+	private final String m_macAddress;
+	private final UUID m_serviceUuid;
+	private final int m_manufacturerId;
+	private final byte[] m_manufacturerData;
+	private final byte[] m_manufacturerDataMask;
+	private final UUID m_serviceDataUuid;
+	private final byte[] m_serviceData;
+	private final byte[] m_serviceDataMask;
+
+	//--- Used when the criteria can't be handed down to the stack.
+	private final CompiledScanFilter m_fallback;
+
+
+	private NativeScanFilter(final Builder builder)
+	{
+		m_macAddress = builder.m_macAddress;
+		m_serviceUuid = builder.m_serviceUuid;
+		m_manufacturerId = builder.m_manufacturerId;
+		m_manufacturerData = builder.m_manufacturerData;
+		m_manufacturerDataMask = builder.m_manufacturerDataMask;
+		m_serviceDataUuid = builder.m_serviceDataUuid;
+		m_serviceData = builder.m_serviceData;
+		m_serviceDataMask = builder.m_serviceDataMask;
+
+		final CompiledScanFilter.Builder fallback = new CompiledScanFilter.Builder();
+
+		if( m_macAddress != null )			fallback.withMacAddress(m_macAddress);
+		if( m_serviceUuid != null )			fallback.withServiceUuids(m_serviceUuid);
+		if( m_manufacturerId != -1 )		fallback.withManufacturerData(m_manufacturerId, m_manufacturerData, m_manufacturerDataMask);
+		if( m_serviceDataUuid != null )		fallback.withServiceData(m_serviceDataUuid, m_serviceData, m_serviceDataMask);
+
+		m_fallback = fallback.build();
+	}
+
+	/**
+	 * Returns the exact mac address to match, or <code>null</code> if any address is fine.
+	 */
+	public final String getMacAddress()
+	{
+		return m_macAddress;
+	}
+
+	/**
+	 * Returns the service {@link UUID} which must be advertised, or <code>null</code> if there isn't one.
+	 */
+	public final UUID getServiceUuid()
+	{
+		return m_serviceUuid;
+	}
+
+	/**
+	 * Returns the manufacturer id to match, or <code>-1</code> if there isn't one.
+	 */
+	public final int getManufacturerId()
+	{
+		return m_manufacturerId;
+	}
+
+	/**
+	 * Returns a copy of the data the manufacturer specific data must start with. Empty if only the manufacturer id has to match.
+	 */
+	public final byte[] getManufacturerData()
+	{
+		return m_manufacturerData.clone();
+	}
+
+	/**
+	 * Returns a copy of the mask for {@link #getManufacturerData()}, which is always the same length, or <code>null</code> if every bit has to match.
+	 */
+	public final byte[] getManufacturerDataMask()
+	{
+		return m_manufacturerDataMask != null ? m_manufacturerDataMask.clone() : null;
+	}
+
+	/**
+	 * Returns the service {@link UUID} whose service data must match, or <code>null</code> if there isn't one.
+	 */
+	public final UUID getServiceDataUuid()
+	{
+		return m_serviceDataUuid;
+	}
+
+	/**
+	 * Returns a copy of the data the service data must start with. Empty if the service data just has to be there.
+	 */
+	public final byte[] getServiceData()
+	{
+		return m_serviceData.clone();
+	}
+
+	/**
+	 * Returns a copy of the mask for {@link #getServiceData()}, which is always the same length, or <code>null</code> if every bit has to match.
+	 */
+	public final byte[] getServiceDataMask()
+	{
+		return m_serviceDataMask != null ? m_serviceDataMask.clone() : null;
+	}
+
+	/*package*/ final boolean matches(final CompiledScanFilter.Target target)
+	{
+		return m_fallback.matches(target);
+	}
+
+	@Override public final String toString()
+	{
+		return "NativeScanFilter{macAddress=" + m_macAddress + ", serviceUuid=" + m_serviceUuid + ", manufacturerId=" + m_manufacturerId +
+				", manufacturerData=" + Arrays.toString(m_manufacturerData) + ", serviceDataUuid=" + m_serviceDataUuid + ", serviceData=" + Arrays.toString(m_serviceData) + "}";
+	}
+
+
+	/**
+	 * Builds a {@link NativeScanFilter}. Each criterion can only be given once, because that's all the native stack supports - calling
+	 * the same method twice just replaces the first value.
+	 */
+	public static final class Builder
+	{
+		private String m_macAddress = null;
+		private UUID m_serviceUuid = null;
+		private int m_manufacturerId = -1;
+		private byte[] m_manufacturerData = P_Const.EMPTY_BYTE_ARRAY;
+		private byte[] m_manufacturerDataMask = null;
+		private UUID m_serviceDataUuid = null;
+		private byte[] m_serviceData = P_Const.EMPTY_BYTE_ARRAY;
+		private byte[] m_serviceDataMask = null;
+
+
+		/**
+		 * The device must have exactly the given mac address, for instance "00:1A:7D:DA:71:13". Case doesn't matter.
+		 *
+		 * @throws IllegalArgumentException if <code>macAddress</code> isn't a valid mac address.
+		 */
+		public final Builder withMacAddress(final String macAddress)
+		{
+			if( macAddress == null || !macAddress.matches("([0-9a-fA-F]{2}:){5}[0-9a-fA-F]{2}") )
+			{
+				throw new IllegalArgumentException("Expected a mac address like 00:1A:7D:DA:71:13, but got " + macAddress);
+			}
+
+			m_macAddress = macAddress.toUpperCase();
+
+			return this;
+		}
+
+		/**
+		 * The device must advertise the given service {@link UUID}.
+		 */
+		public final Builder withServiceUuid(final UUID serviceUuid)
+		{
+			m_serviceUuid = serviceUuid;
+
+			return this;
+		}
+
+		/**
+		 * Overload of {@link #withManufacturerData(int, byte[], byte[])} which only checks the manufacturer id.
+		 */
+		public final Builder withManufacturerId(final int manufacturerId)
+		{
+			return withManufacturerData(manufacturerId, null, null);
+		}
+
+		/**
+		 * The device must advertise manufacturer specific data with the given manufacturer id, which starts with the given bytes once both are
+		 * ANDed with <code>mask_nullable</code>. The data doesn't include the manufacturer id itself. A <code>null</code> mask means every bit has to
+		 * match, and a mask shorter than the data is padded with <code>0xFF</code>.
+		 */
+		public final Builder withManufacturerData(final int manufacturerId, final byte[] data_nullable, final byte[] mask_nullable)
+		{
+			m_manufacturerId = manufacturerId & 0xFFFF;
+			m_manufacturerData = data_nullable != null ? data_nullable.clone() : P_Const.EMPTY_BYTE_ARRAY;
+			m_manufacturerDataMask = maskFor(m_manufacturerData, mask_nullable);
+
+			return this;
+		}
+
+		/**
+		 * The device must advertise service data for the given service {@link UUID}, which starts with the given bytes once both are ANDed with
+		 * <code>mask_nullable</code>. Masks work the same as {@link #withManufacturerData(int, byte[], byte[])}.
+		 */
+		public final Builder withServiceData(final UUID serviceUuid, final byte[] data_nullable, final byte[] mask_nullable)
+		{
+			m_serviceDataUuid = serviceUuid;
+			m_serviceData = data_nullable != null ? data_nullable.clone() : P_Const.EMPTY_BYTE_ARRAY;
+			m_serviceDataMask = maskFor(m_serviceData, mask_nullable);
+
+			return this;
+		}
+
+		public final NativeScanFilter build()
+		{
+			return new NativeScanFilter(this);
+		}
+
+		//--- The native stack insists on the mask being exactly as long as the data.
+		private static byte[] maskFor(final byte[] data, final byte[] mask_nullable)
+		{
+			if( mask_nullable == null )  return null;
+
+			final byte[] mask = new byte[data.length];
+
+			for( int i = 0; i < mask.length; i++ )
+			{
+				mask[i] = i < mask_nullable.length ? mask_nullable[i] : (byte) 0xFF;
+			}
+
+			return mask;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.utils.EpochTime;
+import com.idevicesinc.sweetblue.utils.GenericListener_Void;
+import com.idevicesinc.sweetblue.utils.Interval;
+import com.idevicesinc.sweetblue.utils.Utils_String;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Listener for notifications delivered in batches, registered through
+ * {@link BleDevice#enableNotify_batched(UUID, UUID, int, Interval, NotificationBatchListener)}. Instead of one event (and one post to
+ * the main thread) per notification, you get one {@link NotificationBatch} holding every notification received since the last one.
+ * <br><br>
+ * Batches are posted the same way every other SweetBlue callback is, so they'll come in on the main thread unless
+ * {@link BleManagerConfig#runOnMainThread} says otherwise.
+ */
+public interface NotificationBatchListener extends GenericListener_Void<NotificationBatchListener.NotificationBatch>
+{
+
+    /**
+     * Holds a run of notifications for one characteristic, in the order they were received. All the payloads are packed one after another
+     * into a single array, see {@link #data_raw()} and {@link #offset(int)}, and the time each was received is in a parallel array, so
+     * looking at a batch doesn't create any objects.
+     */
+    @com.idevicesinc.sweetblue.annotations.Immutable
+    class NotificationBatch extends com.idevicesinc.sweetblue.utils.Event
+    {
+        /**
+         * The {@link BleDevice} the notifications came from.
+         */
+        public BleDevice device()
+        {
+            return m_device;
+        }
+
+        private final BleDevice m_device;
+
+        /**
+         * Convience to return the mac address of {@link #device()}.
+         */
+        public String macAddress()
+        {
+            return m_device.getMacAddress();
+        }
+
+        /**
+         * The {@link UUID} of the service the notifications came from, or {@link NotificationListener.NotificationEvent#NON_APPLICABLE_UUID}
+         * if it wasn't given when subscribing, and isn't known.
+         */
+        public UUID serviceUuid()
+        {
+            return m_serviceUuid;
+        }
+
+        private final UUID m_serviceUuid;
+
+        /**
+         * The {@link UUID} of the characteristic the notifications came from.
+         */
+        public UUID charUuid()
+        {
+            return m_charUuid;
+        }
+
+        private final UUID m_charUuid;
+
+        private final int m_size;
+        private final long[] m_times;
+        private final int[] m_offsets;
+        private final byte[] m_data;
+
+
+        NotificationBatch(final BleDevice device, final UUID serviceUuid, final UUID charUuid, final int size, final long[] times, final int[] offsets, final byte[] data)
+        {
+            m_device = device;
+            m_serviceUuid = serviceUuid != null ? serviceUuid : NotificationListener.NotificationEvent.NON_APPLICABLE_UUID;
+            m_charUuid = charUuid;
+            m_size = size;
+            m_times = times;
+            m_offsets = offsets;
+            m_data = data;
+        }
+
+        /**
+         * The number of notifications in this batch.
+         */
+        public int size()
+        {
+            return m_size;
+        }
+
+        /**
+         * The time the notification at the given index was received, in milliseconds since the epoch, like {@link System#currentTimeMillis()}.
+         */
+        public long timestamp(final int index)
+        {
+            return m_times[index];
+        }
+
+        /**
+         * Same as {@link #timestamp(int)}, but wrapped in an {@link EpochTime}.
+         */
+        public EpochTime time(final int index)
+        {
+            return new EpochTime(timestamp(index));
+        }
+
+        /**
+         * Where in {@link #data_raw()} the payload of the notification at the given index starts.
+         */
+        public int offset(final int index)
+        {
+            return m_offsets[index];
+        }
+
+        /**
+         * The length of the payload of the notification at the given index.
+         */
+        public int length(final int index)
+        {
+            return m_offsets[index + 1] - m_offsets[index];
+        }
+
+        /**
+         * Every payload in this batch, one after another. The payload of the notification at index <code>i</code> is the
+         * {@link #length(int)} bytes starting at {@link #offset(int)}. Don't modify this array.
+         */
+        public byte[] data_raw()
+        {
+            return m_data;
+        }
+
+        /**
+         * Returns a copy of the payload of the notification at the given index.
+         */
+        public byte[] data(final int index)
+        {
+            return Arrays.copyOfRange(m_data, offset(index), offset(index) + length(index));
+        }
+
+        @Override public String toString()
+        {
+            return Utils_String.toString
+            (
+                this.getClass(),
+                "charUuid", device().getManager().getLogger().charName(charUuid()),
+                "size", size(),
+                "bytes", m_offsets[m_size]
+            );
+        }
+    }
+
+}
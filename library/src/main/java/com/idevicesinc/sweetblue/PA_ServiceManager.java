@@ -9,6 +9,7 @@ import com.idevicesinc.sweetblue.utils.PresentData;
 import com.idevicesinc.sweetblue.utils.Utils;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
@@ -16,11 +17,30 @@ import java.util.UUID;
 
 abstract class PA_ServiceManager
 {
+    // Only set while the native service list is known not to change, see buildAttributeIndex().
+    private volatile P_GattAttributeIndex m_attributeIndex;
+
 
     PA_ServiceManager()
     {
     }
 
+    /**
+     * Takes a snapshot of the current native services, which characteristic lookups use until {@link #clearAttributeIndex()} is called. Should
+     * only be called once services have been discovered, and cleared as soon as they might change (rediscovery, gatt refresh, disconnect).
+     */
+    void buildAttributeIndex()
+    {
+        final List<BluetoothGattService> services = getNativeServiceList_cloned();
+
+        m_attributeIndex = new P_GattAttributeIndex(services, getServicesWithUhOhs(services));
+    }
+
+    void clearAttributeIndex()
+    {
+        m_attributeIndex = null;
+    }
+
     public abstract BleServiceWrapper getServiceDirectlyFromNativeNode(final UUID uuid);
 
     protected abstract List<BluetoothGattService> getNativeServiceList_original();
@@ -28,6 +48,19 @@ abstract class PA_ServiceManager
 
     public BleCharacteristicWrapper getCharacteristic(final UUID serviceUuid_nullable, final UUID charUuid)
     {
+        final P_GattAttributeIndex index = m_attributeIndex;
+
+        if (index != null)
+        {
+            final BleCharacteristicWrapper characteristic = index.getCharacteristic(serviceUuid_nullable, charUuid);
+
+            //--- Null means the service was left out of the index, see getServicesWithUhOhs().
+            if (characteristic != null)
+            {
+                return characteristic;
+            }
+        }
+
         if (serviceUuid_nullable == null)
         {
             final List<BluetoothGattService> serviceList_native = getNativeServiceList_original();
@@ -57,6 +90,19 @@ abstract class PA_ServiceManager
 
     public BleCharacteristicWrapper getCharacteristic(final UUID serviceUuid_nullable, final UUID charUuid, final DescriptorFilter filter)
     {
+        final P_GattAttributeIndex index = m_attributeIndex;
+
+        if (index != null)
+        {
+            final BleCharacteristicWrapper characteristic = index.getCharacteristic(serviceUuid_nullable, charUuid, filter);
+
+            //--- Null means the service was left out of the index, see getServicesWithUhOhs().
+            if (characteristic != null)
+            {
+                return characteristic;
+            }
+        }
+
         if (serviceUuid_nullable == null)
         {
             final List<BluetoothGattService> serviceList_native = getNativeServiceList_original();
@@ -85,6 +131,37 @@ abstract class PA_ServiceManager
         }
     }
 
+    /**
+     * The index doesn't need the native node to find a service, but the native node is still asked once for each service when the index is
+     * built. Problems it runs into (e.g. {@link BleManager.UhOhListener.UhOh#CONCURRENT_EXCEPTION}) are usually only temporary, so services
+     * it had trouble with are left out of the index, and lookups for them go to the native node every time, reporting (and retrying) the
+     * same as when there's no index.
+     */
+    private HashSet<UUID> getServicesWithUhOhs(final List<BluetoothGattService> services)
+    {
+        final HashSet<UUID> withUhOhs = new HashSet<>();
+        final HashSet<UUID> checked = new HashSet<>();
+
+        for (int i = 0; i < services.size(); i++)
+        {
+            final BluetoothGattService service_ith = services.get(i);
+
+            if (service_ith == null || !checked.add(service_ith.getUuid()))
+            {
+                continue;
+            }
+
+            final BleServiceWrapper service = getServiceDirectlyFromNativeNode(service_ith.getUuid());
+
+            if (service.hasUhOh())
+            {
+                withUhOhs.add(service_ith.getUuid());
+            }
+        }
+
+        return withUhOhs;
+    }
+
     private BleCharacteristicWrapper getCharacteristic(final BleServiceWrapper service, final UUID charUuid)
     {
         if (!service.isNull())
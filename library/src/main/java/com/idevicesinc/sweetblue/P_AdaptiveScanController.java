@@ -0,0 +1,126 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.AdaptiveScanPolicy.Decision;
+import com.idevicesinc.sweetblue.AdaptiveScanPolicy.State;
+import com.idevicesinc.sweetblue.utils.Interval;
+
+
+/**
+ * Keeps track of what's found during each scan window, and turns it into an activity level for {@link AdaptiveScanPolicy} at the end of the window.
+ * Everything is counted and decided on the update thread, but {@link #getState()} can be called from anywhere.
+ */
+final class P_AdaptiveScanController
+{
+	//--- Below this, activity is just considered to be zero, so backing off doesn't go on forever.
+	private static final double MIN_ACTIVITY = .01;
+
+	private int m_newDeviceCount;
+	private int m_rediscoveryCount;
+	private int m_resultCount;
+	private int m_batchCount;
+
+	private volatile State m_state = State.INITIAL;
+
+
+	/**
+	 * Called after each batch of scan results has been through {@link BleManager#onDiscoveredFromNativeStack(java.util.List)}.
+	 */
+	final void onBatch(final int resultCount, final int newDeviceCount, final int rediscoveryCount)
+	{
+		m_resultCount += resultCount;
+		m_batchCount++;
+		m_newDeviceCount += newDeviceCount;
+		m_rediscoveryCount += rediscoveryCount;
+	}
+
+	/**
+	 * Called whenever a scan stops or pauses. Returns the new state, or the old one if the window was too short to say anything about.
+	 */
+	final State endWindow(final AdaptiveScanPolicy policy, final double windowTime_secs, final int scanBufferSize)
+	{
+		if( windowTime_secs <= 0.0 )
+		{
+			reset();
+
+			return m_state;
+		}
+
+		final State previous = m_state;
+		final double newDeviceRate = m_newDeviceCount / windowTime_secs;
+		final double rediscoveryRate = m_rediscoveryCount / windowTime_secs;
+		final double meanBatchSize = m_batchCount > 0 ? (double) m_resultCount / m_batchCount : 0.0;
+		final boolean overloaded = scanBufferSize > 0 && meanBatchSize >= scanBufferSize / 2.0;
+
+		final double fullRate = policy.newDevicesPerSecondForFullActivity > 0.0 ? policy.newDevicesPerSecondForFullActivity : 1.0;
+		final double target = clamp((newDeviceRate + policy.rediscoveryWeight * rediscoveryRate) / fullRate);
+
+		final Decision decision;
+		double activity = previous.activity();
+
+		if( target > activity )
+		{
+			//--- Ramp up straight away, as new devices are what people are scanning for in the first place.
+			activity = target;
+			decision = Decision.RAMP_UP;
+		}
+		else if( activity - target >= MIN_ACTIVITY )
+		{
+			activity = Math.max(target, activity * clamp(policy.backOffFactor));
+			activity = activity < MIN_ACTIVITY ? 0.0 : activity;
+			decision = Decision.BACK_OFF;
+		}
+		else
+		{
+			decision = Decision.HOLD;
+		}
+
+		reset();
+
+		m_state = new State(decision, activity, newDeviceRate, rediscoveryRate, meanBatchSize, overloaded, previous.windowCount() + 1);
+
+		return m_state;
+	}
+
+	/**
+	 * Returns the scan window length to use, or <code>configured</code> if the policy is <code>null</code>.
+	 */
+	final Interval getActiveTime(final AdaptiveScanPolicy policy_nullable, final Interval configured)
+	{
+		return policy_nullable != null ? m_state.activeTime(policy_nullable) : configured;
+	}
+
+	/**
+	 * Returns the pause between scans to use, or <code>configured</code> if the policy is <code>null</code>.
+	 */
+	final Interval getPauseTime(final AdaptiveScanPolicy policy_nullable, final Interval configured)
+	{
+		return policy_nullable != null ? m_state.pauseTime(policy_nullable) : configured;
+	}
+
+	/**
+	 * Returns the scan power to use, or <code>configured</code> if the policy is <code>null</code>.
+	 */
+	final BleScanPower getPower(final AdaptiveScanPolicy policy_nullable, final BleScanPower configured)
+	{
+		return policy_nullable != null ? m_state.power(policy_nullable) : configured;
+	}
+
+	final State getState()
+	{
+		return m_state;
+	}
+
+	private void reset()
+	{
+		m_newDeviceCount = 0;
+		m_rediscoveryCount = 0;
+		m_resultCount = 0;
+		m_batchCount = 0;
+	}
+
+	private static double clamp(final double value)
+	{
+		return Math.max(0.0, Math.min(1.0, value));
+	}
+}
@@ -94,14 +94,18 @@ final class P_BleDevice_Listeners extends BluetoothGattCallback
                     }
                     else if (state == PE_TaskState.FAILED_IMMEDIATELY)
                     {
+                        m_device.m_serviceLayoutMngr.onDiscoveryFailed();
                         m_device.disconnectWithReason(BleDevice.ConnectionFailListener.Status.DISCOVERING_SERVICES_FAILED, BleDevice.ConnectionFailListener.Timing.IMMEDIATELY, discoverTask.getGattStatus(), BleStatuses.BOND_FAIL_REASON_NOT_APPLICABLE, m_device.NULL_READWRITE_EVENT());
                     }
                     else if (state == PE_TaskState.TIMED_OUT)
                     {
+                        m_device.m_serviceLayoutMngr.onDiscoveryFailed();
                         m_device.disconnectWithReason(BleDevice.ConnectionFailListener.Status.DISCOVERING_SERVICES_FAILED, BleDevice.ConnectionFailListener.Timing.TIMED_OUT, discoverTask.getGattStatus(), BleStatuses.BOND_FAIL_REASON_NOT_APPLICABLE, m_device.NULL_READWRITE_EVENT());
                     }
                     else
                     {
+                        m_device.m_serviceLayoutMngr.onDiscoveryFailed();
+
                         // If an explicit disconnect() was called while discovering services, we do NOT want to throw another disconnectWithReason (the task will do it when it executes)
                         if (!m_device.queue().isInQueue(P_Task_Disconnect.class, m_device))
                         {
@@ -283,6 +287,9 @@ final class P_BleDevice_Listeners extends BluetoothGattCallback
 
         if (Utils.isSuccess(gattStatus))
         {
+            // The service list won't change again until the next discovery or disconnect, so lookups can use an index from here on.
+            m_device.serviceMngr_device().buildAttributeIndex();
+
             m_queue.succeed(P_Task_DiscoverServices.class, m_device);
         }
         else
@@ -570,6 +577,11 @@ final class P_BleDevice_Listeners extends BluetoothGattCallback
     @Override
     public final void onCharacteristicChanged(final BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic)
     {
+        if (m_device.m_directNotifyMngr.dispatch(characteristic))
+        {
+            return;
+        }
+
         final byte[] value = characteristic.getValue() == null ? null : characteristic.getValue().clone();
 
         m_device.getManager().getPostManager().runOrPostToUpdateThread(new Runnable()
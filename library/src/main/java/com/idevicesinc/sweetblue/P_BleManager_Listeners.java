@@ -597,6 +597,11 @@ final class P_BleManager_Listeners
      * See the copy/pasted log statements in {@link BleStatuses} for an example of how the state changes
      * occur over the course of a few seconds in Android M.
      */
+    final boolean isPollingNativeState()
+    {
+        return Utils.isMarshmallow() && m_mngr.m_config.allowManagerStatePolling && Interval.isEnabled(m_pollRate);
+    }
+
     public void update(double time_Step)
     {
 //		m_mngr.getLogger().e("*********************" + m_mngr.getLogger().gattBleState(getBleState()));
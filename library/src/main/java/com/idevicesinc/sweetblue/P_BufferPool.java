@@ -0,0 +1,155 @@
+package com.idevicesinc.sweetblue;
+
+
+import java.util.UUID;
+
+/**
+ * A small pool of buffers for {@link PooledPayload}, bucketed by power-of-two size from {@link #SMALLEST_SIZE} up to {@link #LARGEST_SIZE},
+ * the biggest value an attribute can have. Payloads any bigger than that get a buffer that isn't pooled, and each bucket only holds onto
+ * {@link #MAX_PER_SIZE} free buffers, so a burst doesn't keep memory around forever.
+ * <br><br>
+ * Each notification gets its own {@link PooledPayload}, which is only a handle onto a buffer, so that a handle an app held onto past
+ * {@link PooledPayload#release()} can never see, or give back, a buffer that's since gone to a later notification.
+ */
+final class P_BufferPool
+{
+	static final int SMALLEST_SIZE = 32;
+	static final int LARGEST_SIZE = 512;
+	static final int MAX_PER_SIZE = 16;
+
+	static final class Buffer
+	{
+		final byte[] m_data;
+
+		//--- Filled in for each notification, so that handing one off to an Executor doesn't need a new Runnable every time.
+		private PooledPayload m_payload;
+		private BleDevice m_device;
+		private UUID m_serviceUuid;
+		private UUID m_charUuid;
+		private PooledNotificationListener m_listener;
+
+		private final Runnable m_delivery = new Runnable()
+		{
+			@Override public void run()
+			{
+				deliver();
+			}
+		};
+
+		private Buffer(final int capacity)
+		{
+			m_data = new byte[capacity];
+		}
+
+		final Runnable prepareDelivery(final PooledPayload payload, final BleDevice device, final UUID serviceUuid, final UUID charUuid, final PooledNotificationListener listener)
+		{
+			m_payload = payload;
+			m_device = device;
+			m_serviceUuid = serviceUuid;
+			m_charUuid = charUuid;
+			m_listener = listener;
+
+			return m_delivery;
+		}
+
+		private void deliver()
+		{
+			final PooledPayload payload = m_payload;
+			final BleDevice device = m_device;
+			final UUID serviceUuid = m_serviceUuid;
+			final UUID charUuid = m_charUuid;
+			final PooledNotificationListener listener = m_listener;
+
+			//--- Cleared before calling out, since the listener can release the payload and the buffer can go to the next notification right away.
+			m_payload = null;
+			m_device = null;
+			m_listener = null;
+
+			listener.onNotification(device, serviceUuid, charUuid, payload);
+		}
+	}
+
+	private final Buffer[][] m_free;
+	private final int[] m_freeCount;
+
+
+	P_BufferPool()
+	{
+		final int sizeCount = sizeClass(LARGEST_SIZE) + 1;
+
+		m_free = new Buffer[sizeCount][MAX_PER_SIZE];
+		m_freeCount = new int[sizeCount];
+	}
+
+	/**
+	 * Returns a new payload holding the given value, in a released buffer if there is one.
+	 */
+	final PooledPayload obtain(final byte[] value_nullable)
+	{
+		final int length = value_nullable != null ? value_nullable.length : 0;
+		final int sizeClass = sizeClass(length);
+		final Buffer buffer;
+
+		if( sizeClass < 0 )
+		{
+			buffer = new Buffer(length);
+		}
+		else
+		{
+			buffer = take(sizeClass);
+		}
+
+		if( length > 0 )
+		{
+			System.arraycopy(value_nullable, 0, buffer.m_data, 0, length);
+		}
+
+		return new PooledPayload(sizeClass < 0 ? null : this, buffer, length);
+	}
+
+	private synchronized Buffer take(final int sizeClass)
+	{
+		if( m_freeCount[sizeClass] == 0 )
+		{
+			return new Buffer(SMALLEST_SIZE << sizeClass);
+		}
+
+		m_freeCount[sizeClass]--;
+
+		final Buffer buffer = m_free[sizeClass][m_freeCount[sizeClass]];
+
+		m_free[sizeClass][m_freeCount[sizeClass]] = null;
+
+		return buffer;
+	}
+
+	/**
+	 * Only ever called once per {@link PooledPayload}, see {@link PooledPayload#release()}.
+	 */
+	final synchronized void release(final Buffer buffer)
+	{
+		final int sizeClass = sizeClass(buffer.m_data.length);
+
+		if( sizeClass < 0 || m_freeCount[sizeClass] == MAX_PER_SIZE )  return;
+
+		m_free[sizeClass][m_freeCount[sizeClass]] = buffer;
+		m_freeCount[sizeClass]++;
+	}
+
+	/**
+	 * Returns the index of the smallest bucket that fits the given length, or -1 if it's too big to pool.
+	 */
+	private static int sizeClass(final int length)
+	{
+		int sizeClass = 0;
+
+		for( int size = SMALLEST_SIZE; size < length; size <<= 1 )
+		{
+			if( size >= LARGEST_SIZE )  return -1;
+
+			sizeClass++;
+		}
+
+		return sizeClass;
+	}
+}
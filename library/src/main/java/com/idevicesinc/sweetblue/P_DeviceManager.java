@@ -2,8 +2,11 @@ package com.idevicesinc.sweetblue;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 import com.idevicesinc.sweetblue.BleDevice.BondListener;
 import com.idevicesinc.sweetblue.BleDevice.ConnectionFailListener;
@@ -20,12 +23,32 @@ final class P_DeviceManager
 {
     private final HashMap<String, BleDevice> m_map = new HashMap<String, BleDevice>();
     private final ArrayList<BleDevice> m_list = new ArrayList<BleDevice>();
+    // Which devices are in which states, kept in the same order as m_list, so state queries don't have to check every device.
+    private final P_DeviceStateIndex m_stateIndex = new P_DeviceStateIndex();
+    // Devices sorted with BleManagerConfig.defaultListComparator, so that m_list itself can stay in the order devices were added.
+    private final P_SortedDeviceView m_sortedView = new P_SortedDeviceView();
 
     private final P_Logger m_logger;
     private final BleManager m_mngr;
 
     private boolean m_updating = false;
 
+    // Only non-null while BleManagerConfig.useDeadlineDrivenUpdates is on. Holds the time each device next needs to be updated.
+    private P_TimerWheel<BleDevice> m_deadlines;
+    private final ArrayList<BleDevice> m_dueDevices = new ArrayList<BleDevice>();
+
+    // Used instead of m_deadlines while BleManagerConfig.useDeadlineDrivenUpdates is off. Only these devices are updated every tick, the rest
+    // have nothing time-based going on, and get the time they missed applied when they become active again (see BleDevice.update_deadlineDriven()).
+    // Every newly discovered device comes through here, so adding and removing has to be constant time. It's copied into m_dueDevices to iterate.
+    private final Set<BleDevice> m_activeDevices = Collections.newSetFromMap(new IdentityHashMap<BleDevice, Boolean>());
+
+    // The earliest time each device could be stale enough to undiscover, so purging only has to look at devices that are actually due.
+    // Created the first time devices are purged, so the cache never has one.
+    private P_TimerWheel<BleDevice> m_staleDeadlines;
+    // Devices past their keep alive that can't be purged in their current state (connected, etc.), checked on every purge instead.
+    private final ArrayList<BleDevice> m_stalePurgeBlocked = new ArrayList<BleDevice>();
+    private final ArrayList<BleDevice> m_staleCandidates = new ArrayList<BleDevice>();
+
 
     P_DeviceManager(BleManager mngr)
     {
@@ -35,26 +58,39 @@ final class P_DeviceManager
 
     public ArrayList<BleDevice> getList()
     {
-        return getList_private(false);
+        return m_list;
     }
 
-    public ArrayList<BleDevice> getList_sorted()
+    /**
+     * Returns the devices sorted with {@link BleManagerConfig#defaultListComparator}, as an immutable snapshot that's safe to hold on to and
+     * iterate over. If there's no comparator, the devices are in the order they were added.
+     */
+    public List<BleDevice> getList_sorted()
     {
-        return getList_private(true);
-    }
+        final Comparator<BleDevice> comparator = m_mngr.m_config.defaultListComparator;
 
-    private ArrayList<BleDevice> getList_private(boolean sort)
-    {
-        if (sort && m_mngr.m_config.defaultListComparator != null)
-        {
-            Collections.sort(m_list, m_mngr.m_config.defaultListComparator);
-        }
-        return m_list;
+        return comparator != null ? m_sortedView.get(comparator) : Collections.unmodifiableList(new ArrayList<BleDevice>(m_list));
     }
 
     void forEach(final Object forEach, final Object... query)
     {
         final boolean isQueryValid = query != null && query.length > 0;
+        final List<BleDevice> candidates = isQueryValid ? m_stateIndex.getCandidates(query) : null;
+
+        if (candidates != null)
+        {
+            for (int i = 0; i < candidates.size(); i++)
+            {
+                final BleDevice ith = candidates.get(i);
+
+                if (ith.is(query) && !forEach_invoke(forEach, ith))
+                {
+                    break;
+                }
+            }
+
+            return;
+        }
 
         for (int i = 0; i < m_mngr.getDeviceCount(); i++)
         {
@@ -176,13 +212,20 @@ final class P_DeviceManager
 
     public BleDevice getDevice(final int mask_BleDeviceState)
     {
-        for (int i = 0; i < getCount(); i++)
+        return m_stateIndex.getFirst(mask_BleDeviceState);
+    }
+
+    public BleDevice getDevice(final Object... query)
+    {
+        final List<BleDevice> candidates = getCandidates(query);
+
+        for (int i = 0; i < candidates.size(); i++)
         {
-            BleDevice device = get(i);
+            final BleDevice device_ith = candidates.get(i);
 
-            if (device.isAny(mask_BleDeviceState))
+            if (device_ith.is(query))
             {
-                return device;
+                return device_ith;
             }
         }
 
@@ -192,59 +235,47 @@ final class P_DeviceManager
     public List<BleDevice> getDevices_List(boolean sort, Object... query)
     {
         final ArrayList<BleDevice> toReturn = new ArrayList<BleDevice>();
+        // Picking the matches out of the already sorted view is cheaper than sorting them all over again.
+        final List<BleDevice> candidates = sort ? getList_sorted() : getCandidates(query);
 
-        for (int i = 0; i < this.getCount(); i++)
+        for (int i = 0; i < candidates.size(); i++)
         {
-            final BleDevice device_ith = this.get(i);
+            final BleDevice device_ith = candidates.get(i);
 
             if (device_ith.is(query))
             {
                 toReturn.add(device_ith);
             }
         }
-        if (sort && m_mngr.m_config.defaultListComparator != null)
-        {
-            Collections.sort(toReturn, m_mngr.m_config.defaultListComparator);
-        }
         return toReturn;
     }
 
     public List<BleDevice> getDevices_List(boolean sort, final BleDeviceState state)
     {
-        final ArrayList<BleDevice> toReturn = new ArrayList<BleDevice>();
-
-        for (int i = 0; i < this.getCount(); i++)
-        {
-            final BleDevice device_ith = this.get(i);
-
-            if (device_ith.is(state))
-            {
-                toReturn.add(device_ith);
-            }
-        }
-        if (sort && m_mngr.m_config.defaultListComparator != null)
-        {
-            Collections.sort(toReturn, m_mngr.m_config.defaultListComparator);
-        }
-        return toReturn;
+        return getDevices_List(sort, state.bit());
     }
 
     public List<BleDevice> getDevices_List(boolean sort, final int mask_BleDeviceState)
     {
         final ArrayList<BleDevice> toReturn = new ArrayList<BleDevice>();
 
-        for (int i = 0; i < this.getCount(); i++)
+        if (sort)
         {
-            final BleDevice device_ith = this.get(i);
+            final List<BleDevice> sorted = getList_sorted();
 
-            if (device_ith.isAny(mask_BleDeviceState))
+            for (int i = 0; i < sorted.size(); i++)
             {
-                toReturn.add(device_ith);
+                final BleDevice device_ith = sorted.get(i);
+
+                if (device_ith.isAny(mask_BleDeviceState))
+                {
+                    toReturn.add(device_ith);
+                }
             }
         }
-        if (sort && m_mngr.m_config.defaultListComparator != null)
+        else
         {
-            Collections.sort(toReturn, m_mngr.m_config.defaultListComparator);
+            m_stateIndex.getDevices(mask_BleDeviceState, toReturn);
         }
         return toReturn;
     }
@@ -269,10 +300,11 @@ final class P_DeviceManager
     int getCount(Object[] query)
     {
         int count = 0;
+        final List<BleDevice> candidates = getCandidates(query);
 
-        for (int i = 0; i < m_list.size(); i++)
+        for (int i = 0; i < candidates.size(); i++)
         {
-            BleDevice device_ith = m_list.get(i);
+            BleDevice device_ith = candidates.get(i);
 
             if (device_ith.is(query))
             {
@@ -285,19 +317,26 @@ final class P_DeviceManager
 
     int getCount(BleDeviceState state)
     {
-        int count = 0;
+        return m_stateIndex.getCount(state);
+    }
 
-        for (int i = 0; i < m_list.size(); i++)
-        {
-            BleDevice device_ith = m_list.get(i);
+    // Returns the devices that could match the query, which is every device if the query doesn't ask for any particular state to be on.
+    private List<BleDevice> getCandidates(final Object[] query)
+    {
+        final List<BleDevice> candidates = query != null && query.length > 0 ? m_stateIndex.getCandidates(query) : null;
 
-            if (device_ith.is(state))
-            {
-                count++;
-            }
-        }
+        return candidates != null ? candidates : m_list;
+    }
 
-        return count;
+    void onStateChange(final BleDevice device, final int newStateBits)
+    {
+        m_stateIndex.onStateChange(device, newStateBits);
+        m_sortedView.onKeyChange(device);
+    }
+
+    void onSortKeyChange(final BleDevice device)
+    {
+        m_sortedView.onKeyChange(device);
     }
 
     int getCount()
@@ -324,6 +363,26 @@ final class P_DeviceManager
 
                 m_list.add(device);
                 m_map.put(device.getMacAddress(), device);
+                m_stateIndex.add(device);
+                m_sortedView.add(device);
+
+                if (m_deadlines != null)
+                {
+                    final long now = System.currentTimeMillis();
+
+                    device.setLastUpdateTime(now);
+                    m_deadlines.schedule(device, now);
+                }
+                else
+                {
+                    //--- Gets one regular update, and drops out after that if there's nothing going on.
+                    activate(device, System.currentTimeMillis());
+                }
+
+                if (m_staleDeadlines != null)
+                {
+                    scheduleStaleCheck(device, System.currentTimeMillis());
+                }
             }
         });
     }
@@ -362,6 +421,26 @@ final class P_DeviceManager
 
         m_list.remove(device);
         m_map.remove(device.getMacAddress());
+        m_stateIndex.remove(device);
+        m_sortedView.remove(device);
+
+        if (m_deadlines != null)
+        {
+            m_deadlines.cancel(device);
+            device.setLastUpdateTime(0);
+        }
+        else if (!m_activeDevices.remove(device))
+        {
+            //--- Apply the time it sat idle, so it's up to date when it's stuck in the cache without being updated.
+            device.update_deadlineDriven(System.currentTimeMillis());
+            device.setLastUpdateTime(0);
+        }
+
+        if (m_staleDeadlines != null)
+        {
+            m_staleDeadlines.cancel(device);
+            m_stalePurgeBlocked.remove(device);
+        }
 
         final boolean cacheDevice = BleDeviceConfig.bool(device.conf_device().cacheDeviceOnUndiscovery, device.conf_mngr().cacheDeviceOnUndiscovery);
 
@@ -371,7 +450,7 @@ final class P_DeviceManager
         }
     }
 
-    void update(double timeStep)
+    void update(double timeStep, long currentTime)
     {
         //--- DRK > The asserts here and keeping track of "is updating" is because
         //---		once upon a time we iterated forward through the list with an end
@@ -392,15 +471,166 @@ final class P_DeviceManager
 
         m_updating = true;
 
-        for (int i = m_list.size() - 1; i >= 0; i--)
+        if (m_mngr.m_config.useDeadlineDrivenUpdates)
         {
-            BleDevice ithDevice = m_list.get(i);
-            ithDevice.update(timeStep);
+            update_deadlineDriven(currentTime);
+        }
+        else if (m_deadlines != null)
+        {
+            stopDeadlines(currentTime);
+        }
+        else
+        {
+            update_activeDevices(timeStep, currentTime);
         }
 
         m_updating = false;
     }
 
+    private void update_activeDevices(final double timeStep, final long currentTime)
+    {
+        m_dueDevices.addAll(m_activeDevices);
+
+        for (int i = m_dueDevices.size() - 1; i >= 0; i--)
+        {
+            final BleDevice device = m_dueDevices.get(i);
+
+            //--- Device could have been removed by an earlier device's update.
+            if (m_map.get(device.getMacAddress()) != device)  continue;
+
+            device.update(timeStep);
+
+            if (device.getTimeUntilNextUpdate() == Interval.INFINITE.secs())
+            {
+                m_activeDevices.remove(device);
+                device.setLastUpdateTime(currentTime);
+            }
+        }
+
+        m_dueDevices.clear();
+    }
+
+    private void activate(final BleDevice device, final long currentTime)
+    {
+        if (!m_activeDevices.add(device))  return;
+
+        //--- Catches up on the time it was idle for, then goes back to regular updates.
+        device.update_deadlineDriven(currentTime);
+        device.setLastUpdateTime(0);
+    }
+
+    private void update_deadlineDriven(final long currentTime)
+    {
+        if (m_deadlines == null)
+        {
+            m_deadlines = new P_TimerWheel<BleDevice>(m_mngr.m_config.autoUpdateRate.millis(), currentTime);
+
+            for (int i = 0; i < m_list.size(); i++)
+            {
+                final BleDevice device = m_list.get(i);
+
+                //--- Applies whatever time an idle device missed, and starts the clock for the rest.
+                device.update_deadlineDriven(currentTime);
+                m_deadlines.schedule(device, currentTime);
+            }
+
+            m_activeDevices.clear();
+        }
+
+        m_deadlines.advance(currentTime, m_dueDevices);
+
+        for (int i = 0; i < m_dueDevices.size(); i++)
+        {
+            final BleDevice device = m_dueDevices.get(i);
+
+            //--- Device could have been removed by an earlier device's update.
+            if (m_map.get(device.getMacAddress()) != device)  continue;
+
+            device.update_deadlineDriven(currentTime);
+
+            scheduleNextUpdate(device, currentTime);
+        }
+
+        m_dueDevices.clear();
+    }
+
+    private void scheduleNextUpdate(final BleDevice device, final long currentTime)
+    {
+        final double timeUntilNextUpdate = device.getTimeUntilNextUpdate();
+
+        if (timeUntilNextUpdate == Interval.INFINITE.secs())
+        {
+            m_deadlines.cancel(device);
+        }
+        else
+        {
+            m_deadlines.schedule(device, currentTime + (long) (timeUntilNextUpdate * 1000.0));
+        }
+    }
+
+    private void stopDeadlines(final long currentTime)
+    {
+        m_deadlines = null;
+
+        //--- Every device gets a regular update again, and the ones with nothing going on drop back out after that.
+        for (int i = m_list.size() - 1; i >= 0; i--)
+        {
+            activate(m_list.get(i), currentTime);
+        }
+    }
+
+    /**
+     * Returns the time the soonest device needs to be updated at, or {@link Long#MAX_VALUE} if no device has anything time-based going on,
+     * or if deadline driven updates aren't being used.
+     */
+    long getNextUpdateDeadline()
+    {
+        return m_deadlines != null ? m_deadlines.getNextDeadline() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns how many devices are being updated every tick. Always zero while {@link BleManagerConfig#useDeadlineDrivenUpdates} is on.
+     */
+    int getActiveDeviceCount()
+    {
+        return m_activeDevices.size();
+    }
+
+    void onTimedWorkChanging(final BleDevice device)
+    {
+        //--- Brings the device up to date right here, even when we're not on the update thread, so that the time it sat idle for is applied
+        //---		before whatever is changing actually changes. If this were posted along with the rest, the caller would have already reset
+        //---		its timer by the time it ran, and all that time would end up on the new timer instead.
+        if (m_map.get(device.getMacAddress()) == device)
+        {
+            device.applyPendingUpdateTime(System.currentTimeMillis());
+        }
+
+        m_mngr.getPostManager().runOrPostToUpdateThread(new Runnable()
+        {
+            @Override public void run()
+            {
+                if (m_map.get(device.getMacAddress()) != device)  return;
+
+                final long now = System.currentTimeMillis();
+
+                if (m_deadlines == null)
+                {
+                    activate(device, now);
+
+                    return;
+                }
+
+                //--- Only applies whatever time has passed since the catch-up above, in case this was posted.
+                device.update_deadlineDriven(now);
+
+                m_deadlines.schedule(device, now);
+
+                m_mngr.onUpdateDeadlineChanged();
+            }
+        });
+    }
+
     void unbondAll(PE_TaskPriority priority, BondListener.Status status)
     {
         for (int i = m_list.size() - 1; i >= 0; i--)
@@ -554,28 +784,110 @@ final class P_DeviceManager
             return;
         }
 
-        for (int i = m_list.size() - 1; i >= 0; i--)
+        final long currentTime = System.currentTimeMillis();
+
+        if (m_staleDeadlines == null)
         {
-            BleDevice device = get(i);
+            m_staleDeadlines = new P_TimerWheel<BleDevice>(m_mngr.m_config.autoUpdateRate.millis(), currentTime);
+
+            for (int i = 0; i < m_list.size(); i++)
+            {
+                scheduleStaleCheck(m_list.get(i), currentTime);
+            }
+        }
+
+        m_staleDeadlines.advance(currentTime, m_staleCandidates);
 
-            Interval minScanTimeToInvokeUndiscovery = BleDeviceConfig.interval(device.conf_device().minScanTimeNeededForUndiscovery, device.conf_mngr().minScanTimeNeededForUndiscovery);
-            if (Interval.isDisabled(minScanTimeToInvokeUndiscovery)) continue;
+        m_staleCandidates.addAll(m_stalePurgeBlocked);
+        m_stalePurgeBlocked.clear();
 
-            Interval scanKeepAlive_interval = BleDeviceConfig.interval(device.conf_device().undiscoveryKeepAlive, device.conf_mngr().undiscoveryKeepAlive);
-            if (Interval.isDisabled(scanKeepAlive_interval)) continue;
+        for (int i = 0; i < m_staleCandidates.size(); i++)
+        {
+            final BleDevice device = m_staleCandidates.get(i);
 
-            if (scanTime < Interval.secs(minScanTimeToInvokeUndiscovery)) continue;
+            //--- Device could have been removed while purging an earlier one.
+            if (m_map.get(device.getMacAddress()) != device)  continue;
 
-            final boolean purgeable = device.getOrigin() != BleDeviceOrigin.EXPLICIT && ((device.getStateMask() & ~BleDeviceState.PURGEABLE_MASK) == 0x0);
+            purgeIfStale(device, scanTime, currentTime, cache, listener);
+        }
 
-            if (purgeable)
+        m_staleCandidates.clear();
+    }
+
+    private void purgeIfStale(final BleDevice device, final double scanTime, final long currentTime, final P_DeviceManager cache, final BleManager.DiscoveryListener listener)
+    {
+        Interval minScanTimeToInvokeUndiscovery = BleDeviceConfig.interval(device.conf_device().minScanTimeNeededForUndiscovery, device.conf_mngr().minScanTimeNeededForUndiscovery);
+        if (Interval.isDisabled(minScanTimeToInvokeUndiscovery)) return;
+
+        Interval scanKeepAlive_interval = BleDeviceConfig.interval(device.conf_device().undiscoveryKeepAlive, device.conf_mngr().undiscoveryKeepAlive);
+        if (Interval.isDisabled(scanKeepAlive_interval)) return;
+
+        //--- Rediscovery doesn't touch the deadline, it just pushes back when the device actually goes stale, which is checked here.
+        final double timeUntilStale = scanKeepAlive_interval.secs() - device.getTimeSinceLastDiscovery();
+
+        if (timeUntilStale >= 0.0)
+        {
+            m_staleDeadlines.schedule(device, currentTime + (long) (timeUntilStale * 1000.0) + 1);
+
+            return;
+        }
+
+        final double scanTimeNeeded = Interval.secs(minScanTimeToInvokeUndiscovery) - scanTime;
+
+        if (scanTimeNeeded > 0.0)
+        {
+            m_staleDeadlines.schedule(device, currentTime + (long) (scanTimeNeeded * 1000.0) + 1);
+
+            return;
+        }
+
+        final boolean purgeable = (device.getStateMask() & ~BleDeviceState.PURGEABLE_MASK) == 0x0;
+
+        if (purgeable)
+        {
+            undiscoverAndRemove(device, listener, cache, E_Intent.UNINTENTIONAL);
+        }
+        else
+        {
+            m_stalePurgeBlocked.add(device);
+        }
+    }
+
+    //--- Devices that can never be purged aren't scheduled at all. Devices with undiscovery disabled are checked once and then dropped,
+    //---		until their config changes.
+    private void scheduleStaleCheck(final BleDevice device, final long currentTime)
+    {
+        if (device.getOrigin() == BleDeviceOrigin.EXPLICIT)  return;
+
+        m_stalePurgeBlocked.remove(device);
+        m_staleDeadlines.schedule(device, currentTime);
+    }
+
+    /**
+     * Called when the undiscovery options for the given device may have changed, or for every device if <code>device</code> is <code>null</code>.
+     */
+    void onUndiscoveryConfigChanged(final BleDevice device)
+    {
+        if (m_staleDeadlines == null)  return;
+
+        m_mngr.getPostManager().runOrPostToUpdateThread(new Runnable()
+        {
+            @Override public void run()
             {
-                if (device.getTimeSinceLastDiscovery() > scanKeepAlive_interval.secs())
+                if (m_staleDeadlines == null)  return;
+
+                if (device == null)
                 {
-                    undiscoverAndRemove(device, listener, cache, E_Intent.UNINTENTIONAL);
+                    //--- Rebuilt from scratch the next time devices are purged.
+                    m_staleDeadlines = null;
+                    m_stalePurgeBlocked.clear();
+                }
+                else if (m_map.get(device.getMacAddress()) == device)
+                {
+                    scheduleStaleCheck(device, System.currentTimeMillis());
                 }
             }
-        }
+        });
     }
 
     boolean hasDevice(BleDeviceState... filter)
@@ -585,11 +897,9 @@ final class P_DeviceManager
             return m_list.size() > 0;
         }
 
-        for (int i = m_list.size() - 1; i >= 0; i--)
+        for (int i = 0; i < filter.length; i++)
         {
-            BleDevice device = get(i);
-
-            if (device.isAny(filter))
+            if (m_stateIndex.getCount(filter[i]) > 0)
             {
                 return true;
             }
@@ -0,0 +1,259 @@
+package com.idevicesinc.sweetblue;
+
+import com.idevicesinc.sweetblue.utils.State;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+
+/**
+ * Keeps track of which of a {@link P_DeviceManager}'s devices are in each {@link BleDeviceState}, so that looking devices up by state doesn't
+ * have to check every single device. Each state's members are kept in the same order as the manager's list, so results come back in the same
+ * order a full scan of the list would give.
+ * <br><br>
+ * Counts are O(1), and lookups are proportional to the number of matching devices. Membership is updated from
+ * {@link P_DeviceStateTracker} as states change, so it's only as current as {@link BleDevice#getStateMask()} itself.
+ */
+final class P_DeviceStateIndex
+{
+	private static final class Member
+	{
+		private final BleDevice m_device;
+		private final long m_order;
+		private int m_stateMask;
+
+		Member(final BleDevice device, final long order)
+		{
+			m_device = device;
+			m_order = order;
+		}
+	}
+
+	private static final Comparator<Member> ORDER = new Comparator<Member>()
+	{
+		@Override public int compare(final Member lhs, final Member rhs)
+		{
+			return lhs.m_order < rhs.m_order ? -1 : (lhs.m_order == rhs.m_order ? 0 : 1);
+		}
+	};
+
+	private final IdentityHashMap<BleDevice, Member> m_members = new IdentityHashMap<>();
+	private final TreeSet<Member>[] m_byState;
+	private long m_nextOrder;
+
+
+	P_DeviceStateIndex()
+	{
+		final int stateCount = BleDeviceState.VALUES().length;
+
+		m_byState = new TreeSet[stateCount];
+
+		for( int i = 0; i < stateCount; i++ )
+		{
+			m_byState[i] = new TreeSet<>(ORDER);
+		}
+	}
+
+	/**
+	 * Adds the device after every device already in here, indexed by whatever state it's currently in.
+	 */
+	final synchronized void add(final BleDevice device)
+	{
+		if( m_members.containsKey(device) )  return;
+
+		final Member member = new Member(device, m_nextOrder++);
+
+		m_members.put(device, member);
+
+		setStateMask(member, device.getStateMask());
+	}
+
+	final synchronized void remove(final BleDevice device)
+	{
+		final Member member = m_members.remove(device);
+
+		if( member == null )  return;
+
+		setStateMask(member, 0x0);
+	}
+
+	/**
+	 * Called whenever the main state of the given device changes. Devices that aren't in here are ignored.
+	 */
+	final synchronized void onStateChange(final BleDevice device, final int newStateBits)
+	{
+		final Member member = m_members.get(device);
+
+		if( member == null )  return;
+
+		setStateMask(member, newStateBits);
+	}
+
+	final synchronized int getCount(final BleDeviceState state)
+	{
+		return m_byState[state.ordinal()].size();
+	}
+
+	/**
+	 * Returns the first device that's in any of the states in the given mask, or {@link BleDevice#NULL}.
+	 */
+	final synchronized BleDevice getFirst(final int mask_BleDeviceState)
+	{
+		Member first = null;
+
+		for( int i = 0; i < m_byState.length; i++ )
+		{
+			if( (mask_BleDeviceState & (0x1 << i)) == 0x0 || m_byState[i].isEmpty() )  continue;
+
+			final Member ith = m_byState[i].first();
+
+			if( first == null || ith.m_order < first.m_order )
+			{
+				first = ith;
+			}
+		}
+
+		return first != null ? first.m_device : BleDevice.NULL;
+	}
+
+	/**
+	 * Adds every device that's in any of the states in the given mask to the given list, in order.
+	 */
+	final synchronized void getDevices(final int mask_BleDeviceState, final List<BleDevice> list_out)
+	{
+		int stateCount = 0;
+		int lastState = -1;
+
+		for( int i = 0; i < m_byState.length; i++ )
+		{
+			if( (mask_BleDeviceState & (0x1 << i)) == 0x0 || m_byState[i].isEmpty() )  continue;
+
+			stateCount++;
+			lastState = i;
+		}
+
+		if( stateCount == 0 )  return;
+
+		if( stateCount == 1 )
+		{
+			for( Member member : m_byState[lastState] )
+			{
+				list_out.add(member.m_device);
+			}
+
+			return;
+		}
+
+		final ArrayList<Member> members = new ArrayList<>();
+
+		for( int i = 0; i < m_byState.length; i++ )
+		{
+			if( (mask_BleDeviceState & (0x1 << i)) != 0x0 )
+			{
+				members.addAll(m_byState[i]);
+			}
+		}
+
+		Collections.sort(members, ORDER);
+
+		//--- A device in more than one of the states shows up more than once, right next to itself after sorting.
+		for( int i = 0; i < members.size(); i++ )
+		{
+			if( i > 0 && members.get(i) == members.get(i - 1) )  continue;
+
+			list_out.add(members.get(i).m_device);
+		}
+	}
+
+	/**
+	 * Returns the devices that could possibly match the given query (see {@link com.idevicesinc.sweetblue.utils.Utils_State#query(int, Object...)}),
+	 * in order, or <code>null</code> if the query doesn't narrow things down and every device has to be checked. Callers still have to check each
+	 * candidate against the query.
+	 */
+	final synchronized List<BleDevice> getCandidates(final Object[] query)
+	{
+		int bestMask = 0x0;
+		int bestCount = Integer.MAX_VALUE;
+
+		//--- Every pair in a query has to hold, so the devices in the state(s) any single positive pair asks for are a superset of the matches.
+		for( int i = 0; i < query.length; i += 2 )
+		{
+			final Object first = query[i];
+			final Object second = i + 1 < query.length ? query[i + 1] : null;
+
+			final int mask;
+
+			if( first instanceof BleDeviceState && (second == null || Boolean.TRUE.equals(second)) )
+			{
+				mask = ((State) first).bit();
+			}
+			else if( first instanceof BleDeviceState && second instanceof BleDeviceState )
+			{
+				mask = ((State) first).bit() | ((State) second).bit();
+			}
+			else
+			{
+				continue;
+			}
+
+			final int count = countUpperBound(mask);
+
+			if( count < bestCount )
+			{
+				bestMask = mask;
+				bestCount = count;
+			}
+		}
+
+		if( bestMask == 0x0 )  return null;
+
+		final ArrayList<BleDevice> candidates = new ArrayList<>(bestCount);
+
+		getDevices(bestMask, candidates);
+
+		return candidates;
+	}
+
+	private int countUpperBound(final int mask_BleDeviceState)
+	{
+		int count = 0;
+
+		for( int i = 0; i < m_byState.length; i++ )
+		{
+			if( (mask_BleDeviceState & (0x1 << i)) != 0x0 )
+			{
+				count += m_byState[i].size();
+			}
+		}
+
+		return count;
+	}
+
+	private void setStateMask(final Member member, final int newStateBits)
+	{
+		final int changed = member.m_stateMask ^ newStateBits;
+
+		member.m_stateMask = newStateBits;
+
+		if( changed == 0x0 )  return;
+
+		for( int i = 0; i < m_byState.length; i++ )
+		{
+			final int bit = 0x1 << i;
+
+			if( (changed & bit) == 0x0 )  continue;
+
+			if( (newStateBits & bit) != 0x0 )
+			{
+				m_byState[i].add(member);
+			}
+			else
+			{
+				m_byState[i].remove(member);
+			}
+		}
+	}
+}
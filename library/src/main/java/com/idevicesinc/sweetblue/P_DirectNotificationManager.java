@@ -0,0 +1,467 @@
+package com.idevicesinc.sweetblue;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+
+import com.idevicesinc.sweetblue.NotificationBatchListener.NotificationBatch;
+import com.idevicesinc.sweetblue.utils.Interval;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+
+/**
+ * Keeps track of a device's {@link DirectNotificationListener}, {@link PooledNotificationListener}, and {@link NotificationBatchListener}
+ * subscriptions, and takes notifications for them straight from the native callback thread. Subscriptions are kept in a copy-on-write array,
+ * so {@link #dispatch(BluetoothGattCharacteristic)} never has to lock the whole manager, and there's usually only a handful of them, so a
+ * linear scan beats hashing.
+ * <br><br>
+ * Batched subscriptions pack payloads into reused buffers as they come in, and only hand over a {@link NotificationBatch} when it's full, too
+ * old, or on the next update tick, depending on how they were set up. Only the first notification of each batch needs the update thread's
+ * attention, through {@link BleDevice#onTimedWorkChanging()}. Pooled subscriptions copy payloads into buffers from a {@link P_BufferPool}.
+ */
+final class P_DirectNotificationManager
+{
+	private static final int INITIAL_BATCH_CAPACITY = 16;
+	private static final int INITIAL_BATCH_BYTES = 256;
+
+	private static final class Subscription
+	{
+		private final UUID m_serviceUuid;
+		private final UUID m_charUuid;
+		private final DirectNotificationListener m_listener;
+		private final PooledNotificationListener m_pooledListener;
+		private final Executor m_executor;
+
+		private final NotificationBatchListener m_batchListener;
+		private final int m_maxCount;
+		private final long m_maxDelay;
+
+		//--- Batch being filled, guarded by the subscription itself since it's filled on the native callback thread.
+		private UUID m_batchServiceUuid;
+		private long[] m_times;
+		private int[] m_offsets;
+		private byte[] m_data;
+		private int m_count;
+
+		Subscription(final UUID serviceUuid_nullable, final UUID charUuid, final DirectNotificationListener listener, final Executor executor_nullable)
+		{
+			m_serviceUuid = serviceUuid_nullable;
+			m_charUuid = charUuid;
+			m_listener = listener;
+			m_pooledListener = null;
+			m_executor = executor_nullable;
+			m_batchListener = null;
+			m_maxCount = 0;
+			m_maxDelay = 0;
+		}
+
+		Subscription(final UUID serviceUuid_nullable, final UUID charUuid, final PooledNotificationListener listener, final Executor executor_nullable)
+		{
+			m_serviceUuid = serviceUuid_nullable;
+			m_charUuid = charUuid;
+			m_listener = null;
+			m_pooledListener = listener;
+			m_executor = executor_nullable;
+			m_batchListener = null;
+			m_maxCount = 0;
+			m_maxDelay = 0;
+		}
+
+		Subscription(final UUID serviceUuid_nullable, final UUID charUuid, final NotificationBatchListener listener, final int maxCount, final long maxDelay)
+		{
+			m_serviceUuid = serviceUuid_nullable;
+			m_charUuid = charUuid;
+			m_listener = null;
+			m_pooledListener = null;
+			m_executor = null;
+			m_batchListener = listener;
+			m_maxCount = maxCount;
+			m_maxDelay = maxDelay;
+			m_times = new long[INITIAL_BATCH_CAPACITY];
+			m_offsets = new int[INITIAL_BATCH_CAPACITY + 1];
+			m_data = new byte[INITIAL_BATCH_BYTES];
+		}
+
+		boolean isFor(final UUID serviceUuid_nullable, final UUID charUuid)
+		{
+			if( !m_charUuid.equals(charUuid) )  return false;
+
+			return m_serviceUuid == null || serviceUuid_nullable == null || m_serviceUuid.equals(serviceUuid_nullable);
+		}
+
+		boolean isBatched()
+		{
+			return m_batchListener != null;
+		}
+
+		/**
+		 * Whether a batch only goes out once it's full, so there's no need to check on it over time.
+		 */
+		boolean isFlushedByCountOnly()
+		{
+			return m_maxCount > 0 && m_maxDelay <= 0;
+		}
+
+		//--- Everything below has to be called with the subscription locked.
+
+		void append(final UUID serviceUuid, final byte[] value, final long currentTime)
+		{
+			final int length = value != null ? value.length : 0;
+
+			if( m_count == m_times.length )
+			{
+				m_times = Arrays.copyOf(m_times, m_count * 2);
+				m_offsets = Arrays.copyOf(m_offsets, m_count * 2 + 1);
+			}
+
+			final int offset = m_offsets[m_count];
+
+			if( offset + length > m_data.length )
+			{
+				m_data = Arrays.copyOf(m_data, Math.max(m_data.length * 2, offset + length));
+			}
+
+			if( length > 0 )
+			{
+				System.arraycopy(value, 0, m_data, offset, length);
+			}
+
+			m_batchServiceUuid = serviceUuid;
+			m_times[m_count] = currentTime;
+			m_count++;
+			m_offsets[m_count] = offset + length;
+		}
+
+		boolean isFull()
+		{
+			return m_maxCount > 0 && m_count >= m_maxCount;
+		}
+
+		boolean isDue(final long currentTime)
+		{
+			return m_count > 0 && (getTimeUntilDue(currentTime) <= 0);
+		}
+
+		/**
+		 * Returns how many milliseconds until the current batch should go out, or {@link Long#MAX_VALUE} if only filling it up will do.
+		 */
+		long getTimeUntilDue(final long currentTime)
+		{
+			if( m_count == 0 || isFlushedByCountOnly() )  return Long.MAX_VALUE;
+
+			//--- Neither a count or a delay means every update tick.
+			if( m_maxDelay <= 0 )  return 0;
+
+			return Math.max(0, m_times[0] + m_maxDelay - currentTime);
+		}
+
+		NotificationBatch takeBatch(final BleDevice device)
+		{
+			if( m_count == 0 )  return null;
+
+			final UUID serviceUuid = m_serviceUuid != null ? m_serviceUuid : m_batchServiceUuid;
+			final NotificationBatch batch = new NotificationBatch(device, serviceUuid, m_charUuid, m_count, Arrays.copyOf(m_times, m_count), Arrays.copyOf(m_offsets, m_count + 1), Arrays.copyOf(m_data, m_offsets[m_count]));
+
+			m_count = 0;
+
+			return batch;
+		}
+	}
+
+	private static final Subscription[] EMPTY = new Subscription[0];
+
+	private final BleDevice m_device;
+	private final P_BufferPool m_pool = new P_BufferPool();
+
+	private volatile Subscription[] m_subscriptions = EMPTY;
+
+
+	P_DirectNotificationManager(final BleDevice device)
+	{
+		m_device = device;
+	}
+
+	/**
+	 * Replaces any subscription for the same characteristic.
+	 */
+	final void add(final UUID serviceUuid_nullable, final UUID charUuid, final DirectNotificationListener listener, final Executor executor_nullable)
+	{
+		add(new Subscription(serviceUuid_nullable, charUuid, listener, executor_nullable));
+	}
+
+	/**
+	 * Replaces any subscription for the same characteristic.
+	 */
+	final void add(final UUID serviceUuid_nullable, final UUID charUuid, final PooledNotificationListener listener, final Executor executor_nullable)
+	{
+		add(new Subscription(serviceUuid_nullable, charUuid, listener, executor_nullable));
+	}
+
+	/**
+	 * Replaces any subscription for the same characteristic. If <code>maxCount</code> is zero or less, and <code>maxDelay</code> isn't
+	 * enabled, batches go out every update tick.
+	 */
+	final void add(final UUID serviceUuid_nullable, final UUID charUuid, final NotificationBatchListener listener, final int maxCount, final Interval maxDelay)
+	{
+		final long maxDelay_millis = Interval.isEnabled(maxDelay) ? Math.max(1, maxDelay.millis()) : 0;
+
+		add(new Subscription(serviceUuid_nullable, charUuid, listener, maxCount, maxDelay_millis));
+	}
+
+	private void add(final Subscription subscription)
+	{
+		final Subscription[] removed;
+
+		synchronized (this)
+		{
+			final Subscription[] subscriptions = m_subscriptions;
+			final Subscription[] remaining = without(subscriptions, subscription.m_serviceUuid, subscription.m_charUuid);
+			final Subscription[] newSubscriptions = new Subscription[remaining.length + 1];
+
+			System.arraycopy(remaining, 0, newSubscriptions, 0, remaining.length);
+			newSubscriptions[remaining.length] = subscription;
+
+			m_subscriptions = newSubscriptions;
+
+			removed = only(subscriptions, subscription.m_serviceUuid, subscription.m_charUuid);
+		}
+
+		flush(removed);
+	}
+
+	/**
+	 * Ends any subscription for the given characteristic. Whatever was left in a batch goes out right away.
+	 */
+	final void remove(final UUID serviceUuid_nullable, final UUID charUuid)
+	{
+		final Subscription[] removed;
+
+		synchronized (this)
+		{
+			final Subscription[] subscriptions = m_subscriptions;
+
+			m_subscriptions = without(subscriptions, serviceUuid_nullable, charUuid);
+
+			removed = only(subscriptions, serviceUuid_nullable, charUuid);
+		}
+
+		flush(removed);
+	}
+
+	/**
+	 * Called on whatever thread Android delivers notifications on. Returns <code>true</code> if a subscription took the notification,
+	 * in which case it shouldn't be passed on to the update thread.
+	 */
+	final boolean dispatch(final BluetoothGattCharacteristic characteristic)
+	{
+		final Subscription[] subscriptions = m_subscriptions;
+
+		if( subscriptions.length == 0 )  return false;
+
+		final UUID charUuid = characteristic.getUuid();
+		final BluetoothGattService service = characteristic.getService();
+		final UUID serviceUuid = service != null ? service.getUuid() : null;
+		final Subscription subscription = find(subscriptions, serviceUuid, charUuid);
+
+		if( subscription == null )  return false;
+
+		//--- Same as the regular path, a notification that sneaks in after an explicit disconnect shouldn't make it to app-land.
+		if( m_device.is(BleDeviceState.DISCONNECTED) )  return true;
+
+		if( subscription.isBatched() )
+		{
+			dispatch_batched(subscription, serviceUuid, characteristic.getValue());
+
+			return true;
+		}
+
+		if( subscription.m_pooledListener != null )
+		{
+			final PooledPayload payload = m_pool.obtain(characteristic.getValue());
+			final Runnable delivery = payload.prepareDelivery(m_device, serviceUuid, charUuid, subscription.m_pooledListener);
+
+			if( subscription.m_executor == null )
+			{
+				delivery.run();
+			}
+			else
+			{
+				subscription.m_executor.execute(delivery);
+			}
+
+			return true;
+		}
+
+		final byte[] value = characteristic.getValue() == null ? null : characteristic.getValue().clone();
+
+		if( subscription.m_executor == null )
+		{
+			subscription.m_listener.onNotification(m_device, serviceUuid, charUuid, value);
+		}
+		else
+		{
+			subscription.m_executor.execute(new Runnable()
+			{
+				@Override public void run()
+				{
+					subscription.m_listener.onNotification(m_device, serviceUuid, charUuid, value);
+				}
+			});
+		}
+
+		return true;
+	}
+
+	private void dispatch_batched(final Subscription subscription, final UUID serviceUuid, final byte[] value)
+	{
+		final NotificationBatch batch;
+		final boolean startedBatch;
+
+		synchronized (subscription)
+		{
+			startedBatch = subscription.m_count == 0;
+
+			subscription.append(serviceUuid, value, System.currentTimeMillis());
+
+			batch = subscription.isFull() ? subscription.takeBatch(m_device) : null;
+		}
+
+		if( batch != null )
+		{
+			m_device.postEventAsCallback(subscription.m_batchListener, batch);
+		}
+		else if( startedBatch && !subscription.isFlushedByCountOnly() )
+		{
+			//--- The update thread has to come back around for this batch at some point.
+			m_device.onTimedWorkChanging();
+		}
+	}
+
+	/**
+	 * Sends out any batches that are due.
+	 */
+	final void update()
+	{
+		final Subscription[] subscriptions = m_subscriptions;
+
+		if( subscriptions.length == 0 )  return;
+
+		final long currentTime = System.currentTimeMillis();
+
+		for( int i = 0; i < subscriptions.length; i++ )
+		{
+			final Subscription subscription = subscriptions[i];
+
+			if( !subscription.isBatched() )  continue;
+
+			final NotificationBatch batch;
+
+			synchronized (subscription)
+			{
+				batch = subscription.isDue(currentTime) ? subscription.takeBatch(m_device) : null;
+			}
+
+			if( batch != null )
+			{
+				m_device.postEventAsCallback(subscription.m_batchListener, batch);
+			}
+		}
+	}
+
+	/**
+	 * Returns how long until a batch is due, or {@link Interval#INFINITE} (in seconds) if none are waiting on time.
+	 */
+	final double getTimeUntilNextUpdate()
+	{
+		final Subscription[] subscriptions = m_subscriptions;
+
+		if( subscriptions.length == 0 )  return Interval.INFINITE.secs();
+
+		final long currentTime = System.currentTimeMillis();
+		long soonest = Long.MAX_VALUE;
+
+		for( int i = 0; i < subscriptions.length; i++ )
+		{
+			final Subscription subscription = subscriptions[i];
+
+			if( !subscription.isBatched() )  continue;
+
+			synchronized (subscription)
+			{
+				soonest = Math.min(soonest, subscription.getTimeUntilDue(currentTime));
+			}
+		}
+
+		return soonest == Long.MAX_VALUE ? Interval.INFINITE.secs() : soonest / 1000.0;
+	}
+
+	private void flush(final Subscription[] removed)
+	{
+		for( int i = 0; i < removed.length; i++ )
+		{
+			if( !removed[i].isBatched() )  continue;
+
+			final NotificationBatch batch;
+
+			synchronized (removed[i])
+			{
+				batch = removed[i].takeBatch(m_device);
+			}
+
+			if( batch != null )
+			{
+				m_device.postEventAsCallback(removed[i].m_batchListener, batch);
+			}
+		}
+	}
+
+	private static Subscription find(final Subscription[] subscriptions, final UUID serviceUuid_nullable, final UUID charUuid)
+	{
+		for( int i = 0; i < subscriptions.length; i++ )
+		{
+			if( subscriptions[i].isFor(serviceUuid_nullable, charUuid) )
+			{
+				return subscriptions[i];
+			}
+		}
+
+		return null;
+	}
+
+	private static Subscription[] without(final Subscription[] subscriptions, final UUID serviceUuid_nullable, final UUID charUuid)
+	{
+		return filter(subscriptions, serviceUuid_nullable, charUuid, /*matching=*/false);
+	}
+
+	private static Subscription[] only(final Subscription[] subscriptions, final UUID serviceUuid_nullable, final UUID charUuid)
+	{
+		return filter(subscriptions, serviceUuid_nullable, charUuid, /*matching=*/true);
+	}
+
+	private static Subscription[] filter(final Subscription[] subscriptions, final UUID serviceUuid_nullable, final UUID charUuid, final boolean matching)
+	{
+		int count = 0;
+
+		for( int i = 0; i < subscriptions.length; i++ )
+		{
+			if( subscriptions[i].isFor(serviceUuid_nullable, charUuid) == matching )  count++;
+		}
+
+		if( count == subscriptions.length )  return subscriptions;
+		if( count == 0 )  return EMPTY;
+
+		final Subscription[] filtered = new Subscription[count];
+
+		for( int i = 0, j = 0; i < subscriptions.length; i++ )
+		{
+			if( subscriptions[i].isFor(serviceUuid_nullable, charUuid) == matching )
+			{
+				filtered[j++] = subscriptions[i];
+			}
+		}
+
+		return filtered;
+	}
+}
@@ -21,7 +21,8 @@ final class P_DiskOptionsManager
 	{
 		LAST_DISCONNECT("sweetblue_16l@{&a}"),
 		NEEDS_BONDING("sweetblue_p59=F%k"),
-		DEVICE_NAME("sweetblue_qurhzpoc");
+		DEVICE_NAME("sweetblue_qurhzpoc"),
+		SERVICE_LAYOUT("sweetblue_l4y0ut#s");
 
 
 		private final String m_key;
@@ -42,6 +43,7 @@ final class P_DiskOptionsManager
 	private final HashMap<String, Integer> m_inMemoryDb_lastDisconnect = new HashMap<String, Integer>();
 	private final HashMap<String, Boolean> m_inMemoryDb_needsBonding = new HashMap<String, Boolean>();
 	private final HashMap<String, String> m_inMemoryDb_name = new HashMap<String, String>();
+	private final HashMap<String, String> m_inMemoryDb_serviceLayout = new HashMap<String, String>();
 
 	private final HashMap[] m_inMemoryDbs = new HashMap[E_Namespace.values().length];
 
@@ -52,6 +54,7 @@ final class P_DiskOptionsManager
 		m_inMemoryDbs[E_Namespace.LAST_DISCONNECT.ordinal()] = m_inMemoryDb_lastDisconnect;
 		m_inMemoryDbs[E_Namespace.NEEDS_BONDING.ordinal()] = m_inMemoryDb_needsBonding;
 		m_inMemoryDbs[E_Namespace.DEVICE_NAME.ordinal()] = m_inMemoryDb_name;
+		m_inMemoryDbs[E_Namespace.SERVICE_LAYOUT.ordinal()] = m_inMemoryDb_serviceLayout;
 
 		final E_Namespace[] values = E_Namespace.values();
 
@@ -162,6 +165,38 @@ final class P_DiskOptionsManager
 		return value_disk;
 	}
 
+	public void saveServiceLayout(final String mac, final String layout, final boolean hitDisk)
+	{
+		m_inMemoryDb_serviceLayout.put(mac, layout);
+
+		if( !hitDisk )  return;
+
+		prefs(E_Namespace.SERVICE_LAYOUT).edit().putString(mac, layout).commit();
+	}
+
+	public String loadServiceLayout(final String mac, final boolean hitDisk)
+	{
+		final String value_memory = m_inMemoryDb_serviceLayout.get(mac);
+
+		if( value_memory != null )
+		{
+			return value_memory;
+		}
+
+		if( !hitDisk )  return null;
+
+		final SharedPreferences prefs = prefs(E_Namespace.SERVICE_LAYOUT);
+
+		final String value_disk = prefs.getString(mac, null);
+
+		return value_disk;
+	}
+
+	void clearServiceLayout(final String macAddress)
+	{
+		clearNamespace(macAddress, E_Namespace.SERVICE_LAYOUT);
+	}
+
 	void clear()
 	{
 		final E_Namespace[] values = E_Namespace.values();
@@ -0,0 +1,208 @@
+package com.idevicesinc.sweetblue;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import com.idevicesinc.sweetblue.utils.P_Const;
+import com.idevicesinc.sweetblue.utils.PresentData;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+
+/**
+ * An immutable lookup table of a device's characteristics, built once from the native service list after services are discovered, so that
+ * finding a characteristic for a read, write, or notification is a couple of hash lookups instead of a walk through every service, and
+ * doesn't allocate any new wrappers.
+ * <br><br>
+ * Lookups give the same results as walking the native lists would, i.e. the first service with a given {@link UUID} is the one that's used, and
+ * characteristics that share a {@link UUID} are tried in the order they're in natively.
+ */
+final class P_GattAttributeIndex
+{
+	private static final class Entry
+	{
+		private final BluetoothGattService m_service;
+		private final BleCharacteristicWrapper m_characteristic;
+
+		Entry(final BluetoothGattService service, final BluetoothGattCharacteristic characteristic)
+		{
+			m_service = service;
+			m_characteristic = new BleCharacteristicWrapper(characteristic);
+		}
+	}
+
+	private static final Entry[] NO_ENTRIES = new Entry[0];
+
+	//--- Service UUID -> characteristic UUID -> characteristics with that UUID, for only the first service with a given UUID.
+	private final HashMap<UUID, HashMap<UUID, Entry[]>> m_byService = new HashMap<>();
+	//--- Characteristic UUID -> characteristics with that UUID across every service, in service order.
+	private final HashMap<UUID, Entry[]> m_byCharacteristic = new HashMap<>();
+	//--- Services the native node had trouble finding, which lookups by service have to go to the native node for instead.
+	private final HashSet<UUID> m_unindexedServices = new HashSet<>();
+
+
+	/**
+	 * <code>unindexedServices</code> are services the native node ran into a problem looking up by {@link UUID}. Lookups for them
+	 * return <code>null</code>, so they're retried on the native node.
+	 */
+	P_GattAttributeIndex(final List<BluetoothGattService> services, final Set<UUID> unindexedServices)
+	{
+		m_unindexedServices.addAll(unindexedServices);
+
+		final HashMap<UUID, ArrayList<Entry>> byCharacteristic = new HashMap<>();
+
+		for( int i = 0; i < services.size(); i++ )
+		{
+			final BluetoothGattService service = services.get(i);
+
+			if( service == null )  continue;
+
+			final List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
+
+			if( characteristics == null )  continue;
+
+			final boolean firstOfItsUuid = !m_byService.containsKey(service.getUuid());
+			final HashMap<UUID, ArrayList<Entry>> inService = new HashMap<>();
+
+			for( int j = 0; j < characteristics.size(); j++ )
+			{
+				final BluetoothGattCharacteristic characteristic = characteristics.get(j);
+
+				if( characteristic == null )  continue;
+
+				final Entry entry = new Entry(service, characteristic);
+
+				add(byCharacteristic, characteristic.getUuid(), entry);
+
+				if( firstOfItsUuid )
+				{
+					add(inService, characteristic.getUuid(), entry);
+				}
+			}
+
+			if( firstOfItsUuid )
+			{
+				m_byService.put(service.getUuid(), toArrays(inService));
+			}
+		}
+
+		m_byCharacteristic.putAll(toArrays(byCharacteristic));
+	}
+
+	/**
+	 * Same as {@link PA_ServiceManager#getCharacteristic(UUID, UUID)}, except that it returns <code>null</code> if the service was left out.
+	 */
+	final BleCharacteristicWrapper getCharacteristic(final UUID serviceUuid_nullable, final UUID charUuid)
+	{
+		if( isUnindexed(serviceUuid_nullable) )  return null;
+
+		final Entry[] entries = getEntries(serviceUuid_nullable, charUuid);
+
+		return entries.length > 0 ? entries[0].m_characteristic : BleCharacteristicWrapper.NULL;
+	}
+
+	/**
+	 * Same as {@link PA_ServiceManager#getCharacteristic(UUID, UUID, DescriptorFilter)}, except that it returns <code>null</code> if the service was
+	 * left out. The filter looks at descriptor values, which can change at any time, so it's still asked about every characteristic with a
+	 * matching {@link UUID} each time.
+	 */
+	final BleCharacteristicWrapper getCharacteristic(final UUID serviceUuid_nullable, final UUID charUuid, final DescriptorFilter filter)
+	{
+		if( isUnindexed(serviceUuid_nullable) )  return null;
+
+		final Entry[] entries = getEntries(serviceUuid_nullable, charUuid);
+
+		if( filter == null )
+		{
+			return entries.length > 0 ? entries[0].m_characteristic : BleCharacteristicWrapper.NULL;
+		}
+
+		for( int i = 0; i < entries.length; i++ )
+		{
+			if( isAccepted(entries[i], filter) )
+			{
+				return entries[i].m_characteristic;
+			}
+		}
+
+		return BleCharacteristicWrapper.NULL;
+	}
+
+	private boolean isUnindexed(final UUID serviceUuid_nullable)
+	{
+		return serviceUuid_nullable != null && !m_unindexedServices.isEmpty() && m_unindexedServices.contains(serviceUuid_nullable);
+	}
+
+	private Entry[] getEntries(final UUID serviceUuid_nullable, final UUID charUuid)
+	{
+		final Entry[] entries;
+
+		if( serviceUuid_nullable == null )
+		{
+			entries = m_byCharacteristic.get(charUuid);
+		}
+		else
+		{
+			final HashMap<UUID, Entry[]> inService = m_byService.get(serviceUuid_nullable);
+
+			entries = inService != null ? inService.get(charUuid) : null;
+		}
+
+		return entries != null ? entries : NO_ENTRIES;
+	}
+
+	private static boolean isAccepted(final Entry entry, final DescriptorFilter filter)
+	{
+		final BluetoothGattCharacteristic characteristic = entry.m_characteristic.getCharacteristic();
+		final UUID descUuid = filter.descriptorUuid();
+		final DescriptorFilter.DescriptorEvent event;
+
+		if( descUuid != null )
+		{
+			final BluetoothGattDescriptor desc = characteristic.getDescriptor(descUuid);
+
+			if( desc == null )  return false;
+
+			event = new DescriptorFilter.DescriptorEvent(entry.m_service, characteristic, desc, new PresentData(desc.getValue()));
+		}
+		else
+		{
+			event = new DescriptorFilter.DescriptorEvent(entry.m_service, characteristic, null, P_Const.EMPTY_FUTURE_DATA);
+		}
+
+		return filter.onEvent(event).isAccepted();
+	}
+
+	private static void add(final HashMap<UUID, ArrayList<Entry>> map, final UUID uuid, final Entry entry)
+	{
+		ArrayList<Entry> list = map.get(uuid);
+
+		if( list == null )
+		{
+			list = new ArrayList<>(1);
+			map.put(uuid, list);
+		}
+
+		list.add(entry);
+	}
+
+	private static HashMap<UUID, Entry[]> toArrays(final HashMap<UUID, ArrayList<Entry>> map)
+	{
+		final HashMap<UUID, Entry[]> arrays = new HashMap<>(map.size() * 2);
+
+		for( UUID uuid : map.keySet() )
+		{
+			final ArrayList<Entry> list = map.get(uuid);
+
+			arrays.put(uuid, list.toArray(new Entry[list.size()]));
+		}
+
+		return arrays;
+	}
+}
@@ -95,6 +95,8 @@ final class P_NativeDeviceWrapper
 	void setName_override(final String name)
 	{
 		m_name_override = name != null ? name : "";
+
+		onNameChanged();
 	}
 
 	void updateNativeName(final String name_native)
@@ -128,6 +130,16 @@ final class P_NativeDeviceWrapper
 		m_name_native = name_native;
 
 		m_name_normalized = name_normalized;
+
+		onNameChanged();
+	}
+
+	private void onNameChanged()
+	{
+		//--- Manager is null while BleDevice.NULL is being set up.
+		if( m_device.isNull() || getManager() == null )  return;
+
+		getManager().onDeviceSortKeyChange(m_device);
 	}
 	
 	public String getAddress()
@@ -11,6 +11,7 @@ import android.bluetooth.le.AdvertiseSettings;
 import android.content.Context;
 import com.idevicesinc.sweetblue.compat.L_Util;
 import com.idevicesinc.sweetblue.utils.Interval;
+import java.util.List;
 import java.util.Set;
 
 
@@ -39,8 +40,8 @@ interface P_NativeManagerLayer {
     boolean isLocationEnabledForScanning_byRuntimePermissions();
     boolean isLocationEnabledForScanning();
     boolean isBluetoothEnabled();
-    void startLScan(int scanMode, Interval delay, L_Util.ScanCallback callback);
-    void startMScan(int scanMode, Interval delay, L_Util.ScanCallback callback);
+    void startLScan(int scanMode, Interval delay, List<NativeScanFilter> filters_nullable, L_Util.ScanCallback callback);
+    void startMScan(int scanMode, Interval delay, List<NativeScanFilter> filters_nullable, L_Util.ScanCallback callback);
     boolean startLeScan(BluetoothAdapter.LeScanCallback callback);
     void stopLeScan(BluetoothAdapter.LeScanCallback callback);
     BluetoothDevice getRemoteDevice(String macAddress);
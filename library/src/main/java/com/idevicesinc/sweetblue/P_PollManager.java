@@ -252,6 +252,14 @@ final class P_PollManager
 				}
 			}
 		}
+
+		double getTimeUntilNextUpdate()
+		{
+			if( m_interval <= 0.0 )  return Interval.INFINITE.secs();
+			if( m_interval == Interval.INFINITE.secs() )  return Interval.INFINITE.secs();
+
+			return Math.max(0.0, m_interval - m_timeTracker);
+		}
 	}
 	
 	private final BleDevice m_device;
@@ -271,6 +279,8 @@ final class P_PollManager
 	void startPoll(final UUID serviceUuid, final UUID charUuid, final DescriptorFilter decriptorFilter, double interval, ReadWriteListener listener, boolean trackChanges, boolean usingNotify)
 	{
 		if( m_device.isNull() )  return;
+
+		m_device.onTimedWorkChanging();
 		
 		boolean allowDuplicatePollEntries = BleDeviceConfig.bool(m_device.conf_device().allowDuplicatePollEntries, m_device.conf_mngr().allowDuplicatePollEntries);
 		
@@ -332,6 +342,18 @@ final class P_PollManager
 			ithEntry.update(timeStep);
 		}
 	}
+
+	double getTimeUntilNextUpdate()
+	{
+		double soonest = Interval.INFINITE.secs();
+
+		for( int i = 0; i < m_entries.size(); i++ )
+		{
+			soonest = Math.min(soonest, m_entries.get(i).getTimeUntilNextUpdate());
+		}
+
+		return soonest;
+	}
 	
 	void onCharacteristicChangedFromNativeNotify(final UUID serviceUuid, final UUID charUuid, byte[] value)
 	{
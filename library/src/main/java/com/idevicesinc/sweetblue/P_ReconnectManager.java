@@ -36,6 +36,8 @@ final class P_ReconnectManager
 	
 	void attemptStart(final int gattStatusOfDisconnect)
 	{
+		m_device.onTimedWorkChanging();
+
 		m_totalTime = 0.0;
 		m_attemptCount = 0;
 		m_connectionFailEvent = m_device.NULL_CONNECTIONFAIL_INFO();
@@ -126,6 +128,8 @@ final class P_ReconnectManager
 		{
 			return;
 		}
+
+		m_device.onTimedWorkChanging();
 		
 		m_attemptCount++;
 		m_timeTracker = 0.0;
@@ -144,6 +148,18 @@ final class P_ReconnectManager
 		}
 	}
 	
+	double getTimeUntilNextUpdate()
+	{
+		if( !isRunning() )  return Interval.INFINITE.secs();
+
+		//--- The reconnect filter is asked whether to keep going every update, so don't go longer than the idle update rate
+		//---		without updating, even if the next attempt is further out than that.
+		final double remaining = Math.max(0.0, m_delay - m_timeTracker);
+		final Interval idleUpdateRate = m_device.conf_mngr().idleUpdateRate;
+
+		return Interval.isEnabled(idleUpdateRate) ? Math.min(remaining, idleUpdateRate.secs()) : remaining;
+	}
+	
 	void update(double timeStep)
 	{
 		if( !isRunning() )  return;
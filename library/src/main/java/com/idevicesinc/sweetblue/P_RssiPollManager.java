@@ -3,6 +3,7 @@ package com.idevicesinc.sweetblue;
 
 import com.idevicesinc.sweetblue.BleDevice.ReadWriteListener;
 import com.idevicesinc.sweetblue.BleDevice.ReadWriteListener.Type;
+import com.idevicesinc.sweetblue.utils.Interval;
 
 
 final class P_RssiPollManager
@@ -20,6 +21,8 @@ final class P_RssiPollManager
 		
 		@Override public void onEvent(final ReadWriteEvent event)
 		{
+			m_pollMngr.m_device.onTimedWorkChanging();
+
 			m_pollMngr.m_waitingOnResponse = false;
 			
 			if( m_pollMngr.m_timeTracker >= ENABLE_TIMER )
@@ -52,6 +55,8 @@ final class P_RssiPollManager
 	{
 		if( interval > 0.0 )
 		{
+			m_device.onTimedWorkChanging();
+
 			m_timeTracker = ENABLE_TIMER;
 			m_interval = interval;
 			m_listener = new CustomListener(this, listener_nullable, m_device.getManager().getPostManager().getUIHandler(), m_device.conf_mngr().postCallbacksToMainThread);
@@ -71,6 +76,14 @@ final class P_RssiPollManager
 		m_waitingOnResponse = false;
 	}
 	
+	double getTimeUntilNextUpdate()
+	{
+		//--- Nothing to do while waiting on a response, the listener lets the device know when the timer starts back up.
+		if( m_timeTracker == DISABLE_TIMER || m_waitingOnResponse )  return Interval.INFINITE.secs();
+
+		return Math.max(0.0, m_interval - m_timeTracker);
+	}
+	
 	void update(double timestep)
 	{
 		if( m_timeTracker != DISABLE_TIMER )
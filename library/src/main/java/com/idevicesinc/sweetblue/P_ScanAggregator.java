@@ -0,0 +1,179 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.bluetooth.BluetoothDevice;
+import com.idevicesinc.sweetblue.utils.RssiStats;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * Collapses all the scan results received for each device during one drain of {@link P_ScanRingBuffer} into a single result, keeping
+ * running RSSI statistics along the way. Only used when {@link BleManagerConfig#aggregateScanResults} is <code>true</code>, and only ever
+ * touched from the update thread.
+ */
+final class P_ScanAggregator
+{
+	//--- If a device goes this long without being seen, its moving average starts over the next time it is.
+	private static final long EMA_RESET_TIME = 10000;
+
+	static final class Accumulator
+	{
+		BluetoothDevice m_device;
+		byte[] m_record;
+
+		private int m_count;
+		private int m_latest;
+		private int m_min;
+		private int m_max;
+		private long m_sum;
+
+		//--- The moving average outlives the window, as long as the device keeps showing up.
+		private double m_ema;
+		private boolean m_hasEma;
+		private long m_lastSeenTime;
+
+		private void add(final BluetoothDevice device, final int rssi, final byte[] record, final double emaWeight)
+		{
+			m_device = device;
+			m_record = record;
+			m_latest = rssi;
+
+			if( m_count == 0 )
+			{
+				m_min = rssi;
+				m_max = rssi;
+			}
+			else
+			{
+				m_min = Math.min(m_min, rssi);
+				m_max = Math.max(m_max, rssi);
+			}
+
+			m_count++;
+			m_sum += rssi;
+
+			if( m_hasEma )
+			{
+				m_ema += emaWeight * (rssi - m_ema);
+			}
+			else
+			{
+				m_ema = rssi;
+				m_hasEma = true;
+			}
+		}
+
+		int latest()
+		{
+			return m_latest;
+		}
+
+		int count()
+		{
+			return m_count;
+		}
+
+		RssiStats toStats()
+		{
+			return new RssiStats(m_count, m_latest, m_min, m_max, ((double) m_sum) / m_count, m_ema);
+		}
+
+		private void endWindow()
+		{
+			m_device = null;
+			m_record = null;
+			m_count = 0;
+			m_sum = 0;
+		}
+	}
+
+	private final HashMap<String, Accumulator> m_accumulators = new HashMap<>();
+	private final ArrayList<Accumulator> m_window = new ArrayList<>();
+	private int m_windowCount;
+
+
+	/**
+	 * Adds a result to the current window. Results without an address (which only come from unit tests) are never merged together.
+	 */
+	final void add(final BluetoothDevice device, final int rssi, final byte[] record, final double emaWeight, final long currentTime)
+	{
+		final String address = device != null ? device.getAddress() : null;
+		Accumulator accumulator = address != null ? m_accumulators.get(address) : null;
+
+		if( accumulator == null )
+		{
+			accumulator = new Accumulator();
+
+			if( address != null )
+			{
+				m_accumulators.put(address, accumulator);
+			}
+		}
+
+		if( accumulator.m_count == 0 )
+		{
+			if( currentTime - accumulator.m_lastSeenTime > EMA_RESET_TIME )
+			{
+				accumulator.m_hasEma = false;
+			}
+
+			m_window.add(accumulator);
+		}
+
+		accumulator.m_lastSeenTime = currentTime;
+
+		accumulator.add(device, rssi, record, emaWeight);
+	}
+
+	/**
+	 * Returns one accumulator per device seen during the current window, in the order each device was first seen.
+	 */
+	final List<Accumulator> getWindow()
+	{
+		return m_window;
+	}
+
+	/**
+	 * Resets the per-window stats, and every so often forgets about devices that haven't been seen in a while.
+	 */
+	final void endWindow(final long currentTime)
+	{
+		for( int i = 0; i < m_window.size(); i++ )
+		{
+			m_window.get(i).endWindow();
+		}
+
+		m_window.clear();
+
+		m_windowCount++;
+
+		if( (m_windowCount & 63) != 0 )  return;
+
+		final Iterator<Accumulator> it = m_accumulators.values().iterator();
+
+		while( it.hasNext() )
+		{
+			if( currentTime - it.next().m_lastSeenTime > EMA_RESET_TIME )
+			{
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Forgets everything, for instance when a scan is stopped.
+	 */
+	final void clear()
+	{
+		for( int i = 0; i < m_window.size(); i++ )
+		{
+			m_window.get(i).endWindow();
+		}
+
+		m_window.clear();
+		m_accumulators.clear();
+	}
+}
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import com.idevicesinc.sweetblue.BleManagerConfig.ScanFilter;
 import com.idevicesinc.sweetblue.BleManagerConfig.ScanFilter.Please;
 import com.idevicesinc.sweetblue.BleManagerConfig.ScanFilter.ScanEvent;
+import com.idevicesinc.sweetblue.utils.Interval;
 
 
 final class P_ScanFilterManager
@@ -11,26 +12,37 @@ final class P_ScanFilterManager
 	private final ArrayList<BleManagerConfig.ScanFilter> m_filters = new ArrayList<BleManagerConfig.ScanFilter>();
 	private ScanFilter m_default;
 	private final BleManager m_mngr;
+	private final P_ScanRejectionCache m_rejectionCache = new P_ScanRejectionCache();
+	private final CompiledScanFilter.Target m_target = new CompiledScanFilter.Target();
+	private boolean m_allCompiled = false;
 	
 	P_ScanFilterManager(final BleManager mngr, final ScanFilter defaultFilter)
 	{
 		m_mngr = mngr;
 		m_default = defaultFilter;
+		m_allCompiled = checkAllCompiled();
 	}
 
 	void updateFilter(ScanFilter filter)
 	{
 		m_default = filter;
+		m_allCompiled = checkAllCompiled();
+		m_rejectionCache.clear();
 	}
 	
 	void clear()
 	{
 		m_filters.clear();
+		m_allCompiled = checkAllCompiled();
+		m_rejectionCache.clear();
 	}
 	
 	void remove(ScanFilter filter)
 	{
 		while( m_filters.remove(filter) ){};
+
+		m_allCompiled = checkAllCompiled();
+		m_rejectionCache.clear();
 	}
 	
 	void add(ScanFilter filter)
@@ -43,6 +55,76 @@ final class P_ScanFilterManager
 		}
 		
 		m_filters.add(filter);
+		m_allCompiled = checkAllCompiled();
+		m_rejectionCache.clear();
+	}
+
+	/**
+	 * Returns <code>true</code> if every filter is a {@link CompiledScanFilter} and none of them match, in which case {@link #allow(P_Logger, ScanEvent)}
+	 * would ignore the device anyway. This only looks at the raw scan record, so it's done before anything else is created for a newly found device.
+	 * Only ever called from the update thread.
+	 */
+	boolean isRejectedByCompiledFilters(final P_NativeDeviceLayer device, final byte[] scanRecord_nullable, final int rssi)
+	{
+		if( !m_allCompiled )  return false;
+
+		final CompiledScanFilter.Target target = m_target.reset(m_mngr, device, scanRecord_nullable, rssi);
+
+		if( m_default != null && ((CompiledScanFilter) m_default).matches(target) )  return false;
+
+		for( int i = 0; i < m_filters.size(); i++ )
+		{
+			if( ((CompiledScanFilter) m_filters.get(i)).matches(target) )  return false;
+		}
+
+		return true;
+	}
+
+	private boolean checkAllCompiled()
+	{
+		if( !makeEvent() )  return false;
+
+		if( m_default != null && !(m_default instanceof CompiledScanFilter) )  return false;
+
+		for( int i = 0; i < m_filters.size(); i++ )
+		{
+			if( !(m_filters.get(i) instanceof CompiledScanFilter) )  return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns <code>true</code> if the filters recently rejected this device with the exact same scan record, in which case there's
+	 * no need to ask them again. Always returns <code>false</code> if {@link BleManagerConfig#scanFilterRejectionCacheTime} is disabled.
+	 */
+	boolean wasRecentlyRejected(final String macAddress, final byte[] scanRecord_nullable, final long currentTime)
+	{
+		if( !isRejectionCacheEnabled() )  return false;
+
+		return m_rejectionCache.isRejected(macAddress, scanRecord_nullable, currentTime);
+	}
+
+	void onRejected(final String macAddress, final byte[] scanRecord_nullable, final long currentTime)
+	{
+		if( !isRejectionCacheEnabled() )  return;
+
+		m_rejectionCache.onRejected(macAddress, scanRecord_nullable, currentTime, m_mngr.m_config.scanFilterRejectionCacheTime.millis(), m_mngr.m_config.scanFilterRejectionCacheSize);
+	}
+
+	long getRejectionCacheHitCount()
+	{
+		return m_rejectionCache.getHitCount();
+	}
+
+	long getRejectionCacheMissCount()
+	{
+		return m_rejectionCache.getMissCount();
+	}
+
+	private boolean isRejectionCacheEnabled()
+	{
+		return makeEvent() && Interval.isEnabled(m_mngr.m_config.scanFilterRejectionCacheTime);
 	}
 
 	public boolean makeEvent()
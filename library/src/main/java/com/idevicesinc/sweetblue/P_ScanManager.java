@@ -5,13 +5,13 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import com.idevicesinc.sweetblue.compat.L_Util;
 import com.idevicesinc.sweetblue.utils.Interval;
+import com.idevicesinc.sweetblue.utils.RssiStats;
+import com.idevicesinc.sweetblue.utils.ScanCapture;
 import com.idevicesinc.sweetblue.utils.Utils;
 import com.idevicesinc.sweetblue.utils.Utils_String;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 import static com.idevicesinc.sweetblue.BleManagerState.SCANNING;
 import static com.idevicesinc.sweetblue.BleManagerState.BOOST_SCANNING;
@@ -28,13 +28,35 @@ final class P_ScanManager
     static final int Mode_CLASSIC = 1;
     static final int Mode_BLE_POST_LOLLIPOP = 2;
 
+    // The least number of results processed each tick, no matter what BleManagerConfig.scanDrainBudget says.
+    private static final int MIN_DRAIN_COUNT = 5;
+    // Weight given to the latest chunk when updating m_nanosPerEntry.
+    private static final double DRAIN_COST_WEIGHT = .25;
+
 
     private final BleManager m_manager;
     private PreLollipopScanCallback m_preLollipopScanCallback;
     private PostLollipopScanCallback m_postLollipopScanCallback;
     private AtomicReference<BleScanApi> mCurrentApi;
     private AtomicReference<BleScanPower> mCurrentPower;
-    private Set<ScanInfo> m_scanEntries;
+    private volatile P_ScanRingBuffer m_scanEntries;
+    // Only used by the update thread when draining m_scanEntries.
+    private final P_ScanRingBuffer.Entry m_drainEntry = new P_ScanRingBuffer.Entry();
+    // Only used by the update thread, when BleManagerConfig.aggregateScanResults is true.
+    private final P_ScanAggregator m_aggregator = new P_ScanAggregator();
+    private final P_AdaptiveScanController m_adaptiveController = new P_AdaptiveScanController();
+    // Moving average of how long a single result takes to process, used to size drain chunks. Only touched by the update thread.
+    private double m_nanosPerEntry;
+    private volatile boolean m_overloaded;
+    // Set by BleManager.startScanCapture(), and written to from whatever thread the native stack hands us results on.
+    private volatile ScanCapture.Writer m_captureWriter;
+
+    // Set from ScanOptions, and takes the place of BleManagerConfig.nativeScanFilters when not null.
+    private List<NativeScanFilter> m_nativeScanFilters_override;
+    private final CompiledScanFilter.Target m_nativeFilterTarget = new CompiledScanFilter.Target();
+    // Counts from buffers which have since been replaced because BleManagerConfig.scanBufferSize changed.
+    private long m_droppedCount_oldBuffers;
+    private long m_coalescedCount_oldBuffers;
 
     private final int m_retryCountMax = 3;
     private boolean m_triedToStartScanAfterTurnedOn;
@@ -52,15 +74,13 @@ final class P_ScanManager
 
     private int m_mode;
 
-    private final Object entryLock = new Object();
-
 
     public P_ScanManager(BleManager mgr)
     {
         m_manager = mgr;
         mCurrentApi = new AtomicReference<>(mgr.m_config.scanApi);
         mCurrentPower = new AtomicReference<>(BleScanPower.AUTO);
-        m_scanEntries = new HashSet<>();
+        m_scanEntries = new P_ScanRingBuffer(mgr.m_config.scanBufferSize);
         m_preLollipopScanCallback = new PreLollipopScanCallback();
         if(Utils.isLollipop())
         {
@@ -76,6 +96,7 @@ final class P_ScanManager
 
     public final boolean startScan(PA_StateTracker.E_Intent intent, double scanTime, boolean periodicScan)
     {
+        resizeScanBufferIfNeeded();
         m_periodicScan = periodicScan;
         m_timePausedScan = 0.0;
         m_totalTimeScanning = 0.0;
@@ -218,22 +239,168 @@ final class P_ScanManager
 
     final void addScanResult(final BluetoothDevice device, final int rssi, final byte[] scanRecord)
     {
-        final ScanInfo info = new ScanInfo(device, rssi, scanRecord);
-        synchronized (entryLock)
+        final ScanCapture.Writer writer = m_captureWriter;
+        final long time = System.currentTimeMillis();
+
+        if (writer != null)
         {
-            m_scanEntries.add(info);
+            capture(writer, time, device, rssi, scanRecord);
         }
+
+        m_scanEntries.offer(device, rssi, scanRecord, time, getOverflowPolicy());
     }
 
     final void addBatchScanResults(final List<L_Util.ScanResult> devices)
     {
-        synchronized (entryLock)
+        final P_ScanRingBuffer buffer = m_scanEntries;
+        final BleScanOverflowPolicy policy = getOverflowPolicy();
+        final ScanCapture.Writer writer = m_captureWriter;
+        final long time = System.currentTimeMillis();
+
+        for (int i = 0; i < devices.size(); i++)
         {
-            for (L_Util.ScanResult res : devices)
+            final L_Util.ScanResult res = devices.get(i);
+
+            if (writer != null)
+            {
+                capture(writer, time, res.getDevice(), res.getRssi(), res.getRecord());
+            }
+
+            buffer.offer(res.getDevice(), res.getRssi(), res.getRecord(), time, policy);
+        }
+    }
+
+    final void setScanCapture(final ScanCapture.Writer writer)
+    {
+        m_captureWriter = writer;
+    }
+
+    /**
+     * Stops the current capture, if any, and returns how many results it captured.
+     */
+    final int stopScanCapture()
+    {
+        final ScanCapture.Writer writer = m_captureWriter;
+
+        if (writer == null)  return 0;
+
+        m_captureWriter = null;
+        closeCapture(writer);
+
+        return writer.getCount();
+    }
+
+    private void capture(final ScanCapture.Writer writer, final long time, final BluetoothDevice device, final int rssi, final byte[] scanRecord)
+    {
+        try
+        {
+            writer.write(time, device != null ? device.getAddress() : null, rssi, scanRecord);
+        }
+        catch (IOException e)
+        {
+            // A full disk or closed stream shouldn't get in the way of scanning, so the capture just ends here.
+            m_manager.getLogger().e("Scan capture stopped after " + writer.getCount() + " results because of " + e);
+
+            if (m_captureWriter == writer)
             {
-                final ScanInfo info = new ScanInfo(res.getDevice(), res.getRssi(), res.getRecord());
-                m_scanEntries.add(info);
+                m_captureWriter = null;
             }
+
+            closeCapture(writer);
+        }
+    }
+
+    private void closeCapture(final ScanCapture.Writer writer)
+    {
+        try
+        {
+            writer.close();
+        }
+        catch (IOException e)
+        {
+            m_manager.getLogger().e("Unable to close scan capture: " + e);
+        }
+    }
+
+    final void setNativeScanFilters(final List<NativeScanFilter> filters_nullable)
+    {
+        m_nativeScanFilters_override = filters_nullable;
+    }
+
+    final List<NativeScanFilter> getNativeScanFilters()
+    {
+        return m_nativeScanFilters_override != null ? m_nativeScanFilters_override : m_manager.m_config.nativeScanFilters;
+    }
+
+    /**
+     * Returns <code>false</code> if there are native scan filters that the stack couldn't apply for us, and the given result doesn't match any of them.
+     * Only called from {@link BleManager#onDiscoveredFromNativeStack(List)}.
+     */
+    final boolean passesNativeScanFilters(final P_NativeDeviceLayer device, final byte[] scanRecord_nullable, final int rssi)
+    {
+        // The stack already took care of it.
+        if (m_mode == Mode_BLE_POST_LOLLIPOP)  return true;
+
+        final List<NativeScanFilter> filters = getNativeScanFilters();
+
+        if (filters == null || filters.isEmpty())  return true;
+
+        final CompiledScanFilter.Target target = m_nativeFilterTarget.reset(m_manager, device, scanRecord_nullable, rssi);
+
+        for (int i = 0; i < filters.size(); i++)
+        {
+            if (filters.get(i).matches(target))  return true;
+        }
+
+        return false;
+    }
+
+    final long getDroppedScanResultCount()
+    {
+        return m_droppedCount_oldBuffers + m_scanEntries.getDroppedCount();
+    }
+
+    final long getCoalescedScanResultCount()
+    {
+        return m_coalescedCount_oldBuffers + m_scanEntries.getCoalescedCount();
+    }
+
+    final int getQueueDepth()
+    {
+        return m_scanEntries.size();
+    }
+
+    final Interval getOldestEntryAge(final long currentTime)
+    {
+        final long oldestTime = m_scanEntries.getOldestTime();
+
+        if (oldestTime == 0L)  return Interval.ZERO;
+
+        return Interval.millis(Math.max(0L, currentTime - oldestTime));
+    }
+
+    final boolean isOverloaded()
+    {
+        return m_overloaded;
+    }
+
+    private BleScanOverflowPolicy getOverflowPolicy()
+    {
+        final BleScanOverflowPolicy policy = m_manager.m_config.scanOverflowPolicy;
+
+        return policy != null ? policy : BleScanOverflowPolicy.COALESCE_BY_ADDRESS;
+    }
+
+    private void resizeScanBufferIfNeeded()
+    {
+        final P_ScanRingBuffer current = m_scanEntries;
+
+        if (P_ScanRingBuffer.capacityFor(m_manager.m_config.scanBufferSize) != current.capacity())
+        {
+            // Anything still in the old buffer is stale at this point anyways, as it gets cleared whenever scanning stops.
+            m_droppedCount_oldBuffers += current.getDroppedCount();
+            m_coalescedCount_oldBuffers += current.getCoalescedCount();
+            m_scanEntries = new P_ScanRingBuffer(m_manager.m_config.scanBufferSize);
         }
     }
 
@@ -257,9 +424,11 @@ final class P_ScanManager
 
             int size = m_scanEntries.size();
 
-            handleScanEntries(size);
+            handleScanEntries(size, currentTime);
+
+            final Interval activeTime = m_adaptiveController.getActiveTime(m_manager.m_config.adaptiveScanPolicy, m_manager.m_config.infiniteScanInterval);
 
-            if (!m_forceActualInfinite && m_doingInfiniteScan && Interval.isEnabled(m_manager.m_config.infiniteScanInterval) && m_intervalTimeScanning >= m_manager.m_config.infiniteScanInterval.secs())
+            if (!m_forceActualInfinite && m_doingInfiniteScan && Interval.isEnabled(activeTime) && m_intervalTimeScanning >= activeTime.secs())
             {
                 pauseScan();
             }
@@ -272,6 +441,7 @@ final class P_ScanManager
             if (m_doingInfiniteScan)
             {
                 Interval pauseTime = Interval.isEnabled(m_manager.m_config.infinitePauseInterval) ? m_manager.m_config.infinitePauseInterval : Interval.secs(BleManagerConfig.DEFAULT_SCAN_INFINITE_PAUSE_TIME);
+                pauseTime = m_adaptiveController.getPauseTime(m_manager.m_config.adaptiveScanPolicy, pauseTime);
                 if (m_timePausedScan >= pauseTime.secs())
                 {
                     m_manager.getLogger().i("Restarting paused scan...");
@@ -325,7 +495,7 @@ final class P_ScanManager
             }
             if( m_periodicScan && !m_manager.isAny(SCANNING, STARTING_SCAN) )
             {
-                double scanInterval = Interval.secs(m_manager.isForegrounded() ? m_manager.m_config.autoScanPauseInterval : m_manager.m_config.autoScanPauseTimeWhileAppIsBackgrounded);
+                double scanInterval = Interval.secs(m_manager.isForegrounded() ? m_adaptiveController.getPauseTime(m_manager.m_config.adaptiveScanPolicy, m_manager.m_config.autoScanPauseInterval) : m_manager.m_config.autoScanPauseTimeWhileAppIsBackgrounded);
 
                 if( Interval.isEnabled(scanInterval) && m_timeNotScanning >= scanInterval )
                 {
@@ -339,7 +509,9 @@ final class P_ScanManager
         {
             if( m_manager.doAutoScan() )
             {
-                m_manager.startScan_private(new ScanOptions().scanPeriodically(m_manager.m_config.autoScanActiveTime, m_manager.m_config.autoScanPauseInterval));
+                final ScanOptions options = new ScanOptions().scanPeriodically(m_manager.m_config.autoScanActiveTime, m_manager.m_config.autoScanPauseInterval);
+                options.m_nativeScanFilters = m_nativeScanFilters_override;
+                m_manager.startScan_private(options);
             }
         }
 
@@ -366,6 +538,14 @@ final class P_ScanManager
         return startScan;
     }
 
+    /**
+     * Returns <code>true</code> if scanning is going on, or may be started automatically, meaning {@link #update(double, long)} has work to do.
+     */
+    final boolean hasTimedWork()
+    {
+        return m_manager.isAny(SCANNING, SCANNING_PAUSED, BOOST_SCANNING, STARTING_SCAN) || m_periodicScan || Interval.isEnabled(m_manager.m_config.autoScanActiveTime);
+    }
+
     final boolean isPeriodicScan()
     {
         return m_periodicScan;
@@ -410,52 +590,231 @@ final class P_ScanManager
 
 
 
-    private void handleScanEntries(int size)
+    private void handleScanEntries(int size, long currentTime)
     {
         if ( size > 0 )
         {
-            final List<ScanInfo> infos;
-
-            // Get our max scan entries to process based off the update loop rate, with
-            // a minimum of 5.
-            final long upRate = m_manager.m_config.autoUpdateRate.millis();
-            final int maxEntries = (int) Math.min(size, Math.max(5, upRate));
-            infos = new ArrayList<>(maxEntries);
-            synchronized (entryLock)
+            if (m_manager.m_config.aggregateScanResults)
             {
-                int current = 0;
-                final Iterator<ScanInfo> it = m_scanEntries.iterator();
-                while (it.hasNext() && current < maxEntries)
+                final List<DiscoveryEntry> entries = aggregateScanEntries(size, currentTime);
+
+                m_manager.onDiscoveredFromNativeStack(entries);
+
+                if (m_manager.m_config.adaptiveScanPolicy != null)
                 {
-                    infos.add(it.next());
-                    it.remove();
-                    current++;
+                    onBatchHandled(entries);
                 }
             }
+            else
+            {
+                drainScanEntries(size);
+            }
+        }
 
-            final List<DiscoveryEntry> entries = new ArrayList<>(infos.size());
+        updateOverloaded(currentTime);
+    }
 
-            for (ScanInfo info : infos)
-            {
-                final P_NativeDeviceLayer layer = m_manager.m_config.newDeviceLayer(BleDevice.NULL);
-                layer.setNativeDevice(info.m_device);
+    // Processes results a chunk at a time until BleManagerConfig.scanDrainBudget is spent. Chunks are sized from how long results have
+    // been taking to process lately, so that a burst gets worked through as fast as the budget allows without stalling the update thread.
+    private void drainScanEntries(int size)
+    {
+        final Interval budget = m_manager.m_config.scanDrainBudget;
+        final long budget_nanos = Interval.isEnabled(budget) ? budget.millis() * 1000000L : Long.MAX_VALUE;
+        final boolean adaptive = m_manager.m_config.adaptiveScanPolicy != null;
+        final List<DiscoveryEntry> handled = adaptive ? new ArrayList<DiscoveryEntry>() : null;
 
-                if (m_mode == Mode_BLE)
-                {
-                    m_manager.getCrashResolver().notifyScannedDevice(layer, m_preLollipopScanCallback, null);
-                }
-                else
-                {
-                    m_manager.getCrashResolver().notifyScannedDevice(layer, null, L_Util.getNativeCallback());
-                }
+        final P_ScanRingBuffer buffer = m_scanEntries;
+        final P_ScanRingBuffer.Entry info = m_drainEntry;
+        final long start = System.nanoTime();
+        int drained = 0;
+
+        while (drained < size)
+        {
+            final long elapsed = System.nanoTime() - start;
 
-                entries.add(DiscoveryEntry.newEntry(layer, info.m_rssi, info.m_record));
+            if (drained >= MIN_DRAIN_COUNT && elapsed >= budget_nanos)  break;
+
+            final int chunkSize = getDrainChunkSize(size - drained, drained, budget_nanos - elapsed);
+            final List<DiscoveryEntry> entries = new ArrayList<>(chunkSize);
+
+            while (entries.size() < chunkSize && buffer.poll(info))
+            {
+                entries.add(newDiscoveryEntry(info.m_device, info.m_rssi, info.m_record));
             }
 
+            if (entries.isEmpty())  break;
+
+            final long chunkStart = System.nanoTime();
+
             m_manager.onDiscoveredFromNativeStack(entries);
+
+            updateDrainCost(System.nanoTime() - chunkStart, entries.size());
+
+            drained += entries.size();
+
+            if (handled != null)
+            {
+                handled.addAll(entries);
+            }
+        }
+
+        // Don't hang on to the last device/record until the next drain.
+        info.clear();
+
+        if (handled != null)
+        {
+            onBatchHandled(handled);
         }
     }
 
+    private int getDrainChunkSize(final int remaining, final int drained, final long budgetLeft_nanos)
+    {
+        final int minimum = Math.max(1, MIN_DRAIN_COUNT - drained);
+
+        if (budgetLeft_nanos == Long.MAX_VALUE)  return remaining;
+
+        // Nothing to go on yet, so start small.
+        if (m_nanosPerEntry <= 0.0)  return Math.min(remaining, minimum);
+
+        final long affordable = (long) (budgetLeft_nanos / m_nanosPerEntry);
+
+        return (int) Math.min(remaining, Math.max(minimum, affordable));
+    }
+
+    private void updateDrainCost(final long elapsed_nanos, final int count)
+    {
+        final double nanosPerEntry = (double) elapsed_nanos / count;
+
+        m_nanosPerEntry = m_nanosPerEntry <= 0.0 ? nanosPerEntry : m_nanosPerEntry + DRAIN_COST_WEIGHT * (nanosPerEntry - m_nanosPerEntry);
+    }
+
+    private void updateOverloaded(final long currentTime)
+    {
+        final Interval threshold = m_manager.m_config.scanOverloadThreshold;
+
+        if (!Interval.isEnabled(threshold))
+        {
+            m_overloaded = false;
+
+            return;
+        }
+
+        final long age = getOldestEntryAge(currentTime).millis();
+
+        if (!m_overloaded && age >= threshold.millis())
+        {
+            m_overloaded = true;
+
+            m_manager.getLogger().w("Scan results are piling up faster than they can be processed. " + getQueueDepth() + " waiting, oldest is " + age + "ms old.");
+
+            m_manager.uhOh(BleManager.UhOhListener.UhOh.SCAN_OVERLOADED);
+        }
+        else if (m_overloaded && age < threshold.millis() / 2)
+        {
+            m_overloaded = false;
+
+            m_manager.getLogger().i("Scan results are being processed in time again.");
+        }
+    }
+
+    private void onBatchHandled(final List<DiscoveryEntry> entries)
+    {
+        int newDeviceCount = 0;
+        int rediscoveryCount = 0;
+
+        for (int i = 0; i < entries.size(); i++)
+        {
+            final DiscoveryEntry entry = entries.get(i);
+
+            // Entries that didn't make it past the filters never get a device.
+            if (entry.m_bleDevice == null)  continue;
+
+            if (entry.m_newlyDiscovered)
+            {
+                newDeviceCount++;
+            }
+            else
+            {
+                rediscoveryCount++;
+            }
+        }
+
+        m_adaptiveController.onBatch(entries.size(), newDeviceCount, rediscoveryCount);
+    }
+
+    private void endAdaptiveScanWindow()
+    {
+        final AdaptiveScanPolicy policy = m_manager.m_config.adaptiveScanPolicy;
+
+        if (policy == null)  return;
+
+        final AdaptiveScanPolicy.State state = m_adaptiveController.endWindow(policy, m_intervalTimeScanning, m_manager.m_config.scanBufferSize);
+
+        m_manager.getLogger().i("Adaptive scan: " + state.decision() + " to activity " + state.activity() + ", next window " + state.activeTime(policy).secs() + "s, pause " +
+                state.pauseTime(policy).secs() + "s, power " + state.power(policy) + ". " + state);
+    }
+
+    /**
+     * Returns how long a periodic scan should run for, which is the given time unless {@link BleManagerConfig#adaptiveScanPolicy} says otherwise.
+     */
+    final Interval getPeriodicActiveTime(final Interval configured)
+    {
+        return m_adaptiveController.getActiveTime(m_manager.m_config.adaptiveScanPolicy, configured);
+    }
+
+    final AdaptiveScanPolicy.State getAdaptiveScanState()
+    {
+        return m_adaptiveController.getState();
+    }
+
+    // Drains everything that's waiting, and folds it down to one entry per device which carries the RSSI stats for this window. Polling is
+    // cheap compared to actually processing a discovery, so there's no need to limit the number of raw results like drainScanEntries() does.
+    private List<DiscoveryEntry> aggregateScanEntries(int size, long currentTime)
+    {
+        final P_ScanRingBuffer buffer = m_scanEntries;
+        final P_ScanRingBuffer.Entry info = m_drainEntry;
+        final double emaWeight = m_manager.m_config.scanRssiEmaWeight;
+
+        for (int i = 0; i < size && buffer.poll(info); i++)
+        {
+            m_aggregator.add(info.m_device, info.m_rssi, info.m_record, emaWeight, currentTime);
+        }
+
+        info.clear();
+
+        final List<P_ScanAggregator.Accumulator> window = m_aggregator.getWindow();
+        final List<DiscoveryEntry> entries = new ArrayList<>(window.size());
+
+        for (int i = 0; i < window.size(); i++)
+        {
+            final P_ScanAggregator.Accumulator accumulator = window.get(i);
+            final DiscoveryEntry entry = newDiscoveryEntry(accumulator.m_device, accumulator.latest(), accumulator.m_record);
+            entry.m_rssiStats = accumulator.toStats();
+            entries.add(entry);
+        }
+
+        m_aggregator.endWindow(currentTime);
+
+        return entries;
+    }
+
+    private DiscoveryEntry newDiscoveryEntry(BluetoothDevice device, int rssi, byte[] record)
+    {
+        final P_NativeDeviceLayer layer = m_manager.m_config.newDeviceLayer(BleDevice.NULL);
+        layer.setNativeDevice(device);
+
+        if (m_mode == Mode_BLE)
+        {
+            m_manager.getCrashResolver().notifyScannedDevice(layer, m_preLollipopScanCallback, null);
+        }
+        else
+        {
+            m_manager.getCrashResolver().notifyScannedDevice(layer, null, L_Util.getNativeCallback());
+        }
+
+        return DiscoveryEntry.newEntry(layer, rssi, record);
+    }
+
     private boolean startClassicDiscovery()
     {
         return m_manager.managerLayer().startDiscovery();
@@ -478,6 +837,7 @@ final class P_ScanManager
 
     private void stopScan_private(boolean stopping)
     {
+        endAdaptiveScanWindow();
         m_intervalTimeScanning = 0.0;
         switch (mCurrentApi.get())
         {
@@ -508,10 +868,9 @@ final class P_ScanManager
         }
         // Clear out the scan entries list so we don't end up caching old discoveries (it's possible there's a large amount of time between scans, so
         // what's held in the list may not actually be within range anymore, or some other data on it has changed).
-        synchronized (entryLock)
-        {
-            m_scanEntries.clear();
-        }
+        m_scanEntries.clear();
+        m_aggregator.clear();
+        m_overloaded = false;
     }
 
     private boolean startScanPreLollipop(PA_StateTracker.E_Intent intent)
@@ -602,7 +961,7 @@ final class P_ScanManager
     private boolean startScanPostLollipop(double scanTime)
     {
         int nativePowerMode;
-        BleScanPower power = m_manager.m_config.scanPower;
+        BleScanPower power = m_adaptiveController.getPower(m_manager.m_config.adaptiveScanPolicy, m_manager.m_config.scanPower);
         if (power == BleScanPower.AUTO)
         {
             if (m_manager.isForegrounded())
@@ -695,12 +1054,12 @@ final class P_ScanManager
 
     private void startLScan(int mode)
     {
-        m_manager.managerLayer().startLScan(mode, m_manager.m_config.scanReportDelay, m_postLollipopScanCallback);
+        m_manager.managerLayer().startLScan(mode, m_manager.m_config.scanReportDelay, getNativeScanFilters(), m_postLollipopScanCallback);
     }
 
     private void startMScan(int mode)
     {
-        m_manager.managerLayer().startMScan(mode, m_manager.m_config.scanReportDelay, m_postLollipopScanCallback);
+        m_manager.managerLayer().startMScan(mode, m_manager.m_config.scanReportDelay, getNativeScanFilters(), m_postLollipopScanCallback);
     }
 
     private void fail()
@@ -746,6 +1105,8 @@ final class P_ScanManager
         BleDeviceOrigin m_origin;
         BleManagerConfig.ScanFilter.ScanEvent m_scanEvent;
         boolean m_newlyDiscovered;
+        // Only set when BleManagerConfig.aggregateScanResults is true.
+        RssiStats m_rssiStats = RssiStats.NULL;
 
 
         DiscoveryEntry(P_NativeDeviceLayer layer, int rssi, byte[] record)
@@ -776,45 +1137,6 @@ final class P_ScanManager
         }
     }
 
-    private final static class ScanInfo
-    {
-        private final BluetoothDevice m_device;
-        private final int m_rssi;
-        private final byte[] m_record;
-
-        ScanInfo(BluetoothDevice device, int rssi, byte[] record)
-        {
-            m_device = device;
-            m_rssi = rssi;
-            m_record = record;
-        }
-
-        @Override
-        public int hashCode()
-        {
-            if (m_device != null)
-            {
-                return m_device.getAddress().hashCode();
-            }
-            return super.hashCode();
-        }
-
-        @Override
-        public boolean equals(Object obj)
-        {
-            if (obj == null)
-                return false;
-            if (obj instanceof ScanInfo)
-            {
-                ScanInfo other = (ScanInfo) obj;
-                if ((m_device == null && other.m_device != null) || (m_device != null && other.m_device == null))
-                    return false;
-                return m_device.getAddress().equals(other.m_device.getAddress());
-            }
-            return false;
-        }
-    }
-
     private final class PreLollipopScanCallback implements BluetoothAdapter.LeScanCallback
     {
 
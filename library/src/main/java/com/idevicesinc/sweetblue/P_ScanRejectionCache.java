@@ -0,0 +1,135 @@
+package com.idevicesinc.sweetblue;
+
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Remembers devices which were recently rejected by every {@link BleManagerConfig.ScanFilter}, so that advertisements from them can be thrown
+ * away without having to parse the scan record, hit the disk, and ask the filters all over again. An entry only matches if the scan record
+ * hasn't changed since it was rejected, and only for {@link BleManagerConfig#scanFilterRejectionCacheTime}.
+ * See {@link BleManagerConfig#scanFilterRejectionCacheTime} for more details.
+ */
+final class P_ScanRejectionCache
+{
+	private static final class Rejection
+	{
+		private long m_fingerprint;
+		private long m_expiryTime;
+	}
+
+	//--- Insertion ordered, and entries are re-inserted whenever they're refreshed, so the eldest entry is always the next one to expire.
+	private final LinkedHashMap<String, Rejection> m_rejections = new LinkedHashMap<>();
+
+	private long m_hitCount;
+	private long m_missCount;
+
+
+	/**
+	 * Returns <code>true</code> if the given device was rejected with the same scan record, and that rejection hasn't expired yet.
+	 */
+	final synchronized boolean isRejected(final String macAddress, final byte[] scanRecord_nullable, final long currentTime)
+	{
+		final Rejection rejection = m_rejections.get(macAddress);
+
+		if( rejection != null )
+		{
+			if( currentTime >= rejection.m_expiryTime )
+			{
+				m_rejections.remove(macAddress);
+			}
+			else if( rejection.m_fingerprint == fingerprint(scanRecord_nullable) )
+			{
+				m_hitCount++;
+
+				return true;
+			}
+		}
+
+		m_missCount++;
+
+		return false;
+	}
+
+	final synchronized void onRejected(final String macAddress, final byte[] scanRecord_nullable, final long currentTime, final long cacheTime, final int maxSize)
+	{
+		if( maxSize <= 0 )  return;
+
+		Rejection rejection = m_rejections.remove(macAddress);
+
+		if( rejection == null )
+		{
+			rejection = new Rejection();
+		}
+
+		rejection.m_fingerprint = fingerprint(scanRecord_nullable);
+		rejection.m_expiryTime = currentTime + cacheTime;
+
+		purgeExpired(currentTime);
+
+		final Iterator<Rejection> it = m_rejections.values().iterator();
+
+		while( m_rejections.size() >= maxSize && it.hasNext() )
+		{
+			it.next();
+			it.remove();
+		}
+
+		m_rejections.put(macAddress, rejection);
+	}
+
+	/**
+	 * Forgets every rejection, which needs to happen any time the set of filters changes.
+	 */
+	final synchronized void clear()
+	{
+		m_rejections.clear();
+	}
+
+	final synchronized int size()
+	{
+		return m_rejections.size();
+	}
+
+	final synchronized long getHitCount()
+	{
+		return m_hitCount;
+	}
+
+	final synchronized long getMissCount()
+	{
+		return m_missCount;
+	}
+
+	private void purgeExpired(final long currentTime)
+	{
+		final Iterator<Map.Entry<String, Rejection>> it = m_rejections.entrySet().iterator();
+
+		while( it.hasNext() )
+		{
+			if( currentTime < it.next().getValue().m_expiryTime )  break;
+
+			it.remove();
+		}
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the scan record, so a changed record is all but guaranteed to miss.
+	 */
+	static long fingerprint(final byte[] scanRecord_nullable)
+	{
+		if( scanRecord_nullable == null )  return 0;
+
+		long hash = 0xcbf29ce484222325L;
+
+		for( int i = 0; i < scanRecord_nullable.length; i++ )
+		{
+			hash ^= scanRecord_nullable[i] & 0xff;
+			hash *= 0x100000001b3L;
+		}
+
+		return hash;
+	}
+}
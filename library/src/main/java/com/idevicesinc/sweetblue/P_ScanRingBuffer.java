@@ -0,0 +1,386 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.bluetooth.BluetoothDevice;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Bounded ring buffer which holds scan results coming in from the native stack until the update thread gets around to processing them.
+ * All slots are allocated up front, so adding a result doesn't allocate anything.
+ * <br><br>
+ * The consumer side ({@link #poll(Entry)}, {@link #clear()}) is only ever called from the update thread, and never waits on a lock, so it
+ * never has to wait on the native stack's callback thread. Android delivers scan callbacks on a single thread, so in practice there is
+ * only one producer, but the producer side is still guarded by its own lock so that results coming in from elsewhere (unit tests, classic
+ * discovery, etc.) can't corrupt the buffer. The consumer only ever tries that lock, to let go of the results it's done with once it's
+ * drained the buffer.
+ * <br><br>
+ * Each slot has a stamp which is odd while the producer is writing to it, and is bumped again once it's done. The consumer copies a slot out,
+ * then claims it by bumping the stamp by two from what it was before copying, and tries again if that fails because the producer wrote to it
+ * in the meantime. Replacing a result with {@link BleScanOverflowPolicy#COALESCE_BY_ADDRESS} claims the slot the same way before writing
+ * to it, so it can't land in a slot the consumer has already taken. Finally the consumer moves the head past the slot, or moves on if the
+ * slot was dropped (by {@link BleScanOverflowPolicy#DROP_OLDEST}) in the meantime.
+ */
+final class P_ScanRingBuffer
+{
+	/**
+	 * Holder the consumer copies a slot into. Owned by the consumer, and reused for every {@link #poll(Entry)}.
+	 */
+	static final class Entry
+	{
+		BluetoothDevice m_device;
+		int m_rssi;
+		byte[] m_record;
+
+		void clear()
+		{
+			m_device = null;
+			m_record = null;
+		}
+	}
+
+	private final int m_capacity;
+	private final int m_mask;
+
+	//--- The atomic arrays are only used for their memory visibility guarantees, so that the stamp check in poll() is actually valid.
+	private final AtomicReferenceArray<BluetoothDevice> m_devices;
+	private final AtomicIntegerArray m_rssis;
+	private final AtomicReferenceArray<byte[]> m_records;
+	private final AtomicLongArray m_times;
+	private final AtomicLongArray m_stamps;
+	// Only touched while holding the producer lock.
+	private final String[] m_addresses;
+
+	// Index of the next slot to read, only moved forward by the consumer, or by the producer when dropping the oldest result.
+	private final AtomicLong m_head = new AtomicLong();
+	// Index of the next slot to write, only moved by the producer.
+	private final AtomicLong m_tail = new AtomicLong();
+
+	private final ReentrantLock m_producerLock = new ReentrantLock();
+	// Only written while holding the producer lock. Index of the first slot behind the head that may still hold onto a device and record.
+	private volatile long m_releasedUpTo;
+	// Only touched while holding the producer lock, and only kept up to date when coalescing. Maps an address to the index of its most
+	// recent result (boxed in an array so it can be updated without allocating). It's only a hint, every lookup is checked against the slot itself.
+	private final HashMap<String, long[]> m_lastIndexByAddress = new HashMap<>();
+
+	private volatile long m_droppedCount;
+	private volatile long m_coalescedCount;
+
+
+	P_ScanRingBuffer(final int requestedCapacity)
+	{
+		final int capacity = capacityFor(requestedCapacity);
+
+		m_capacity = capacity;
+		m_mask = capacity - 1;
+
+		m_devices = new AtomicReferenceArray<>(capacity);
+		m_rssis = new AtomicIntegerArray(capacity);
+		m_records = new AtomicReferenceArray<>(capacity);
+		m_times = new AtomicLongArray(capacity);
+		m_stamps = new AtomicLongArray(capacity);
+		m_addresses = new String[capacity];
+	}
+
+	/**
+	 * Returns the actual capacity a buffer would have for the given requested size, which is rounded up to a power of two.
+	 */
+	static int capacityFor(final int requestedCapacity)
+	{
+		int capacity = 1;
+
+		while( capacity < requestedCapacity && capacity < (1 << 30) )
+		{
+			capacity <<= 1;
+		}
+
+		return capacity;
+	}
+
+	final int capacity()
+	{
+		return m_capacity;
+	}
+
+	/**
+	 * Returns roughly how many results are waiting to be processed.
+	 */
+	final int size()
+	{
+		final long size = m_tail.get() - m_head.get();
+
+		return (int) Math.max(0, Math.min(size, m_capacity));
+	}
+
+	/**
+	 * Returns when the oldest result still waiting to be processed was added, or <code>0</code> if there's nothing waiting. This is only
+	 * an estimate when called while results are being added or removed.
+	 */
+	final long getOldestTime()
+	{
+		final long head = m_head.get();
+
+		if( head >= m_tail.get() )  return 0L;
+
+		return m_times.get((int) (head & m_mask));
+	}
+
+	final long getDroppedCount()
+	{
+		return m_droppedCount;
+	}
+
+	final long getCoalescedCount()
+	{
+		return m_coalescedCount;
+	}
+
+	/**
+	 * Adds a scan result which came in at the given time, applying the given policy if the buffer is full. Returns <code>false</code> if
+	 * the result ended up being dropped.
+	 */
+	final boolean offer(final BluetoothDevice device, final int rssi, final byte[] record, final long time, final BleScanOverflowPolicy policy)
+	{
+		final String address = device != null ? device.getAddress() : null;
+
+		m_producerLock.lock();
+
+		try
+		{
+			releaseConsumed();
+
+			final long tail = m_tail.get();
+
+			if( tail - m_head.get() >= m_capacity )
+			{
+				if( policy == BleScanOverflowPolicy.DROP_NEWEST )
+				{
+					m_droppedCount++;
+
+					return false;
+				}
+				else if( policy == BleScanOverflowPolicy.COALESCE_BY_ADDRESS && tryCoalescing(address, device, rssi, record) )
+				{
+					m_coalescedCount++;
+
+					return true;
+				}
+				else
+				{
+					dropOldest(tail);
+				}
+			}
+
+			write((int) (tail & m_mask), device, address, rssi, record, time);
+
+			if( address != null && policy == BleScanOverflowPolicy.COALESCE_BY_ADDRESS )
+			{
+				rememberIndex(address, tail);
+			}
+
+			m_tail.lazySet(tail + 1);
+
+			return true;
+		}
+		finally
+		{
+			m_producerLock.unlock();
+		}
+	}
+
+	/**
+	 * Copies the oldest result into the given entry and removes it. Returns <code>false</code> if there was nothing to copy.
+	 */
+	final boolean poll(final Entry entry_out)
+	{
+		while( true )
+		{
+			final long head = m_head.get();
+
+			if( head >= m_tail.get() )
+			{
+				entry_out.clear();
+
+				tryReleasingConsumed();
+
+				return false;
+			}
+
+			final int slot = (int) (head & m_mask);
+			final long stamp = m_stamps.get(slot);
+
+			//--- Producer is in the middle of replacing this slot, so give it another shot.
+			if( (stamp & 1) != 0 )  continue;
+
+			entry_out.m_device = m_devices.get(slot);
+			entry_out.m_rssi = m_rssis.get(slot);
+			entry_out.m_record = m_records.get(slot);
+
+			//--- Producer replaced this slot while we were reading it, so give it another shot.
+			if( !m_stamps.compareAndSet(slot, stamp, stamp + 2) )  continue;
+
+			if( m_head.compareAndSet(head, head + 1) )
+			{
+				return true;
+			}
+
+			//--- Otherwise the producer dropped this one while we were reading it, so move on to the next.
+		}
+	}
+
+	/**
+	 * Drops everything waiting to be processed. Dropped results cleared this way aren't counted.
+	 */
+	final void clear()
+	{
+		while( true )
+		{
+			final long head = m_head.get();
+			final long tail = m_tail.get();
+
+			if( head >= tail || m_head.compareAndSet(head, tail) )
+			{
+				tryReleasingConsumed();
+
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Called by the consumer once it's drained the buffer. If the producer happens to be busy, it lets go of them itself on its next offer.
+	 */
+	private void tryReleasingConsumed()
+	{
+		if( m_releasedUpTo >= m_head.get() || !m_producerLock.tryLock() )  return;
+
+		try
+		{
+			releaseConsumed();
+		}
+		finally
+		{
+			m_producerLock.unlock();
+		}
+	}
+
+	/**
+	 * Lets go of the devices and records in slots behind the head, so results that have been processed or dropped aren't kept alive until
+	 * the buffer wraps back around to them. The consumer never keeps anything it reads from behind the head, so this is safe to do while
+	 * it's reading. Must be called while holding the producer lock.
+	 */
+	private void releaseConsumed()
+	{
+		final long head = m_head.get();
+
+		//--- Anything more than a full lap behind the tail has already been written over by a newer result, so has to be left alone.
+		long index = Math.max(m_releasedUpTo, m_tail.get() - m_capacity);
+
+		for( ; index < head; index++ )
+		{
+			final int slot = (int) (index & m_mask);
+
+			m_devices.set(slot, null);
+			m_records.set(slot, null);
+			m_addresses[slot] = null;
+		}
+
+		m_releasedUpTo = index;
+	}
+
+	// Must be called while holding the producer lock.
+	private void dropOldest(final long tail)
+	{
+		while( true )
+		{
+			final long head = m_head.get();
+
+			//--- Consumer may have made room since we checked.
+			if( tail - head < m_capacity )  return;
+
+			if( m_head.compareAndSet(head, head + 1) )
+			{
+				m_droppedCount++;
+
+				return;
+			}
+		}
+	}
+
+	// Must be called while holding the producer lock.
+	private boolean tryCoalescing(final String address, final BluetoothDevice device, final int rssi, final byte[] record)
+	{
+		if( address == null )  return false;
+
+		final long[] index_boxed = m_lastIndexByAddress.get(address);
+
+		if( index_boxed == null )  return false;
+
+		final long index = index_boxed[0];
+		final int slot = (int) (index & m_mask);
+
+		//--- The stamp has to be read before checking the head. The consumer only claims a slot once the head has reached it, so if the
+		//---		head hasn't reached it yet, any claim comes after this and changes the stamp, which makes the claim below fail.
+		final long stamp = m_stamps.get(slot);
+
+		if( index <= m_head.get() || index >= m_tail.get() )  return false;
+
+		if( !address.equals(m_addresses[slot]) )  return false;
+
+		//--- Claim the slot. If the consumer got to it first, it's already been processed, so this result gets offered normally instead.
+		if( !m_stamps.compareAndSet(slot, stamp, stamp + 1) )  return false;
+
+		//--- Keep the time of the result being replaced, as that's how long this slot has actually been waiting.
+		writeFields(slot, device, address, rssi, record, m_times.get(slot));
+
+		m_stamps.incrementAndGet(slot);
+
+		return true;
+	}
+
+	// Must be called while holding the producer lock.
+	private void rememberIndex(final String address, final long index)
+	{
+		final long[] index_boxed = m_lastIndexByAddress.get(address);
+
+		if( index_boxed != null )
+		{
+			index_boxed[0] = index;
+
+			return;
+		}
+
+		if( m_lastIndexByAddress.size() >= m_capacity * 4 )
+		{
+			//--- Don't let this grow forever when there's a ton of different devices around.
+			m_lastIndexByAddress.clear();
+		}
+
+		m_lastIndexByAddress.put(address, new long[]{ index });
+	}
+
+	// Must be called while holding the producer lock.
+	private void write(final int slot, final BluetoothDevice device, final String address, final int rssi, final byte[] record, final long time)
+	{
+		m_stamps.incrementAndGet(slot);
+
+		writeFields(slot, device, address, rssi, record, time);
+
+		m_stamps.incrementAndGet(slot);
+	}
+
+	// Must be called while holding the producer lock, and with the slot's stamp odd.
+	private void writeFields(final int slot, final BluetoothDevice device, final String address, final int rssi, final byte[] record, final long time)
+	{
+		m_times.set(slot, time);
+		m_devices.set(slot, device);
+		m_rssis.set(slot, rssi);
+		m_records.set(slot, record);
+		m_addresses[slot] = address;
+	}
+}
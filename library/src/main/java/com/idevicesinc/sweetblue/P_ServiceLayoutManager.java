@@ -0,0 +1,228 @@
+package com.idevicesinc.sweetblue;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import com.idevicesinc.sweetblue.BleDevice.ReadWriteListener;
+import com.idevicesinc.sweetblue.BleDevice.ReadWriteListener.ReadWriteEvent;
+import com.idevicesinc.sweetblue.BleDevice.ReadWriteListener.Type;
+import com.idevicesinc.sweetblue.utils.Utils_Byte;
+import com.idevicesinc.sweetblue.utils.Uuids;
+
+import java.util.List;
+import java.util.UUID;
+
+
+/**
+ * Saves the layout of a device's services to disk when {@link BleDeviceConfig#cacheServiceLayout} is enabled, so that the next time it connects
+ * the forced gatt refresh and discovery delay can be skipped. Whatever gets discovered after that is checked against the saved layout before the
+ * device carries on connecting, and if it doesn't match, services are discovered again from scratch.
+ */
+final class P_ServiceLayoutManager
+{
+	private final BleDevice m_device;
+
+	private boolean m_usingSavedLayout;
+	private boolean m_checked;
+	//--- Bumped every time discovery starts, so a version read that finishes after the device moves on gets ignored.
+	private int m_discoveryId;
+
+
+	P_ServiceLayoutManager(final BleDevice device)
+	{
+		m_device = device;
+	}
+
+	private boolean isEnabled()
+	{
+		return BleDeviceConfig.bool(m_device.conf_device().cacheServiceLayout, m_device.conf_mngr().cacheServiceLayout);
+	}
+
+	private UUID getVersionUuid()
+	{
+		return m_device.conf_device().serviceLayoutVersionUuid != null ? m_device.conf_device().serviceLayoutVersionUuid : m_device.conf_mngr().serviceLayoutVersionUuid;
+	}
+
+	/**
+	 * Called right before service discovery gets queued up. Returns <code>true</code> if there's a saved layout to check discovery against, in
+	 * which case discovery doesn't need to be forced to start from scratch.
+	 */
+	final boolean onDiscoveryStarting()
+	{
+		m_discoveryId++;
+		m_checked = false;
+		m_usingSavedLayout = isEnabled() && load() != null;
+
+		return m_usingSavedLayout;
+	}
+
+	/**
+	 * Throws out the saved layout if discovery failed while relying on it, just in case it's what caused the failure.
+	 */
+	final void onDiscoveryFailed()
+	{
+		if( m_usingSavedLayout )
+		{
+			clear();
+		}
+
+		m_usingSavedLayout = false;
+	}
+
+	/**
+	 * Called when services have been discovered, before anything else happens. Returns <code>true</code> if the device can go ahead with connecting.
+	 * Otherwise the layout is still being checked, and either {@link BleDevice#onServicesDiscovered()} gets called again once it's done, or services
+	 * get discovered again from scratch.
+	 */
+	final boolean checkLayout()
+	{
+		if( m_checked || !isEnabled() )  return true;
+
+		final String layout = describeLayout();
+		final UUID versionUuid = getVersionUuid();
+
+		if( versionUuid != null && !m_device.getNativeBleCharacteristic(versionUuid).isNull() )
+		{
+			final int discoveryId = m_discoveryId;
+
+			m_device.read_internal(null, versionUuid, Uuids.INVALID, Type.READ, null, new ReadWriteListener()
+			{
+				@Override public void onEvent(final ReadWriteEvent e)
+				{
+					m_device.getManager().getPostManager().runOrPostToUpdateThread(new Runnable()
+					{
+						@Override public void run()
+						{
+							onVersionRead(discoveryId, layout, e);
+						}
+					});
+				}
+			});
+
+			return false;
+		}
+
+		return onLayoutKnown(layout);
+	}
+
+	private void onVersionRead(final int discoveryId, final String layout, final ReadWriteEvent e)
+	{
+		if( discoveryId != m_discoveryId || !m_device.is(BleDeviceState.DISCOVERING_SERVICES) )  return;
+
+		if( e.wasSuccess() )
+		{
+			if( onLayoutKnown(layout + "v" + Utils_Byte.bytesToHexString(e.data())) )
+			{
+				m_device.onServicesDiscovered();
+			}
+		}
+		else
+		{
+			m_device.getManager().getLogger().w("Couldn't read service layout version, status=" + e.status() + ". Clearing saved service layout.");
+
+			clear();
+
+			if( m_usingSavedLayout )
+			{
+				rediscover();
+			}
+			else
+			{
+				m_checked = true;
+
+				m_device.onServicesDiscovered();
+			}
+		}
+	}
+
+	private boolean onLayoutKnown(final String layout)
+	{
+		final String saved = load();
+
+		if( m_usingSavedLayout && !layout.equals(saved) )
+		{
+			m_device.getManager().getLogger().i("Saved service layout doesn't match what was discovered. Discovering services again from scratch.");
+
+			clear();
+			rediscover();
+
+			return false;
+		}
+
+		if( !layout.equals(saved) )
+		{
+			m_device.getManager().m_diskOptionsMngr.saveServiceLayout(m_device.getMacAddress(), layout, /*hitDisk=*/true);
+		}
+
+		m_checked = true;
+
+		return true;
+	}
+
+	private void rediscover()
+	{
+		m_usingSavedLayout = false;
+
+		m_device.getServices();
+	}
+
+	private String load()
+	{
+		return m_device.getManager().m_diskOptionsMngr.loadServiceLayout(m_device.getMacAddress(), /*hitDisk=*/true);
+	}
+
+	private void clear()
+	{
+		m_device.getManager().m_diskOptionsMngr.clearServiceLayout(m_device.getMacAddress());
+	}
+
+	/**
+	 * Whether services are being discovered without a forced refresh because a layout was saved.
+	 */
+	final boolean isUsingSavedLayout()
+	{
+		return m_usingSavedLayout;
+	}
+
+	private String describeLayout()
+	{
+		final StringBuilder builder = new StringBuilder();
+		final List<BluetoothGattService> services = m_device.getNativeServices_List();
+
+		for( int i = 0; i < services.size(); i++ )
+		{
+			final BluetoothGattService service = services.get(i);
+
+			if( service == null )  continue;
+
+			builder.append(service.getUuid()).append('[');
+
+			final List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
+
+			for( int j = 0; characteristics != null && j < characteristics.size(); j++ )
+			{
+				final BluetoothGattCharacteristic characteristic = characteristics.get(j);
+
+				if( characteristic == null )  continue;
+
+				builder.append(characteristic.getUuid()).append('/').append(characteristic.getProperties()).append('(');
+
+				final List<BluetoothGattDescriptor> descriptors = characteristic.getDescriptors();
+
+				for( int k = 0; descriptors != null && k < descriptors.size(); k++ )
+				{
+					if( descriptors.get(k) == null )  continue;
+
+					builder.append(descriptors.get(k).getUuid()).append(',');
+				}
+
+				builder.append(')');
+			}
+
+			builder.append(']');
+		}
+
+		return builder.toString();
+	}
+}
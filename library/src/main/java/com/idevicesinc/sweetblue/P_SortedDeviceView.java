@@ -0,0 +1,257 @@
+package com.idevicesinc.sweetblue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+
+/**
+ * Keeps a {@link P_DeviceManager}'s devices sorted with {@link BleManagerConfig#defaultListComparator}, without re-sorting everything every time
+ * the sorted list is asked for. Devices are marked dirty whenever something a comparator would likely look at (name, RSSI, or state) changes, and
+ * the next call to {@link #get(Comparator)} only repositions dirty devices that actually ended up out of order.
+ * <br><br>
+ * The sorted list is handed out as an immutable snapshot, which is only rebuilt when the order actually changed, so it can be iterated from any
+ * thread without being copied first. A comparator that looks at something other than the name, RSSI, or state of a device won't be kept up to
+ * date as that something changes; the view is only fully re-sorted when a different comparator is given.
+ */
+final class P_SortedDeviceView
+{
+	//--- Past this fraction of dirty devices, it's cheaper to just sort everything again.
+	private static final int FULL_SORT_DIVISOR = 4;
+
+	private final ArrayList<BleDevice> m_sorted = new ArrayList<>();
+	private final IdentityHashMap<BleDevice, Boolean> m_members = new IdentityHashMap<>();
+	//--- Devices that have been added, whose key changed, or that have been removed since the last refresh. Removed ones are only taken out of m_sorted on the next refresh.
+	private final IdentityHashMap<BleDevice, Boolean> m_dirty = new IdentityHashMap<>();
+	private final ArrayList<BleDevice> m_added = new ArrayList<>();
+	private int m_removedCount;
+
+	private Comparator<BleDevice> m_comparator;
+	private List<BleDevice> m_snapshot = Collections.emptyList();
+	private int[] m_nextClean = new int[0];
+
+
+	final synchronized void add(final BleDevice device)
+	{
+		if( m_members.put(device, Boolean.TRUE) != null )  return;
+
+		if( m_dirty.containsKey(device) )
+		{
+			//--- Removed and added back before the last removal was applied, so it's still in m_sorted and is now just like any other dirty device.
+			m_removedCount--;
+		}
+		else
+		{
+			m_added.add(device);
+			m_dirty.put(device, Boolean.TRUE);
+		}
+	}
+
+	final synchronized void remove(final BleDevice device)
+	{
+		if( m_members.remove(device) == null )  return;
+
+		if( m_added.remove(device) )
+		{
+			m_dirty.remove(device);
+		}
+		else
+		{
+			m_dirty.put(device, Boolean.TRUE);
+			m_removedCount++;
+		}
+	}
+
+	/**
+	 * Called when something the comparator might look at changed for the given device. Devices that aren't in here are ignored.
+	 */
+	final synchronized void onKeyChange(final BleDevice device)
+	{
+		if( m_members.containsKey(device) )
+		{
+			m_dirty.put(device, Boolean.TRUE);
+		}
+	}
+
+	/**
+	 * Returns the devices sorted with the given comparator. The returned list is immutable, and won't change if devices are added, removed,
+	 * or move around later.
+	 */
+	final synchronized List<BleDevice> get(final Comparator<BleDevice> comparator)
+	{
+		if( comparator != m_comparator )
+		{
+			m_comparator = comparator;
+
+			sortAll();
+		}
+		else if( !m_dirty.isEmpty() )
+		{
+			if( m_dirty.size() - m_removedCount > m_members.size() / FULL_SORT_DIVISOR )
+			{
+				sortAll();
+			}
+			else
+			{
+				reposition();
+			}
+		}
+
+		return m_snapshot;
+	}
+
+	private void sortAll()
+	{
+		compact(/*keepInOrderDirty=*/false);
+
+		for( BleDevice device : m_dirty.keySet() )
+		{
+			if( m_members.containsKey(device) )
+			{
+				m_sorted.add(device);
+			}
+		}
+
+		Collections.sort(m_sorted, m_comparator);
+
+		clearDirty();
+		publish();
+	}
+
+	private void reposition()
+	{
+		final boolean removedAny = m_removedCount > 0;
+
+		compact(/*keepInOrderDirty=*/true);
+
+		//--- Whatever is still dirty was either removed, is new, or was out of order and got taken out.
+		final boolean movedAny = !m_dirty.isEmpty();
+
+		for( BleDevice device : m_dirty.keySet() )
+		{
+			if( m_members.containsKey(device) )
+			{
+				m_sorted.add(insertionPoint(device), device);
+			}
+		}
+
+		clearDirty();
+
+		//--- If every dirty device just happened to still be in order, the current snapshot is still good.
+		if( removedAny || movedAny )
+		{
+			publish();
+		}
+	}
+
+	/**
+	 * Takes removed devices out of m_sorted. Dirty devices are taken out too, unless <code>keepInOrderDirty</code> is <code>true</code> and
+	 * they're still in order where they are, in which case they're no longer considered dirty.
+	 */
+	private void compact(final boolean keepInOrderDirty)
+	{
+		final int size = m_sorted.size();
+
+		if( keepInOrderDirty )
+		{
+			computeNextClean();
+		}
+
+		int write = 0;
+		BleDevice previous = null;
+
+		for( int read = 0; read < size; read++ )
+		{
+			final BleDevice device = m_sorted.get(read);
+
+			if( m_dirty.containsKey(device) )
+			{
+				if( !m_members.containsKey(device) )  continue;
+
+				if( !keepInOrderDirty || !isInOrder(previous, device, m_nextClean[read]) )  continue;
+
+				m_dirty.remove(device);
+			}
+
+			m_sorted.set(write, device);
+			write++;
+			previous = device;
+		}
+
+		for( int i = size - 1; i >= write; i-- )
+		{
+			m_sorted.remove(i);
+		}
+
+		m_removedCount = 0;
+	}
+
+	//--- For each index, finds the index of the next device after it that isn't dirty (or the size of the list if there is none). Since every
+	//---		device that isn't dirty is in order with every other, a dirty device that fits between the last device kept and the next clean one
+	//---		can stay put.
+	private void computeNextClean()
+	{
+		final int size = m_sorted.size();
+
+		if( m_nextClean.length < size )
+		{
+			m_nextClean = new int[size * 2];
+		}
+
+		int next = size;
+
+		for( int i = size - 1; i >= 0; i-- )
+		{
+			m_nextClean[i] = next;
+
+			if( !m_dirty.containsKey(m_sorted.get(i)) )
+			{
+				next = i;
+			}
+		}
+	}
+
+	private boolean isInOrder(final BleDevice previous, final BleDevice device, final int nextClean)
+	{
+		if( previous != null && m_comparator.compare(previous, device) > 0 )  return false;
+
+		return nextClean >= m_sorted.size() || m_comparator.compare(device, m_sorted.get(nextClean)) <= 0;
+	}
+
+	//--- Goes after any devices that compare equal, same as a stable sort would do with a device added to the end of the list.
+	private int insertionPoint(final BleDevice device)
+	{
+		int low = 0;
+		int high = m_sorted.size();
+
+		while( low < high )
+		{
+			final int mid = (low + high) >>> 1;
+
+			if( m_comparator.compare(m_sorted.get(mid), device) <= 0 )
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	private void clearDirty()
+	{
+		m_dirty.clear();
+		m_added.clear();
+		m_removedCount = 0;
+	}
+
+	private void publish()
+	{
+		m_snapshot = Collections.unmodifiableList(new ArrayList<>(m_sorted));
+	}
+}
@@ -1,21 +1,38 @@
 package com.idevicesinc.sweetblue;
 
-import java.util.Iterator;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 
+/**
+ * Thread used as SweetBlue's update thread when not running on the main thread. Runnables are kept in a queue ordered by the time
+ * they're due to run (ties are broken by the order they were posted in). The thread blocks until either the soonest runnable is due, or
+ * a new runnable is posted, so there's no polling while idle.
+ */
 final class P_SweetBlueThread implements P_SweetHandler
 {
 
-    private final LinkedBlockingQueue<SweetRunnable> m_runnables;
+    private final ReentrantLock m_lock = new ReentrantLock();
+    private final Condition m_wakeUp = m_lock.newCondition();
+
+    private final PriorityQueue<SweetRunnable> m_runnables;
+    // Tracks which queued entries belong to which Runnable, so removeCallbacks doesn't have to walk the whole queue.
+    private final IdentityHashMap<Runnable, ArrayList<SweetRunnable>> m_entries;
 
     private Thread thread;
-    private boolean m_running;
+    private volatile boolean m_running;
+    private long m_sequence;
+    private int m_canceledCount;
 
 
     P_SweetBlueThread()
     {
-        m_runnables = new LinkedBlockingQueue<>();
+        m_runnables = new PriorityQueue<>();
+        m_entries = new IdentityHashMap<>();
         m_running = true;
         thread = new Thread(new HandlerRunner());
         thread.start();
@@ -24,26 +41,63 @@ final class P_SweetBlueThread implements P_SweetHandler
 
     @Override public void post(Runnable action)
     {
-        m_runnables.add(new SweetRunnable(action, System.currentTimeMillis(), 0));
+        postDelayed(action, 0);
     }
 
     @Override public void postDelayed(Runnable action, long delay)
     {
-        m_runnables.add(new SweetRunnable(action, System.currentTimeMillis(), delay));
+        final long dueTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 0));
+
+        m_lock.lock();
+        try
+        {
+            final SweetRunnable run = new SweetRunnable(action, dueTime, m_sequence++);
+
+            ArrayList<SweetRunnable> entries = m_entries.get(action);
+            if (entries == null)
+            {
+                entries = new ArrayList<>(1);
+                m_entries.put(action, entries);
+            }
+            entries.add(run);
+
+            m_runnables.add(run);
+
+            // Only need to wake the thread up if this runnable is now the soonest one to run.
+            if (m_runnables.peek() == run)
+            {
+                m_wakeUp.signal();
+            }
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
     }
 
     @Override public void removeCallbacks(Runnable action)
     {
-        Iterator<SweetRunnable> it = m_runnables.iterator();
-        while (it.hasNext())
+        m_lock.lock();
+        try
         {
-            SweetRunnable run = it.next();
-            if (run.m_runnable == action)
+            final ArrayList<SweetRunnable> entries = m_entries.remove(action);
+            if (entries != null)
             {
-                run.cancel();
-                it.remove();
+                // Entries are cancelled in place, and just skipped over when they come due, rather than removed from the
+                // queue (which would be a linear operation).
+                for (int i = 0; i < entries.size(); i++)
+                {
+                    entries.get(i).cancel();
+                }
+                m_canceledCount += entries.size();
+
+                purgeCanceledIfNeeded();
             }
         }
+        finally
+        {
+            m_lock.unlock();
+        }
     }
 
     @Override public Thread getThread()
@@ -54,6 +108,15 @@ final class P_SweetBlueThread implements P_SweetHandler
     public void quit()
     {
         m_running = false;
+        m_lock.lock();
+        try
+        {
+            m_wakeUp.signal();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
         if (Thread.currentThread() != thread)
         {
             try
@@ -65,19 +128,59 @@ final class P_SweetBlueThread implements P_SweetHandler
         }
     }
 
-    private final static class SweetRunnable
+    // Must be called while holding the lock. If cancelled entries make up most of the queue, rebuild it so the queue doesn't
+    // fill up with runnables which are never going to run (for instance if something with a long delay keeps getting reposted).
+    private void purgeCanceledIfNeeded()
+    {
+        if (m_canceledCount > 32 && m_canceledCount > m_runnables.size() / 2)
+        {
+            final ArrayList<SweetRunnable> live = new ArrayList<>(m_runnables.size() - m_canceledCount);
+            for (SweetRunnable run : m_runnables)
+            {
+                if (!run.canceled())
+                {
+                    live.add(run);
+                }
+            }
+            m_runnables.clear();
+            m_runnables.addAll(live);
+            m_canceledCount = 0;
+        }
+    }
+
+    // Must be called while holding the lock.
+    private void onDequeued(SweetRunnable run)
+    {
+        if (run.canceled())
+        {
+            m_canceledCount--;
+            return;
+        }
+
+        final ArrayList<SweetRunnable> entries = m_entries.get(run.m_runnable);
+        if (entries != null)
+        {
+            entries.remove(run);
+            if (entries.isEmpty())
+            {
+                m_entries.remove(run.m_runnable);
+            }
+        }
+    }
+
+    private final static class SweetRunnable implements Comparable<SweetRunnable>
     {
         private final Runnable m_runnable;
-        private final long m_postedTime;
-        private final long m_delay;
-        private boolean m_canceled;
+        private final long m_dueTime;
+        private final long m_sequence;
+        private volatile boolean m_canceled;
 
 
-        public SweetRunnable(Runnable action, long postedTime, long delay)
+        public SweetRunnable(Runnable action, long dueTime, long sequence)
         {
             m_runnable = action;
-            m_postedTime = postedTime;
-            m_delay = delay;
+            m_dueTime = dueTime;
+            m_sequence = sequence;
         }
 
         public void run()
@@ -98,14 +201,14 @@ final class P_SweetBlueThread implements P_SweetHandler
             return m_canceled;
         }
 
-        public boolean ready(long curTime)
-        {
-            return m_canceled || (curTime - m_postedTime) > m_delay;
-        }
-
-        public boolean ready()
+        @Override public int compareTo(SweetRunnable other)
         {
-            return m_canceled || ready(System.currentTimeMillis());
+            if (m_dueTime != other.m_dueTime)
+            {
+                // Compare the difference rather than the values themselves, as nanoTime is allowed to overflow.
+                return m_dueTime - other.m_dueTime < 0 ? -1 : 1;
+            }
+            return m_sequence < other.m_sequence ? -1 : (m_sequence == other.m_sequence ? 0 : 1);
         }
     }
 
@@ -115,26 +218,49 @@ final class P_SweetBlueThread implements P_SweetHandler
         {
             while (m_running)
             {
-                if (!m_runnables.isEmpty())
+                SweetRunnable toRun = null;
+
+                m_lock.lock();
+                try
                 {
-                    long curTime = System.currentTimeMillis();
-                    Iterator<SweetRunnable> it = m_runnables.iterator();
-                    while (it.hasNext())
+                    while (m_running && toRun == null)
                     {
-                        SweetRunnable run = it.next();
-                        if (run.ready(curTime))
+                        final SweetRunnable next = m_runnables.peek();
+                        if (next == null)
+                        {
+                            m_wakeUp.await();
+                        }
+                        else if (next.canceled())
                         {
-                            it.remove();
-                            run.run();
+                            m_runnables.poll();
+                            onDequeued(next);
+                        }
+                        else
+                        {
+                            final long waitTime = next.m_dueTime - System.nanoTime();
+                            if (waitTime <= 0)
+                            {
+                                m_runnables.poll();
+                                onDequeued(next);
+                                toRun = next;
+                            }
+                            else
+                            {
+                                m_wakeUp.awaitNanos(waitTime);
+                            }
                         }
                     }
-                }
-                // Sleep for a short period, so we don't hog the cpu
-                try
+                } catch (InterruptedException e)
                 {
-                    Thread.sleep(5);
-                } catch (Exception e)
+                } finally
+                {
+                    m_lock.unlock();
+                }
+
+                // Run outside of the lock, so that the runnable (or other threads) are free to post more runnables.
+                if (toRun != null)
                 {
+                    toRun.run();
                 }
             }
         }
@@ -1,6 +1,7 @@
 package com.idevicesinc.sweetblue;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 import android.os.Handler;
@@ -13,7 +14,9 @@ import com.idevicesinc.sweetblue.utils.Interval;
 final class P_TaskQueue
 {
 	private final ArrayList<PA_Task> m_queue = new ArrayList<PA_Task>();
+	private final P_TaskQueueIndex m_index = new P_TaskQueueIndex();
 	private final AtomicReference<PA_Task> m_current;
+	private final IdentityHashMap<BleDevice, PA_Task> m_lanes = new IdentityHashMap<>();
 	private long m_updateCount;
 	private final P_Logger m_logger;
 	private final BleManager m_mngr;
@@ -76,6 +79,13 @@ final class P_TaskQueue
 
 	private boolean tryCancellingCurrentTask(PA_Task newTask)
 	{
+		if( tryEndingLaneTasks(newTask, PE_TaskState.CANCELLED) != null )
+		{
+			addAtIndex(newTask, 0);
+
+			return true;
+		}
+
 		if( getCurrent() != null && getCurrent().isCancellableBy(newTask) )
 		{
 //			int soonestSpot = U_BtTaskQueue.findSoonestSpot(m_queue, newTask);
@@ -94,6 +104,20 @@ final class P_TaskQueue
 
 	private boolean tryInterruptingCurrentTask(PA_Task newTask)
 	{
+		final ArrayList<PA_Task> interrupted = tryEndingLaneTasks(newTask, PE_TaskState.INTERRUPTED);
+
+		if( interrupted != null )
+		{
+			addAtIndex(newTask, 0);
+
+			for( int i = 0; i < interrupted.size(); i++ )
+			{
+				addAtIndex(interrupted.get(i), i+1);
+			}
+
+			return true;
+		}
+
 		if( getCurrent() != null && getCurrent().isInterruptableBy(newTask) )
 		{
 //			int soonestSpot = U_BtTaskQueue.findSoonestSpot(m_queue, newTask);
@@ -112,6 +136,36 @@ final class P_TaskQueue
 		return false;
 	}
 
+	/**
+	 * Cancels or interrupts any tasks running on a device lane that the given task is allowed to cancel or interrupt. Returns the
+	 * tasks that were ended (so interrupted ones can be put back in the queue), or <code>null</code> if none were.
+	 */
+	private ArrayList<PA_Task> tryEndingLaneTasks(final PA_Task newTask, final PE_TaskState endingState)
+	{
+		if( m_lanes.isEmpty() )  return null;
+
+		ArrayList<PA_Task> ended = null;
+
+		for( PA_Task laneTask : new ArrayList<>(m_lanes.values()) )
+		{
+			final boolean shouldEnd = endingState == PE_TaskState.CANCELLED ? laneTask.isCancellableBy(newTask) : laneTask.isInterruptableBy(newTask);
+
+			if( shouldEnd && m_lanes.get(laneTask.getDevice()) == laneTask )
+			{
+				endLaneTask(laneTask, endingState);
+
+				if( ended == null )
+				{
+					ended = new ArrayList<>();
+				}
+
+				ended.add(laneTask);
+			}
+		}
+
+		return ended;
+	}
+
 	private boolean tryInsertingIntoQueue(PA_Task newTask)
 	{
 		int soonestSpot = PU_TaskQueue.findSoonestSpot(m_queue, newTask);
@@ -138,12 +192,21 @@ final class P_TaskQueue
 			@Override
 			public void run()
 			{
-				for( int i = 0; i < m_queue.size()-1; i++ )
+				//--- Soft cancellation only ever happens between tasks of the same device or server, so only that node's
+				//---		tasks need to be looked at. The last task in the queue is skipped, as it always has been.
+				final ArrayList<PA_Task> bucket = m_index.getBucket(P_TaskQueueIndex.nodeOf(task));
+
+				if( bucket != null )
 				{
-					PA_Task ithTask = m_queue.get(i);
-					if( ithTask.isSoftlyCancellableBy(task) )
+					final PA_Task last = m_queue.get(m_queue.size()-1);
+
+					for( int i = 0; i < bucket.size(); i++ )
 					{
-						ithTask.attemptToSoftlyCancel(task);
+						PA_Task ithTask = bucket.get(i);
+						if( ithTask != last && ithTask.isSoftlyCancellableBy(task) )
+						{
+							ithTask.attemptToSoftlyCancel(task);
+						}
 					}
 				}
 
@@ -154,6 +217,13 @@ final class P_TaskQueue
 						getCurrent().attemptToSoftlyCancel(task);
 					}
 				}
+
+				final PA_Task laneTask = task.getDevice() != null ? m_lanes.get(task.getDevice()) : null;
+
+				if( laneTask != null && laneTask.isSoftlyCancellableBy(task) )
+				{
+					laneTask.attemptToSoftlyCancel(task);
+				}
 			}
 		});
 	}
@@ -171,6 +241,8 @@ final class P_TaskQueue
 			index = m_queue.size()-1;
 		}
 
+		m_index.add(task);
+
 		task.assignDefaultOrdinal(this);
 		
 		softlyCancelTasks(task);
@@ -262,6 +334,12 @@ final class P_TaskQueue
 			executingTask = true;
 		}
 
+		if( !m_lanes.isEmpty() )
+		{
+			updateLanes(timeStep, currentTime);
+			executingTask = true;
+		}
+
 		m_updateCount++;
 
 		return executingTask;
@@ -282,6 +360,11 @@ final class P_TaskQueue
 		if ( m_queue.size() == 0 )  return false;
 		if ( !hasDelayTimePassed() )	return false;
 
+		if( m_mngr.m_config.allowParallelDeviceTasks || !m_lanes.isEmpty() )
+		{
+			return dequeue_lanes();
+		}
+
 		for( int i = 0; i < m_queue.size(); i++ )
 		{
 			PA_Task newPotentialCurrent = m_queue.get(i);
@@ -289,6 +372,7 @@ final class P_TaskQueue
 			if( newPotentialCurrent.isArmable() )
 			{
 				m_queue.remove(i);
+				m_index.remove(newPotentialCurrent);
 				m_current.set(newPotentialCurrent);
 				newPotentialCurrent.arm();
 				if (!newPotentialCurrent.tryExecuting())
@@ -301,6 +385,163 @@ final class P_TaskQueue
 		return false;
 	}
 
+	/**
+	 * Used instead of the plain single-task dequeue when {@link BleManagerConfig#allowParallelDeviceTasks} is enabled. Device lane tasks
+	 * are started as long as their device doesn't already have one running. Any other task acts as a barrier, it only starts once
+	 * every lane has drained, and nothing queued behind it starts before it does.
+	 */
+	private boolean dequeue_lanes()
+	{
+		boolean startedAny = false;
+
+		//--- Each pass starts at most one task, as starting a task can end it (and so change the queue) synchronously.
+		while( m_current.get() == null && m_queue.size() > 0 )
+		{
+			PA_Task toStart = null;
+			int toStartIndex = -1;
+
+			for( int i = 0; i < m_queue.size(); i++ )
+			{
+				final PA_Task ith = m_queue.get(i);
+
+				if( isLaneTask(ith) )
+				{
+					if( m_lanes.containsKey(ith.getDevice()) )  continue;
+					if( !ith.isArmable() )  continue;
+
+					toStart = ith;
+					toStartIndex = i;
+
+					break;
+				}
+				else
+				{
+					if( !ith.isArmable() )  continue;
+
+					if( m_lanes.isEmpty() )
+					{
+						toStart = ith;
+						toStartIndex = i;
+					}
+
+					break;
+				}
+			}
+
+			if( toStart == null )  break;
+
+			m_queue.remove(toStartIndex);
+			m_index.remove(toStart);
+
+			if( isLaneTask(toStart) )
+			{
+				m_lanes.put(toStart.getDevice(), toStart);
+			}
+			else
+			{
+				m_current.set(toStart);
+			}
+
+			toStart.arm();
+			if( !toStart.tryExecuting() )
+			{
+				print();
+			}
+
+			startedAny = true;
+		}
+
+		return startedAny;
+	}
+
+	private boolean isLaneTask(final PA_Task task)
+	{
+		if( !m_mngr.m_config.allowParallelDeviceTasks )  return false;
+		if( task.getDevice() == null )  return false;
+
+		//--- An atomic transaction's lock stays a barrier, so that only its own device's tasks run until the transaction is done, same as
+		//---		when lanes are off. See BleTransaction.needsAtomicity().
+		return task instanceof PA_Task_Transactionable;
+	}
+
+	private void updateLanes(final double timeStep, final long currentTime)
+	{
+		//--- Updating can end a task, which mutates the lanes, so iterate over a snapshot.
+		final ArrayList<PA_Task> snapshot = new ArrayList<>(m_lanes.values());
+
+		for( int i = 0; i < snapshot.size(); i++ )
+		{
+			final PA_Task ith = snapshot.get(i);
+
+			if( m_lanes.get(ith.getDevice()) == ith )
+			{
+				ith.update_internal(timeStep, currentTime);
+			}
+		}
+	}
+
+	private void endLaneTask(final PA_Task task, final PE_TaskState endingState)
+	{
+		if( !m_mngr.ASSERT(endingState.isEndingState()) )  return;
+
+		m_lanes.remove(task.getDevice());
+		m_timeSinceEnding = 0.0;
+		task.setEndingState(endingState);
+
+		if( m_queue.size() > 0 && getCurrent() == null )
+		{
+			if( endingState.canGoToNextTaskImmediately() )
+			{
+				dequeue();
+			}
+			else
+			{
+				m_mngr.getPostManager().forcePostToUpdate(new Runnable()
+				{
+					@Override public void run()
+					{
+						if( m_queue.size() > 0 && getCurrent() == null )
+						{
+							dequeue();
+						}
+					}
+				});
+			}
+		}
+
+		print();
+	}
+
+	/**
+	 * Returns the currently running task (either the global current, or one running on a device lane) that matches the given parameters.
+	 */
+	private PA_Task findCurrent(final Class<? extends PA_Task> taskClass, final BleManager mngr_nullable, final BleDevice device_nullable, final BleServer server_nullable)
+	{
+		if( PU_TaskQueue.isMatch(getCurrent(), taskClass, mngr_nullable, device_nullable, server_nullable) )
+		{
+			return getCurrent();
+		}
+
+		if( m_lanes.isEmpty() )  return null;
+
+		if( device_nullable != null )
+		{
+			final PA_Task laneTask = m_lanes.get(device_nullable);
+
+			return PU_TaskQueue.isMatch(laneTask, taskClass, mngr_nullable, device_nullable, server_nullable) ? laneTask : null;
+		}
+
+		for( PA_Task laneTask : m_lanes.values() )
+		{
+			if( PU_TaskQueue.isMatch(laneTask, taskClass, mngr_nullable, device_nullable, server_nullable) )
+			{
+				return laneTask;
+			}
+		}
+
+		return null;
+	}
+
 	public final long getUpdateCount()
 	{
 		return m_updateCount;
@@ -312,6 +553,15 @@ final class P_TaskQueue
 		return m_current.get();
 	}
 
+	/**
+	 * Returns <code>true</code> if a task is running on any device lane, see {@link BleManagerConfig#allowParallelDeviceTasks}. Tasks waiting
+	 * for a lane are still in the queue, so they're counted by {@link #getSize()}.
+	 */
+	public final boolean hasLaneTasks()
+	{
+		return !m_lanes.isEmpty();
+	}
+
 	private boolean endCurrentTask(PE_TaskState endingState)
 	{
 		if( !m_mngr.ASSERT(endingState.isEndingState()) )	return false;
@@ -361,7 +611,7 @@ final class P_TaskQueue
 	{
 		PA_Task current = getCurrent(taskClass, manager);
 
-		if( PU_TaskQueue.isMatch(getCurrent(), taskClass, manager, null, null) )
+		if( current != null )
 		{
 			tryEndingTask(current, PE_TaskState.INTERRUPTED);
 
@@ -407,6 +657,15 @@ final class P_TaskQueue
 		{
 			return endCurrentTask(endingState);
 		}
+
+		final PA_Task laneTask = findCurrent(taskClass, mngr_nullable, device_nullable, server_nullable);
+
+		if( laneTask != null )
+		{
+			endLaneTask(laneTask, endingState);
+
+			return true;
+		}
 		
 		return false;
 	}
@@ -431,38 +690,52 @@ final class P_TaskQueue
 				m_mngr.ASSERT(false);
 			}
 		}
+		else if( task != null && task.getDevice() != null && task == m_lanes.get(task.getDevice()) )
+		{
+			endLaneTask(task, endingState);
+		}
 	}
 
 	public final boolean isCurrent(Class<? extends PA_Task> taskClass, BleManager mngr)
 	{
-		return PU_TaskQueue.isMatch(getCurrent(), taskClass, mngr, null, null);
+		return findCurrent(taskClass, mngr, null, null) != null;
 	}
 
 	public final boolean isCurrent(Class<? extends PA_Task> taskClass, BleDevice device)
 	{
-		return PU_TaskQueue.isMatch(getCurrent(), taskClass, null, device, null);
+		return findCurrent(taskClass, null, device, null) != null;
 	}
 
 	public final boolean isCurrent(Class<? extends PA_Task> taskClass, BleServer server)
 	{
-		return PU_TaskQueue.isMatch(getCurrent(), taskClass, null, null, server);
+		return findCurrent(taskClass, null, null, server) != null;
 	}
 
 	private boolean isInQueue(Class<? extends PA_Task> taskClass, BleManager mngr_nullable, BleDevice device_nullable, BleServer server_nullable)
 	{
-		for( int i = 0; i < m_queue.size(); i++ )
+		if( mngr_nullable != null )
 		{
-			if( PU_TaskQueue.isMatch(m_queue.get(i), taskClass, mngr_nullable, device_nullable, server_nullable) )
-			{
-				return true;
-			}
+			//--- Every task in this queue belongs to the same manager, so a class match is all that's needed.
+			return mngr_nullable == m_mngr && m_index.containsClass(taskClass);
+		}
+		else if( device_nullable != null )
+		{
+			return m_index.contains(taskClass, device_nullable);
+		}
+		else if( server_nullable != null )
+		{
+			return m_index.contains(taskClass, server_nullable);
+		}
+		else
+		{
+			return m_index.containsClass(taskClass);
 		}
-		
-		return false;
 	}
 
 	private int positionInQueue(Class<? extends PA_Task> taskClass, BleManager mngr_nullable, BleDevice device_nullable, BleServer server_nullable)
 	{
+		if( !isInQueue(taskClass, mngr_nullable, device_nullable, server_nullable) )  return -1;
+
 		for( int i = 0; i < m_queue.size(); i++ )
 		{
 			if( PU_TaskQueue.isMatch(m_queue.get(i), taskClass, mngr_nullable, device_nullable, server_nullable) )
@@ -521,11 +794,15 @@ final class P_TaskQueue
 
 	public final <T extends PA_Task> T get(Class<T> taskClass, BleManager mngr)
 	{
-		if( PU_TaskQueue.isMatch(getCurrent(), taskClass, mngr, null, null) )
+		final PA_Task current = findCurrent(taskClass, mngr, null, null);
+
+		if( current != null )
 		{
-			return (T) getCurrent();
+			return (T) current;
 		}
 
+		if( !isInQueue(taskClass, mngr, null, null) )  return null;
+
 		for( int i = 0; i < m_queue.size(); i++ )
 		{
 			if( PU_TaskQueue.isMatch(m_queue.get(i), taskClass, mngr, null, null) )
@@ -539,32 +816,17 @@ final class P_TaskQueue
 
 	public final <T extends PA_Task> T getCurrent(Class<T> taskClass, BleDevice device)
 	{
-		if( PU_TaskQueue.isMatch(getCurrent(), taskClass, null, device, null) )
-		{
-			return (T) getCurrent();
-		}
-
-		return null;
+		return (T) findCurrent(taskClass, null, device, null);
 	}
 
 	public final <T extends PA_Task> T getCurrent(Class<T> taskClass, BleManager mngr)
 	{
-		if( PU_TaskQueue.isMatch(getCurrent(), taskClass, mngr, null, null) )
-		{
-			return (T) getCurrent();
-		}
-
-		return null;
+		return (T) findCurrent(taskClass, mngr, null, null);
 	}
 
 	public final <T extends PA_Task> T getCurrent(Class<T> taskClass, BleServer server)
 	{
-		if( PU_TaskQueue.isMatch(getCurrent(), taskClass, null, null, server) )
-		{
-			return (T) getCurrent();
-		}
-
-		return null;
+		return (T) findCurrent(taskClass, null, null, server);
 	}
 
 	final void print()
@@ -578,6 +840,7 @@ final class P_TaskQueue
 	private void clearQueueOf$removeFromQueue(int index)
 	{
 		PA_Task task = m_queue.remove(index);
+		m_index.remove(task);
 
 		if( task.wasSoftlyCancelled() )
 		{
@@ -598,6 +861,8 @@ final class P_TaskQueue
 			@Override
 			public void run()
 			{
+				if( !isInQueue(taskClass, mngr, null, null) )  return;
+
 				for( int i = m_queue.size()-1; i >= 0; i-- )
 				{
 					if( PU_TaskQueue.isMatch(m_queue.get(i), taskClass, mngr, null, null) )
@@ -616,6 +881,8 @@ final class P_TaskQueue
 			@Override
 			public void run()
 			{
+				if( !isInQueue(taskClass, null, device, null) )  return;
+
 				for( int i = m_queue.size()-1; i >= 0; i-- )
 				{
 					final PA_Task task_ith = m_queue.get(i);
@@ -639,6 +906,8 @@ final class P_TaskQueue
 			@Override
 			public void run()
 			{
+				if( !isInQueue(taskClass, null, null, server) )  return;
+
 				for( int i = m_queue.size()-1; i >= 0; i-- )
 				{
 					if( PU_TaskQueue.isMatch(m_queue.get(i), taskClass, null, null, server) )
@@ -675,7 +944,9 @@ final class P_TaskQueue
 		
 		final String queue = m_queue.size() > 0 ? m_queue.toString() : "[queue empty]";
 		
-		final String toReturn = current + " " + queue;
+		final String lanes = m_lanes.isEmpty() ? "" : " lanes=" + m_lanes.values().toString();
+
+		final String toReturn = current + lanes + " " + queue;
 		
 		return toReturn;
 	}
@@ -0,0 +1,178 @@
+package com.idevicesinc.sweetblue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+
+/**
+ * Secondary indexes over the contents of {@link P_TaskQueue}, keyed by concrete task class and by the node
+ * (a {@link BleDevice}, {@link BleServer}, or the {@link BleManager}) a task belongs to. The queue itself still owns
+ * the ordering of tasks, this class only exists so that membership questions ("is there a read for this device in the queue?")
+ * don't have to walk the entire queue.
+ */
+final class P_TaskQueueIndex
+{
+	private final IdentityHashMap<Object, ArrayList<PA_Task>> m_nodeBuckets = new IdentityHashMap<>();
+	private final HashMap<Class<?>, int[]> m_classCounts = new HashMap<>();
+
+	// Cache of "does query class X match concrete class Y", as Class.isAssignableFrom is surprisingly costly
+	// on some Android runtimes, and the set of classes involved is small and fixed.
+	private final HashMap<Class<?>, HashMap<Class<?>, Boolean>> m_assignableCache = new HashMap<>();
+
+
+	final void add(final PA_Task task)
+	{
+		final Object node = nodeOf(task);
+
+		ArrayList<PA_Task> bucket = m_nodeBuckets.get(node);
+
+		if( bucket == null )
+		{
+			bucket = new ArrayList<>();
+			m_nodeBuckets.put(node, bucket);
+		}
+
+		bucket.add(task);
+
+		final int[] count = m_classCounts.get(task.getClass());
+
+		if( count == null )
+		{
+			m_classCounts.put(task.getClass(), new int[]{1});
+		}
+		else
+		{
+			count[0]++;
+		}
+	}
+
+	final void remove(final PA_Task task)
+	{
+		final Object node = nodeOf(task);
+		final ArrayList<PA_Task> bucket = m_nodeBuckets.get(node);
+
+		if( bucket != null )
+		{
+			for( int i = 0; i < bucket.size(); i++ )
+			{
+				if( bucket.get(i) == task )
+				{
+					bucket.remove(i);
+
+					break;
+				}
+			}
+
+			if( bucket.isEmpty() )
+			{
+				m_nodeBuckets.remove(node);
+			}
+		}
+
+		final int[] count = m_classCounts.get(task.getClass());
+
+		if( count != null )
+		{
+			count[0]--;
+
+			if( count[0] <= 0 )
+			{
+				m_classCounts.remove(task.getClass());
+			}
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if at least one queued task is an instance of the given class. This only looks at the distinct
+	 * concrete classes currently queued, so it's bounded by the number of task types rather than the size of the queue.
+	 */
+	final boolean containsClass(final Class<? extends PA_Task> taskClass)
+	{
+		if( m_classCounts.isEmpty() )  return false;
+
+		if( m_classCounts.containsKey(taskClass) )  return true;
+
+		final Iterator<Class<?>> it = m_classCounts.keySet().iterator();
+
+		while( it.hasNext() )
+		{
+			if( isAssignable(taskClass, it.next()) )
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns <code>true</code> if a task matching the given class is queued for the given node. Only the tasks belonging to
+	 * that node are looked at.
+	 */
+	final boolean contains(final Class<? extends PA_Task> taskClass, final Object node)
+	{
+		final ArrayList<PA_Task> bucket = m_nodeBuckets.get(node);
+
+		if( bucket == null )  return false;
+
+		for( int i = 0; i < bucket.size(); i++ )
+		{
+			if( isAssignable(taskClass, bucket.get(i).getClass()) )
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the queued tasks belonging to the given node, in the order they were added, or <code>null</code> if there are none.
+	 * The returned list must not be modified.
+	 */
+	final ArrayList<PA_Task> getBucket(final Object node)
+	{
+		return m_nodeBuckets.get(node);
+	}
+
+	final boolean isAssignable(final Class<?> queryClass, final Class<?> concreteClass)
+	{
+		if( queryClass == concreteClass )  return true;
+
+		HashMap<Class<?>, Boolean> cache = m_assignableCache.get(queryClass);
+
+		if( cache == null )
+		{
+			cache = new HashMap<>();
+			m_assignableCache.put(queryClass, cache);
+		}
+
+		Boolean assignable = cache.get(concreteClass);
+
+		if( assignable == null )
+		{
+			assignable = queryClass.isAssignableFrom(concreteClass);
+			cache.put(concreteClass, assignable);
+		}
+
+		return assignable;
+	}
+
+	static Object nodeOf(final PA_Task task)
+	{
+		if( task.getDevice() != null )
+		{
+			return task.getDevice();
+		}
+		else if( task.getServer() != null )
+		{
+			return task.getServer();
+		}
+		else
+		{
+			return task.getManager();
+		}
+	}
+}
@@ -26,6 +26,9 @@ final class P_Task_DiscoverServices extends PA_Task_RequiresConnection
 
 	@Override public void execute()
 	{
+		//--- Services are about to be refreshed and/or rediscovered, so go back to looking them up natively until that's done.
+		getDevice().serviceMngr_device().clearAttributeIndex();
+
 		if( m_gattRefresh )
 		{
 			getDevice().layerManager().refreshGatt();
@@ -0,0 +1,338 @@
+package com.idevicesinc.sweetblue;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+
+
+/**
+ * A hierarchical timer wheel, used to keep track of when things (devices, the scan manager, etc.) next need to be updated, so
+ * that the update loop can sleep until something is actually due instead of ticking at a fixed rate. Each key has at most one deadline,
+ * and scheduling it again replaces the previous deadline.
+ * <br><br>
+ * Scheduling and cancelling are O(1). {@link #advance(long, List)} is proportional to the number of expired keys plus a small
+ * constant per wheel level, and {@link #getNextDeadline()} only looks at the first occupied slot of each level.
+ * <br><br>
+ * This class is not thread safe, it's meant to only be used from the update thread.
+ */
+final class P_TimerWheel<T>
+{
+	private static final int SLOT_BITS = 6;
+	private static final int SLOT_COUNT = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOT_COUNT - 1;
+	private static final int LEVEL_COUNT = 4;
+	private static final long MAX_SPAN = 1L << (SLOT_BITS * LEVEL_COUNT);
+
+	private static final class Entry<T>
+	{
+		private final T m_key;
+		private long m_dueTime;
+		private long m_dueTick;
+
+		private Entry<T> m_prev;
+		private Entry<T> m_next;
+		private int m_level = -1;
+		private int m_slot = -1;
+
+		Entry(T key)
+		{
+			m_key = key;
+		}
+	}
+
+	private final long m_resolution;
+	private final Entry<T>[][] m_slots;
+	private final int[] m_levelCounts = new int[LEVEL_COUNT];
+	private final IdentityHashMap<T, Entry<T>> m_entries = new IdentityHashMap<>();
+
+	private long m_currentTick;
+
+
+	/**
+	 * @param resolution The length of one tick of the lowest wheel level, in milliseconds. Keys never expire before their deadline,
+	 *                   but may expire up to one tick after it.
+	 * @param startTime  The time the wheel starts at, in milliseconds.
+	 */
+	@SuppressWarnings("unchecked")
+	P_TimerWheel(final long resolution, final long startTime)
+	{
+		m_resolution = Math.max(resolution, 1);
+		m_slots = new Entry[LEVEL_COUNT][SLOT_COUNT];
+		m_currentTick = toTick(startTime);
+	}
+
+	/**
+	 * Schedules the given key to expire at the given time (in milliseconds, same time base as {@link System#currentTimeMillis()}),
+	 * replacing any deadline it previously had.
+	 */
+	final void schedule(final T key, final long dueTime)
+	{
+		Entry<T> entry = m_entries.get(key);
+
+		if( entry == null )
+		{
+			entry = new Entry<>(key);
+			m_entries.put(key, entry);
+		}
+		else
+		{
+			unlink(entry);
+		}
+
+		entry.m_dueTime = dueTime;
+		entry.m_dueTick = Math.max(toTickRoundedUp(dueTime), m_currentTick);
+
+		place(entry);
+	}
+
+	final void cancel(final T key)
+	{
+		final Entry<T> entry = m_entries.remove(key);
+
+		if( entry != null )
+		{
+			unlink(entry);
+		}
+	}
+
+	final boolean isScheduled(final T key)
+	{
+		return m_entries.containsKey(key);
+	}
+
+	final boolean isEmpty()
+	{
+		return m_entries.isEmpty();
+	}
+
+	final int size()
+	{
+		return m_entries.size();
+	}
+
+	final void clear()
+	{
+		for( int level = 0; level < LEVEL_COUNT; level++ )
+		{
+			for( int slot = 0; slot < SLOT_COUNT; slot++ )
+			{
+				m_slots[level][slot] = null;
+			}
+
+			m_levelCounts[level] = 0;
+		}
+
+		m_entries.clear();
+	}
+
+	/**
+	 * Returns the soonest deadline of any scheduled key, or {@link Long#MAX_VALUE} if nothing is scheduled.
+	 */
+	final long getNextDeadline()
+	{
+		if( m_entries.isEmpty() )  return Long.MAX_VALUE;
+
+		long soonest = Long.MAX_VALUE;
+
+		for( int level = 0; level < LEVEL_COUNT; level++ )
+		{
+			if( m_levelCounts[level] == 0 )  continue;
+
+			//--- Slots of a level are in time order starting from the cursor. For the lowest level the cursor slot holds keys due
+			//---		right now, for the higher levels the cursor slot has already been cascaded, so anything in it is a full turn away.
+			final int cursor = (int) ((m_currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+			final int start = level == 0 ? cursor : cursor + 1;
+
+			for( int i = 0; i < SLOT_COUNT; i++ )
+			{
+				Entry<T> entry = m_slots[level][(start + i) & SLOT_MASK];
+
+				if( entry == null )  continue;
+
+				while( entry != null )
+				{
+					soonest = Math.min(soonest, entry.m_dueTime);
+					entry = entry.m_next;
+				}
+
+				break;
+			}
+		}
+
+		return soonest;
+	}
+
+	/**
+	 * Moves the wheel forward to the given time, adding every key whose deadline has passed to the given list. Expired keys are no longer
+	 * scheduled afterwards.
+	 */
+	final void advance(final long now, final List<T> expired_out)
+	{
+		final long targetTick = toTick(now);
+
+		if( targetTick < m_currentTick )  return;
+
+		if( m_entries.isEmpty() )
+		{
+			m_currentTick = targetTick;
+
+			return;
+		}
+
+		while( m_currentTick <= targetTick )
+		{
+			expireSlot(m_currentTick, targetTick, expired_out);
+
+			//--- Skip over stretches of time where the lower levels are empty, rather than visiting every tick.
+			long step = 1;
+
+			for( int level = 0; level < LEVEL_COUNT - 1 && m_levelCounts[level] == 0; level++ )
+			{
+				final long levelSpan = 1L << (SLOT_BITS * (level + 1));
+				step = levelSpan - (m_currentTick & (levelSpan - 1));
+			}
+
+			final long nextTick = m_currentTick + step;
+
+			if( nextTick > targetTick + 1 && m_levelCounts[0] == 0 )
+			{
+				//--- Nothing at the lowest level can expire before the next cascade, so it's safe to stop early. Cascades between here
+				//---		and the next boundary are handled on the next call.
+				m_currentTick = targetTick + 1;
+
+				break;
+			}
+
+			m_currentTick = nextTick;
+
+			cascade(m_currentTick);
+		}
+
+		//--- Leave the cursor on the current tick, so that keys scheduled for "now" after this call land in the current slot.
+		m_currentTick = Math.max(targetTick, m_currentTick - 1);
+	}
+
+	private void expireSlot(final long tick, final long targetTick, final List<T> expired_out)
+	{
+		final int slot = (int) (tick & SLOT_MASK);
+		Entry<T> entry = m_slots[0][slot];
+
+		if( entry == null )  return;
+
+		m_slots[0][slot] = null;
+
+		while( entry != null )
+		{
+			final Entry<T> next = entry.m_next;
+
+			m_levelCounts[0]--;
+			entry.m_prev = entry.m_next = null;
+			entry.m_level = entry.m_slot = -1;
+
+			if( entry.m_dueTick <= targetTick )
+			{
+				m_entries.remove(entry.m_key);
+				expired_out.add(entry.m_key);
+			}
+			else
+			{
+				place(entry);
+			}
+
+			entry = next;
+		}
+	}
+
+	private void cascade(final long tick)
+	{
+		for( int level = 1; level < LEVEL_COUNT; level++ )
+		{
+			final long lowerSpan = 1L << (SLOT_BITS * level);
+
+			if( (tick & (lowerSpan - 1)) != 0 )  break;
+
+			final int slot = (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+			Entry<T> entry = m_slots[level][slot];
+
+			m_slots[level][slot] = null;
+
+			while( entry != null )
+			{
+				final Entry<T> next = entry.m_next;
+
+				m_levelCounts[level]--;
+				entry.m_prev = entry.m_next = null;
+				entry.m_level = entry.m_slot = -1;
+
+				place(entry);
+
+				entry = next;
+			}
+		}
+	}
+
+	private void place(final Entry<T> entry)
+	{
+		final long delta = entry.m_dueTick - m_currentTick;
+		//--- Deadlines further out than the wheel can represent are parked at the furthest spot, and re-placed when they get there.
+		final long placementTick = delta >= MAX_SPAN ? m_currentTick + MAX_SPAN - 1 : Math.max(entry.m_dueTick, m_currentTick);
+		final long placementDelta = placementTick - m_currentTick;
+
+		int level = 0;
+
+		while( level < LEVEL_COUNT - 1 && placementDelta >= (1L << (SLOT_BITS * (level + 1))) )
+		{
+			level++;
+		}
+
+		final int slot = (int) ((placementTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+
+		entry.m_level = level;
+		entry.m_slot = slot;
+		entry.m_prev = null;
+		entry.m_next = m_slots[level][slot];
+
+		if( entry.m_next != null )
+		{
+			entry.m_next.m_prev = entry;
+		}
+
+		m_slots[level][slot] = entry;
+		m_levelCounts[level]++;
+	}
+
+	private void unlink(final Entry<T> entry)
+	{
+		if( entry.m_level < 0 )  return;
+
+		if( entry.m_prev != null )
+		{
+			entry.m_prev.m_next = entry.m_next;
+		}
+		else
+		{
+			m_slots[entry.m_level][entry.m_slot] = entry.m_next;
+		}
+
+		if( entry.m_next != null )
+		{
+			entry.m_next.m_prev = entry.m_prev;
+		}
+
+		m_levelCounts[entry.m_level]--;
+
+		entry.m_prev = entry.m_next = null;
+		entry.m_level = entry.m_slot = -1;
+	}
+
+	private long toTick(final long time)
+	{
+		return time / m_resolution;
+	}
+
+	private long toTickRoundedUp(final long time)
+	{
+		final long tick = time / m_resolution;
+
+		return tick * m_resolution < time ? tick + 1 : tick;
+	}
+}
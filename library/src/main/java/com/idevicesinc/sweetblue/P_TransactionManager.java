@@ -10,6 +10,7 @@ import com.idevicesinc.sweetblue.BleDevice.ConnectionFailListener.Status;
 import com.idevicesinc.sweetblue.BleDevice.ReadWriteListener;
 import com.idevicesinc.sweetblue.BleTransaction.EndReason;
 import com.idevicesinc.sweetblue.PA_StateTracker.E_Intent;
+import com.idevicesinc.sweetblue.utils.Interval;
 
 final class P_TransactionManager
 {
@@ -126,6 +127,8 @@ final class P_TransactionManager
 	
 	static void start_common(final BleDevice device, final BleTransaction txn)
 	{
+		device.onTimedWorkChanging();
+
 		if( txn.needsAtomicity() )
 		{
 			device.getManager().getTaskQueue().add(new P_Task_TxnLock(device, txn));
@@ -229,6 +232,17 @@ final class P_TransactionManager
 		}
 	}
 	
+	double getTimeUntilNextUpdate()
+	{
+		//--- Running transactions keep track of their own timeouts, so they need every update.
+		if( m_authTxn != null && m_authTxn.isRunning() )  return 0.0;
+		if( m_initTxn != null && m_initTxn.isRunning() )  return 0.0;
+		if( m_otaTxn != null && m_otaTxn.isRunning() )  return 0.0;
+		if( m_anonTxn != null && m_anonTxn.isRunning() )  return 0.0;
+
+		return Interval.INFINITE.secs();
+	}
+
 	void update(double timeStep)
 	{
 		if( m_authTxn != null && m_authTxn.isRunning() )
@@ -0,0 +1,19 @@
+package com.idevicesinc.sweetblue;
+
+
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+/**
+ * Same as {@link DirectNotificationListener}, including when and on which thread it's called, except that payloads come in a
+ * {@link PooledPayload} whose buffer gets reused once it's released, instead of a new array for every notification. Registered through
+ * {@link BleDevice#enableNotify_pooled(UUID, UUID, PooledNotificationListener, Executor)}.
+ */
+public interface PooledNotificationListener
+{
+    /**
+     * Called for every notification or indication received on the subscribed characteristic. Call {@link PooledPayload#release()} once
+     * you're done with <code>payload</code>, which can be right here or later on from any thread.
+     */
+    void onNotification(BleDevice device, UUID serviceUuid, UUID charUuid, PooledPayload payload);
+}
@@ -0,0 +1,117 @@
+package com.idevicesinc.sweetblue;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+
+/**
+ * A read-only view of a notification's payload, given to a {@link PooledNotificationListener}. The bytes live in a buffer that's reused
+ * for later notifications once {@link #release()} is called, so that a steady stream of notifications only creates this small handle
+ * each time, instead of a new array.
+ * <br><br>
+ * Every notification gets its own {@link PooledPayload}, and nothing in it is valid after {@link #release()} is called. Trying to read
+ * it after that throws an {@link IllegalStateException}, even once its buffer is holding a later notification, so use {@link #copy()}
+ * or {@link #copyTo(byte[], int)} for anything that needs to stick around. Forgetting to release a payload doesn't break anything, it
+ * just means its buffer gets garbage collected instead of reused.
+ */
+public final class PooledPayload
+{
+	private final P_BufferPool m_pool;
+	private final P_BufferPool.Buffer m_buffer;
+	private final int m_length;
+
+	//--- Guarded by this, so a read on one thread can't overlap the buffer going to the next notification after a release on another.
+	private boolean m_released;
+
+
+	PooledPayload(final P_BufferPool pool_nullable, final P_BufferPool.Buffer buffer, final int length)
+	{
+		m_pool = pool_nullable;
+		m_buffer = buffer;
+		m_length = length;
+	}
+
+	final Runnable prepareDelivery(final BleDevice device, final UUID serviceUuid, final UUID charUuid, final PooledNotificationListener listener)
+	{
+		return m_buffer.prepareDelivery(this, device, serviceUuid, charUuid, listener);
+	}
+
+	/**
+	 * The number of bytes in the payload.
+	 */
+	public synchronized int length()
+	{
+		checkNotReleased();
+
+		return m_length;
+	}
+
+	/**
+	 * Returns the byte at the given index, which has to be less than {@link #length()}.
+	 */
+	public synchronized byte get(final int index)
+	{
+		checkNotReleased();
+
+		if( index < 0 || index >= m_length )
+		{
+			throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for a payload of length " + m_length);
+		}
+
+		return m_buffer.m_data[index];
+	}
+
+	/**
+	 * Copies the whole payload into the given array, starting at <code>destOffset</code>.
+	 */
+	public synchronized void copyTo(final byte[] dest, final int destOffset)
+	{
+		checkNotReleased();
+
+		System.arraycopy(m_buffer.m_data, 0, dest, destOffset, m_length);
+	}
+
+	/**
+	 * Returns a new array holding the payload, which stays valid after {@link #release()}.
+	 */
+	public synchronized byte[] copy()
+	{
+		checkNotReleased();
+
+		return Arrays.copyOf(m_buffer.m_data, m_length);
+	}
+
+	/**
+	 * Returns <code>true</code> if {@link #release()} has been called.
+	 */
+	public synchronized boolean isReleased()
+	{
+		return m_released;
+	}
+
+	/**
+	 * Gives the buffer back to be reused for a later notification. Can be called from any thread, and calling it more than once does nothing.
+	 */
+	public void release()
+	{
+		synchronized (this)
+		{
+			if( m_released )  return;
+
+			m_released = true;
+		}
+
+		if( m_pool != null )
+		{
+			m_pool.release(m_buffer);
+		}
+	}
+
+	private void checkNotReleased()
+	{
+		if( m_released )
+		{
+			throw new IllegalStateException("Payload was already released.");
+		}
+	}
+}
@@ -3,6 +3,8 @@ package com.idevicesinc.sweetblue;
 
 import com.idevicesinc.sweetblue.annotations.Advanced;
 import com.idevicesinc.sweetblue.utils.Interval;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Class used to feed options for scanning via {@link BleManager#startScan(ScanOptions)}.
@@ -13,6 +15,7 @@ public final class ScanOptions
     Interval m_scanTime;
     Interval m_pauseTime;
     BleManagerConfig.ScanFilter m_scanFilter;
+    List<NativeScanFilter> m_nativeScanFilters;
     BleManager.DiscoveryListener m_discoveryListener;
     boolean m_isPeriodic;
     boolean m_isPriorityScan;
@@ -95,6 +98,17 @@ public final class ScanOptions
         return this;
     }
 
+    /**
+     * Set the {@link NativeScanFilter}s for this scan, which replace {@link BleManagerConfig#nativeScanFilters} until the scan is over.
+     * Passing nothing means no native filtering at all for this scan.
+     */
+    @Advanced
+    public final ScanOptions withNativeScanFilters(NativeScanFilter... filters)
+    {
+        m_nativeScanFilters = Arrays.asList(filters);
+        return this;
+    }
+
     /**
      * Set a {@link com.idevicesinc.sweetblue.BleManager.DiscoveryListener} for this scan.
      */
@@ -7,12 +7,15 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.le.BluetoothLeAdvertiser;
 import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanSettings;
+import android.os.ParcelUuid;
 import android.os.Build;
 import android.util.Log;
 
 import com.idevicesinc.sweetblue.BleDevice;
 import com.idevicesinc.sweetblue.BleManager;
+import com.idevicesinc.sweetblue.NativeScanFilter;
 import com.idevicesinc.sweetblue.utils.Interval;
 
 import java.util.ArrayList;
@@ -194,9 +197,56 @@ public class L_Util
 
     public static void startNativeScan(BluetoothAdapter adapter, int scanMode, Interval scanReportDelay, ScanCallback listener) {
 
+        startNativeScan(adapter, scanMode, scanReportDelay, null, listener);
+    }
+
+    public static void startNativeScan(BluetoothAdapter adapter, int scanMode, Interval scanReportDelay, List<NativeScanFilter> filters_nullable, ScanCallback listener) {
+
         final ScanSettings settings = buildSettings(adapter, scanMode, scanReportDelay).build();
 
-        startScan(adapter, settings, listener);
+        startScan(adapter, settings, toNativeFilters(filters_nullable), listener);
+    }
+
+    /**
+     * Converts SweetBlue's {@link NativeScanFilter}s into the native {@link ScanFilter}s the stack understands. Returns <code>null</code> (meaning
+     * no filtering) if the given list is <code>null</code> or empty.
+     */
+    public static List<ScanFilter> toNativeFilters(List<NativeScanFilter> filters_nullable) {
+        if (filters_nullable == null || filters_nullable.isEmpty())
+        {
+            return null;
+        }
+
+        final List<ScanFilter> nativeFilters = new ArrayList<>(filters_nullable.size());
+
+        for (NativeScanFilter filter : filters_nullable)
+        {
+            final ScanFilter.Builder builder = new ScanFilter.Builder();
+
+            if (filter.getMacAddress() != null)
+            {
+                builder.setDeviceAddress(filter.getMacAddress());
+            }
+
+            if (filter.getServiceUuid() != null)
+            {
+                builder.setServiceUuid(new ParcelUuid(filter.getServiceUuid()));
+            }
+
+            if (filter.getManufacturerId() != -1)
+            {
+                builder.setManufacturerData(filter.getManufacturerId(), filter.getManufacturerData(), filter.getManufacturerDataMask());
+            }
+
+            if (filter.getServiceDataUuid() != null)
+            {
+                builder.setServiceData(new ParcelUuid(filter.getServiceDataUuid()), filter.getServiceData(), filter.getServiceDataMask());
+            }
+
+            nativeFilters.add(builder.build());
+        }
+
+        return nativeFilters;
     }
 
     static ScanSettings.Builder buildSettings(BluetoothAdapter adapter, int scanMode, Interval scanReportDelay) {
@@ -216,6 +266,10 @@ public class L_Util
     }
 
     static void startScan(BluetoothAdapter adapter, ScanSettings scanSettings, ScanCallback listener) {
+        startScan(adapter, scanSettings, null, listener);
+    }
+
+    static void startScan(BluetoothAdapter adapter, ScanSettings scanSettings, List<ScanFilter> filters_nullable, ScanCallback listener) {
         m_UserCallback = listener;
         // Add a last ditch check to make sure the adapter isn't null before trying to start the scan.
         // We check in the task, but by the time we reach this method, it could have been shut off
@@ -225,7 +279,7 @@ public class L_Util
             m_callback.onScanFailed(android.bluetooth.le.ScanCallback.SCAN_FAILED_INTERNAL_ERROR);
             return;
         }
-        adapter.getBluetoothLeScanner().startScan(null, scanSettings, m_callback);
+        adapter.getBluetoothLeScanner().startScan(filters_nullable, scanSettings, m_callback);
     }
 
 }
@@ -14,8 +14,11 @@ import android.os.Build;
 
 import com.idevicesinc.sweetblue.BleDevice;
 import com.idevicesinc.sweetblue.BleManager;
+import com.idevicesinc.sweetblue.NativeScanFilter;
 import com.idevicesinc.sweetblue.utils.Interval;
 
+import java.util.List;
+
 
 @TargetApi(Build.VERSION_CODES.M)
 public class M_Util
@@ -46,6 +49,10 @@ public class M_Util
     }
 
     public static void startNativeScan(BluetoothAdapter adapter, int scanMode, Interval scanReportDelay, L_Util.ScanCallback listener) {
+        startNativeScan(adapter, scanMode, scanReportDelay, null, listener);
+    }
+
+    public static void startNativeScan(BluetoothAdapter adapter, int scanMode, Interval scanReportDelay, List<NativeScanFilter> filters_nullable, L_Util.ScanCallback listener) {
         final ScanSettings.Builder builder = L_Util.buildSettings(adapter, scanMode, scanReportDelay);
 
         builder.setCallbackType(ScanSettings.CALLBACK_TYPE_ALL_MATCHES);
@@ -54,7 +61,7 @@ public class M_Util
 
         final ScanSettings scanSettings = builder.build();
 
-        L_Util.startScan(adapter, scanSettings, listener);
+        L_Util.startScan(adapter, scanSettings, L_Util.toNativeFilters(filters_nullable), listener);
     }
 
     // TODO - Remove this in version 3.0
@@ -0,0 +1,421 @@
+package com.idevicesinc.sweetblue.utils;
+
+
+import com.idevicesinc.sweetblue.BleNodeConfig;
+import com.idevicesinc.sweetblue.annotations.Immutable;
+import com.idevicesinc.sweetblue.annotations.Nullable;
+import java.util.UUID;
+
+
+/**
+ * A beacon frame decoded straight from a raw scan record, see {@link #parse(ScanRecordCursor)}. The subclasses hold the fields of each format
+ * SweetBlue knows about - {@link IBeacon}, {@link AltBeacon}, {@link EddystoneUid}, {@link EddystoneUrl}, and {@link EddystoneTlm}. Check {@link #getType()}
+ * to know which one you have.
+ * <br><br>
+ * Set a {@link com.idevicesinc.sweetblue.BeaconListener} with {@link com.idevicesinc.sweetblue.BleManager#setListener_Beacon(com.idevicesinc.sweetblue.BeaconListener)}
+ * to have these handed to you while scanning, without a {@link com.idevicesinc.sweetblue.BleDevice} being created for every beacon.
+ */
+@Immutable
+public abstract class Beacon
+{
+	/**
+	 * The different beacon formats SweetBlue can decode.
+	 */
+	public enum Type
+	{
+		/**
+		 * Apple's iBeacon format, see {@link IBeacon}.
+		 */
+		IBEACON,
+
+		/**
+		 * The open AltBeacon format, see {@link AltBeacon}.
+		 */
+		ALTBEACON,
+
+		/**
+		 * Eddystone's UID frame, see {@link EddystoneUid}.
+		 */
+		EDDYSTONE_UID,
+
+		/**
+		 * Eddystone's URL frame, see {@link EddystoneUrl}.
+		 */
+		EDDYSTONE_URL,
+
+		/**
+		 * Eddystone's unencrypted telemetry frame, see {@link EddystoneTlm}.
+		 */
+		EDDYSTONE_TLM;
+	}
+
+	private static final int APPLE_MANUFACTURER_ID		= 0x004C;
+	private static final int EDDYSTONE_SERVICE_UUID	= 0xFEAA;
+
+	private static final int EDDYSTONE_FRAME_UID		= 0x00;
+	private static final int EDDYSTONE_FRAME_URL		= 0x10;
+	private static final int EDDYSTONE_FRAME_TLM		= 0x20;
+
+	//--- Lengths here include the two bytes of manufacturer id or service UUID at the start of the structure's data.
+	private static final int IBEACON_LENGTH				= 25;
+	private static final int ALTBEACON_LENGTH			= 26;
+	private static final int EDDYSTONE_UID_LENGTH		= 20;
+	private static final int EDDYSTONE_URL_MIN_LENGTH	= 5;
+	private static final int EDDYSTONE_TLM_LENGTH		= 16;
+
+	private static final String[] EDDYSTONE_URL_SCHEMES = { "http://www.", "https://www.", "http://", "https://" };
+
+	private static final String[] EDDYSTONE_URL_EXPANSIONS =
+	{
+		".com/", ".org/", ".edu/", ".net/", ".info/", ".biz/", ".gov/", ".com", ".org", ".edu", ".net", ".info", ".biz", ".gov"
+	};
+
+	private final Type m_type;
+	private final int m_txPower;
+
+
+	//--- Package private so that the only subclasses are the ones below.
+	Beacon(final Type type, final int txPower)
+	{
+		m_type = type;
+		m_txPower = txPower;
+	}
+
+	/**
+	 * Returns which format this beacon is in, which tells you which subclass this is.
+	 */
+	public final Type getType()
+	{
+		return m_type;
+	}
+
+	/**
+	 * Returns the calibrated signal strength the beacon advertises, which is useful for estimating distance. For {@link IBeacon} and {@link AltBeacon},
+	 * this is the RSSI expected at 1 meter. For {@link EddystoneUid} and {@link EddystoneUrl}, it's the transmission power measured at 0 meters.
+	 * {@link EddystoneTlm} frames don't have one, so this returns {@link BleNodeConfig#INVALID_TX_POWER} for them.
+	 */
+	public final int getTxPower()
+	{
+		return m_txPower;
+	}
+
+	/**
+	 * Overload of {@link #parse(ScanRecordCursor)} for when you just have the bytes.
+	 */
+	public static @Nullable(Nullable.Prevalence.NORMAL) Beacon parse(final byte[] scanRecord_nullable)
+	{
+		return parse(new ScanRecordCursor(scanRecord_nullable));
+	}
+
+	/**
+	 * Returns the first beacon frame found in the cursor's record, or <code>null</code> if there isn't one. Records that aren't beacons are
+	 * turned away after a single pass, without anything being allocated. The cursor is left wherever parsing stopped.
+	 */
+	public static @Nullable(Nullable.Prevalence.NORMAL) Beacon parse(final ScanRecordCursor cursor)
+	{
+		cursor.rewind();
+
+		while( cursor.next() )
+		{
+			final int length = cursor.dataLength();
+
+			if( cursor.type() == ScanRecordCursor.DATA_TYPE_MANUFACTURER_SPECIFIC_DATA && length >= 4 )
+			{
+				final int manufacturerId = cursor.dataAt(0) | (cursor.dataAt(1) << 8);
+
+				if( manufacturerId == APPLE_MANUFACTURER_ID && length >= IBEACON_LENGTH && cursor.dataAt(2) == 0x02 && cursor.dataAt(3) == 0x15 )
+				{
+					return new IBeacon(cursor);
+				}
+				else if( length >= ALTBEACON_LENGTH && cursor.dataAt(2) == 0xBE && cursor.dataAt(3) == 0xAC )
+				{
+					return new AltBeacon(cursor, manufacturerId);
+				}
+			}
+			else if( cursor.type() == ScanRecordCursor.DATA_TYPE_SERVICE_DATA && length >= 3 && (cursor.dataAt(0) | (cursor.dataAt(1) << 8)) == EDDYSTONE_SERVICE_UUID )
+			{
+				final int frameType = cursor.dataAt(2);
+
+				if( frameType == EDDYSTONE_FRAME_UID && length >= EDDYSTONE_UID_LENGTH )
+				{
+					return new EddystoneUid(cursor);
+				}
+				else if( frameType == EDDYSTONE_FRAME_URL && length >= EDDYSTONE_URL_MIN_LENGTH && cursor.dataAt(4) < EDDYSTONE_URL_SCHEMES.length )
+				{
+					return new EddystoneUrl(cursor);
+				}
+				//--- Version 1 telemetry is encrypted, so there's nothing that can be read out of it.
+				else if( frameType == EDDYSTONE_FRAME_TLM && length >= EDDYSTONE_TLM_LENGTH && cursor.dataAt(3) == 0x00 )
+				{
+					return new EddystoneTlm(cursor);
+				}
+			}
+		}
+
+		return null;
+	}
+
+	private static int readBigEndian16(final ScanRecordCursor cursor, final int index)
+	{
+		return (cursor.dataAt(index) << 8) | cursor.dataAt(index + 1);
+	}
+
+	private static long readBigEndian32(final ScanRecordCursor cursor, final int index)
+	{
+		return ((long) readBigEndian16(cursor, index) << 16) | readBigEndian16(cursor, index + 2);
+	}
+
+	private static long readBigEndian64(final ScanRecordCursor cursor, final int index)
+	{
+		return (readBigEndian32(cursor, index) << 32) | readBigEndian32(cursor, index + 4);
+	}
+
+
+	/**
+	 * Apple's iBeacon format, identified by a proximity {@link UUID} plus a major and minor number.
+	 */
+	@Immutable
+	public static final class IBeacon extends Beacon
+	{
+		private final UUID m_proximityUuid;
+		private final int m_major;
+		private final int m_minor;
+
+		IBeacon(final ScanRecordCursor cursor)
+		{
+			super(Type.IBEACON, (byte) cursor.dataAt(24));
+
+			m_proximityUuid = new UUID(readBigEndian64(cursor, 4), readBigEndian64(cursor, 12));
+			m_major = readBigEndian16(cursor, 20);
+			m_minor = readBigEndian16(cursor, 22);
+		}
+
+		public final UUID getProximityUuid()
+		{
+			return m_proximityUuid;
+		}
+
+		public final int getMajor()
+		{
+			return m_major;
+		}
+
+		public final int getMinor()
+		{
+			return m_minor;
+		}
+
+		@Override public final String toString()
+		{
+			return Utils_String.toString(this.getClass(), "proximityUuid", m_proximityUuid, "major", m_major, "minor", m_minor, "txPower", getTxPower());
+		}
+	}
+
+
+	/**
+	 * The AltBeacon format, which can be advertised under any manufacturer id. The 20 byte beacon id is usually split into a {@link UUID}
+	 * and two 16-bit numbers, like {@link IBeacon}, which is what {@link #getId1()}, {@link #getId2()}, and {@link #getId3()} return.
+	 */
+	@Immutable
+	public static final class AltBeacon extends Beacon
+	{
+		private final int m_manufacturerId;
+		private final UUID m_id1;
+		private final int m_id2;
+		private final int m_id3;
+		private final int m_manufacturerReserved;
+
+		AltBeacon(final ScanRecordCursor cursor, final int manufacturerId)
+		{
+			super(Type.ALTBEACON, (byte) cursor.dataAt(24));
+
+			m_manufacturerId = manufacturerId;
+			m_id1 = new UUID(readBigEndian64(cursor, 4), readBigEndian64(cursor, 12));
+			m_id2 = readBigEndian16(cursor, 20);
+			m_id3 = readBigEndian16(cursor, 22);
+			m_manufacturerReserved = cursor.dataAt(25);
+		}
+
+		public final int getManufacturerId()
+		{
+			return m_manufacturerId;
+		}
+
+		public final UUID getId1()
+		{
+			return m_id1;
+		}
+
+		public final int getId2()
+		{
+			return m_id2;
+		}
+
+		public final int getId3()
+		{
+			return m_id3;
+		}
+
+		/**
+		 * Returns the last byte of the frame, which is left for the manufacturer to use however they want.
+		 */
+		public final int getManufacturerReserved()
+		{
+			return m_manufacturerReserved;
+		}
+
+		@Override public final String toString()
+		{
+			return Utils_String.toString(this.getClass(), "manufacturerId", m_manufacturerId, "id1", m_id1, "id2", m_id2, "id3", m_id3, "txPower", getTxPower());
+		}
+	}
+
+
+	/**
+	 * Eddystone's UID frame, identified by a 10 byte namespace and a 6 byte instance.
+	 */
+	@Immutable
+	public static final class EddystoneUid extends Beacon
+	{
+		private final byte[] m_namespace;
+		private final byte[] m_instance;
+
+		EddystoneUid(final ScanRecordCursor cursor)
+		{
+			super(Type.EDDYSTONE_UID, (byte) cursor.dataAt(3));
+
+			m_namespace = new byte[10];
+			m_instance = new byte[6];
+			System.arraycopy(cursor.record(), cursor.dataOffset() + 4, m_namespace, 0, m_namespace.length);
+			System.arraycopy(cursor.record(), cursor.dataOffset() + 14, m_instance, 0, m_instance.length);
+		}
+
+		/**
+		 * Returns the namespace as a 20 character hex string.
+		 */
+		public final String getNamespace()
+		{
+			return Utils_Byte.bytesToHexString(m_namespace);
+		}
+
+		/**
+		 * Returns the instance as a 12 character hex string.
+		 */
+		public final String getInstance()
+		{
+			return Utils_Byte.bytesToHexString(m_instance);
+		}
+
+		@Override public final String toString()
+		{
+			return Utils_String.toString(this.getClass(), "namespace", getNamespace(), "instance", getInstance(), "txPower", getTxPower());
+		}
+	}
+
+
+	/**
+	 * Eddystone's URL frame.
+	 */
+	@Immutable
+	public static final class EddystoneUrl extends Beacon
+	{
+		private final String m_url;
+
+		EddystoneUrl(final ScanRecordCursor cursor)
+		{
+			super(Type.EDDYSTONE_URL, (byte) cursor.dataAt(3));
+
+			final StringBuilder url = new StringBuilder(EDDYSTONE_URL_SCHEMES[cursor.dataAt(4)]);
+
+			for( int i = 5; i < cursor.dataLength(); i++ )
+			{
+				final int c = cursor.dataAt(i);
+
+				if( c < EDDYSTONE_URL_EXPANSIONS.length )
+				{
+					url.append(EDDYSTONE_URL_EXPANSIONS[c]);
+				}
+				else
+				{
+					url.append((char) c);
+				}
+			}
+
+			m_url = url.toString();
+		}
+
+		/**
+		 * Returns the URL, with its scheme and any abbreviations expanded, for instance "https://www.google.com/".
+		 */
+		public final String getUrl()
+		{
+			return m_url;
+		}
+
+		@Override public final String toString()
+		{
+			return Utils_String.toString(this.getClass(), "url", m_url, "txPower", getTxPower());
+		}
+	}
+
+
+	/**
+	 * Eddystone's unencrypted telemetry frame, which is usually interleaved with one of the other Eddystone frames by the same beacon.
+	 */
+	@Immutable
+	public static final class EddystoneTlm extends Beacon
+	{
+		private final int m_batteryVoltage;
+		private final int m_temperature;
+		private final long m_advertisingCount;
+		private final long m_uptime;
+
+		EddystoneTlm(final ScanRecordCursor cursor)
+		{
+			super(Type.EDDYSTONE_TLM, BleNodeConfig.INVALID_TX_POWER);
+
+			m_batteryVoltage = readBigEndian16(cursor, 4);
+			m_temperature = (short) readBigEndian16(cursor, 6);
+			m_advertisingCount = readBigEndian32(cursor, 8);
+			m_uptime = readBigEndian32(cursor, 12);
+		}
+
+		/**
+		 * Returns the battery voltage in millivolts, or <code>0</code> if the beacon doesn't report it.
+		 */
+		public final int getBatteryVoltage()
+		{
+			return m_batteryVoltage;
+		}
+
+		/**
+		 * Returns the temperature in degrees Celsius, or {@link Double#NaN} if the beacon doesn't report it.
+		 */
+		public final double getTemperature()
+		{
+			//--- 0x8000, or -128 degrees, is how the frame says there's no temperature.
+			return m_temperature == Short.MIN_VALUE ? Double.NaN : m_temperature / 256.0;
+		}
+
+		/**
+		 * Returns the number of frames the beacon has advertised since it was powered on or rebooted.
+		 */
+		public final long getAdvertisingCount()
+		{
+			return m_advertisingCount;
+		}
+
+		/**
+		 * Returns how long it's been since the beacon was powered on or rebooted.
+		 */
+		public final Interval getUptime()
+		{
+			return Interval.millis(m_uptime * 100);
+		}
+
+		@Override public final String toString()
+		{
+			return Utils_String.toString(this.getClass(), "batteryVoltage", m_batteryVoltage, "temperature", getTemperature(), "advertisingCount", m_advertisingCount, "uptime", getUptime());
+		}
+	}
+}
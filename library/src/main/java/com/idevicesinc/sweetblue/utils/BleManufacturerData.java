@@ -0,0 +1,60 @@
+package com.idevicesinc.sweetblue.utils;
+
+import com.idevicesinc.sweetblue.annotations.Immutable;
+import java.util.Arrays;
+
+/**
+ * Class used to store one manufacturer specific data block from a scan record. A scan record can have any number of these, even more than one
+ * with the same manufacturer id, so {@link BleScanInfo#getManufacturerDataList()} returns them all, in the order they were advertised.
+ */
+@Immutable
+public final class BleManufacturerData
+{
+    private final int m_id;
+    private final byte[] m_data;
+
+    public BleManufacturerData(int id, byte[] data)
+    {
+        m_id = id & 0xFFFF;
+        m_data = data != null ? data : P_Const.EMPTY_BYTE_ARRAY;
+    }
+
+    /**
+     * Returns the manufacturer id, as an unsigned 16-bit value.
+     */
+    public final int getId()
+    {
+        return m_id;
+    }
+
+    /**
+     * Returns the data that followed the manufacturer id. This is NOT a copy, so don't modify it.
+     */
+    public final byte[] getData()
+    {
+        return m_data;
+    }
+
+    @Override
+    public final boolean equals(Object obj)
+    {
+        if (obj instanceof BleManufacturerData)
+        {
+            BleManufacturerData other = (BleManufacturerData) obj;
+            return m_id == other.m_id && Arrays.equals(m_data, other.m_data);
+        }
+        return false;
+    }
+
+    @Override
+    public final int hashCode()
+    {
+        return 31 * m_id + Arrays.hashCode(m_data);
+    }
+
+    @Override
+    public final String toString()
+    {
+        return "BleManufacturerData{id=" + m_id + ", data=" + Utils_Byte.bytesToHexString(m_data) + "}";
+    }
+}
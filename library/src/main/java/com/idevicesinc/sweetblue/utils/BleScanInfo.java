@@ -1,6 +1,8 @@
 package com.idevicesinc.sweetblue.utils;
 
+import com.idevicesinc.sweetblue.annotations.Nullable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -24,6 +26,11 @@ public final class BleScanInfo implements UsesCustomNull
     private boolean m_completeUuidList;
     private String m_localName;
     private boolean m_shortName;
+    private final List<BleManufacturerData> m_manufacturerDataList;
+    private final int m_appearance;
+    private final int m_advertisingInterval;
+    private final String m_uri;
+    private final byte[] m_leSupportedFeatures;
 
     /**
      * Basic constructor to use if you are building a scan record to advertise.
@@ -33,6 +40,11 @@ public final class BleScanInfo implements UsesCustomNull
         m_serviceUuids = new ArrayList<>();
         m_serviceData = new HashMap<>();
         m_completeUuidList = false;
+        m_manufacturerDataList = null;
+        m_appearance = -1;
+        m_advertisingInterval = -1;
+        m_uri = null;
+        m_leSupportedFeatures = P_Const.EMPTY_BYTE_ARRAY;
     }
 
     /**
@@ -40,6 +52,17 @@ public final class BleScanInfo implements UsesCustomNull
      */
     public BleScanInfo(Pointer<Integer> advFlags, Pointer<Integer> txPower, List<UUID> serviceUuids, boolean uuidCompleteList, short mfgId, byte[] mfgData, Map<UUID, byte[]> serviceData, String localName, boolean shortName)
     {
+        this(advFlags, txPower, serviceUuids, uuidCompleteList, mfgId, mfgData, null, serviceData, localName, shortName, -1, -1, null, P_Const.EMPTY_BYTE_ARRAY);
+    }
+
+    BleScanInfo(Pointer<Integer> advFlags, Pointer<Integer> txPower, List<UUID> serviceUuids, boolean uuidCompleteList, short mfgId, byte[] mfgData, List<BleManufacturerData> mfgDataList,
+                Map<UUID, byte[]> serviceData, String localName, boolean shortName, int appearance, int advertisingInterval, String uri, byte[] leSupportedFeatures)
+    {
+        m_manufacturerDataList = mfgDataList;
+        m_appearance = appearance;
+        m_advertisingInterval = advertisingInterval;
+        m_uri = uri;
+        m_leSupportedFeatures = leSupportedFeatures;
         m_advFlags = advFlags;
         m_txPower = txPower;
         m_serviceUuids = new ArrayList<>();
@@ -191,6 +214,89 @@ public final class BleScanInfo implements UsesCustomNull
         return m_manufacturerData;
     }
 
+    /**
+     * Returns every manufacturer specific data block, in the order they were advertised. {@link #getManufacturerId()} and {@link #getManufacturerData()}
+     * only return the last one.
+     */
+    public final List<BleManufacturerData> getManufacturerDataList()
+    {
+        if (m_manufacturerDataList != null)
+        {
+            return Collections.unmodifiableList(m_manufacturerDataList);
+        }
+        if (m_manufactuerId == null || m_manufactuerId == -1)
+        {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(new BleManufacturerData(m_manufactuerId, getManufacturerData()));
+    }
+
+    /**
+     * Returns the data from the first manufacturer specific data block with the given manufacturer id, or <code>null</code> if there isn't one.
+     */
+    public final @Nullable(Nullable.Prevalence.NORMAL) byte[] getManufacturerData(int manufacturerId)
+    {
+        final List<BleManufacturerData> list = getManufacturerDataList();
+        for (int i = 0; i < list.size(); i++)
+        {
+            if (list.get(i).getId() == (manufacturerId & 0xFFFF))
+            {
+                return list.get(i).getData();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the advertised appearance (the kind of device, for instance a heart rate sensor), or <code>-1</code> if there wasn't one.
+     */
+    public final int getAppearance()
+    {
+        return m_appearance;
+    }
+
+    /**
+     * Returns the advertised advertising interval, or {@link Interval#DISABLED} if there wasn't one.
+     */
+    public final Interval getAdvertisingInterval()
+    {
+        if (m_advertisingInterval < 0)
+        {
+            return Interval.DISABLED;
+        }
+        return Interval.secs(m_advertisingInterval * .000625);
+    }
+
+    /**
+     * Returns the advertised URI, with its scheme filled back in, or an empty string if there wasn't one.
+     */
+    public final String getUri()
+    {
+        if (m_uri == null)
+        {
+            return "";
+        }
+        return m_uri;
+    }
+
+    /**
+     * Returns the advertised LE supported features bitmask, least significant byte first, or an empty array if there wasn't one.
+     * This is NOT a copy. See also {@link #isLeFeatureSupported(int)}.
+     */
+    public final byte[] getLeSupportedFeatures()
+    {
+        return m_leSupportedFeatures;
+    }
+
+    /**
+     * Returns <code>true</code> if the given bit of {@link #getLeSupportedFeatures()} is set, for instance bit 1 for connection parameters request.
+     */
+    public final boolean isLeFeatureSupported(int bit)
+    {
+        final int index = bit / 8;
+        return bit >= 0 && index < m_leSupportedFeatures.length && (m_leSupportedFeatures[index] & (1 << (bit % 8))) != 0;
+    }
+
     /**
      * Set the advertising flags. This method expects a byte bitmask (so all flags are already OR'd).
      */
@@ -0,0 +1,110 @@
+package com.idevicesinc.sweetblue.utils;
+
+
+import com.idevicesinc.sweetblue.BleManagerConfig;
+import com.idevicesinc.sweetblue.annotations.Immutable;
+
+
+/**
+ * Summary of all the RSSI samples received for a single device over one scan aggregation window.
+ * See {@link BleManagerConfig#aggregateScanResults} for more details.
+ */
+@Immutable
+public final class RssiStats implements UsesCustomNull
+{
+	/**
+	 * Special value returned when scan results aren't being aggregated, or the device hasn't been seen by a scan yet.
+	 */
+	public static final RssiStats NULL = new RssiStats(0, 0, 0, 0, 0.0, 0.0);
+
+	private final int m_sampleCount;
+	private final int m_latest;
+	private final int m_min;
+	private final int m_max;
+	private final double m_mean;
+	private final double m_ema;
+
+
+	public RssiStats(final int sampleCount, final int latest, final int min, final int max, final double mean, final double ema)
+	{
+		m_sampleCount = sampleCount;
+		m_latest = latest;
+		m_min = min;
+		m_max = max;
+		m_mean = mean;
+		m_ema = ema;
+	}
+
+	/**
+	 * The number of advertisements received for the device during the window.
+	 */
+	public int sampleCount()
+	{
+		return m_sampleCount;
+	}
+
+	/**
+	 * The RSSI of the most recent advertisement received during the window.
+	 */
+	public int latest()
+	{
+		return m_latest;
+	}
+
+	/**
+	 * The weakest RSSI received during the window.
+	 */
+	public int min()
+	{
+		return m_min;
+	}
+
+	/**
+	 * The strongest RSSI received during the window.
+	 */
+	public int max()
+	{
+		return m_max;
+	}
+
+	/**
+	 * The average of all the RSSI values received during the window.
+	 */
+	public double mean()
+	{
+		return m_mean;
+	}
+
+	/**
+	 * Exponential moving average of the RSSI, which is carried over from previous windows while the device keeps being seen.
+	 * See {@link BleManagerConfig#scanRssiEmaWeight}.
+	 */
+	public double ema()
+	{
+		return m_ema;
+	}
+
+	@Override public boolean isNull()
+	{
+		return this == NULL;
+	}
+
+	@Override public String toString()
+	{
+		if( isNull() )
+		{
+			return "NULL";
+		}
+
+		return Utils_String.toString
+		(
+			this.getClass(),
+			"sampleCount", sampleCount(),
+			"latest", latest(),
+			"min", min(),
+			"max", max(),
+			"mean", Utils_String.toFixed(mean()),
+			"ema", Utils_String.toFixed(ema())
+		);
+	}
+}
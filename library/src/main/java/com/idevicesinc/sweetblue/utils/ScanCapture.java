@@ -0,0 +1,347 @@
+package com.idevicesinc.sweetblue.utils;
+
+
+import com.idevicesinc.sweetblue.annotations.Immutable;
+import com.idevicesinc.sweetblue.annotations.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+
+/**
+ * A compact binary format for a stream of raw scan results, so that what a phone saw in the field can be replayed later, for instance in unit tests.
+ * {@link com.idevicesinc.sweetblue.BleManager#startScanCapture(OutputStream)} records one of these, and {@link Reader} reads it back.
+ * <br><br>
+ * The format starts with a header of the 4 ascii bytes "SBSC", a version byte, and the time the capture started, as 8 bytes of milliseconds
+ * since the epoch, big endian. Then each scan result is:
+ * <ul>
+ *     <li>The milliseconds since the previous result (or the start), as an unsigned varint.</li>
+ *     <li>The 6 bytes of the mac address, or all zeros if it wasn't known.</li>
+ *     <li>The RSSI, as one signed byte.</li>
+ *     <li>The length of the scan record plus one, as an unsigned varint, with zero meaning there was no record at all. Then the record itself.</li>
+ * </ul>
+ * Varints are 7 bits per byte, least significant group first, with the top bit set on every byte but the last.
+ */
+public final class ScanCapture
+{
+	private static final byte[] MAGIC = { 'S', 'B', 'S', 'C' };
+	private static final int VERSION = 1;
+	private static final int MAC_ADDRESS_LENGTH = 6;
+
+	private ScanCapture(){}
+
+
+	/**
+	 * A single scan result read back by {@link Reader#next()}.
+	 */
+	@Immutable
+	public static final class Entry
+	{
+		private final long m_time;
+		private final String m_macAddress;
+		private final int m_rssi;
+		private final byte[] m_scanRecord;
+
+		Entry(final long time, final String macAddress, final int rssi, final byte[] scanRecord)
+		{
+			m_time = time;
+			m_macAddress = macAddress;
+			m_rssi = rssi;
+			m_scanRecord = scanRecord;
+		}
+
+		/**
+		 * Returns when the result was captured, in milliseconds since the epoch.
+		 */
+		public final long time()
+		{
+			return m_time;
+		}
+
+		/**
+		 * Returns the mac address, or <code>null</code> if it wasn't known when the result was captured.
+		 */
+		public final @Nullable(Nullable.Prevalence.RARE) String macAddress()
+		{
+			return m_macAddress;
+		}
+
+		public final int rssi()
+		{
+			return m_rssi;
+		}
+
+		/**
+		 * Returns the raw scan record, or <code>null</code> if there wasn't one. This is NOT a copy.
+		 */
+		public final @Nullable(Nullable.Prevalence.RARE) byte[] scanRecord()
+		{
+			return m_scanRecord;
+		}
+
+		@Override public final String toString()
+		{
+			return Utils_String.toString(this.getClass(), "time", m_time, "macAddress", m_macAddress, "rssi", m_rssi,
+					"scanRecord", m_scanRecord != null ? Utils_Byte.bytesToHexString(m_scanRecord) : null);
+		}
+	}
+
+
+	/**
+	 * Writes scan results out in the capture format. Writes are buffered, and safe to call from any thread.
+	 */
+	public static final class Writer implements Closeable
+	{
+		private final OutputStream m_out;
+		private final byte[] m_macAddress = new byte[MAC_ADDRESS_LENGTH];
+		private long m_lastTime;
+		private int m_count;
+
+		/**
+		 * Writes the header right away, using <code>startTime</code> as the time the capture started.
+		 */
+		public Writer(final OutputStream out, final long startTime) throws IOException
+		{
+			m_out = new BufferedOutputStream(out);
+			m_lastTime = startTime;
+
+			m_out.write(MAGIC);
+			m_out.write(VERSION);
+
+			for( int shift = 56; shift >= 0; shift -= 8 )
+			{
+				m_out.write((int) (startTime >>> shift));
+			}
+		}
+
+		/**
+		 * Writes a single scan result. Times that go backwards (for instance from the system clock being changed) are recorded as
+		 * coming at the same time as the previous result.
+		 */
+		public final synchronized void write(final long time, final String macAddress_nullable, final int rssi, final byte[] scanRecord_nullable) throws IOException
+		{
+			writeVarint(Math.max(0L, time - m_lastTime));
+			m_lastTime = Math.max(m_lastTime, time);
+
+			parseMacAddress(macAddress_nullable, m_macAddress);
+			m_out.write(m_macAddress);
+			m_out.write(rssi);
+
+			if( scanRecord_nullable == null )
+			{
+				writeVarint(0);
+			}
+			else
+			{
+				writeVarint(scanRecord_nullable.length + 1);
+				m_out.write(scanRecord_nullable);
+			}
+
+			m_count++;
+		}
+
+		/**
+		 * Returns how many scan results have been written so far.
+		 */
+		public final synchronized int getCount()
+		{
+			return m_count;
+		}
+
+		public final synchronized void flush() throws IOException
+		{
+			m_out.flush();
+		}
+
+		/**
+		 * Flushes, then closes the underlying stream.
+		 */
+		@Override public final synchronized void close() throws IOException
+		{
+			m_out.close();
+		}
+
+		private void writeVarint(long value) throws IOException
+		{
+			while( (value & ~0x7FL) != 0 )
+			{
+				m_out.write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+
+			m_out.write((int) value);
+		}
+
+		private static void parseMacAddress(final String macAddress_nullable, final byte[] out)
+		{
+			Arrays.fill(out, (byte) 0);
+
+			if( macAddress_nullable == null )  return;
+
+			final String hex = macAddress_nullable.replace(":", "");
+
+			if( hex.length() != MAC_ADDRESS_LENGTH * 2 )  return;
+
+			for( int i = 0; i < MAC_ADDRESS_LENGTH; i++ )
+			{
+				final int high = Character.digit(hex.charAt(i * 2), 16);
+				final int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+
+				if( high < 0 || low < 0 )
+				{
+					Arrays.fill(out, (byte) 0);
+
+					return;
+				}
+
+				out[i] = (byte) ((high << 4) | low);
+			}
+		}
+	}
+
+
+	/**
+	 * Reads back scan results written by {@link Writer}. Not thread-safe.
+	 */
+	public static final class Reader implements Closeable
+	{
+		private final InputStream m_in;
+		private final byte[] m_macAddress = new byte[MAC_ADDRESS_LENGTH];
+		private final long m_startTime;
+		private long m_time;
+
+		/**
+		 * Reads the header right away.
+		 *
+		 * @throws IOException if the stream doesn't start with a capture header this version of SweetBlue understands.
+		 */
+		public Reader(final InputStream in) throws IOException
+		{
+			m_in = new BufferedInputStream(in);
+
+			for( int i = 0; i < MAGIC.length; i++ )
+			{
+				if( readByte() != MAGIC[i] )  throw new IOException("Not a scan capture.");
+			}
+
+			final int version = readByte();
+
+			if( version != VERSION )  throw new IOException("Unsupported scan capture version " + version + ".");
+
+			long startTime = 0;
+
+			for( int i = 0; i < 8; i++ )
+			{
+				startTime = (startTime << 8) | readByte();
+			}
+
+			m_startTime = startTime;
+			m_time = startTime;
+		}
+
+		/**
+		 * Returns the time the capture started, in milliseconds since the epoch.
+		 */
+		public final long getStartTime()
+		{
+			return m_startTime;
+		}
+
+		/**
+		 * Returns the next scan result, or <code>null</code> at the end of the capture. A capture that was cut off partway through a result
+		 * (for instance because the app was killed) just ends at the last complete one.
+		 */
+		public final @Nullable(Nullable.Prevalence.NORMAL) Entry next() throws IOException
+		{
+			final int first = m_in.read();
+
+			if( first == -1 )  return null;
+
+			try
+			{
+				final long time = m_time + readVarint(first);
+
+				readFully(m_macAddress);
+				final int rssi = (byte) readByte();
+				final long recordLength = readVarint(readByte());
+				final byte[] record;
+
+				if( recordLength == 0 )
+				{
+					record = null;
+				}
+				else
+				{
+					record = new byte[(int) (recordLength - 1)];
+					readFully(record);
+				}
+
+				m_time = time;
+
+				return new Entry(time, isUnknownMacAddress(m_macAddress) ? null : Utils_String.bytesToMacAddress(m_macAddress), rssi, record);
+			}
+			catch( EOFException e )
+			{
+				return null;
+			}
+		}
+
+		@Override public final void close() throws IOException
+		{
+			m_in.close();
+		}
+
+		private long readVarint(int b) throws IOException
+		{
+			long value = 0;
+			int shift = 0;
+
+			while( (b & 0x80) != 0 )
+			{
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+				b = readByte();
+			}
+
+			return value | ((long) b << shift);
+		}
+
+		private int readByte() throws IOException
+		{
+			final int b = m_in.read();
+
+			if( b == -1 )  throw new EOFException();
+
+			return b;
+		}
+
+		private void readFully(final byte[] buffer) throws IOException
+		{
+			int offset = 0;
+
+			while( offset < buffer.length )
+			{
+				final int read = m_in.read(buffer, offset, buffer.length - offset);
+
+				if( read == -1 )  throw new EOFException();
+
+				offset += read;
+			}
+		}
+
+		private static boolean isUnknownMacAddress(final byte[] macAddress)
+		{
+			for( int i = 0; i < macAddress.length; i++ )
+			{
+				if( macAddress[i] != 0 )  return false;
+			}
+
+			return true;
+		}
+	}
+}
@@ -0,0 +1,613 @@
+package com.idevicesinc.sweetblue.utils;
+
+
+import com.idevicesinc.sweetblue.BleNodeConfig;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+
+/**
+ * A reusable, read-only view over a raw scan record which walks its advertising data structures in place, without copying anything.
+ * This is meant for code that gets called for every single advertisement (for instance a {@link com.idevicesinc.sweetblue.BleManagerConfig.ScanFilter}),
+ * and usually only cares about one or two fields. Use {@link #toScanInfo()} to parse everything into a {@link BleScanInfo} instead.
+ * <br><br>
+ * There are two ways to use this class. The first is to step through each structure with {@link #next()}, and look at the current one with
+ * {@link #type()}, {@link #dataOffset()}, and {@link #dataLength()}. The second is to use one of the lookup methods, like {@link #getTxPower()},
+ * {@link #getServiceUuidCount()}, or {@link #seekManufacturerData(int)}. Service UUIDs are returned as the two halves of the 128-bit value
+ * (see {@link UUID#getMostSignificantBits()}), so that no {@link UUID} needs to be created to look at them. The lookup methods always start
+ * from the beginning of the record and leave the cursor wherever they stopped, so call {@link #rewind()} before stepping through it again.
+ * <br><br>
+ * Structures whose length runs past the end of the record are cut short to fit, and parsing stops at the first structure with a length of zero.
+ * Instances are not thread-safe, but can be reused for any number of records with {@link #reset(byte[])}.
+ */
+public final class ScanRecordCursor
+{
+	public static final int DATA_TYPE_FLAGS							= 0x01;
+	public static final int DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL		= 0x02;
+	public static final int DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE		= 0x03;
+	public static final int DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL		= 0x04;
+	public static final int DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE		= 0x05;
+	public static final int DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL	= 0x06;
+	public static final int DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE	= 0x07;
+	public static final int DATA_TYPE_LOCAL_NAME_SHORT					= 0x08;
+	public static final int DATA_TYPE_LOCAL_NAME_COMPLETE				= 0x09;
+	public static final int DATA_TYPE_TX_POWER_LEVEL					= 0x0A;
+	public static final int DATA_TYPE_SERVICE_DATA						= 0x16;
+	public static final int DATA_TYPE_APPEARANCE						= 0x19;
+	public static final int DATA_TYPE_ADVERTISING_INTERVAL				= 0x1A;
+	public static final int DATA_TYPE_SERVICE_DATA_32_BIT				= 0x20;
+	public static final int DATA_TYPE_SERVICE_DATA_128_BIT				= 0x21;
+	public static final int DATA_TYPE_URI								= 0x24;
+	public static final int DATA_TYPE_LE_SUPPORTED_FEATURES			= 0x27;
+	public static final int DATA_TYPE_ADVERTISING_INTERVAL_LONG		= 0x2F;
+	public static final int DATA_TYPE_MANUFACTURER_SPECIFIC_DATA		= 0xFF;
+
+	private static final long BASE_UUID_MSB = 0x0000000000001000L;
+	private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	//--- The schemes a URI structure's first code point can stand for, from the Bluetooth assigned numbers. 0x01 means there's no scheme at all.
+	private static final String[] URI_SCHEMES =
+	{
+		null, "", "aaa:", "aaas:", "about:", "acap:", "acct:", "cap:", "cid:", "coap:", "coaps:", "crid:", "data:", "dav:", "dict:", "dns:",
+		"file:", "ftp:", "geo:", "go:", "gopher:", "h323:", "http:", "https:"
+	};
+
+	private byte[] m_record;
+
+	// Offset of the length byte of the next structure to look at.
+	private int m_nextPos;
+
+	private int m_type;
+	private int m_dataOffset;
+	private int m_dataLength;
+
+
+	/**
+	 * Creates a cursor with no record. Call {@link #reset(byte[])} before using it.
+	 */
+	public ScanRecordCursor()
+	{
+		reset(null);
+	}
+
+	public ScanRecordCursor(final byte[] scanRecord_nullable)
+	{
+		reset(scanRecord_nullable);
+	}
+
+	/**
+	 * Points this cursor at a new record, and moves it to before the first structure. A <code>null</code> record acts like an empty one.
+	 */
+	public final ScanRecordCursor reset(final byte[] scanRecord_nullable)
+	{
+		m_record = scanRecord_nullable != null ? scanRecord_nullable : P_Const.EMPTY_BYTE_ARRAY;
+
+		return rewind();
+	}
+
+	/**
+	 * Moves this cursor back to before the first structure of the current record.
+	 */
+	public final ScanRecordCursor rewind()
+	{
+		m_nextPos = 0;
+		m_type = -1;
+		m_dataOffset = 0;
+		m_dataLength = 0;
+
+		return this;
+	}
+
+	/**
+	 * Returns the record this cursor is looking at. This is NOT a copy.
+	 */
+	public final byte[] record()
+	{
+		return m_record;
+	}
+
+	/**
+	 * Moves to the next structure in the record, returning <code>false</code> if there are no more.
+	 */
+	public final boolean next()
+	{
+		final byte[] record = m_record;
+		final int pos = m_nextPos;
+
+		//--- Need at least the length and type bytes.
+		if( pos + 1 >= record.length )
+		{
+			return finish();
+		}
+
+		final int length = record[pos] & 0xFF;
+
+		if( length == 0 )
+		{
+			return finish();
+		}
+
+		m_type = record[pos + 1] & 0xFF;
+		m_dataOffset = pos + 2;
+		m_dataLength = Math.min(length - 1, record.length - m_dataOffset);
+		m_nextPos = pos + 1 + length;
+
+		return true;
+	}
+
+	/**
+	 * Returns the type of the current structure, for instance {@link #DATA_TYPE_MANUFACTURER_SPECIFIC_DATA}, or <code>-1</code> if
+	 * {@link #next()} hasn't been called yet or returned <code>false</code>.
+	 */
+	public final int type()
+	{
+		return m_type;
+	}
+
+	/**
+	 * Returns the offset into {@link #record()} of the first byte of the current structure's data (after the length and type bytes).
+	 */
+	public final int dataOffset()
+	{
+		return m_dataOffset;
+	}
+
+	/**
+	 * Returns the number of bytes of data in the current structure (not including the length and type bytes).
+	 */
+	public final int dataLength()
+	{
+		return m_dataLength;
+	}
+
+	/**
+	 * Returns the unsigned byte at the given index of the current structure's data.
+	 */
+	public final int dataAt(final int index)
+	{
+		return m_record[m_dataOffset + index] & 0xFF;
+	}
+
+	/**
+	 * Copies the current structure's data out into a new array, starting at the given index.
+	 */
+	public final byte[] copyData(final int fromIndex)
+	{
+		final int length = Math.max(0, m_dataLength - fromIndex);
+		final byte[] data = new byte[length];
+
+		System.arraycopy(m_record, m_dataOffset + fromIndex, data, 0, length);
+
+		return data;
+	}
+
+	/**
+	 * Rewinds, then moves to the first structure of the given type. Returns <code>false</code> if there isn't one, in which case the cursor is
+	 * left at the end of the record.
+	 */
+	public final boolean seek(final int type)
+	{
+		rewind();
+
+		while( next() )
+		{
+			if( m_type == type )  return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Rewinds, then moves to the manufacturer specific data block for the given manufacturer id. If found, the actual data
+	 * starts at {@link #dataOffset()} + 2, as the first two bytes are the id itself.
+	 */
+	public final boolean seekManufacturerData(final int manufacturerId)
+	{
+		rewind();
+
+		while( next() )
+		{
+			if( m_type == DATA_TYPE_MANUFACTURER_SPECIFIC_DATA && m_dataLength >= 2 && currentManufacturerId() == manufacturerId )  return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Rewinds, then moves to the service data block for the given 16-bit service UUID. If found, the actual data
+	 * starts at {@link #dataOffset()} + 2, as the first two bytes are the UUID itself.
+	 */
+	public final boolean seekServiceData(final int shortUuid)
+	{
+		rewind();
+
+		while( next() )
+		{
+			if( m_type == DATA_TYPE_SERVICE_DATA && m_dataLength >= 2 && readLittleEndian(m_dataOffset, 2) == shortUuid )  return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the advertising flags, or <code>-1</code> if there aren't any.
+	 */
+	public final int getAdvFlags()
+	{
+		if( seek(DATA_TYPE_FLAGS) && m_dataLength > 0 )
+		{
+			return dataAt(0);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the advertised transmission power, or {@link BleNodeConfig#INVALID_TX_POWER} if there isn't any.
+	 */
+	public final int getTxPower()
+	{
+		if( seek(DATA_TYPE_TX_POWER_LEVEL) && m_dataLength > 0 )
+		{
+			return m_record[m_dataOffset];
+		}
+
+		return BleNodeConfig.INVALID_TX_POWER;
+	}
+
+	/**
+	 * Returns the id from the last manufacturer specific data block, or <code>-1</code> if there aren't any.
+	 */
+	public final int getManufacturerId()
+	{
+		rewind();
+
+		int manufacturerId = -1;
+
+		while( next() )
+		{
+			if( m_type == DATA_TYPE_MANUFACTURER_SPECIFIC_DATA && m_dataLength >= 2 )
+			{
+				manufacturerId = currentManufacturerId();
+			}
+		}
+
+		return manufacturerId;
+	}
+
+	/**
+	 * Returns the appearance (the kind of device, for instance a heart rate sensor), or <code>-1</code> if there isn't one.
+	 */
+	public final int getAppearance()
+	{
+		if( seek(DATA_TYPE_APPEARANCE) && m_dataLength >= 2 )
+		{
+			return (int) readLittleEndian(m_dataOffset, 2);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the advertised advertising interval in units of 0.625 milliseconds, or <code>-1</code> if there isn't one.
+	 */
+	public final int getAdvertisingIntervalUnits()
+	{
+		rewind();
+
+		while( next() )
+		{
+			if( (m_type == DATA_TYPE_ADVERTISING_INTERVAL || m_type == DATA_TYPE_ADVERTISING_INTERVAL_LONG) && m_dataLength >= 2 )
+			{
+				return (int) readLittleEndian(m_dataOffset, Math.min(m_dataLength, 4));
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the number of advertised service UUIDs, of any size.
+	 */
+	public final int getServiceUuidCount()
+	{
+		rewind();
+
+		int count = 0;
+
+		while( next() )
+		{
+			final int uuidSize = uuidSizeForType(m_type);
+
+			if( uuidSize != 0 )
+			{
+				count += m_dataLength / uuidSize;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns the most significant bits of the advertised service UUID at the given index, counting across every service UUID list in the record.
+	 *
+	 *
+	 * @throws IndexOutOfBoundsException if <code>index</code> isn't less than {@link #getServiceUuidCount()}.
+	 */
+	public final long getServiceUuidMsb(final int index)
+	{
+		final int uuidSize = seekServiceUuid(index);
+
+		return uuidMsbAt(m_dataOffset, uuidSize);
+	}
+
+	/**
+	 * Returns the least significant bits of the advertised service UUID at the given index. See {@link #getServiceUuidMsb(int)}.
+	 */
+	public final long getServiceUuidLsb(final int index)
+	{
+		final int uuidSize = seekServiceUuid(index);
+
+		return uuidLsbAt(m_dataOffset, uuidSize);
+	}
+
+	/**
+	 * Returns <code>true</code> if the given service UUID is advertised, whatever size it was advertised as.
+	 */
+	public final boolean hasServiceUuid(final UUID uuid)
+	{
+		final long msb = uuid.getMostSignificantBits();
+		final long lsb = uuid.getLeastSignificantBits();
+
+		rewind();
+
+		while( next() )
+		{
+			final int uuidSize = uuidSizeForType(m_type);
+
+			if( uuidSize == 0 )  continue;
+
+			for( int offset = 0; offset + uuidSize <= m_dataLength; offset += uuidSize )
+			{
+				if( uuidMsbAt(m_dataOffset + offset, uuidSize) == msb && uuidLsbAt(m_dataOffset + offset, uuidSize) == lsb )
+				{
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Parses everything this cursor knows about into a new {@link BleScanInfo}. Returns {@link BleScanInfo#NULL} if the record is <code>null</code>.
+	 * This is what {@link Utils_ScanRecord#parseScanRecord(byte[])} uses under the hood.
+	 */
+	public final BleScanInfo toScanInfo()
+	{
+		return toScanInfo(m_record);
+	}
+
+	static BleScanInfo toScanInfo(final byte[] scanRecord_nullable)
+	{
+		if( scanRecord_nullable == null )
+		{
+			return BleScanInfo.NULL;
+		}
+
+		final ScanRecordCursor cursor = new ScanRecordCursor(scanRecord_nullable);
+
+		int advFlags = -1;
+		int txPower = BleNodeConfig.INVALID_TX_POWER;
+		final List<UUID> serviceUuids = new ArrayList<>();
+		final Map<UUID, byte[]> serviceData = new HashMap<>();
+		boolean completeList = false;
+		boolean shortName = false;
+		String localName = null;
+		int mfgId = -1;
+		byte[] mfgData = P_Const.EMPTY_BYTE_ARRAY;
+		//--- Only created if there's manufacturer data at all, which keeps the common case down to the same allocations as before.
+		List<BleManufacturerData> mfgDataList = null;
+		int appearance = -1;
+		int advInterval = -1;
+		String uri = null;
+		byte[] leFeatures = P_Const.EMPTY_BYTE_ARRAY;
+
+		while( cursor.next() )
+		{
+			final int type = cursor.m_type;
+			final int dataLength = cursor.m_dataLength;
+
+			switch( type )
+			{
+				case DATA_TYPE_FLAGS:
+					if( dataLength > 0 )  advFlags = cursor.dataAt(0);
+					break;
+				case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+				case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+				case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+					completeList = true;
+				case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+				case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+				case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+					final int uuidSize = uuidSizeForType(type);
+					for( int offset = 0; offset + uuidSize <= dataLength; offset += uuidSize )
+					{
+						final int start = cursor.m_dataOffset + offset;
+						serviceUuids.add(new UUID(cursor.uuidMsbAt(start, uuidSize), cursor.uuidLsbAt(start, uuidSize)));
+					}
+					break;
+				case DATA_TYPE_LOCAL_NAME_SHORT:
+					shortName = true;
+				case DATA_TYPE_LOCAL_NAME_COMPLETE:
+					localName = new String(scanRecord_nullable, cursor.m_dataOffset, dataLength);
+					break;
+				case DATA_TYPE_TX_POWER_LEVEL:
+					if( dataLength > 0 )  txPower = scanRecord_nullable[cursor.m_dataOffset];
+					break;
+				case DATA_TYPE_SERVICE_DATA:
+				case DATA_TYPE_SERVICE_DATA_32_BIT:
+				case DATA_TYPE_SERVICE_DATA_128_BIT:
+					// The service data starts with the service data UUID in little endian, in whatever size the type says.
+					final int serviceDataUuidSize = uuidSizeForServiceDataType(type);
+					if( dataLength >= serviceDataUuidSize )
+					{
+						final UUID uuid = new UUID(cursor.uuidMsbAt(cursor.m_dataOffset, serviceDataUuidSize), cursor.uuidLsbAt(cursor.m_dataOffset, serviceDataUuidSize));
+						serviceData.put(uuid, cursor.copyData(serviceDataUuidSize));
+					}
+					break;
+				case DATA_TYPE_APPEARANCE:
+					if( dataLength >= 2 )  appearance = (int) cursor.readLittleEndian(cursor.m_dataOffset, 2);
+					break;
+				case DATA_TYPE_ADVERTISING_INTERVAL:
+				case DATA_TYPE_ADVERTISING_INTERVAL_LONG:
+					if( dataLength >= 2 )  advInterval = (int) cursor.readLittleEndian(cursor.m_dataOffset, Math.min(dataLength, 4));
+					break;
+				case DATA_TYPE_URI:
+					if( dataLength > 0 )  uri = decodeUri(scanRecord_nullable, cursor.m_dataOffset, dataLength);
+					break;
+				case DATA_TYPE_LE_SUPPORTED_FEATURES:
+					leFeatures = cursor.copyData(0);
+					break;
+				case DATA_TYPE_MANUFACTURER_SPECIFIC_DATA:
+					// The first two bytes of the manufacturer specific data are the manufacturer id in little endian.
+					if( dataLength >= 2 )
+					{
+						mfgId = cursor.currentManufacturerId();
+						mfgData = cursor.copyData(2);
+
+						if( mfgDataList == null )
+						{
+							mfgDataList = new ArrayList<>(2);
+						}
+
+						mfgDataList.add(new BleManufacturerData(mfgId, mfgData));
+					}
+					break;
+				default:
+					break;
+			}
+		}
+
+		return new BleScanInfo(new Pointer<>(advFlags), new Pointer<>(txPower), serviceUuids, completeList, (short) mfgId, mfgData, mfgDataList, serviceData, localName, shortName,
+				appearance, advInterval, uri, leFeatures);
+	}
+
+	private boolean finish()
+	{
+		m_nextPos = m_record.length;
+		m_type = -1;
+		m_dataOffset = m_record.length;
+		m_dataLength = 0;
+
+		return false;
+	}
+
+	private int currentManufacturerId()
+	{
+		return (int) readLittleEndian(m_dataOffset, 2);
+	}
+
+	// Moves to the list holding the service UUID at the given index, and adjusts m_dataOffset to point right at it. Returns its size.
+	private int seekServiceUuid(final int index)
+	{
+		rewind();
+
+		int remaining = index;
+
+		while( next() )
+		{
+			final int uuidSize = uuidSizeForType(m_type);
+
+			if( uuidSize == 0 )  continue;
+
+			final int count = m_dataLength / uuidSize;
+
+			if( remaining < count )
+			{
+				m_dataOffset += remaining * uuidSize;
+				m_dataLength = uuidSize;
+
+				return uuidSize;
+			}
+
+			remaining -= count;
+		}
+
+		throw new IndexOutOfBoundsException("No service UUID at index " + index);
+	}
+
+	private long uuidMsbAt(final int offset, final int uuidSize)
+	{
+		if( uuidSize == 16 )
+		{
+			return readLittleEndian(offset + 8, 8);
+		}
+
+		//--- 16 and 32 bit UUIDs are just shorthand for the bluetooth base UUID with the value stuck in the top bits.
+		return BASE_UUID_MSB + (readLittleEndian(offset, uuidSize) << 32);
+	}
+
+	private long uuidLsbAt(final int offset, final int uuidSize)
+	{
+		return uuidSize == 16 ? readLittleEndian(offset, 8) : BASE_UUID_LSB;
+	}
+
+	private long readLittleEndian(final int offset, final int length)
+	{
+		long value = 0;
+
+		for( int i = length - 1; i >= 0; i-- )
+		{
+			value = (value << 8) | (m_record[offset + i] & 0xFF);
+		}
+
+		return value;
+	}
+
+	// The first code point of a URI stands for its scheme, and the rest is the URI after the scheme, all encoded in UTF-8.
+	private static String decodeUri(final byte[] record, final int offset, final int length)
+	{
+		final String encoded = new String(record, offset, length, UTF_8);
+		final int scheme = encoded.codePointAt(0);
+		final String rest = encoded.substring(Character.charCount(scheme));
+
+		if( scheme < URI_SCHEMES.length && URI_SCHEMES[scheme] != null )
+		{
+			return URI_SCHEMES[scheme] + rest;
+		}
+
+		//--- Not a scheme we know the name of, so it's left as is.
+		return encoded;
+	}
+
+	private static int uuidSizeForServiceDataType(final int type)
+	{
+		switch( type )
+		{
+			case DATA_TYPE_SERVICE_DATA_32_BIT:					return 4;
+			case DATA_TYPE_SERVICE_DATA_128_BIT:				return 16;
+			default:											return 2;
+		}
+	}
+
+	private static int uuidSizeForType(final int type)
+	{
+		switch( type )
+		{
+			case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+			case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:		return 2;
+			case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+			case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:		return 4;
+			case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+			case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:		return 16;
+			default:											return 0;
+		}
+	}
+}
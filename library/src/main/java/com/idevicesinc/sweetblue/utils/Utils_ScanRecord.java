@@ -86,122 +86,13 @@ public final class Utils_ScanRecord extends Utils
 		return serviceUuids;
 	}
 
+	/**
+	 * Parses everything SweetBlue knows about from the given scan record. If you only need one or two fields, for instance from a
+	 * {@link BleManagerConfig.ScanFilter}, {@link ScanRecordCursor} can get at them without allocating anything.
+	 */
 	public static BleScanInfo parseScanRecord(final byte[] scanRecord)
 	{
-		Pointer<Integer> txPower = new Pointer<>();
-		txPower.value = BleNodeConfig.INVALID_TX_POWER;
-
-		Pointer<Integer> advFlags = new Pointer<>();
-		advFlags.value = -1;
-
-		Map<UUID, byte[]> serviceData = new HashMap<UUID, byte[]>();
-		serviceData.clear();
-
-		List<UUID> serviceUUIDs =  new ArrayList<UUID>();
-		serviceUUIDs.clear();
-
-		boolean shortName = false;
-		boolean completeList = false;
-
-		int mfgId = -1;
-		byte[] mfgData = new byte[0];
-
-		if(scanRecord == null)
-		{
-			return BleScanInfo.NULL;
-		}
-
-		int currentPos = 0;
-		String localName = null;
-		while( currentPos < scanRecord.length ) {
-			// length is unsigned int.
-			int length = scanRecord[currentPos++] & 0xFF;
-			if (length == 0) {
-				break;
-			}
-
-			// New problem in Android 8.0. It seems some records come in with a length greater than 0, but then there's nothing afterwards, causing
-			// a crash. This check avoids the crash. This also early outs if there's a type int, but no data afterwards. It seems we're seeing more
-			// and more malformed scan records out in the field
-			if (currentPos >= scanRecord.length - 1)
-				break;
-
-			// Note the length includes the length of the field type itself.
-			int dataLength = length - 1;
-			// fieldType is unsigned int.
-			int fieldType = scanRecord[currentPos++] & 0xFF;
-			switch (fieldType) {
-				case DATA_TYPE_FLAGS:
-					advFlags.value = scanRecord[currentPos] & 0xFF;
-					break;
-				case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
-					completeList = true;
-				case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
-					parseServiceUuid(scanRecord, currentPos, dataLength, UUID_BYTES_16_BIT, serviceUUIDs);
-					break;
-				case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
-					completeList = true;
-				case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
-					parseServiceUuid(scanRecord, currentPos, dataLength, UUID_BYTES_32_BIT, serviceUUIDs);
-					break;
-				case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
-					completeList = true;
-				case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
-					parseServiceUuid(scanRecord, currentPos, dataLength, UUID_BYTES_128_BIT, serviceUUIDs);
-					break;
-				case DATA_TYPE_LOCAL_NAME_SHORT:
-					shortName = true;
-				case DATA_TYPE_LOCAL_NAME_COMPLETE:
-					try
-					{
-						localName = new String(extractBytes(scanRecord, currentPos, dataLength));
-					}
-					catch(Exception e)
-					{
-						Log.e(TAG, "unable to parse name");
-					}
-					break;
-				case DATA_TYPE_TX_POWER_LEVEL:
-					txPower.value = (int) scanRecord[currentPos];
-					break;
-				case DATA_TYPE_SERVICE_DATA:
-					// The first two bytes of the service data are service data UUID in little
-					// endian. The rest bytes are service data.
-					try
-					{
-						int serviceUuidLength = UUID_BYTES_16_BIT;
-						byte[] serviceDataUuidBytes = extractBytes(scanRecord, currentPos, serviceUuidLength);
-						UUID serviceDataUuid = parseUuidFrom(serviceDataUuidBytes);
-						byte[] serviceDataArray = extractBytes(scanRecord, currentPos + serviceUuidLength, dataLength - serviceUuidLength);
-						serviceData.put(serviceDataUuid, serviceDataArray);
-					}
-					catch(Exception e)
-					{
-						Log.e(TAG, "unable to parse service data");
-					}
-
-					break;
-				case DATA_TYPE_MANUFACTURER_SPECIFIC_DATA:
-					// The first two bytes of the manufacturer specific data are
-					// manufacturer ids in little endian.
-					try
-					{
-						mfgId = ((scanRecord[currentPos + 1] & 0xFF) << 8) + (scanRecord[currentPos] & 0xFF);
-						mfgData = extractBytes(scanRecord, currentPos + 2, dataLength - 2);
-					}
-					catch(Exception e)
-					{
-						Log.e(TAG, "unable to parse manufacturer data");
-					}
-
-					break;
-				default:
-					// Just ignore, we don't handle such data type.
-					break;
-			}
-			currentPos += dataLength;
-		}
-		return new BleScanInfo(advFlags, txPower, serviceUUIDs, completeList, (short) mfgId, mfgData, serviceData, localName, shortName);
+		return ScanRecordCursor.toScanInfo(scanRecord);
 	}
 
 	@Deprecated public static void parseScanRecord(final byte[] scanRecord, final Pointer<Integer> advFlags_out_nullable, final Pointer<Integer> txPower_nullable, final List<UUID> serviceUuids_out_nullable, final SparseArray<byte[]> manufacturerData_out_nullable, final Map<UUID, byte[]> serviceData_out_nullable)
@@ -349,7 +240,7 @@ public final class Utils_ScanRecord extends Utils
 				switch( fieldType )
 				{
 					case DATA_TYPE_LOCAL_NAME_COMPLETE:
-						String n = new String(extractBytes(scanRecord, currentPos, dataLength));
+						String n = new String(scanRecord, currentPos, dataLength);
 						if (!TextUtils.isEmpty(n)) {
 							return n;
 						}
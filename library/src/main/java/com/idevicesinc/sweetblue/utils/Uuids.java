@@ -265,6 +265,7 @@ public final class Uuids
 	public static final UUID SUPPORTED_POWER_RANGE									= fromShort("2ad8");
 	public static final UUID FITNESS_MACHINE_CONTROL_POINT							= fromShort("2ad9");
 	public static final UUID FITNESS_MACHINE_STATUS									= fromShort("2ada");
+	public static final UUID DATABASE_HASH											= fromShort("2b2a");
 
 
 
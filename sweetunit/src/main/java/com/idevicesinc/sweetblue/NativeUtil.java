@@ -11,6 +11,10 @@ import android.content.Intent;
 import com.idevicesinc.sweetblue.utils.Interval;
 import com.idevicesinc.sweetblue.utils.Utils_ScanRecord;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.UUID;
 
 /**
@@ -587,4 +591,34 @@ public final class NativeUtil
         advertiseNewDevice(mgr, rssi, Utils_ScanRecord.newScanRecord(deviceName));
     }
 
+    /**
+     * Returns a real {@link BluetoothDevice} with the given mac address, for when a test needs scan results to come from a specific address
+     * (see {@link ScanCaptureReplayer}). {@link BluetoothDevice}'s constructor needs the native bluetooth service, so a dummy one is put in place
+     * first if there isn't one.
+     */
+    public static BluetoothDevice newNativeDevice(String macAddress)
+    {
+        try
+        {
+            final Field serviceField = BluetoothDevice.class.getDeclaredField("sService");
+            serviceField.setAccessible(true);
+            if (serviceField.get(null) == null)
+            {
+                final Class<?> serviceClass = Class.forName("android.bluetooth.IBluetooth");
+                serviceField.set(null, Proxy.newProxyInstance(serviceClass.getClassLoader(), new Class<?>[] { serviceClass }, new InvocationHandler()
+                {
+                    @Override public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        return null;
+                    }
+                }));
+            }
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException("Unable to stub out the native bluetooth service.", e);
+        }
+        return BluetoothAdapter.getDefaultAdapter().getRemoteDevice(macAddress);
+    }
+
 }
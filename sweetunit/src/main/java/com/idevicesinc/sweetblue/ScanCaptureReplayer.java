@@ -0,0 +1,180 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.bluetooth.BluetoothDevice;
+
+import com.idevicesinc.sweetblue.utils.Interval;
+import com.idevicesinc.sweetblue.utils.ScanCapture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Feeds a capture recorded with {@link BleManager#startScanCapture(java.io.OutputStream)} back into a {@link BleManager} that's using
+ * {@link UnitTestManagerLayer}, as if the results were coming from the native stack. Results are replayed with the same timing they were captured
+ * with, or faster or slower with {@link #setSpeed(double)}, so discovery, filtering, and purging can be tested against real-world traffic.
+ * <br><br>
+ * Results are handed over whether the manager is scanning or not, so start the scan before replaying.
+ */
+public final class ScanCaptureReplayer
+{
+
+    private final BleManager m_manager;
+    private final ScanCapture.Reader m_reader;
+    private final Map<String, BluetoothDevice> m_devices = new HashMap<>();
+    private double m_speed = 1.0;
+    private volatile boolean m_stopped;
+    private volatile boolean m_done;
+    private volatile int m_replayedCount;
+    private Thread m_thread;
+
+
+    /**
+     * Reads the header of the capture right away.
+     *
+     * @throws IOException if the stream isn't a scan capture.
+     */
+    public ScanCaptureReplayer(BleManager mgr, InputStream capture) throws IOException
+    {
+        m_manager = mgr;
+        m_reader = new ScanCapture.Reader(capture);
+    }
+
+    /**
+     * Sets how fast to replay, compared to how fast the results were captured. Default is <code>1.0</code>, so <code>10.0</code> is ten times faster.
+     * Zero or {@link Double#POSITIVE_INFINITY} replays everything as fast as possible.
+     */
+    public ScanCaptureReplayer setSpeed(double speed)
+    {
+        m_speed = speed;
+        return this;
+    }
+
+    /**
+     * Replays the whole capture on the calling thread, returning the number of results that were replayed.
+     */
+    public int replay() throws IOException, InterruptedException
+    {
+        try
+        {
+            final long startNanos = System.nanoTime();
+            final long startTime = m_reader.getStartTime();
+            ScanCapture.Entry entry;
+
+            while (!m_stopped && (entry = m_reader.next()) != null)
+            {
+                waitFor(startNanos, entry.time() - startTime);
+
+                m_manager.getScanManager().addScanResult(deviceFor(entry.macAddress()), entry.rssi(), entry.scanRecord());
+                m_replayedCount++;
+            }
+        }
+        finally
+        {
+            m_done = true;
+            m_reader.close();
+        }
+        return m_replayedCount;
+    }
+
+    /**
+     * Same as {@link #replay()}, but on a background thread.
+     */
+    public ScanCaptureReplayer start()
+    {
+        m_thread = new Thread(new Runnable()
+        {
+            @Override public void run()
+            {
+                try
+                {
+                    replay();
+                }
+                catch (InterruptedException e)
+                {
+                    // Stopped early, nothing to do.
+                }
+                catch (IOException e)
+                {
+                    m_manager.getLogger().e("Scan capture replay stopped because of " + e);
+                }
+            }
+        }, "ScanCaptureReplayer");
+        m_thread.start();
+        return this;
+    }
+
+    /**
+     * Stops replaying as soon as possible.
+     */
+    public void stop()
+    {
+        m_stopped = true;
+        if (m_thread != null)
+        {
+            m_thread.interrupt();
+        }
+    }
+
+    /**
+     * Blocks until a replay started with {@link #start()} is finished, or the timeout passes. Returns <code>true</code> if it finished.
+     */
+    public boolean waitUntilDone(Interval timeout) throws InterruptedException
+    {
+        if (m_thread != null)
+        {
+            m_thread.join(timeout.millis());
+        }
+        return m_done;
+    }
+
+    /**
+     * Returns <code>true</code> once the whole capture has been replayed, or the replay was stopped.
+     */
+    public boolean isDone()
+    {
+        return m_done;
+    }
+
+    /**
+     * Returns the number of results replayed so far.
+     */
+    public int getReplayedCount()
+    {
+        return m_replayedCount;
+    }
+
+    private void waitFor(long startNanos, long offset_millis) throws InterruptedException
+    {
+        if (m_speed <= 0.0 || Double.isInfinite(m_speed))
+        {
+            return;
+        }
+        final long dueNanos = startNanos + (long) (offset_millis * 1000000L / m_speed);
+        final long waitNanos = dueNanos - System.nanoTime();
+        if (waitNanos > 0)
+        {
+            Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+        }
+    }
+
+    // Results from the same address get the same device, just like the native stack, so that coalescing in the scan buffer works the same way.
+    private BluetoothDevice deviceFor(String macAddress)
+    {
+        if (macAddress == null)
+        {
+            return null;
+        }
+        BluetoothDevice device = m_devices.get(macAddress);
+        if (device == null)
+        {
+            device = NativeUtil.newNativeDevice(macAddress);
+            m_devices.put(macAddress, device);
+        }
+        return device;
+    }
+
+}
@@ -33,6 +33,11 @@ public class UnitTestDevice implements P_NativeDeviceLayer
 
     @Override
     public void setNativeDevice(BluetoothDevice device) {
+        // Keep the address of a real device (for instance from ScanCaptureReplayer), so discovery sees the same address the device was captured with.
+        if (device != null)
+        {
+            m_address = device.getAddress();
+        }
     }
 
     @Override
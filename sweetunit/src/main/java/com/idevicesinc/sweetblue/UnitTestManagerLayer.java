@@ -14,6 +14,7 @@ import com.idevicesinc.sweetblue.utils.Interval;
 import com.idevicesinc.sweetblue.utils.Util;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -196,11 +197,11 @@ public class UnitTestManagerLayer implements P_NativeManagerLayer
         return m_nativeState == BleStatuses.STATE_ON;
     }
 
-    @Override public void startLScan(int scanMode, Interval delay, L_Util.ScanCallback callback)
+    @Override public void startLScan(int scanMode, Interval delay, List<NativeScanFilter> filters_nullable, L_Util.ScanCallback callback)
     {
     }
 
-    @Override public void startMScan(int scanMode, Interval delay, L_Util.ScanCallback callback)
+    @Override public void startMScan(int scanMode, Interval delay, List<NativeScanFilter> filters_nullable, L_Util.ScanCallback callback)
     {
     }
 
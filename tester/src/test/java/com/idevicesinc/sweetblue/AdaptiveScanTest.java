@@ -0,0 +1,94 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.AdaptiveScanPolicy.Decision;
+import com.idevicesinc.sweetblue.AdaptiveScanPolicy.State;
+import com.idevicesinc.sweetblue.utils.Interval;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class AdaptiveScanTest extends BaseTest
+{
+
+    private static final double DELTA = .0001;
+
+
+    @Test
+    public void backOffAndRampUpTest() throws Exception
+    {
+        final AdaptiveScanPolicy policy = new AdaptiveScanPolicy();
+        final P_AdaptiveScanController controller = new P_AdaptiveScanController();
+
+        // Starts out scanning as hard as it's allowed to.
+        assertSame(State.INITIAL, controller.getState());
+        assertEquals(10.0, controller.getActiveTime(policy, Interval.DISABLED).secs(), DELTA);
+        assertEquals(1.0, controller.getPauseTime(policy, Interval.DISABLED).secs(), DELTA);
+        assertEquals(BleScanPower.HIGH_POWER, controller.getPower(policy, BleScanPower.AUTO));
+
+        // Nothing found, so it backs off by half each window until it bottoms out.
+        State state = controller.endWindow(policy, 5.0, 512);
+        assertEquals(Decision.BACK_OFF, state.decision());
+        assertEquals(.5, state.activity(), DELTA);
+        assertEquals(6.0, state.activeTime(policy).secs(), DELTA);
+        assertEquals(15.5, state.pauseTime(policy).secs(), DELTA);
+
+        for (int i = 0; i < 10; i++)
+        {
+            state = controller.endWindow(policy, 5.0, 512);
+        }
+
+        assertEquals(0.0, state.activity(), DELTA);
+        assertEquals(Decision.HOLD, controller.endWindow(policy, 5.0, 512).decision());
+        assertEquals(BleScanPower.LOW_POWER, controller.getPower(policy, BleScanPower.AUTO));
+        assertEquals(30.0, controller.getPauseTime(policy, Interval.DISABLED).secs(), DELTA);
+
+        // Two new devices and ten rediscoveries over 4 seconds is (2 + .1 * 10) / 4 = .75 activity.
+        controller.onBatch(6, 1, 5);
+        controller.onBatch(6, 1, 5);
+        state = controller.endWindow(policy, 4.0, 512);
+        assertEquals(Decision.RAMP_UP, state.decision());
+        assertEquals(.75, state.activity(), DELTA);
+        assertEquals(.5, state.newDeviceRate(), DELTA);
+        assertEquals(2.5, state.rediscoveryRate(), DELTA);
+        assertEquals(6.0, state.meanBatchSize(), DELTA);
+        assertEquals(BleScanPower.HIGH_POWER, state.power(policy));
+        assertEquals(13, state.windowCount());
+    }
+
+    @Test
+    public void overloadTest() throws Exception
+    {
+        final AdaptiveScanPolicy policy = new AdaptiveScanPolicy();
+        final P_AdaptiveScanController controller = new P_AdaptiveScanController();
+
+        controller.onBatch(300, 10, 0);
+        final State state = controller.endWindow(policy, 1.0, 512);
+
+        assertTrue(state.isOverloaded());
+        assertEquals(1.0, state.activity(), DELTA);
+        // Held back a step from HIGH_POWER, as scanning harder would just drop more results.
+        assertEquals(BleScanPower.MEDIUM_POWER, state.power(policy));
+
+        controller.onBatch(10, 10, 0);
+        assertFalse(controller.endWindow(policy, 1.0, 512).isOverloaded());
+    }
+
+    @Test
+    public void disabledTest() throws Exception
+    {
+        final P_AdaptiveScanController controller = new P_AdaptiveScanController();
+
+        assertEquals(Interval.TEN_SECS, controller.getActiveTime(null, Interval.TEN_SECS));
+        assertEquals(Interval.FIVE_SECS, controller.getPauseTime(null, Interval.FIVE_SECS));
+        assertEquals(BleScanPower.MEDIUM_POWER, controller.getPower(null, BleScanPower.MEDIUM_POWER));
+
+        // A window with no scanning time in it doesn't count.
+        assertSame(State.INITIAL, controller.endWindow(new AdaptiveScanPolicy(), 0.0, 512));
+    }
+
+}
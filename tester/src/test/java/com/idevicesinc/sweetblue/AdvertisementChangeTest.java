@@ -0,0 +1,217 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.BleManager.DiscoveryListener.LifeCycle;
+import com.idevicesinc.sweetblue.utils.BleScanInfo;
+import com.idevicesinc.sweetblue.utils.Utils_ScanRecord;
+import com.idevicesinc.sweetblue.utils.Uuids;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@Config(manifest = Config.NONE, sdk = 25)
+@RunWith(RobolectricTestRunner.class)
+public class AdvertisementChangeTest extends BaseBleUnitTest
+{
+
+    private static final String MAC_ADDRESS = "00:11:22:33:44:55";
+
+
+    @Test(timeout = 10000)
+    public void unchangedAdvertisementsAreIgnoredTest() throws Exception
+    {
+        startTest(false);
+
+        m_config.runOnMainThread = false;
+        m_config.ignoreUnchangedAdvertisements = true;
+        m_mgr.setConfig(m_config);
+
+        final byte[] record = Utils_ScanRecord.newScanRecord("Same Same");
+        final byte[] changedRecord = Utils_ScanRecord.newScanRecord("Different");
+        final AtomicInteger discovered = new AtomicInteger();
+        final AtomicInteger rediscovered = new AtomicInteger();
+
+        m_mgr.setListener_Discovery(new BleManager.DiscoveryListener()
+        {
+            @Override public void onEvent(DiscoveryEvent e)
+            {
+                if (e.was(LifeCycle.DISCOVERED))
+                {
+                    discovered.incrementAndGet();
+                }
+                else if (e.was(LifeCycle.REDISCOVERED))
+                {
+                    rediscovered.incrementAndGet();
+                }
+                else if (e.was(LifeCycle.ADVERTISEMENT_CHANGED))
+                {
+                    assertEquals(1, discovered.get());
+                    assertEquals(0, rediscovered.get());
+                    assertEquals(-30, e.device().getRssi());
+                    assertEquals("Different", e.device().getName_native());
+                    m_mgr.stopScan();
+                    succeed();
+                }
+            }
+        });
+
+        m_mgr.setListener_State(new ManagerStateListener()
+        {
+            @Override public void onEvent(BleManager.StateListener.StateEvent e)
+            {
+                if (e.didEnter(BleManagerState.SCANNING))
+                {
+                    NativeUtil.advertiseNewDevice(m_mgr, -60, record);
+                    NativeUtil.advertiseNewDevice(m_mgr, -50, record);
+                    NativeUtil.advertiseNewDevice(m_mgr, -40, record);
+                    NativeUtil.advertiseNewDevice(m_mgr, -30, changedRecord);
+                }
+            }
+        });
+
+        m_mgr.startScan();
+        reacquire();
+    }
+
+    @Test(timeout = 10000)
+    public void unchangedAdvertisementAfterFilteredDiscoveryIsParsedTest() throws Exception
+    {
+        startTest(false);
+
+        m_config.runOnMainThread = false;
+        m_mgr.setConfig(m_config);
+
+        final byte[] record = new BleScanInfo().setName("Same Same").setAdvFlags((byte) 0x6).setTxPower((byte) -12).buildPacket();
+
+        m_mgr.setListener_Discovery(new BleManager.DiscoveryListener()
+        {
+            @Override public void onEvent(DiscoveryEvent e)
+            {
+                if (e.was(LifeCycle.REDISCOVERED))
+                {
+                    // Discovering through a ScanFilter only fills in part of the scan info, so the same record has to be parsed in full
+                    // the next time it comes in.
+                    assertEquals("Same Same", e.device().getScanInfo().getName());
+                    assertEquals(-12, (int) e.device().getScanInfo().getTxPower().value);
+                    m_mgr.stopScan();
+                    succeed();
+                }
+            }
+        });
+
+        m_mgr.setListener_State(new ManagerStateListener()
+        {
+            @Override public void onEvent(BleManager.StateListener.StateEvent e)
+            {
+                if (e.didEnter(BleManagerState.SCANNING))
+                {
+                    NativeUtil.advertiseNewDevice(m_mgr, -60, record);
+                    NativeUtil.advertiseNewDevice(m_mgr, -50, record);
+                }
+            }
+        });
+
+        m_mgr.startScan(new BleManagerConfig.ScanFilter()
+        {
+            @Override public Please onEvent(ScanEvent e)
+            {
+                return Please.acknowledge();
+            }
+        });
+        reacquire();
+    }
+
+    @Test(timeout = 10000)
+    public void unchangedAdvertisementAfterFilteredDiscoveryIsParsedWhenIgnoringTest() throws Exception
+    {
+        startTest(false);
+
+        m_config.runOnMainThread = false;
+        m_config.ignoreUnchangedAdvertisements = true;
+        m_mgr.setConfig(m_config);
+
+        final byte[] manufacturerData = new byte[] { 0x1, 0x2, 0x3 };
+        final byte[] record = new BleScanInfo().setName("Same Same").setAdvFlags((byte) 0x6).setTxPower((byte) -12)
+                .addServiceUuid(Uuids.BATTERY_SERVICE_UUID).setManufacturerId((short) 0x1234).setManufacturerData(manufacturerData).buildPacket();
+        final AtomicInteger events = new AtomicInteger();
+
+        m_mgr.setListener_Discovery(new BleManager.DiscoveryListener()
+        {
+            @Override public void onEvent(final DiscoveryEvent e)
+            {
+                events.incrementAndGet();
+
+                if (e.was(LifeCycle.DISCOVERED))
+                {
+                    // The same record again doesn't tell the listener anything, but since the ScanFilter only filled in part of the
+                    // scan info, it still has to be parsed in full.
+                    NativeUtil.advertiseNewDevice(m_mgr, -50, record);
+
+                    new Thread(new Runnable()
+                    {
+                        @Override public void run()
+                        {
+                            final BleScanInfo info = e.device().getScanInfo();
+
+                            while (!"Same Same".equals(info.getName()) && e.device().getScanInfo() == info)
+                            {
+                                Thread.yield();
+                            }
+
+                            final BleScanInfo parsed = e.device().getScanInfo();
+                            assertEquals("Same Same", parsed.getName());
+                            assertEquals(-12, (int) parsed.getTxPower().value);
+                            assertEquals(0x6, (int) parsed.getAdvFlags().value);
+                            assertTrue(parsed.getServiceUUIDS().contains(Uuids.BATTERY_SERVICE_UUID));
+                            assertEquals(0x1234, parsed.getManufacturerId());
+                            assertArrayEquals(manufacturerData, parsed.getManufacturerData());
+                            assertEquals(1, events.get());
+                            m_mgr.stopScan();
+                            succeed();
+                        }
+                    }).start();
+                }
+            }
+        });
+
+        m_mgr.setListener_State(new ManagerStateListener()
+        {
+            @Override public void onEvent(BleManager.StateListener.StateEvent e)
+            {
+                if (e.didEnter(BleManagerState.SCANNING))
+                {
+                    NativeUtil.advertiseNewDevice(m_mgr, -60, record);
+                }
+            }
+        });
+
+        m_mgr.startScan(new BleManagerConfig.ScanFilter()
+        {
+            @Override public Please onEvent(ScanEvent e)
+            {
+                return Please.acknowledge();
+            }
+        });
+        reacquire();
+    }
+
+    @Override public P_NativeDeviceLayer getDeviceLayer(BleDevice device)
+    {
+        // Every advertisement comes from the same device, so that it gets rediscovered.
+        return new UnitTestDevice(device)
+        {
+            @Override public String getAddress()
+            {
+                return MAC_ADDRESS;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.utils.Beacon;
+import com.idevicesinc.sweetblue.utils.Utils_ScanRecord;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.io.ByteArrayOutputStream;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@Config(manifest = Config.NONE, sdk = 25)
+@RunWith(RobolectricTestRunner.class)
+public class BeaconTest extends BaseBleUnitTest
+{
+
+    private static final UUID PROXIMITY_UUID = UUID.fromString("f7826da6-4fa2-4e98-8024-bc5b71e0893e");
+    private static final byte[] FLAGS = new byte[] { 2, 0x01, 0x06 };
+
+
+    @Test
+    public void decodeTest() throws Exception
+    {
+        final Beacon.IBeacon iBeacon = (Beacon.IBeacon) Beacon.parse(iBeaconRecord());
+        assertEquals(Beacon.Type.IBEACON, iBeacon.getType());
+        assertEquals(PROXIMITY_UUID, iBeacon.getProximityUuid());
+        assertEquals(0x1234, iBeacon.getMajor());
+        assertEquals(0xABCD, iBeacon.getMinor());
+        assertEquals(-59, iBeacon.getTxPower());
+
+        final ByteArrayOutputStream alt = new ByteArrayOutputStream();
+        alt.write(FLAGS);
+        alt.write(new byte[] { 27, (byte) 0xFF, 0x18, 0x01, (byte) 0xBE, (byte) 0xAC });
+        alt.write(bigEndian(PROXIMITY_UUID));
+        alt.write(new byte[] { 0x00, 0x01, 0x00, 0x02, (byte) 0xC5, 0x07 });
+        final Beacon.AltBeacon altBeacon = (Beacon.AltBeacon) Beacon.parse(alt.toByteArray());
+        assertEquals(0x0118, altBeacon.getManufacturerId());
+        assertEquals(PROXIMITY_UUID, altBeacon.getId1());
+        assertEquals(1, altBeacon.getId2());
+        assertEquals(2, altBeacon.getId3());
+        assertEquals(-59, altBeacon.getTxPower());
+        assertEquals(7, altBeacon.getManufacturerReserved());
+
+        final Beacon.EddystoneUid uid = (Beacon.EddystoneUid) Beacon.parse(eddystoneRecord(new byte[] {
+                0x00, (byte) 0xEB, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F }));
+        assertEquals("00010203040506070809", uid.getNamespace());
+        assertEquals("0A0B0C0D0E0F", uid.getInstance());
+        assertEquals(-21, uid.getTxPower());
+
+        final Beacon.EddystoneUrl url = (Beacon.EddystoneUrl) Beacon.parse(eddystoneRecord(new byte[] { 0x10, (byte) 0xEB, 0x03, 's', 'b', 0x00, 'x' }));
+        assertEquals("https://sb.com/x", url.getUrl());
+
+        final Beacon.EddystoneTlm tlm = (Beacon.EddystoneTlm) Beacon.parse(eddystoneRecord(new byte[] {
+                0x20, 0x00, 0x0B, (byte) 0xB8, 0x19, (byte) 0x80, 0, 0, 0, 100, 0, 0, 0x03, (byte) 0xE8 }));
+        assertEquals(3000, tlm.getBatteryVoltage());
+        assertEquals(25.5, tlm.getTemperature(), .001);
+        assertEquals(100, tlm.getAdvertisingCount());
+        assertEquals(100.0, tlm.getUptime().secs(), .001);
+        assertEquals(BleNodeConfig.INVALID_TX_POWER, tlm.getTxPower());
+
+        assertNull(Beacon.parse(Utils_ScanRecord.newScanRecord("Not a beacon")));
+        assertNull(Beacon.parse((byte[]) null));
+        // Too short to be an iBeacon.
+        assertNull(Beacon.parse(new byte[] { 5, (byte) 0xFF, 0x4C, 0x00, 0x02, 0x15 }));
+    }
+
+    @Test(timeout = 10000)
+    public void noDeviceForBeaconTest() throws Exception
+    {
+        startTest(false);
+
+        m_config.runOnMainThread = false;
+        m_mgr.setConfig(m_config);
+
+        final byte[] record = iBeaconRecord();
+
+        m_mgr.setListener_Beacon(new BeaconListener()
+        {
+            @Override public void onEvent(BeaconEvent e)
+            {
+                assertTrue(e.is(Beacon.Type.IBEACON));
+                assertEquals(-45, e.rssi());
+                assertEquals(0, m_mgr.getDeviceCount());
+                m_mgr.stopScan();
+                succeed();
+            }
+        });
+
+        m_mgr.setListener_State(new ManagerStateListener()
+        {
+            @Override public void onEvent(BleManager.StateListener.StateEvent e)
+            {
+                if (e.didEnter(BleManagerState.SCANNING))
+                {
+                    NativeUtil.advertiseNewDevice(m_mgr, -45, record);
+                }
+            }
+        });
+
+        m_mgr.startScan();
+        reacquire();
+    }
+
+    private static byte[] iBeaconRecord() throws Exception
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(FLAGS);
+        out.write(new byte[] { 26, (byte) 0xFF, 0x4C, 0x00, 0x02, 0x15 });
+        out.write(bigEndian(PROXIMITY_UUID));
+        out.write(new byte[] { 0x12, 0x34, (byte) 0xAB, (byte) 0xCD, (byte) 0xC5 });
+        return out.toByteArray();
+    }
+
+    private static byte[] eddystoneRecord(byte[] frame) throws Exception
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(FLAGS);
+        out.write(new byte[] { 3, 0x03, (byte) 0xAA, (byte) 0xFE });
+        out.write(new byte[] { (byte) (frame.length + 3), 0x16, (byte) 0xAA, (byte) 0xFE });
+        out.write(frame);
+        return out.toByteArray();
+    }
+
+    private static byte[] bigEndian(UUID uuid)
+    {
+        final byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++)
+        {
+            bytes[i] = (byte) (uuid.getMostSignificantBits() >>> (56 - 8 * i));
+            bytes[i + 8] = (byte) (uuid.getLeastSignificantBits() >>> (56 - 8 * i));
+        }
+        return bytes;
+    }
+
+}
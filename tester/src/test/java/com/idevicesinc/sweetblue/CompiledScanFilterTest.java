@@ -0,0 +1,116 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.utils.BleScanInfo;
+import com.idevicesinc.sweetblue.utils.BleUuid;
+import com.idevicesinc.sweetblue.utils.ScanRecordCursor;
+import com.idevicesinc.sweetblue.utils.Utils_ScanRecord;
+import com.idevicesinc.sweetblue.utils.Uuids;
+import org.junit.Test;
+import java.util.UUID;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class CompiledScanFilterTest extends BaseTest
+{
+
+    private static final String MAC_ADDRESS = "00:1A:7D:33:44:55";
+    private static final short MANUFACTURER_ID = (short) 0x004C;
+    private static final UUID FULL_UUID = UUID.fromString("6ba7b810-9dad-11d1-80b4-00c04fd430c8");
+
+
+    @Test
+    public void builderTest() throws Exception
+    {
+        final byte[] record = new BleScanInfo()
+                .setName("Thermo 12")
+                .addServiceUuid(Uuids.BATTERY_SERVICE_UUID, BleUuid.UuidSize.SHORT)
+                .setManufacturerId(MANUFACTURER_ID)
+                .setManufacturerData(new byte[] { 0x02, 0x15, 0x7F })
+                .setAdvFlags((byte) 0)
+                .setTxPower((byte) 0)
+                .buildPacket();
+
+        assertTrue(matches(new CompiledScanFilter.Builder().build(), record, -90));
+
+        final CompiledScanFilter filter = new CompiledScanFilter.Builder()
+                .withServiceUuids(Uuids.DEVICE_INFORMATION_SERVICE_UUID, Uuids.BATTERY_SERVICE_UUID)
+                .withManufacturerData(MANUFACTURER_ID, new byte[] { 0x02, 0x15 })
+                .withNamePrefix("Thermo")
+                .withNamePattern("Thermo \\d+")
+                .withMinRssi(-70)
+                .withMacOui("00-1a-7d")
+                .build();
+
+        assertTrue(matches(filter, record, -70));
+        assertFalse(matches(filter, record, -71));
+
+        assertFalse(matches(new CompiledScanFilter.Builder().withServiceUuids(FULL_UUID).build(), record, 0));
+        assertFalse(matches(new CompiledScanFilter.Builder().withManufacturerData(MANUFACTURER_ID, new byte[] { 0x02, 0x16 }).build(), record, 0));
+        assertFalse(matches(new CompiledScanFilter.Builder().withManufacturerData(MANUFACTURER_ID, new byte[] { 0x02, 0x15, 0x7F, 0x00 }).build(), record, 0));
+        assertFalse(matches(new CompiledScanFilter.Builder().withManufacturerId(MANUFACTURER_ID + 1).build(), record, 0));
+        assertFalse(matches(new CompiledScanFilter.Builder().withNamePattern("Thermo").build(), record, 0));
+        assertFalse(matches(new CompiledScanFilter.Builder().withMacOui("00:1A:7E").build(), record, 0));
+    }
+
+    @Test
+    public void maskTest() throws Exception
+    {
+        final byte[] record = new BleScanInfo()
+                .addServiceData(Uuids.BATTERY_SERVICE_UUID, new byte[] { 100, (byte) 0xA5 })
+                .setManufacturerId(MANUFACTURER_ID)
+                .setManufacturerData(new byte[] { (byte) 0xF3 })
+                .setAdvFlags((byte) 0)
+                .setTxPower((byte) 0)
+                .buildPacket();
+
+        final byte[] mask = new byte[] { (byte) 0xFF, (byte) 0xF0 };
+
+        assertTrue(matches(new CompiledScanFilter.Builder().withServiceData(Uuids.BATTERY_SERVICE_UUID, new byte[] { 100, (byte) 0xAF }, mask).build(), record, 0));
+        assertFalse(matches(new CompiledScanFilter.Builder().withServiceData(Uuids.BATTERY_SERVICE_UUID, new byte[] { 100, (byte) 0xBF }, mask).build(), record, 0));
+        assertFalse(matches(new CompiledScanFilter.Builder().withServiceData(Uuids.DEVICE_INFORMATION_SERVICE_UUID, null, null).build(), record, 0));
+
+        assertTrue(matches(new CompiledScanFilter.Builder().withManufacturerData(MANUFACTURER_ID, new byte[] { (byte) 0xF0 }, new byte[] { (byte) 0xF0 }).build(), record, 0));
+        assertFalse(matches(new CompiledScanFilter.Builder().withManufacturerData(MANUFACTURER_ID, new byte[] { (byte) 0xF0 }).build(), record, 0));
+    }
+
+    @Test
+    public void fullUuidServiceDataTest() throws Exception
+    {
+        // 128-bit service data (type 0x21), with the UUID in little-endian order, followed by one byte of data.
+        final byte[] record = new byte[] { 18, 0x21,
+                (byte) 0xC8, 0x30, (byte) 0xD4, 0x4F, (byte) 0xC0, 0x00, (byte) 0xB4, (byte) 0x80,
+                (byte) 0xD1, 0x11, (byte) 0xAD, (byte) 0x9D, 0x10, (byte) 0xB8, (byte) 0xA7, 0x6B,
+                0x42 };
+
+        assertTrue(matches(new CompiledScanFilter.Builder().withServiceData(FULL_UUID, new byte[] { 0x42 }, null).build(), record, 0));
+        assertFalse(matches(new CompiledScanFilter.Builder().withServiceData(FULL_UUID, new byte[] { 0x43 }, null).build(), record, 0));
+    }
+
+    @Test
+    public void combinatorTest() throws Exception
+    {
+        final byte[] record = Utils_ScanRecord.newScanRecord("abc");
+
+        final CompiledScanFilter isAbc = new CompiledScanFilter.Builder().withNamePrefix("abc").build();
+        final CompiledScanFilter isXyz = new CompiledScanFilter.Builder().withNamePrefix("xyz").build();
+        final CompiledScanFilter isLoud = new CompiledScanFilter.Builder().withMinRssi(-50).build();
+
+        assertTrue(matches(CompiledScanFilter.anyOf(isXyz, isAbc), record, -90));
+        assertFalse(matches(CompiledScanFilter.anyOf(isXyz), record, -90));
+        assertFalse(matches(CompiledScanFilter.anyOf(), record, -90));
+
+        assertTrue(matches(CompiledScanFilter.allOf(isAbc, CompiledScanFilter.not(isLoud)), record, -90));
+        assertFalse(matches(CompiledScanFilter.allOf(isAbc, CompiledScanFilter.not(isLoud)), record, -40));
+        assertTrue(matches(CompiledScanFilter.allOf(), record, -90));
+    }
+
+
+    private static boolean matches(CompiledScanFilter filter, byte[] record, int rssi)
+    {
+        return filter.matches(new CompiledScanFilter.Target(MAC_ADDRESS, new ScanRecordCursor(record), rssi, Utils_ScanRecord.parseName(record)));
+    }
+
+}
@@ -0,0 +1,242 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.utils.GattDatabase;
+import com.idevicesinc.sweetblue.utils.Interval;
+import com.idevicesinc.sweetblue.utils.Util;
+import com.idevicesinc.sweetblue.utils.Uuids;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@Config(manifest = Config.NONE, sdk = 25)
+@RunWith(RobolectricTestRunner.class)
+public class DeadlineUpdateTest extends BaseBleUnitTest
+{
+
+    private final static UUID mTestService = Uuids.fromShort("ABCD");
+    private final static UUID mTestChar = Uuids.fromShort("1234");
+
+    private final GattDatabase db = new GattDatabase().addService(mTestService)
+            .addCharacteristic(mTestChar).setValue(new byte[] { 0x2, 0x3, 0x4, 0x5, 0x6 }).setProperties().read().setPermissions().read().completeService();
+
+
+    @Test(timeout = 15000)
+    public void pollWakesIdleLoopTest() throws Exception
+    {
+        m_config.runOnMainThread = false;
+        m_config.useDeadlineDrivenUpdates = true;
+        m_config.minTimeToIdle = Interval.millis(500);
+        m_mgr.setConfig(m_config);
+
+        final AtomicBoolean polling = new AtomicBoolean(false);
+        final AtomicBoolean idledWhilePolling = new AtomicBoolean(false);
+        final AtomicBoolean wokenByPoll = new AtomicBoolean(false);
+
+        m_mgr.setListener_State(new ManagerStateListener()
+        {
+            @Override public void onEvent(BleManager.StateListener.StateEvent e)
+            {
+                if (!polling.get())
+                {
+                    return;
+                }
+
+                if (e.didEnter(BleManagerState.IDLE))
+                {
+                    // Nothing else is going on, so the only thing that can wake the loop back up is the polling device's deadline.
+                    assertTrue(m_mgr.m_deviceMngr.getNextUpdateDeadline() != Long.MAX_VALUE);
+                    idledWhilePolling.set(true);
+                }
+                else if (e.didExit(BleManagerState.IDLE) && idledWhilePolling.get())
+                {
+                    wokenByPoll.set(true);
+                }
+            }
+        });
+
+        final BleDevice device = m_mgr.newDevice(Util.randomMacAddress(), "Test Device");
+
+        device.connect(new BleDevice.StateListener()
+        {
+            @Override public void onEvent(StateEvent e)
+            {
+                if (e.didEnter(BleDeviceState.INITIALIZED))
+                {
+                    polling.set(true);
+
+                    device.startPoll(mTestChar, Interval.millis(1500), new BleDevice.ReadWriteListener()
+                    {
+                        @Override public void onEvent(ReadWriteEvent e)
+                        {
+                            assertTrue(e.status().name(), e.wasSuccess());
+
+                            // Doesn't matter how many polls it takes for the loop to go idle, only that a poll still comes through
+                            // after it has.
+                            if (wokenByPoll.get())
+                            {
+                                succeed();
+                            }
+                        }
+                    });
+                }
+            }
+        });
+
+        startTest();
+    }
+
+    @Test(timeout = 10000)
+    public void deviceWithNoWorkIsNotScheduledTest() throws Exception
+    {
+        m_config.runOnMainThread = false;
+        m_config.useDeadlineDrivenUpdates = true;
+        m_config.minTimeToIdle = Interval.millis(500);
+        m_mgr.setConfig(m_config);
+
+        final BleDevice device = m_mgr.newDevice(Util.randomMacAddress(), "Test Device");
+
+        m_mgr.setListener_State(new ManagerStateListener()
+        {
+            @Override public void onEvent(BleManager.StateListener.StateEvent e)
+            {
+                if (e.didEnter(BleManagerState.IDLE) && device.is(BleDeviceState.INITIALIZED))
+                {
+                    assertTrue(m_mgr.m_deviceMngr.getNextUpdateDeadline() == Long.MAX_VALUE);
+                    succeed();
+                }
+            }
+        });
+
+        device.connect();
+
+        startTest();
+    }
+
+    @Test(timeout = 15000)
+    public void onlyActiveDevicesUpdatedTest() throws Exception
+    {
+        m_config.runOnMainThread = false;
+        m_mgr.setConfig(m_config);
+
+        for (int i = 0; i < 20; i++)
+        {
+            m_mgr.newDevice(Util.randomMacAddress(), "Idle Device " + i);
+        }
+
+        final AtomicInteger readCount = new AtomicInteger(0);
+        final BleDevice device = m_mgr.newDevice(Util.randomMacAddress(), "Test Device");
+
+        device.connect(new BleDevice.StateListener()
+        {
+            @Override public void onEvent(StateEvent e)
+            {
+                if (e.didEnter(BleDeviceState.INITIALIZED))
+                {
+                    device.startPoll(mTestChar, Interval.millis(250), new BleDevice.ReadWriteListener()
+                    {
+                        @Override public void onEvent(ReadWriteEvent e)
+                        {
+                            assertTrue(e.status().name(), e.wasSuccess());
+
+                            // Only the polling device has anything going on, the rest dropped out after their first update.
+                            if (readCount.incrementAndGet() == 3)
+                            {
+                                assertEquals(1, m_mgr.m_deviceMngr.getActiveDeviceCount());
+                                succeed();
+                            }
+                        }
+                    });
+                }
+            }
+        });
+
+        startTest();
+    }
+
+    @Test(timeout = 15000)
+    public void rssiPollAfterIdleWaitsForIntervalTest() throws Exception
+    {
+        m_config.runOnMainThread = false;
+        m_config.rssiAutoPollRate = Interval.DISABLED;
+        m_mgr.setConfig(m_config);
+
+        final BleDevice device = m_mgr.newDevice(Util.randomMacAddress(), "Test Device");
+
+        device.connect(new BleDevice.StateListener()
+        {
+            @Override public void onEvent(StateEvent e)
+            {
+                if (e.didEnter(BleDeviceState.INITIALIZED))
+                {
+                    new Thread(new Runnable()
+                    {
+                        @Override public void run()
+                        {
+                            while (m_mgr.m_deviceMngr.getActiveDeviceCount() != 0)
+                            {
+                                Thread.yield();
+                            }
+
+                            // Sits out of the regular updates for longer than the poll interval, so none of that time should count
+                            // towards the first poll.
+                            try
+                            {
+                                Thread.sleep(2000);
+                            }
+                            catch (InterruptedException ex)
+                            {
+                                return;
+                            }
+
+                            final long startTime = System.currentTimeMillis();
+                            final AtomicBoolean readRightAway = new AtomicBoolean(false);
+
+                            device.startRssiPoll(Interval.secs(1.0), new BleDevice.ReadWriteListener()
+                            {
+                                @Override public void onEvent(ReadWriteEvent e)
+                                {
+                                    assertTrue(e.status().name(), e.wasSuccess());
+                                    assertFalse(readRightAway.get());
+                                    assertTrue(System.currentTimeMillis() - startTime >= 900);
+                                    device.stopRssiPoll();
+                                    succeed();
+                                }
+                            });
+
+                            // Runs after the device has been brought back into the regular updates, which is when the idle time would
+                            // have set off a read.
+                            m_mgr.getPostManager().postToUpdateThread(new Runnable()
+                            {
+                                @Override public void run()
+                                {
+                                    final P_TaskQueue queue = m_mgr.getTaskQueue();
+
+                                    readRightAway.set(queue.isCurrent(P_Task_ReadRssi.class, device) || queue.isInQueue(P_Task_ReadRssi.class, device));
+                                }
+                            });
+                        }
+                    }).start();
+                }
+            }
+        });
+
+        startTest();
+    }
+
+    @Override
+    public P_GattLayer getGattLayer(BleDevice device)
+    {
+        return new UnitTestGatt(device, db);
+    }
+
+}
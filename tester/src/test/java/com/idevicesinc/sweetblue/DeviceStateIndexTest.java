@@ -0,0 +1,72 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.utils.Util;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@Config(manifest = Config.NONE, sdk = 25)
+@RunWith(RobolectricTestRunner.class)
+public class DeviceStateIndexTest extends BaseBleUnitTest
+{
+
+    @Test(timeout = 20000)
+    public void stateQueriesTest() throws Exception
+    {
+        final BleDevice[] devices = new BleDevice[5];
+        for (int i = 0; i < devices.length; i++)
+        {
+            devices[i] = m_mgr.newDevice(Util.randomMacAddress(), "Test device #" + i);
+        }
+
+        devices[2].connect(new BleDevice.StateListener()
+        {
+            @Override public void onEvent(StateEvent e)
+            {
+                if (e.didEnter(BleDeviceState.INITIALIZED))
+                {
+                    assertEquals(1, m_mgr.getDeviceCount(BleDeviceState.INITIALIZED));
+                    assertEquals(4, m_mgr.getDeviceCount(BleDeviceState.DISCONNECTED));
+                    assertEquals(Arrays.asList(devices[2]), m_mgr.getDevices_List(BleDeviceState.CONNECTED));
+                    assertEquals(Arrays.asList(devices[0], devices[1], devices[3], devices[4]), m_mgr.getDevices_List(BleDeviceState.DISCONNECTED));
+                    assertEquals(Arrays.asList(devices), m_mgr.getDevices_List(BleDeviceState.DISCONNECTED.bit() | BleDeviceState.CONNECTED.bit()));
+                    assertEquals(devices[0], m_mgr.getDevice(BleDeviceState.DISCONNECTED));
+                    assertEquals(devices[2], m_mgr.getDevice(BleDeviceState.CONNECTED.bit() | BleDeviceState.BONDING.bit()));
+                    assertTrue(m_mgr.hasDevice(BleDeviceState.INITIALIZED));
+                    assertFalse(m_mgr.hasDevice(BleDeviceState.PERFORMING_OTA));
+
+                    // Queries only narrow things down, every candidate still has to match the whole query.
+                    assertEquals(devices[2], m_mgr.getDevice(BleDeviceState.CONNECTED, true, BleDeviceState.DISCONNECTED, false));
+                    assertEquals(4, m_mgr.getDeviceCount(BleDeviceState.DISCONNECTED, true, BleDeviceState.CONNECTED, false));
+                    assertEquals(0, m_mgr.getDeviceCount(BleDeviceState.DISCONNECTED, true, BleDeviceState.CONNECTED, true));
+                    assertEquals(Arrays.asList(devices[0], devices[1], devices[3], devices[4]), m_mgr.getDevices_List(BleDeviceState.CONNECTED, false, BleDeviceState.DISCONNECTED));
+                    assertEquals(Arrays.asList(devices), m_mgr.getDevices_List(BleDeviceState.CONNECTED, BleDeviceState.DISCONNECTED));
+
+                    // Removing a device takes it out of every state.
+                    m_mgr.removeDeviceFromCache(devices[0]);
+                    assertEquals(devices[1], m_mgr.getDevice(BleDeviceState.DISCONNECTED));
+                    assertEquals(3, m_mgr.getDeviceCount(BleDeviceState.DISCONNECTED));
+
+                    devices[2].disconnect();
+                }
+                else if (e.didEnter(BleDeviceState.DISCONNECTED))
+                {
+                    assertEquals(0, m_mgr.getDeviceCount(BleDeviceState.CONNECTED));
+                    assertEquals(Arrays.asList(devices[1], devices[2], devices[3], devices[4]), m_mgr.getDevices_List(BleDeviceState.DISCONNECTED));
+                    succeed();
+                }
+            }
+        });
+
+        startTest();
+    }
+
+}
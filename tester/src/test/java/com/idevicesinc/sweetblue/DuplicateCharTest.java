@@ -1,6 +1,7 @@
 package com.idevicesinc.sweetblue;
 
 
+import android.bluetooth.BluetoothGattCharacteristic;
 import com.idevicesinc.sweetblue.utils.GattDatabase;
 import com.idevicesinc.sweetblue.utils.Interval;
 import com.idevicesinc.sweetblue.utils.Util;
@@ -13,7 +14,10 @@ import java.util.Arrays;
 import java.util.UUID;
 import java.util.concurrent.Semaphore;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 
@@ -207,6 +211,67 @@ public class DuplicateCharTest extends BaseBleUnitTest
 
     }
 
+    @Test
+    public void indexedLookupTest() throws Exception
+    {
+        m_device = null;
+
+        m_mgr.setListener_Discovery(new BleManager.DiscoveryListener()
+        {
+            @Override public void onEvent(DiscoveryEvent e)
+            {
+                if (e.was(LifeCycle.DISCOVERED))
+                {
+                    m_device = e.device();
+                    m_device.connect(new BleDevice.StateListener()
+                    {
+                        @Override public void onEvent(StateEvent e)
+                        {
+                            if (e.didEnter(BleDeviceState.INITIALIZED))
+                            {
+                                final BleCharacteristicWrapper first = m_device.getNativeBleCharacteristic(mTestService, mTestChar);
+
+                                // Lookups after discovery come from the index, so the same wrapper comes back every time.
+                                assertSame(first, m_device.getNativeBleCharacteristic(mTestService, mTestChar));
+                                assertSame(first, m_device.getNativeBleCharacteristic(mTestChar));
+                                assertEquals(1, first.getCharacteristic().getDescriptor(mTestDesc).getValue()[0]);
+                                assertTrue(m_device.getNativeBleCharacteristic(Uuids.fromShort("FFFF"), mTestChar).isNull());
+                                assertTrue(m_device.getNativeBleCharacteristic(mTestService, Uuids.fromShort("FFFF")).isNull());
+
+                                final BluetoothGattCharacteristic second = m_device.getNativeCharacteristic(mTestService, mTestChar, new DescriptorFilter()
+                                {
+                                    @Override public Please onEvent(DescriptorEvent event)
+                                    {
+                                        return Please.acceptIf(event.value()[0] == 0x2);
+                                    }
+
+                                    @Override public UUID descriptorUuid()
+                                    {
+                                        return mTestDesc;
+                                    }
+                                });
+                                assertNotSame(first.getCharacteristic(), second);
+                                assertEquals(2, second.getDescriptor(mTestDesc).getValue()[0]);
+
+                                m_device.disconnect();
+                            }
+                            else if (e.didEnter(BleDeviceState.DISCONNECTED))
+                            {
+                                // The index is dropped on disconnect, so this is a fresh lookup.
+                                assertNotSame(m_device.getNativeBleCharacteristic(mTestService, mTestChar), m_device.getNativeBleCharacteristic(mTestService, mTestChar));
+                                succeed();
+                            }
+                        }
+                    });
+                }
+            }
+        });
+
+        m_mgr.newDevice(Util.randomMacAddress(), "Test Device");
+
+        startTest();
+    }
+
     @Test
     public void enableNotifyMultipleExistTest() throws Exception
     {
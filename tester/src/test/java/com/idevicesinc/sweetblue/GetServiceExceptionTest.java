@@ -26,6 +26,9 @@ public class GetServiceExceptionTest extends BaseBleUnitTest
             addCharacteristic(Uuids.BATTERY_LEVEL).setPermissions().read().setProperties().read().build().
             addDescriptor(Uuids.CHARACTERISTIC_USER_DESCRIPTION_DESCRIPTOR_UUID).setValue(new byte[] { 0x08 }).setPermissions().read().completeService();
 
+    private GattDatabase db3 = new GattDatabase().addService(Uuids.BATTERY_SERVICE_UUID).
+            addCharacteristic(Uuids.BATTERY_LEVEL).setValue(new byte[] { 0x64 }).setPermissions().read().setProperties().read().completeService();
+
     @Test
     public void getServiceExceptionTest() throws Exception
     {
@@ -112,6 +115,62 @@ public class GetServiceExceptionTest extends BaseBleUnitTest
         startTest();
     }
 
+    @Test(timeout = 15000)
+    public void getServiceExceptionOnlyOnceTest() throws Exception
+    {
+        m_config.loggingEnabled = true;
+
+        m_config.gattLayerFactory = new P_GattLayerFactory()
+        {
+            @Override
+            public P_GattLayer newInstance(BleDevice device)
+            {
+                // Blows up the first time the service is looked up, which is when the attribute index is built, and works fine after that.
+                return new UnitTestGatt(device, db3)
+                {
+                    private boolean m_thrown = false;
+
+                    @Override
+                    public BleServiceWrapper getBleService(UUID serviceUuid, P_Logger logger)
+                    {
+                        if (!m_thrown)
+                        {
+                            m_thrown = true;
+                            return new BleServiceWrapper(BleManager.UhOhListener.UhOh.CONCURRENT_EXCEPTION);
+                        }
+                        return super.getBleService(serviceUuid, logger);
+                    }
+                };
+            }
+        };
+
+        m_mgr.setConfig(m_config);
+
+        final BleDevice device = m_mgr.newDevice(Util.randomMacAddress(), "ImaBlowUpOnce");
+
+        device.connect(new BleDevice.StateListener()
+        {
+            @Override
+            public void onEvent(StateEvent e)
+            {
+                if (e.didEnter(BleDeviceState.INITIALIZED))
+                {
+                    device.read(Uuids.BATTERY_SERVICE_UUID, Uuids.BATTERY_LEVEL, new BleDevice.ReadWriteListener()
+                    {
+                        @Override
+                        public void onEvent(ReadWriteEvent e)
+                        {
+                            assertTrue(e.status().name(), e.wasSuccess());
+                            succeed();
+                        }
+                    });
+                }
+            }
+        });
+
+        startTest();
+    }
+
     @Override
     public P_GattLayer getGattLayer(BleDevice device)
     {
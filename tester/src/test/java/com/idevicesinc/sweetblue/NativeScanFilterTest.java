@@ -0,0 +1,111 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.bluetooth.le.ScanFilter;
+import com.idevicesinc.sweetblue.BleManager.DiscoveryListener.LifeCycle;
+import com.idevicesinc.sweetblue.compat.L_Util;
+import com.idevicesinc.sweetblue.utils.BleScanInfo;
+import com.idevicesinc.sweetblue.utils.Utils_ScanRecord;
+import com.idevicesinc.sweetblue.utils.Uuids;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@Config(manifest = Config.NONE, sdk = 25)
+@RunWith(RobolectricTestRunner.class)
+public class NativeScanFilterTest extends BaseBleUnitTest
+{
+
+    private static final short MANUFACTURER_ID = (short) 0x004C;
+
+
+    @Test
+    public void toNativeFiltersTest() throws Exception
+    {
+        assertNull(L_Util.toNativeFilters(null));
+        assertNull(L_Util.toNativeFilters(new ArrayList<NativeScanFilter>()));
+
+        final NativeScanFilter filter = new NativeScanFilter.Builder()
+                .withMacAddress("00:1a:7d:da:71:13")
+                .withServiceUuid(Uuids.BATTERY_SERVICE_UUID)
+                .withManufacturerData(MANUFACTURER_ID, new byte[] { 0x02, 0x15 }, new byte[] { (byte) 0xFF })
+                .withServiceData(Uuids.BATTERY_SERVICE_UUID, null, null)
+                .build();
+
+        final List<ScanFilter> nativeFilters = L_Util.toNativeFilters(Arrays.asList(filter, new NativeScanFilter.Builder().build()));
+
+        assertEquals(2, nativeFilters.size());
+
+        final ScanFilter nativeFilter = nativeFilters.get(0);
+        assertEquals("00:1A:7D:DA:71:13", nativeFilter.getDeviceAddress());
+        assertEquals(Uuids.BATTERY_SERVICE_UUID, nativeFilter.getServiceUuid().getUuid());
+        assertEquals(MANUFACTURER_ID, nativeFilter.getManufacturerId());
+        assertArrayEquals(new byte[] { 0x02, 0x15 }, nativeFilter.getManufacturerData());
+        // The mask gets padded out to the length of the data, as the stack requires.
+        assertArrayEquals(new byte[] { (byte) 0xFF, (byte) 0xFF }, nativeFilter.getManufacturerDataMask());
+        assertEquals(Uuids.BATTERY_SERVICE_UUID, nativeFilter.getServiceDataUuid().getUuid());
+        assertArrayEquals(new byte[0], nativeFilter.getServiceData());
+
+        assertEquals(-1, nativeFilters.get(1).getManufacturerId());
+        assertNull(nativeFilters.get(1).getDeviceAddress());
+    }
+
+    @Test(timeout = 10000)
+    public void appSideFallbackTest() throws Exception
+    {
+        startTest(false);
+
+        m_config.runOnMainThread = false;
+        m_config.scanApi = BleScanApi.PRE_LOLLIPOP;
+        m_config.nativeScanFilters = Arrays.asList(new NativeScanFilter.Builder().withManufacturerId(MANUFACTURER_ID).build());
+        m_mgr.setConfig(m_config);
+
+        final byte[] matchingRecord = new BleScanInfo()
+                .setName("Match")
+                .setManufacturerId(MANUFACTURER_ID)
+                .setManufacturerData(new byte[] { 0x1 })
+                .setAdvFlags((byte) 0)
+                .setTxPower((byte) 0)
+                .buildPacket();
+
+        m_mgr.setListener_Discovery(new BleManager.DiscoveryListener()
+        {
+            @Override public void onEvent(DiscoveryEvent e)
+            {
+                if (e.was(LifeCycle.DISCOVERED))
+                {
+                    assertEquals("Match", e.device().getName_native());
+                    assertTrue(m_mgr.getDeviceCount() == 1);
+                    m_mgr.stopScan();
+                    succeed();
+                }
+            }
+        });
+
+        m_mgr.setListener_State(new ManagerStateListener()
+        {
+            @Override public void onEvent(BleManager.StateListener.StateEvent e)
+            {
+                if (e.didEnter(BleManagerState.SCANNING))
+                {
+                    NativeUtil.advertiseNewDevice(m_mgr, -45, Utils_ScanRecord.newScanRecord("No Match"));
+                    NativeUtil.advertiseNewDevice(m_mgr, -45, matchingRecord);
+                }
+            }
+        });
+
+        m_mgr.startScan();
+        reacquire();
+    }
+
+}
@@ -11,9 +11,11 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 
 @Config(manifest = Config.NONE, sdk = 25)
@@ -454,4 +456,290 @@ public class NotifyTest extends BaseBleUnitTest
         startTest();
     }
 
+    @Test(timeout = 10000)
+    public void directNotifyTest() throws Exception
+    {
+        m_device = null;
+
+        m_config.gattLayerFactory = new P_GattLayerFactory()
+        {
+            @Override public P_GattLayer newInstance(BleDevice device)
+            {
+                return new UnitTestGatt(device, dbNotifyWithDesc);
+            }
+        };
+
+        m_config.loggingEnabled = true;
+
+        m_mgr.setConfig(m_config);
+
+        final byte[] notifyData = new byte[20];
+        new Random().nextBytes(notifyData);
+
+        final int[] executed = new int[1];
+        final Executor executor = new Executor()
+        {
+            @Override public void execute(Runnable command)
+            {
+                executed[0]++;
+                command.run();
+            }
+        };
+
+        m_mgr.setListener_Discovery(new BleManager.DiscoveryListener()
+        {
+            @Override public void onEvent(DiscoveryEvent e)
+            {
+                if (e.was(LifeCycle.DISCOVERED))
+                {
+                    m_device = e.device();
+                    m_device.setListener_Notification(new NotificationListener()
+                    {
+                        @Override public void onEvent(NotificationEvent e)
+                        {
+                            // Direct notifications skip the regular event path entirely.
+                            assertFalse(e.type() == Type.NOTIFICATION);
+                        }
+                    });
+                    m_device.setListener_ReadWrite(new BleDevice.ReadWriteListener()
+                    {
+                        @Override public void onEvent(ReadWriteEvent e)
+                        {
+                            if (e.type() == Type.ENABLING_NOTIFICATION)
+                            {
+                                assertTrue("Enabling notification failed with status " + e.status(), e.wasSuccess());
+                                NativeUtil.sendNotification(m_device, e.characteristic(), notifyData, Interval.millis(500));
+                            }
+                            else
+                            {
+                                assertFalse(e.type() == Type.NOTIFICATION);
+                            }
+                        }
+                    });
+                    m_device.connect(new BleTransaction.Init()
+                    {
+                        @Override protected void start(BleDevice device)
+                        {
+                            m_device.enableNotify_direct(mTestService, mTestChar, new DirectNotificationListener()
+                            {
+                                @Override public void onNotification(BleDevice device, UUID serviceUuid, UUID charUuid, byte[] data)
+                                {
+                                    assertTrue(device == m_device);
+                                    assertTrue(mTestChar.equals(charUuid));
+                                    assertArrayEquals(notifyData, data);
+                                    assertTrue(executed[0] == 1);
+                                    NotifyTest.this.succeed();
+                                }
+                            }, executor);
+                            succeed();
+                        }
+                    });
+                }
+            }
+        });
+
+        m_mgr.newDevice(Util.randomMacAddress(), "Test Device");
+
+        startTest();
+    }
+
+    @Test(timeout = 10000)
+    public void batchedNotifyTest() throws Exception
+    {
+        m_device = null;
+
+        m_config.gattLayerFactory = new P_GattLayerFactory()
+        {
+            @Override public P_GattLayer newInstance(BleDevice device)
+            {
+                return new UnitTestGatt(device, dbNotifyWithDesc);
+            }
+        };
+
+        m_config.loggingEnabled = true;
+
+        m_mgr.setConfig(m_config);
+
+        final byte[][] notifyData = new byte[5][];
+        for (int i = 0; i < notifyData.length; i++)
+        {
+            // Different lengths, to make sure the payloads are sliced right.
+            notifyData[i] = new byte[10 + i];
+            new Random().nextBytes(notifyData[i]);
+        }
+
+        final int[] received = new int[1];
+
+        m_mgr.setListener_Discovery(new BleManager.DiscoveryListener()
+        {
+            @Override public void onEvent(DiscoveryEvent e)
+            {
+                if (e.was(LifeCycle.DISCOVERED))
+                {
+                    m_device = e.device();
+                    m_device.setListener_ReadWrite(new BleDevice.ReadWriteListener()
+                    {
+                        @Override public void onEvent(ReadWriteEvent e)
+                        {
+                            if (e.type() == Type.ENABLING_NOTIFICATION)
+                            {
+                                assertTrue("Enabling notification failed with status " + e.status(), e.wasSuccess());
+                                for (int i = 0; i < notifyData.length; i++)
+                                {
+                                    NativeUtil.sendNotification(m_device, e.characteristic(), notifyData[i], Interval.millis(500 + i * 100));
+                                }
+                            }
+                        }
+                    });
+                    m_device.connect(new BleTransaction.Init()
+                    {
+                        @Override protected void start(BleDevice device)
+                        {
+                            // First batch fills up, the second goes out when it's old enough.
+                            m_device.enableNotify_batched(mTestService, mTestChar, 3, Interval.secs(1.0), new NotificationBatchListener()
+                            {
+                                @Override public void onEvent(NotificationBatch e)
+                                {
+                                    assertTrue(mTestChar.equals(e.charUuid()));
+                                    assertTrue(e.size() == (received[0] == 0 ? 3 : 2));
+                                    for (int i = 0; i < e.size(); i++)
+                                    {
+                                        assertArrayEquals(notifyData[received[0] + i], e.data(i));
+                                        assertTrue(i == 0 || e.timestamp(i) >= e.timestamp(i - 1));
+                                    }
+                                    received[0] += e.size();
+                                    if (received[0] == notifyData.length)
+                                    {
+                                        NotifyTest.this.succeed();
+                                    }
+                                }
+                            });
+                            succeed();
+                        }
+                    });
+                }
+            }
+        });
+
+        m_mgr.newDevice(Util.randomMacAddress(), "Test Device");
+
+        startTest();
+    }
+
+    @Test(timeout = 10000)
+    public void pooledNotifyTest() throws Exception
+    {
+        m_device = null;
+
+        m_config.gattLayerFactory = new P_GattLayerFactory()
+        {
+            @Override public P_GattLayer newInstance(BleDevice device)
+            {
+                return new UnitTestGatt(device, dbNotifyWithDesc);
+            }
+        };
+
+        m_config.loggingEnabled = true;
+
+        m_mgr.setConfig(m_config);
+
+        final byte[][] notifyData = { new byte[20], new byte[18] };
+        new Random().nextBytes(notifyData[0]);
+        new Random().nextBytes(notifyData[1]);
+
+        final PooledPayload[] first = new PooledPayload[1];
+
+        m_mgr.setListener_Discovery(new BleManager.DiscoveryListener()
+        {
+            @Override public void onEvent(DiscoveryEvent e)
+            {
+                if (e.was(LifeCycle.DISCOVERED))
+                {
+                    m_device = e.device();
+                    m_device.setListener_ReadWrite(new BleDevice.ReadWriteListener()
+                    {
+                        @Override public void onEvent(ReadWriteEvent e)
+                        {
+                            if (e.type() == Type.ENABLING_NOTIFICATION)
+                            {
+                                assertTrue("Enabling notification failed with status " + e.status(), e.wasSuccess());
+                                NativeUtil.sendNotification(m_device, e.characteristic(), notifyData[0], Interval.millis(500));
+                                NativeUtil.sendNotification(m_device, e.characteristic(), notifyData[1], Interval.millis(600));
+                            }
+                        }
+                    });
+                    m_device.connect(new BleTransaction.Init()
+                    {
+                        @Override protected void start(BleDevice device)
+                        {
+                            m_device.enableNotify_pooled(mTestChar, new PooledNotificationListener()
+                            {
+                                @Override public void onNotification(BleDevice device, UUID serviceUuid, UUID charUuid, PooledPayload payload)
+                                {
+                                    final int index = first[0] == null ? 0 : 1;
+                                    assertTrue(payload.length() == notifyData[index].length);
+                                    assertTrue(payload.get(1) == notifyData[index][1]);
+
+                                    if (index == 1)
+                                    {
+                                        // Both payloads fit in the same size of buffer, so the first one's buffer is holding this one now. The
+                                        // stale reference to the first payload has to keep throwing, and releasing it again can't give away
+                                        // this payload's buffer.
+                                        assertTrue(payload != first[0]);
+                                        assertTrue(first[0].isReleased());
+                                        assertThrowsIllegalState(first[0]);
+                                        first[0].release();
+                                        assertFalse(payload.isReleased());
+                                        assertTrue(payload.get(1) == notifyData[index][1]);
+                                    }
+
+                                    final byte[] copy = payload.copy();
+                                    payload.release();
+                                    assertArrayEquals(notifyData[index], copy);
+                                    assertTrue(payload.isReleased());
+                                    assertThrowsIllegalState(payload);
+
+                                    if (index == 0)
+                                    {
+                                        first[0] = payload;
+                                    }
+                                    else
+                                    {
+                                        NotifyTest.this.succeed();
+                                    }
+                                }
+                            });
+                            succeed();
+                        }
+                    });
+                }
+            }
+        });
+
+        m_mgr.newDevice(Util.randomMacAddress(), "Test Device");
+
+        startTest();
+    }
+
+    private static void assertThrowsIllegalState(PooledPayload payload)
+    {
+        try
+        {
+            payload.get(0);
+            fail("Reading a released payload should throw.");
+        }
+        catch (IllegalStateException e)
+        {
+        }
+
+        try
+        {
+            payload.copy();
+            fail("Copying a released payload should throw.");
+        }
+        catch (IllegalStateException e)
+        {
+        }
+    }
+
 }
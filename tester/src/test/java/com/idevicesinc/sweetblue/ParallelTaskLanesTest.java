@@ -0,0 +1,247 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import com.idevicesinc.sweetblue.utils.GattDatabase;
+import com.idevicesinc.sweetblue.utils.Interval;
+import com.idevicesinc.sweetblue.utils.Util;
+import com.idevicesinc.sweetblue.utils.Uuids;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@Config(manifest = Config.NONE, sdk = 25)
+@RunWith(RobolectricTestRunner.class)
+public class ParallelTaskLanesTest extends BaseBleUnitTest
+{
+
+    private final static UUID mTestService = Uuids.fromShort("ABCD");
+    private final static UUID mTestChar = Uuids.fromShort("1234");
+
+    private final GattDatabase db = new GattDatabase().addService(mTestService)
+            .addCharacteristic(mTestChar).setValue(new byte[] { 0x2, 0x3, 0x4, 0x5, 0x6 }).setProperties().readWrite().setPermissions().readWrite().completeService();
+
+    private final AtomicBoolean m_sawParallelReads = new AtomicBoolean(false);
+    private final AtomicBoolean m_sawLaneTask = new AtomicBoolean(false);
+    private final AtomicBoolean m_checkedDuringLaneTask = new AtomicBoolean(false);
+    private final AtomicBoolean m_idledDuringLaneTask = new AtomicBoolean(false);
+    private final AtomicBoolean m_atomicTxnRunning = new AtomicBoolean(false);
+    private final AtomicBoolean m_sawReadDuringAtomicTxn = new AtomicBoolean(false);
+    private BleDevice m_atomicTxnDevice;
+
+
+    @Test(timeout = 15000)
+    public void readsRunConcurrentlyOnLanesTest() throws Exception
+    {
+        m_config.allowParallelDeviceTasks = true;
+        // Well under how long each read takes, so the loop would get a chance to idle if lane tasks didn't count as work.
+        m_config.minTimeToIdle = Interval.millis(100);
+        m_config.useDeadlineDrivenUpdates = true;
+        // Otherwise the manager always has work to do on Marshmallow and up.
+        m_config.allowManagerStatePolling = false;
+        m_mgr.setConfig(m_config);
+
+        runTwoDeviceReads();
+
+        startTest();
+
+        assertTrue(m_sawParallelReads.get());
+        assertTrue(m_sawLaneTask.get());
+        // Lane tasks have to count as work, or the update loop could idle while they're running.
+        assertTrue(m_checkedDuringLaneTask.get());
+        assertFalse(m_idledDuringLaneTask.get());
+    }
+
+    @Test(timeout = 15000)
+    public void atomicTransactionHoldsOtherLanesTest() throws Exception
+    {
+        m_config.allowParallelDeviceTasks = true;
+        m_mgr.setConfig(m_config);
+
+        m_atomicTxnRunning.set(false);
+        m_sawReadDuringAtomicTxn.set(false);
+
+        final AtomicInteger initializedCount = new AtomicInteger(0);
+
+        final BleDevice device1 = m_mgr.newDevice(Util.randomMacAddress(), "Test Device 1");
+        final BleDevice device2 = m_mgr.newDevice(Util.randomMacAddress(), "Test Device 2");
+
+        m_atomicTxnDevice = device1;
+
+        final BleDevice.StateListener stateListener = new BleDevice.StateListener()
+        {
+            @Override public void onEvent(StateEvent e)
+            {
+                if (e.didEnter(BleDeviceState.INITIALIZED))
+                {
+                    if (initializedCount.incrementAndGet() == 2)
+                    {
+                        device1.performTransaction(new BleTransaction()
+                        {
+                            @Override protected void start(final BleDevice device)
+                            {
+                                m_atomicTxnRunning.set(true);
+
+                                device.read(mTestChar, new BleDevice.ReadWriteListener()
+                                {
+                                    @Override public void onEvent(ReadWriteEvent e)
+                                    {
+                                        assertTrue(e.status().name(), e.wasSuccess());
+
+                                        device.read(mTestChar, new BleDevice.ReadWriteListener()
+                                        {
+                                            @Override public void onEvent(ReadWriteEvent e)
+                                            {
+                                                assertTrue(e.status().name(), e.wasSuccess());
+
+                                                m_atomicTxnRunning.set(false);
+                                                succeed();
+                                            }
+                                        });
+                                    }
+                                });
+                            }
+
+                            @Override protected boolean needsAtomicity()
+                            {
+                                return true;
+                            }
+                        });
+
+                        // Has its own lane, but still has to wait for the atomic transaction to finish.
+                        device2.read(mTestChar, new BleDevice.ReadWriteListener()
+                        {
+                            @Override public void onEvent(ReadWriteEvent e)
+                            {
+                                assertTrue(e.status().name(), e.wasSuccess());
+
+                                succeed();
+                            }
+                        });
+                    }
+                }
+            }
+        };
+
+        device1.connect(stateListener);
+        device2.connect(stateListener);
+
+        startTest();
+
+        assertFalse(m_sawReadDuringAtomicTxn.get());
+    }
+
+    @Test(timeout = 15000)
+    public void readsRunSeriallyByDefaultTest() throws Exception
+    {
+        runTwoDeviceReads();
+
+        startTest();
+
+        assertFalse(m_sawParallelReads.get());
+        assertFalse(m_sawLaneTask.get());
+    }
+
+    private void runTwoDeviceReads()
+    {
+        m_sawParallelReads.set(false);
+        m_sawLaneTask.set(false);
+        m_checkedDuringLaneTask.set(false);
+        m_idledDuringLaneTask.set(false);
+
+        final AtomicInteger initializedCount = new AtomicInteger(0);
+        final AtomicInteger readCount = new AtomicInteger(0);
+
+        final BleDevice device1 = m_mgr.newDevice(Util.randomMacAddress(), "Test Device 1");
+        final BleDevice device2 = m_mgr.newDevice(Util.randomMacAddress(), "Test Device 2");
+
+        final BleDevice.ReadWriteListener readListener = new BleDevice.ReadWriteListener()
+        {
+            @Override public void onEvent(ReadWriteEvent e)
+            {
+                assertTrue(e.status().name(), e.wasSuccess());
+
+                if (readCount.incrementAndGet() == 2)
+                {
+                    succeed();
+                }
+            }
+        };
+
+        final BleDevice.StateListener stateListener = new BleDevice.StateListener()
+        {
+            @Override public void onEvent(StateEvent e)
+            {
+                if (e.didEnter(BleDeviceState.INITIALIZED))
+                {
+                    if (initializedCount.incrementAndGet() == 2)
+                    {
+                        device1.read(mTestChar, readListener);
+                        device2.read(mTestChar, readListener);
+                    }
+                }
+            }
+        };
+
+        device1.connect(stateListener);
+        device2.connect(stateListener);
+    }
+
+    @Override
+    public P_GattLayer getGattLayer(final BleDevice device)
+    {
+        return new UnitTestGatt(device, db)
+        {
+            @Override
+            public boolean readCharacteristic(BluetoothGattCharacteristic characteristic)
+            {
+                if (m_mgr.getTaskQueue().hasLaneTasks())
+                {
+                    m_sawLaneTask.set(true);
+
+                    // Checked partway through the read, while the lane task is still running.
+                    m_mgr.getPostManager().postToUpdateThreadDelayed(new Runnable()
+                    {
+                        @Override public void run()
+                        {
+                            m_checkedDuringLaneTask.set(true);
+
+                            if (m_mgr.is(BleManagerState.IDLE) || !m_mgr.hasManagerLevelWork())
+                            {
+                                m_idledDuringLaneTask.set(true);
+                            }
+                        }
+                    }, 400);
+                }
+
+                if (m_atomicTxnRunning.get() && device != m_atomicTxnDevice)
+                {
+                    m_sawReadDuringAtomicTxn.set(true);
+                }
+
+                for (int i = 0; i < m_mgr.getDeviceCount(); i++)
+                {
+                    final BleDevice other = m_mgr.getDeviceAt(i);
+
+                    if (other != device && m_mgr.getTaskQueue().isCurrent(P_Task_Read.class, other))
+                    {
+                        m_sawParallelReads.set(true);
+                    }
+                }
+
+                NativeUtil.readSuccess(device, characteristic, characteristic.getValue(), Interval.millis(500));
+
+                return true;
+            }
+        };
+    }
+
+}
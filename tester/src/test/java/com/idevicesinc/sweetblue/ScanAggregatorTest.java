@@ -0,0 +1,119 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import com.idevicesinc.sweetblue.utils.RssiStats;
+import com.idevicesinc.sweetblue.utils.Util;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ReflectionHelpers;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+@Config(manifest = Config.NONE, sdk = 25)
+@RunWith(RobolectricTestRunner.class)
+public class ScanAggregatorTest extends BaseTest
+{
+
+    private static final double DELTA = 0.0001;
+
+
+    @Test
+    public void statsPerWindowTest() throws Exception
+    {
+        final P_ScanAggregator aggregator = new P_ScanAggregator();
+        final BluetoothDevice device1 = newDevice();
+        final BluetoothDevice device2 = newDevice();
+        final byte[] lastRecord = new byte[] { 3 };
+
+        aggregator.add(device1, -50, new byte[] { 1 }, 0.5, 0);
+        aggregator.add(device2, -80, null, 0.5, 0);
+        aggregator.add(device1, -70, new byte[] { 2 }, 0.5, 0);
+        aggregator.add(device1, -60, lastRecord, 0.5, 0);
+
+        final List<P_ScanAggregator.Accumulator> window = aggregator.getWindow();
+        assertEquals(2, window.size());
+
+        final P_ScanAggregator.Accumulator first = window.get(0);
+        assertSame(device1, first.m_device);
+        assertArrayEquals(lastRecord, first.m_record);
+
+        final RssiStats stats = first.toStats();
+        assertEquals(3, stats.sampleCount());
+        assertEquals(-60, stats.latest());
+        assertEquals(-70, stats.min());
+        assertEquals(-50, stats.max());
+        assertEquals(-60.0, stats.mean(), DELTA);
+        // -50, then halfway to -70, then halfway to -60.
+        assertEquals(-60.0, stats.ema(), DELTA);
+
+        assertEquals(1, window.get(1).toStats().sampleCount());
+
+        aggregator.endWindow(0);
+        assertTrue(aggregator.getWindow().isEmpty());
+    }
+
+    @Test
+    public void emaCarriesOverWindowsTest() throws Exception
+    {
+        final P_ScanAggregator aggregator = new P_ScanAggregator();
+        final BluetoothDevice device = newDevice();
+
+        aggregator.add(device, -40, null, 0.5, 0);
+        aggregator.endWindow(0);
+
+        aggregator.add(device, -60, null, 0.5, 100);
+        RssiStats stats = aggregator.getWindow().get(0).toStats();
+        assertEquals(1, stats.sampleCount());
+        assertEquals(-60.0, stats.mean(), DELTA);
+        assertEquals(-50.0, stats.ema(), DELTA);
+        aggregator.endWindow(100);
+
+        // After being gone for a long time, the average should start over.
+        aggregator.add(device, -90, null, 0.5, 100000);
+        stats = aggregator.getWindow().get(0).toStats();
+        assertEquals(-90.0, stats.ema(), DELTA);
+    }
+
+    @Test
+    public void resultsWithoutAddressAreNotMergedTest() throws Exception
+    {
+        final P_ScanAggregator aggregator = new P_ScanAggregator();
+
+        aggregator.add(null, -40, null, 0.5, 0);
+        aggregator.add(null, -50, null, 0.5, 0);
+
+        assertEquals(2, aggregator.getWindow().size());
+
+        aggregator.clear();
+        assertTrue(aggregator.getWindow().isEmpty());
+    }
+
+    private static BluetoothDevice newDevice() throws Exception
+    {
+        // BluetoothDevice's constructor needs the native bluetooth service, so give it a dummy one.
+        final Class<?> serviceClass = Class.forName("android.bluetooth.IBluetooth");
+        final Object service = Proxy.newProxyInstance(serviceClass.getClassLoader(), new Class<?>[] { serviceClass }, new InvocationHandler()
+        {
+            @Override public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                return null;
+            }
+        });
+        ReflectionHelpers.setStaticField(BluetoothDevice.class, "sService", service);
+
+        return BluetoothAdapter.getDefaultAdapter().getRemoteDevice(Util.randomMacAddress());
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.BleManager.DiscoveryListener.LifeCycle;
+import com.idevicesinc.sweetblue.utils.Interval;
+import com.idevicesinc.sweetblue.utils.ScanCapture;
+import com.idevicesinc.sweetblue.utils.Utils_ScanRecord;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@Config(manifest = Config.NONE, sdk = 25)
+@RunWith(RobolectricTestRunner.class)
+public class ScanCaptureTest extends BaseBleUnitTest
+{
+
+    private static final String[] MAC_ADDRESSES = { "00:1A:7D:DA:71:13", "00:1A:7D:DA:71:14", "00:1A:7D:DA:71:15" };
+
+
+    @Test
+    public void formatTest() throws Exception
+    {
+        final byte[] record = Utils_ScanRecord.newScanRecord("Captured");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ScanCapture.Writer writer = new ScanCapture.Writer(out, 1000L);
+        writer.write(1500L, MAC_ADDRESSES[0], -45, record);
+        writer.write(1400L, null, -90, null);
+        writer.write(100000L, MAC_ADDRESSES[1], 0, new byte[0]);
+        writer.close();
+        assertEquals(3, writer.getCount());
+
+        final byte[] capture = out.toByteArray();
+        ScanCapture.Reader reader = new ScanCapture.Reader(new ByteArrayInputStream(capture));
+        assertEquals(1000L, reader.getStartTime());
+
+        ScanCapture.Entry entry = reader.next();
+        assertEquals(1500L, entry.time());
+        assertEquals(MAC_ADDRESSES[0], entry.macAddress());
+        assertEquals(-45, entry.rssi());
+        assertArrayEquals(record, entry.scanRecord());
+
+        // Time going backwards is recorded as no time passing.
+        entry = reader.next();
+        assertEquals(1500L, entry.time());
+        assertNull(entry.macAddress());
+        assertNull(entry.scanRecord());
+
+        entry = reader.next();
+        assertEquals(100000L, entry.time());
+        assertEquals(0, entry.scanRecord().length);
+        assertNull(reader.next());
+
+        // A capture that got cut off ends at the last whole result.
+        reader = new ScanCapture.Reader(new ByteArrayInputStream(Arrays.copyOf(capture, capture.length - 2)));
+        assertTrue(reader.next() != null);
+        assertTrue(reader.next() != null);
+        assertNull(reader.next());
+
+        try
+        {
+            new ScanCapture.Reader(new ByteArrayInputStream(record));
+            assertTrue(false);
+        }
+        catch (IOException e)
+        {
+            // Expected, as it's not a capture.
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void captureAndReplayTest() throws Exception
+    {
+        startTest(false);
+
+        m_config.runOnMainThread = false;
+        m_mgr.setConfig(m_config);
+
+        // Capture at the native boundary, then replay the capture into a fresh scan.
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(m_mgr.startScanCapture(out));
+        for (int i = 0; i < 6; i++)
+        {
+            final String macAddress = MAC_ADDRESSES[i % MAC_ADDRESSES.length];
+            m_mgr.getScanManager().addScanResult(NativeUtil.newNativeDevice(macAddress), -50 - i, Utils_ScanRecord.newScanRecord("Device " + i));
+        }
+        assertEquals(6, m_mgr.stopScanCapture());
+        assertEquals(0, m_mgr.stopScanCapture());
+
+        final Set<String> discovered = new HashSet<>();
+
+        m_mgr.setListener_Discovery(new BleManager.DiscoveryListener()
+        {
+            @Override public void onEvent(DiscoveryEvent e)
+            {
+                if (e.was(LifeCycle.DISCOVERED))
+                {
+                    discovered.add(e.macAddress());
+                    if (discovered.size() == MAC_ADDRESSES.length)
+                    {
+                        assertEquals(new HashSet<>(Arrays.asList(MAC_ADDRESSES)), discovered);
+                        m_mgr.stopScan();
+                        succeed();
+                    }
+                }
+            }
+        });
+
+        m_mgr.setListener_State(new ManagerStateListener()
+        {
+            @Override public void onEvent(BleManager.StateListener.StateEvent e)
+            {
+                if (e.didEnter(BleManagerState.SCANNING))
+                {
+                    try
+                    {
+                        final ScanCaptureReplayer replayer = new ScanCaptureReplayer(m_mgr, new ByteArrayInputStream(out.toByteArray())).setSpeed(10.0).start();
+                        assertTrue(replayer.waitUntilDone(Interval.FIVE_SECS));
+                        assertEquals(6, replayer.getReplayedCount());
+                    }
+                    catch (Exception ex)
+                    {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            }
+        });
+
+        m_mgr.startScan();
+        reacquire();
+    }
+
+}
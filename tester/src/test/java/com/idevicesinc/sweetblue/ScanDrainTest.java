@@ -0,0 +1,78 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.utils.Interval;
+import com.idevicesinc.sweetblue.utils.Utils_ScanRecord;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@Config(manifest = Config.NONE, sdk = 25)
+@RunWith(RobolectricTestRunner.class)
+public class ScanDrainTest extends BaseBleUnitTest
+{
+
+    @Test(timeout = 15000)
+    public void overloadedTest() throws Exception
+    {
+        startTest(false);
+
+        m_config.runOnMainThread = false;
+        m_config.scanDrainBudget = Interval.millis(1);
+        m_config.scanOverloadThreshold = Interval.millis(200);
+        // Makes every result expensive to process, so they pile up.
+        m_config.defaultScanFilter = new BleManagerConfig.ScanFilter()
+        {
+            @Override public Please onEvent(ScanEvent e)
+            {
+                try
+                {
+                    Thread.sleep(10);
+                }
+                catch (InterruptedException ex)
+                {
+                }
+                return Please.ignore();
+            }
+        };
+        m_mgr.setConfig(m_config);
+
+        m_mgr.setListener_UhOh(new BleManager.UhOhListener()
+        {
+            @Override public void onEvent(UhOhEvent e)
+            {
+                assertEquals(UhOh.SCAN_OVERLOADED, e.uhOh());
+                assertTrue(m_mgr.isScanOverloaded());
+                assertTrue(m_mgr.getScanQueueDepth() > 0);
+                assertTrue(m_mgr.getOldestScanResultAge().millis() >= 200);
+                m_mgr.stopScan();
+                succeed();
+            }
+        });
+
+        m_mgr.setListener_State(new ManagerStateListener()
+        {
+            @Override public void onEvent(BleManager.StateListener.StateEvent e)
+            {
+                if (e.didEnter(BleManagerState.SCANNING))
+                {
+                    assertEquals(0, m_mgr.getScanQueueDepth());
+                    assertEquals(Interval.ZERO.millis(), m_mgr.getOldestScanResultAge().millis());
+                    for (int i = 0; i < 200; i++)
+                    {
+                        NativeUtil.advertiseNewDevice(m_mgr, -50, Utils_ScanRecord.newScanRecord("Device " + i));
+                    }
+                }
+            }
+        });
+
+        m_mgr.startScan();
+        reacquire();
+    }
+
+}
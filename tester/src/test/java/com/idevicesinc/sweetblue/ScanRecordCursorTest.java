@@ -0,0 +1,239 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.utils.BleManufacturerData;
+import com.idevicesinc.sweetblue.utils.BleScanInfo;
+import com.idevicesinc.sweetblue.utils.BleUuid;
+import com.idevicesinc.sweetblue.utils.ScanRecordCursor;
+import com.idevicesinc.sweetblue.utils.Utils_ScanRecord;
+import com.idevicesinc.sweetblue.utils.Uuids;
+import org.junit.Test;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class ScanRecordCursorTest extends BaseTest
+{
+
+    private static final UUID FULL_UUID = UUID.fromString("6ba7b810-9dad-11d1-80b4-00c04fd430c8");
+
+
+    @Test
+    public void lookupTest() throws Exception
+    {
+        final short manId = (short) 16454;
+        final byte[] manData = new byte[] { 0x5, (byte) 0xAA, 0x44 };
+        final byte[] record = new BleScanInfo()
+                .setName("Johnny 5")
+                .setAdvFlags((byte) 0x6)
+                .setTxPower((byte) -12)
+                .addServiceUuid(Uuids.BATTERY_SERVICE_UUID, BleUuid.UuidSize.SHORT)
+                .setManufacturerId(manId)
+                .setManufacturerData(manData)
+                .buildPacket();
+
+        final ScanRecordCursor cursor = new ScanRecordCursor(record);
+
+        assertEquals(0x6, cursor.getAdvFlags());
+        assertEquals(-12, cursor.getTxPower());
+        assertEquals(manId, cursor.getManufacturerId());
+
+        assertTrue(cursor.seekManufacturerData(manId));
+        assertEquals(manData.length + 2, cursor.dataLength());
+        assertArrayEquals(manData, Arrays.copyOfRange(record, cursor.dataOffset() + 2, cursor.dataOffset() + cursor.dataLength()));
+        assertFalse(cursor.seekManufacturerData(manId + 1));
+
+        assertEquals(1, cursor.getServiceUuidCount());
+        assertEquals(new UUID(cursor.getServiceUuidMsb(0), cursor.getServiceUuidLsb(0)), Uuids.BATTERY_SERVICE_UUID);
+        assertTrue(cursor.hasServiceUuid(Uuids.BATTERY_SERVICE_UUID));
+        assertFalse(cursor.hasServiceUuid(Uuids.DEVICE_INFORMATION_SERVICE_UUID));
+    }
+
+    @Test
+    public void serviceUuidSizesTest() throws Exception
+    {
+        final UUID mediumUuid = Uuids.fromInt("ABABCDCD");
+        final byte[] record = new BleScanInfo()
+                .addServiceUuid(Uuids.BATTERY_SERVICE_UUID, BleUuid.UuidSize.SHORT)
+                .addServiceUuid(mediumUuid, BleUuid.UuidSize.MEDIUM)
+                .addServiceUuid(FULL_UUID, BleUuid.UuidSize.FULL)
+                .setAdvFlags((byte) 0)
+                .setTxPower((byte) 0)
+                .buildPacket();
+
+        final ScanRecordCursor cursor = new ScanRecordCursor(record);
+
+        assertEquals(3, cursor.getServiceUuidCount());
+        assertTrue(cursor.hasServiceUuid(Uuids.BATTERY_SERVICE_UUID));
+        assertTrue(cursor.hasServiceUuid(mediumUuid));
+        assertTrue(cursor.hasServiceUuid(FULL_UUID));
+
+        final BleScanInfo info = Utils_ScanRecord.parseScanRecord(record);
+        assertEquals(3, info.getServiceUUIDS().size());
+
+        for (int i = 0; i < 3; i++)
+        {
+            assertTrue(info.getServiceUUIDS().contains(new UUID(cursor.getServiceUuidMsb(i), cursor.getServiceUuidLsb(i))));
+        }
+    }
+
+    @Test
+    public void serviceDataTest() throws Exception
+    {
+        final byte[] record = new BleScanInfo()
+                .addServiceData(Uuids.BATTERY_SERVICE_UUID, new byte[] { 100, 101 })
+                .setAdvFlags((byte) 0)
+                .setTxPower((byte) 0)
+                .buildPacket();
+
+        final ScanRecordCursor cursor = new ScanRecordCursor(record);
+
+        assertTrue(cursor.seekServiceData(0x180F));
+        assertEquals(4, cursor.dataLength());
+        assertEquals(100, cursor.dataAt(2));
+        assertEquals(101, cursor.dataAt(3));
+        assertFalse(cursor.seekServiceData(0x180A));
+    }
+
+    @Test
+    public void iterateTest() throws Exception
+    {
+        final byte[] record = Utils_ScanRecord.newScanRecord("abc");
+        final ScanRecordCursor cursor = new ScanRecordCursor();
+
+        cursor.reset(record);
+        assertEquals(-1, cursor.type());
+        assertTrue(cursor.next());
+        assertEquals(ScanRecordCursor.DATA_TYPE_LOCAL_NAME_COMPLETE, cursor.type());
+        assertArrayEquals("abc".getBytes(), cursor.copyData(0));
+        assertFalse(cursor.next());
+        assertFalse(cursor.next());
+
+        cursor.rewind();
+        assertTrue(cursor.next());
+    }
+
+    @Test
+    public void eventGettersLeaveCursorAloneTest() throws Exception
+    {
+        final byte[] record = new BleScanInfo()
+                .setName("Johnny 5")
+                .setAdvFlags((byte) 0x6)
+                .setTxPower((byte) -12)
+                .setManufacturerId((short) 16454)
+                .setManufacturerData(new byte[] { 0x5 })
+                .buildPacket();
+        final BleManagerConfig.ScanFilter.ScanEvent e = BleManagerConfig.ScanFilter.ScanEvent.fromScanRecord(null, "Johnny 5", "johnny5", -50, null, record);
+        final ScanRecordCursor cursor = e.scanRecordCursor();
+
+        assertTrue(cursor.next());
+        final int type = cursor.type();
+        final int offset = cursor.dataOffset();
+
+        assertEquals(-12, e.txPower());
+        assertEquals(0x6, e.advertisingFlags());
+        assertEquals(16454, e.manufacturerId());
+        assertTrue(new CompiledScanFilter.Builder().withManufacturerId(16454).build().matches(new CompiledScanFilter.Target(e)));
+
+        assertEquals(type, cursor.type());
+        assertEquals(offset, cursor.dataOffset());
+    }
+
+    @Test
+    public void malformedRecordTest() throws Exception
+    {
+        // Second structure claims 10 bytes, but only 2 are there.
+        final byte[] record = new byte[] { 2, 0x01, 0x06, 10, (byte) 0xFF, 0x4C };
+        final ScanRecordCursor cursor = new ScanRecordCursor(record);
+
+        assertEquals(0x6, cursor.getAdvFlags());
+        assertEquals(-1, cursor.getManufacturerId());
+
+        cursor.rewind();
+        assertTrue(cursor.next());
+        assertTrue(cursor.next());
+        assertEquals(1, cursor.dataLength());
+        assertFalse(cursor.next());
+
+        final ScanRecordCursor empty = new ScanRecordCursor(null);
+        assertFalse(empty.next());
+        assertEquals(0, empty.getServiceUuidCount());
+        assertEquals(BleNodeConfig.INVALID_TX_POWER, empty.getTxPower());
+
+        assertTrue(Utils_ScanRecord.parseScanRecord(null).isNull());
+        assertEquals(-1, Utils_ScanRecord.parseScanRecord(record).getManufacturerId());
+    }
+
+    @Test
+    public void everyStructureTest() throws Exception
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] { 2, 0x01, 0x06 });
+        // Two manufacturer blocks, which used to overwrite each other.
+        out.write(new byte[] { 5, (byte) 0xFF, 0x4C, 0x00, 0x02, 0x15 });
+        out.write(new byte[] { 4, (byte) 0xFF, 0x59, 0x00, (byte) 0xAA });
+        // 32 and 128-bit service data.
+        out.write(new byte[] { 7, 0x20, (byte) 0xCD, (byte) 0xAB, 0x34, 0x12, 0x01, 0x02 });
+        out.write(new byte[] { 18, 0x21 });
+        out.write(littleEndian(FULL_UUID));
+        out.write(0x09);
+        out.write(new byte[] { 3, 0x19, 0x41, 0x03 });
+        out.write(new byte[] { 3, 0x1A, 0x40, 0x06 });
+        out.write(new byte[] { 9, 0x24, 0x17 });
+        out.write("//sb.io".getBytes("UTF-8"));
+        out.write(new byte[] { 3, 0x27, 0x02, 0x01 });
+        final byte[] record = out.toByteArray();
+
+        final BleScanInfo info = Utils_ScanRecord.parseScanRecord(record);
+
+        final List<BleManufacturerData> blocks = info.getManufacturerDataList();
+        assertEquals(2, blocks.size());
+        assertEquals(new BleManufacturerData(0x004C, new byte[] { 0x02, 0x15 }), blocks.get(0));
+        assertEquals(new BleManufacturerData(0x0059, new byte[] { (byte) 0xAA }), blocks.get(1));
+        // The single-block getters still return the last one, like they always have.
+        assertEquals(0x0059, info.getManufacturerId());
+        assertArrayEquals(new byte[] { 0x02, 0x15 }, info.getManufacturerData(0x004C));
+        assertNull(info.getManufacturerData(0x1234));
+
+        assertArrayEquals(new byte[] { 0x01, 0x02 }, info.getServiceData().get(Uuids.fromInt("1234ABCD")));
+        assertArrayEquals(new byte[] { 0x09 }, info.getServiceData().get(FULL_UUID));
+
+        assertEquals(0x0341, info.getAppearance());
+        assertEquals(1000, info.getAdvertisingInterval().millis());
+        assertEquals("https://sb.io", info.getUri());
+        assertTrue(info.isLeFeatureSupported(1));
+        assertTrue(info.isLeFeatureSupported(8));
+        assertFalse(info.isLeFeatureSupported(0));
+        assertFalse(info.isLeFeatureSupported(16));
+
+        final ScanRecordCursor cursor = new ScanRecordCursor(record);
+        assertEquals(0x0341, cursor.getAppearance());
+        assertEquals(0x0640, cursor.getAdvertisingIntervalUnits());
+
+        final BleScanInfo empty = Utils_ScanRecord.parseScanRecord(Utils_ScanRecord.newScanRecord("abc"));
+        assertTrue(empty.getManufacturerDataList().isEmpty());
+        assertEquals(-1, empty.getAppearance());
+        assertEquals("", empty.getUri());
+        assertEquals(0, empty.getLeSupportedFeatures().length);
+    }
+
+    private static byte[] littleEndian(UUID uuid)
+    {
+        final byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++)
+        {
+            bytes[i] = (byte) (uuid.getLeastSignificantBits() >>> (8 * i));
+            bytes[i + 8] = (byte) (uuid.getMostSignificantBits() >>> (8 * i));
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.idevicesinc.sweetblue;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class ScanRejectionCacheTest extends BaseTest
+{
+
+    private static final String MAC_1 = "00:11:22:33:44:55";
+    private static final String MAC_2 = "00:11:22:33:44:66";
+    private static final String MAC_3 = "00:11:22:33:44:77";
+
+
+    @Test
+    public void hitUntilExpiredTest() throws Exception
+    {
+        final P_ScanRejectionCache cache = new P_ScanRejectionCache();
+        final byte[] record = new byte[] { 2, 1, 6 };
+
+        assertFalse(cache.isRejected(MAC_1, record, 0));
+
+        cache.onRejected(MAC_1, record, 0, 1000, 10);
+
+        assertTrue(cache.isRejected(MAC_1, record.clone(), 999));
+        assertFalse(cache.isRejected(MAC_2, record, 999));
+        assertFalse(cache.isRejected(MAC_1, record, 1000));
+        assertEquals(0, cache.size());
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void changedRecordMissesTest() throws Exception
+    {
+        final P_ScanRejectionCache cache = new P_ScanRejectionCache();
+
+        cache.onRejected(MAC_1, new byte[] { 2, 1, 6 }, 0, 1000, 10);
+
+        assertFalse(cache.isRejected(MAC_1, new byte[] { 2, 1, 5 }, 10));
+        assertFalse(cache.isRejected(MAC_1, null, 10));
+        assertTrue(cache.isRejected(MAC_1, new byte[] { 2, 1, 6 }, 10));
+    }
+
+    @Test
+    public void boundedSizeTest() throws Exception
+    {
+        final P_ScanRejectionCache cache = new P_ScanRejectionCache();
+
+        cache.onRejected(MAC_1, null, 0, 1000, 2);
+        cache.onRejected(MAC_2, null, 1, 1000, 2);
+        // Refreshing the first one makes the second one the oldest.
+        cache.onRejected(MAC_1, null, 2, 1000, 2);
+        cache.onRejected(MAC_3, null, 3, 1000, 2);
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.isRejected(MAC_1, null, 4));
+        assertFalse(cache.isRejected(MAC_2, null, 4));
+        assertTrue(cache.isRejected(MAC_3, null, 4));
+
+        cache.clear();
+        assertFalse(cache.isRejected(MAC_1, null, 4));
+    }
+
+}
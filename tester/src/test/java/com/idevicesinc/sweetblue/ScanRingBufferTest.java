@@ -0,0 +1,230 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import com.idevicesinc.sweetblue.utils.Util;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ReflectionHelpers;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@Config(manifest = Config.NONE, sdk = 25)
+@RunWith(RobolectricTestRunner.class)
+public class ScanRingBufferTest extends BaseTest
+{
+
+    @Test
+    public void capacityIsRoundedUpTest() throws Exception
+    {
+        assertEquals(8, new P_ScanRingBuffer(5).capacity());
+        assertEquals(512, new P_ScanRingBuffer(512).capacity());
+        assertEquals(1, new P_ScanRingBuffer(0).capacity());
+    }
+
+    @Test
+    public void dropNewestTest() throws Exception
+    {
+        final P_ScanRingBuffer buffer = new P_ScanRingBuffer(4);
+
+        for (int i = 0; i < 6; i++)
+        {
+            buffer.offer(null, i, null, 0L, BleScanOverflowPolicy.DROP_NEWEST);
+        }
+
+        assertEquals(2, buffer.getDroppedCount());
+        assertEquals(4, buffer.size());
+
+        final P_ScanRingBuffer.Entry entry = new P_ScanRingBuffer.Entry();
+        for (int i = 0; i < 4; i++)
+        {
+            assertTrue(buffer.poll(entry));
+            assertEquals(i, entry.m_rssi);
+        }
+        assertFalse(buffer.poll(entry));
+    }
+
+    @Test
+    public void dropOldestTest() throws Exception
+    {
+        final P_ScanRingBuffer buffer = new P_ScanRingBuffer(4);
+
+        for (int i = 0; i < 6; i++)
+        {
+            buffer.offer(null, i, null, 0L, BleScanOverflowPolicy.DROP_OLDEST);
+        }
+
+        assertEquals(2, buffer.getDroppedCount());
+
+        final P_ScanRingBuffer.Entry entry = new P_ScanRingBuffer.Entry();
+        for (int i = 2; i < 6; i++)
+        {
+            assertTrue(buffer.poll(entry));
+            assertEquals(i, entry.m_rssi);
+        }
+        assertFalse(buffer.poll(entry));
+    }
+
+    @Test
+    public void coalesceByAddressTest() throws Exception
+    {
+        final P_ScanRingBuffer buffer = new P_ScanRingBuffer(4);
+        final BluetoothDevice device1 = newDevice();
+        final BluetoothDevice device2 = newDevice();
+        final BluetoothDevice device3 = newDevice();
+
+        buffer.offer(device1, -10, null, 0L, BleScanOverflowPolicy.COALESCE_BY_ADDRESS);
+        buffer.offer(device2, -20, null, 0L, BleScanOverflowPolicy.COALESCE_BY_ADDRESS);
+        buffer.offer(device3, -30, null, 0L, BleScanOverflowPolicy.COALESCE_BY_ADDRESS);
+        buffer.offer(device1, -40, null, 0L, BleScanOverflowPolicy.COALESCE_BY_ADDRESS);
+
+        // Full now, so this should replace device2's pending result.
+        buffer.offer(device2, -50, null, 0L, BleScanOverflowPolicy.COALESCE_BY_ADDRESS);
+
+        assertEquals(1, buffer.getCoalescedCount());
+        assertEquals(0, buffer.getDroppedCount());
+
+        final P_ScanRingBuffer.Entry entry = new P_ScanRingBuffer.Entry();
+        final int[] expected = { -10, -50, -30, -40 };
+        for (int i = 0; i < expected.length; i++)
+        {
+            assertTrue(buffer.poll(entry));
+            assertEquals(expected[i], entry.m_rssi);
+        }
+
+        buffer.offer(device1, -60, null, 0L, BleScanOverflowPolicy.COALESCE_BY_ADDRESS);
+        buffer.clear();
+        assertFalse(buffer.poll(entry));
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void consumedSlotsAreReleasedTest() throws Exception
+    {
+        final P_ScanRingBuffer buffer = new P_ScanRingBuffer(4);
+        final AtomicReferenceArray<?> devices = ReflectionHelpers.getField(buffer, "m_devices");
+        final AtomicReferenceArray<?> records = ReflectionHelpers.getField(buffer, "m_records");
+
+        for (int i = 0; i < 3; i++)
+        {
+            buffer.offer(newDevice(), i, new byte[] { (byte) i }, 0L, BleScanOverflowPolicy.COALESCE_BY_ADDRESS);
+        }
+
+        final P_ScanRingBuffer.Entry entry = new P_ScanRingBuffer.Entry();
+        assertTrue(buffer.poll(entry));
+        assertTrue(buffer.poll(entry));
+
+        // Results still waiting are kept.
+        assertNotNull(records.get(2));
+
+        // Draining the buffer lets go of everything that was processed.
+        assertTrue(buffer.poll(entry));
+        assertFalse(buffer.poll(entry));
+        for (int i = 0; i < buffer.capacity(); i++)
+        {
+            assertNull(devices.get(i));
+            assertNull(records.get(i));
+        }
+    }
+
+    @Test
+    public void oldestTimeTest() throws Exception
+    {
+        final P_ScanRingBuffer buffer = new P_ScanRingBuffer(4);
+        final BluetoothDevice device1 = newDevice();
+        final BluetoothDevice device2 = newDevice();
+        final BluetoothDevice device3 = newDevice();
+
+        assertEquals(0L, buffer.getOldestTime());
+
+        buffer.offer(device1, -10, null, 100L, BleScanOverflowPolicy.COALESCE_BY_ADDRESS);
+        buffer.offer(device2, -20, null, 200L, BleScanOverflowPolicy.COALESCE_BY_ADDRESS);
+        buffer.offer(device3, -30, null, 300L, BleScanOverflowPolicy.COALESCE_BY_ADDRESS);
+        buffer.offer(device1, -40, null, 400L, BleScanOverflowPolicy.COALESCE_BY_ADDRESS);
+        assertEquals(100L, buffer.getOldestTime());
+
+        // Replacing device2's result keeps the time it's been waiting since.
+        buffer.offer(device2, -50, null, 500L, BleScanOverflowPolicy.COALESCE_BY_ADDRESS);
+
+        final P_ScanRingBuffer.Entry entry = new P_ScanRingBuffer.Entry();
+        assertTrue(buffer.poll(entry));
+        assertEquals(200L, buffer.getOldestTime());
+        assertTrue(buffer.poll(entry));
+        assertEquals(-50, entry.m_rssi);
+        assertEquals(300L, buffer.getOldestTime());
+
+        buffer.clear();
+        assertEquals(0L, buffer.getOldestTime());
+    }
+
+    @Test(timeout = 20000)
+    public void concurrentProducerAndConsumerTest() throws Exception
+    {
+        final P_ScanRingBuffer buffer = new P_ScanRingBuffer(64);
+        final int count = 200000;
+        final AtomicBoolean done = new AtomicBoolean(false);
+
+        final Thread producer = new Thread(new Runnable()
+        {
+            @Override public void run()
+            {
+                for (int i = 0; i < count; i++)
+                {
+                    buffer.offer(null, i, new byte[] { (byte) i }, 0L, BleScanOverflowPolicy.DROP_OLDEST);
+                }
+                done.set(true);
+            }
+        });
+        producer.start();
+
+        final P_ScanRingBuffer.Entry entry = new P_ScanRingBuffer.Entry();
+        final Set<Integer> seen = new HashSet<>();
+        int last = -1;
+        while (!done.get() || buffer.size() > 0)
+        {
+            if (buffer.poll(entry))
+            {
+                // Results always come out in order, and the record always matches the rssi it was added with.
+                assertTrue(entry.m_rssi > last);
+                assertEquals((byte) entry.m_rssi, entry.m_record[0]);
+                last = entry.m_rssi;
+                seen.add(entry.m_rssi);
+            }
+        }
+        producer.join();
+
+        assertEquals(count, seen.size() + buffer.getDroppedCount());
+    }
+
+    private static BluetoothDevice newDevice() throws Exception
+    {
+        // BluetoothDevice's constructor needs the native bluetooth service, so give it a dummy one.
+        final Class<?> serviceClass = Class.forName("android.bluetooth.IBluetooth");
+        final Object service = Proxy.newProxyInstance(serviceClass.getClassLoader(), new Class<?>[] { serviceClass }, new InvocationHandler()
+        {
+            @Override public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                return null;
+            }
+        });
+        ReflectionHelpers.setStaticField(BluetoothDevice.class, "sService", service);
+
+        return BluetoothAdapter.getDefaultAdapter().getRemoteDevice(Util.randomMacAddress());
+    }
+
+}
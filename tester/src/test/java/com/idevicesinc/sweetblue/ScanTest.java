@@ -4,6 +4,7 @@ package com.idevicesinc.sweetblue;
 import com.idevicesinc.sweetblue.utils.Interval;
 import com.idevicesinc.sweetblue.utils.Pointer;
 import com.idevicesinc.sweetblue.utils.Util;
+import com.idevicesinc.sweetblue.utils.Utils_ScanRecord;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
@@ -498,6 +499,47 @@ public class ScanTest extends BaseBleUnitTest
         startTest();
     }
 
+    @Test(timeout = 10000)
+    public void compiledScanFilterTest() throws Exception
+    {
+        startTest(false);
+
+        m_config.runOnMainThread = false;
+        m_mgr.setConfig(m_config);
+
+        final CompiledScanFilter filter = new CompiledScanFilter.Builder().withNamePrefix("Accept").build();
+
+        m_mgr.setListener_Discovery(new BleManager.DiscoveryListener()
+        {
+            @Override public void onEvent(DiscoveryEvent e)
+            {
+                if (e.was(LifeCycle.DISCOVERED))
+                {
+                    assertTrue(e.device().getName_native().equals("Accept Me"));
+                    assertTrue(m_mgr.getDeviceCount() == 1);
+                    m_mgr.stopScan();
+                    succeed();
+                }
+            }
+        });
+
+        m_mgr.setListener_State(new ManagerStateListener()
+        {
+            @Override public void onEvent(BleManager.StateListener.StateEvent e)
+            {
+                if (e.didEnter(BleManagerState.SCANNING))
+                {
+                    NativeUtil.advertiseNewDevice(m_mgr, -45, Utils_ScanRecord.newScanRecord("Reject Me"));
+                    NativeUtil.advertiseNewDevice(m_mgr, -45, Utils_ScanRecord.newScanRecord("Reject Me Too"));
+                    NativeUtil.advertiseNewDevice(m_mgr, -45, Utils_ScanRecord.newScanRecord("Accept Me"));
+                }
+            }
+        });
+
+        m_mgr.startScan(filter);
+        reacquire();
+    }
+
 
 
 
@@ -0,0 +1,125 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.utils.GattDatabase;
+import com.idevicesinc.sweetblue.utils.Pointer;
+import com.idevicesinc.sweetblue.utils.Util;
+import com.idevicesinc.sweetblue.utils.Uuids;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.UUID;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+
+@Config(manifest = Config.NONE, sdk = 25)
+@RunWith(RobolectricTestRunner.class)
+public class ServiceLayoutCacheTest extends BaseBleUnitTest
+{
+
+    private final static UUID mTestService = Uuids.fromShort("ABCD");
+    private final static UUID mTestChar = Uuids.fromShort("1234");
+
+    private GattDatabase db = new GattDatabase().addService(mTestService)
+            .addCharacteristic(mTestChar).setValue(new byte[] { 0x1, 0x2 }).setProperties().readWrite().setPermissions().readWrite().completeChar()
+            .addCharacteristic(Uuids.DATABASE_HASH).setValue(new byte[] { 0x7, 0x7 }).setProperties().read().setPermissions().read().completeService();
+
+
+    @Test(timeout = 15000)
+    public void reconnectUsesSavedLayoutTest() throws Exception
+    {
+        m_config.runOnMainThread = false;
+        m_config.useGattRefresh = true;
+        m_config.cacheServiceLayout = true;
+        m_config.serviceLayoutVersionUuid = Uuids.DATABASE_HASH;
+
+        m_mgr.setConfig(m_config);
+
+        final BleDevice device = m_mgr.newDevice(Util.randomMacAddress(), "Test Device");
+        final Pointer<Boolean> reconnecting = new Pointer<>(false);
+
+        device.setListener_State(new BleDevice.StateListener()
+        {
+            @Override public void onEvent(StateEvent e)
+            {
+                if (e.didEnter(BleDeviceState.INITIALIZED))
+                {
+                    assertNotNull(m_mgr.m_diskOptionsMngr.loadServiceLayout(device.getMacAddress(), true));
+
+                    if (reconnecting.value)
+                    {
+                        // Layout matched, so discovery went ahead without a refresh.
+                        assertTrue(device.m_serviceLayoutMngr.isUsingSavedLayout());
+                        succeed();
+                    }
+                    else
+                    {
+                        assertFalse(device.m_serviceLayoutMngr.isUsingSavedLayout());
+                        reconnecting.value = true;
+                        device.disconnect();
+                    }
+                }
+                else if (e.didEnter(BleDeviceState.DISCONNECTED) && reconnecting.value)
+                {
+                    device.connect();
+                }
+            }
+        });
+
+        device.connect();
+
+        startTest();
+    }
+
+    @Test(timeout = 15000)
+    public void mismatchedLayoutRediscoversTest() throws Exception
+    {
+        m_config.runOnMainThread = false;
+        m_config.cacheServiceLayout = true;
+
+        m_mgr.setConfig(m_config);
+
+        final BleDevice device = m_mgr.newDevice(Util.randomMacAddress(), "Test Device");
+
+        m_mgr.m_diskOptionsMngr.saveServiceLayout(device.getMacAddress(), "stale", true);
+
+        device.setListener_State(new BleDevice.StateListener()
+        {
+            @Override public void onEvent(StateEvent e)
+            {
+                if (e.didEnter(BleDeviceState.INITIALIZED))
+                {
+                    // The stale layout got thrown out, services were discovered from scratch, and the real layout saved in its place.
+                    assertFalse(device.m_serviceLayoutMngr.isUsingSavedLayout());
+                    assertNotEquals("stale", m_mgr.m_diskOptionsMngr.loadServiceLayout(device.getMacAddress(), true));
+                    assertNotNull(m_mgr.m_diskOptionsMngr.loadServiceLayout(device.getMacAddress(), true));
+                    succeed();
+                }
+            }
+        });
+
+        device.connect();
+
+        startTest();
+    }
+
+    @Override public BleManagerConfig getConfig()
+    {
+        BleManagerConfig config = super.getConfig();
+        config.gattLayerFactory = new P_GattLayerFactory()
+        {
+            @Override public P_GattLayer newInstance(BleDevice device)
+            {
+                return new UnitTestGatt(device, db);
+            }
+        };
+        config.loggingEnabled = true;
+        return config;
+    }
+
+}
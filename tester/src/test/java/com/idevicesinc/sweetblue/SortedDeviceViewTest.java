@@ -0,0 +1,133 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.utils.Util;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+
+@Config(manifest = Config.NONE, sdk = 25)
+@RunWith(RobolectricTestRunner.class)
+public class SortedDeviceViewTest extends BaseBleUnitTest
+{
+
+    @Test
+    public void randomChangesTest() throws Exception
+    {
+        final Random random = new Random(42);
+        final IdentityHashMap<BleDevice, Integer> keys = new IdentityHashMap<>();
+        final Comparator<BleDevice> comparator = new Comparator<BleDevice>()
+        {
+            @Override public int compare(BleDevice lhs, BleDevice rhs)
+            {
+                return keys.get(lhs).compareTo(keys.get(rhs));
+            }
+        };
+
+        final List<BleDevice> all = new ArrayList<>();
+        for (int i = 0; i < 60; i++)
+        {
+            final BleDevice device = m_mgr.newDevice(Util.randomMacAddress());
+            keys.put(device, i);
+            all.add(device);
+        }
+
+        final P_SortedDeviceView view = new P_SortedDeviceView();
+        final List<BleDevice> members = new ArrayList<>();
+        for (int i = 0; i < 40; i++)
+        {
+            view.add(all.get(i));
+            members.add(all.get(i));
+        }
+        assertSorted(members, comparator, view.get(comparator));
+
+        // Nothing changed, so the same snapshot comes back.
+        assertSame(view.get(comparator), view.get(comparator));
+
+        for (int round = 0; round < 300; round++)
+        {
+            final int changes = 1 + random.nextInt(round % 10 == 0 ? 30 : 4);
+            for (int i = 0; i < changes; i++)
+            {
+                final BleDevice device = all.get(random.nextInt(all.size()));
+                switch (random.nextInt(3))
+                {
+                    case 0:
+                        // Keys stay unique, so there's only one right order.
+                        keys.put(device, random.nextInt(1000) * 100 + all.indexOf(device));
+                        view.onKeyChange(device);
+                        break;
+                    case 1:
+                        view.remove(device);
+                        members.remove(device);
+                        break;
+                    default:
+                        view.add(device);
+                        if (!members.contains(device))
+                        {
+                            members.add(device);
+                        }
+                        break;
+                }
+            }
+            assertSorted(members, comparator, view.get(comparator));
+        }
+
+        // A key change that doesn't move the device keeps the same snapshot.
+        final List<BleDevice> before = view.get(comparator);
+        view.onKeyChange(before.get(before.size() / 2));
+        assertSame(before, view.get(comparator));
+    }
+
+    @Test(timeout = 10000)
+    public void managerSortedListTest() throws Exception
+    {
+        final BleDevice charlie = m_mgr.newDevice(Util.randomMacAddress(), "Charlie");
+        final BleDevice alpha = m_mgr.newDevice(Util.randomMacAddress(), "Alpha");
+        final BleDevice bravo = m_mgr.newDevice(Util.randomMacAddress(), "Bravo");
+
+        // Devices get added to the manager on the update thread.
+        while (m_mgr.getDeviceCount() < 3)
+        {
+            Thread.sleep(10);
+        }
+
+        assertEquals(Arrays.asList(alpha, bravo, charlie), m_mgr.getDevices_List_sorted());
+        // Sorting doesn't touch the order devices were found in.
+        assertEquals(Arrays.asList(charlie, alpha, bravo), m_mgr.getDevices_List());
+        assertEquals(charlie, m_mgr.getDeviceAt(0));
+
+        // Same as what happens when a name write succeeds, or the device advertises a new name.
+        alpha.m_nativeWrapper.updateNativeName("Delta");
+        assertEquals(Arrays.asList(bravo, charlie, alpha), m_mgr.getDevices_List_sorted());
+        assertEquals(Arrays.asList(bravo, charlie, alpha), m_mgr.getDevices_List_sorted(BleDeviceState.DISCONNECTED));
+
+        final List<BleDevice> iterated = new ArrayList<>();
+        final BleDeviceIterator iterator = m_mgr.getDevices_sorted();
+        while (iterator.hasNext())
+        {
+            iterated.add(iterator.next());
+        }
+        assertEquals(Arrays.asList(bravo, charlie, alpha), iterated);
+    }
+
+    private static void assertSorted(List<BleDevice> members, Comparator<BleDevice> comparator, List<BleDevice> actual)
+    {
+        final List<BleDevice> expected = new ArrayList<>(members);
+        Collections.sort(expected, comparator);
+        assertEquals(expected, actual);
+    }
+
+}
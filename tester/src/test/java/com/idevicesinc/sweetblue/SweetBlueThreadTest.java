@@ -0,0 +1,161 @@
+package com.idevicesinc.sweetblue;
+
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class SweetBlueThreadTest extends BaseTest
+{
+
+    private P_SweetBlueThread m_thread;
+
+
+    @Before
+    public void setup()
+    {
+        m_thread = new P_SweetBlueThread();
+    }
+
+    @After
+    public void tearDown()
+    {
+        m_thread.quit();
+    }
+
+    @Test(timeout = 5000)
+    public void runsInDeadlineOrderTest() throws Exception
+    {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(4);
+
+        m_thread.postDelayed(new Recorder(order, 3, latch), 150);
+        m_thread.postDelayed(new Recorder(order, 2, latch), 50);
+        m_thread.post(new Recorder(order, 0, latch));
+        m_thread.post(new Recorder(order, 1, latch));
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals(4, order.size());
+        for (int i = 0; i < order.size(); i++)
+        {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void removeCallbacksTest() throws Exception
+    {
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        final Runnable removed = new Runnable()
+        {
+            @Override public void run()
+            {
+                ran.set(true);
+            }
+        };
+
+        m_thread.postDelayed(removed, 50);
+        m_thread.postDelayed(removed, 60);
+        m_thread.removeCallbacks(removed);
+
+        m_thread.postDelayed(new Runnable()
+        {
+            @Override public void run()
+            {
+                latch.countDown();
+            }
+        }, 150);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+    }
+
+    @Test(timeout = 5000)
+    public void postFromRunnableTest() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        m_thread.post(new Runnable()
+        {
+            @Override public void run()
+            {
+                assertTrue(Thread.currentThread() == m_thread.getThread());
+
+                m_thread.post(new Runnable()
+                {
+                    @Override public void run()
+                    {
+                        latch.countDown();
+                    }
+                });
+            }
+        });
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 5000)
+    public void earlierPostWakesThreadTest() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Runnable never = new Runnable()
+        {
+            @Override public void run()
+            {
+            }
+        };
+
+        // The thread will be blocked waiting on this one when the next post comes in.
+        m_thread.postDelayed(never, 60000);
+        Thread.sleep(50);
+
+        final long start = System.nanoTime();
+        m_thread.post(new Runnable()
+        {
+            @Override public void run()
+            {
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+
+        m_thread.removeCallbacks(never);
+    }
+
+
+    private static final class Recorder implements Runnable
+    {
+        private final List<Integer> m_order;
+        private final int m_id;
+        private final CountDownLatch m_latch;
+
+        Recorder(List<Integer> order, int id, CountDownLatch latch)
+        {
+            m_order = order;
+            m_id = id;
+            m_latch = latch;
+        }
+
+        @Override public void run()
+        {
+            m_order.add(m_id);
+            m_latch.countDown();
+        }
+    }
+
+}
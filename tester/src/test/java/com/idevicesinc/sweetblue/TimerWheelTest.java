@@ -0,0 +1,161 @@
+package com.idevicesinc.sweetblue;
+
+
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class TimerWheelTest extends BaseTest
+{
+
+    @Test
+    public void expiresInOrderTest() throws Exception
+    {
+        final P_TimerWheel<String> wheel = new P_TimerWheel<>(10, 0);
+        final List<String> expired = new ArrayList<>();
+
+        wheel.schedule("c", 5000);
+        wheel.schedule("a", 25);
+        wheel.schedule("b", 700);
+
+        assertEquals(25, wheel.getNextDeadline());
+
+        wheel.advance(20, expired);
+        assertTrue(expired.isEmpty());
+
+        wheel.advance(30, expired);
+        assertEquals(1, expired.size());
+        assertEquals("a", expired.get(0));
+        assertEquals(700, wheel.getNextDeadline());
+
+        expired.clear();
+        wheel.advance(4999, expired);
+        assertEquals(1, expired.size());
+        assertEquals("b", expired.get(0));
+        assertEquals(5000, wheel.getNextDeadline());
+
+        expired.clear();
+        wheel.advance(5000, expired);
+        assertEquals(1, expired.size());
+        assertEquals("c", expired.get(0));
+        assertTrue(wheel.isEmpty());
+        assertEquals(Long.MAX_VALUE, wheel.getNextDeadline());
+    }
+
+    @Test
+    public void rescheduleAndCancelTest() throws Exception
+    {
+        final P_TimerWheel<String> wheel = new P_TimerWheel<>(10, 0);
+        final List<String> expired = new ArrayList<>();
+
+        wheel.schedule("a", 100);
+        wheel.schedule("b", 200);
+        wheel.schedule("a", 1000);
+        wheel.cancel("b");
+
+        assertFalse(wheel.isScheduled("b"));
+        assertEquals(1, wheel.size());
+        assertEquals(1000, wheel.getNextDeadline());
+
+        wheel.advance(500, expired);
+        assertTrue(expired.isEmpty());
+
+        wheel.advance(1000, expired);
+        assertEquals(1, expired.size());
+        assertEquals("a", expired.get(0));
+    }
+
+    @Test
+    public void overdueAndFarFutureTest() throws Exception
+    {
+        final P_TimerWheel<String> wheel = new P_TimerWheel<>(10, 1000);
+        final List<String> expired = new ArrayList<>();
+
+        // Longer than the whole wheel can hold.
+        final long farFuture = 1000L + 10L * (1L << 26);
+
+        wheel.schedule("past", 10);
+        wheel.schedule("far", farFuture);
+
+        wheel.advance(1000, expired);
+        assertEquals(1, expired.size());
+        assertEquals("past", expired.get(0));
+
+        expired.clear();
+        wheel.advance(farFuture - 1000, expired);
+        assertTrue(expired.isEmpty());
+        assertEquals(farFuture, wheel.getNextDeadline());
+
+        wheel.advance(farFuture, expired);
+        assertEquals(1, expired.size());
+        assertEquals("far", expired.get(0));
+    }
+
+    @Test
+    public void randomizedMatchesNaiveTest() throws Exception
+    {
+        final Random random = new Random(42);
+        final P_TimerWheel<Integer> wheel = new P_TimerWheel<>(20, 0);
+        final Map<Integer, Long> naive = new HashMap<>();
+        final List<Integer> expired = new ArrayList<>();
+
+        // The wheel compares keys by identity, so make sure each key is only ever boxed once.
+        final Integer[] keys = new Integer[200];
+        for (int i = 0; i < keys.length; i++)
+        {
+            keys[i] = new Integer(i);
+        }
+
+        long now = 0;
+
+        for (int i = 0; i < 5000; i++)
+        {
+            final Integer key = keys[random.nextInt(keys.length)];
+
+            if (random.nextInt(5) == 0)
+            {
+                wheel.cancel(key);
+                naive.remove(key);
+            }
+            else
+            {
+                final long due = now + (long) (random.nextDouble() * random.nextInt(500000));
+                wheel.schedule(key, due);
+                naive.put(key, due);
+            }
+
+            long soonest = Long.MAX_VALUE;
+            for (Long due : naive.values())
+            {
+                soonest = Math.min(soonest, due);
+            }
+            assertEquals(soonest, wheel.getNextDeadline());
+
+            now += random.nextInt(3000);
+
+            expired.clear();
+            wheel.advance(now, expired);
+
+            for (Integer expiredKey : expired)
+            {
+                assertTrue(naive.get(expiredKey) <= now);
+                naive.remove(expiredKey);
+            }
+            for (Long due : naive.values())
+            {
+                // Keys are allowed to expire up to one tick late.
+                assertTrue(due > now - 20);
+            }
+            assertEquals(naive.size(), wheel.size());
+        }
+    }
+
+}
@@ -1,12 +1,16 @@
 package com.idevicesinc.sweetblue;
 
 
+import com.idevicesinc.sweetblue.utils.Interval;
 import com.idevicesinc.sweetblue.utils.Util;
+import com.idevicesinc.sweetblue.utils.Utils_ScanRecord;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 
 @Config(manifest = Config.NONE, sdk = 25)
@@ -53,5 +57,69 @@ public class UndiscoverTest extends BaseBleUnitTest
 
     }
 
+    @Test(timeout = 15000)
+    public void undiscoverStaleDeviceTest() throws Exception
+    {
+        m_config.undiscoveryKeepAlive = Interval.secs(1.0);
+        m_config.minScanTimeNeededForUndiscovery = Interval.secs(0.5);
+
+        m_mgr.setConfig(m_config);
+
+        final String silentMac = Util.randomMacAddress();
+        final String chattyMac = Util.randomMacAddress();
+        final long[] silentLastSeen = new long[1];
+
+        m_mgr.setListener_Discovery(new BleManager.DiscoveryListener()
+        {
+            @Override
+            public void onEvent(DiscoveryEvent e)
+            {
+                if (e.was(LifeCycle.UNDISCOVERED))
+                {
+                    // The device that keeps advertising should never go stale.
+                    assertEquals(silentMac, e.device().getMacAddress());
+                    final long silentFor = System.currentTimeMillis() - silentLastSeen[0];
+                    assertTrue("Undiscovered after " + silentFor + "ms", silentFor >= 1000 && silentFor < 3000);
+                    assertTrue(m_mgr.getDevice(chattyMac).is(BleDeviceState.DISCOVERED));
+                    m_mgr.stopScan();
+                    succeed();
+                }
+            }
+        });
+
+        m_mgr.setListener_State(new ManagerStateListener()
+        {
+            @Override
+            public void onEvent(BleManager.StateListener.StateEvent e)
+            {
+                if (e.didEnter(BleManagerState.SCANNING))
+                {
+                    silentLastSeen[0] = System.currentTimeMillis();
+                    m_mgr.getScanManager().addScanResult(NativeUtil.newNativeDevice(silentMac), -50, Utils_ScanRecord.newScanRecord("Silent"));
+                    advertise(chattyMac);
+                }
+            }
+        });
+
+        m_mgr.startScan();
+
+        startTest();
+    }
+
+    private void advertise(final String macAddress)
+    {
+        if (!m_mgr.is(BleManagerState.SCANNING))  return;
+
+        m_mgr.getScanManager().addScanResult(NativeUtil.newNativeDevice(macAddress), -50, Utils_ScanRecord.newScanRecord("Chatty"));
+
+        m_mgr.getPostManager().postToUpdateThreadDelayed(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                advertise(macAddress);
+            }
+        }, 100);
+    }
 
 }